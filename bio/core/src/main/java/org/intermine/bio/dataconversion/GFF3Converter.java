@@ -11,6 +11,7 @@ package org.intermine.bio.dataconversion;
  */
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -63,6 +64,7 @@ public class GFF3Converter extends DataConverter
     private GFF3RecordHandler handler;
     private GFF3SeqHandler sequenceHandler;
     private boolean dontCreateLocations;
+    private int parserThreads = 1;
     private final Map<String, Item> dataSets = new HashMap<String, Item>();
     private final Map<String, Item> dataSources = new HashMap<String, Item>();
 
@@ -241,26 +243,34 @@ public class GFF3Converter extends DataConverter
         boolean duplicates = false;
         Set<String> processedIds = new HashSet<String>();
         Set<String> duplicatedIds = new HashSet<String>();
-        for (Iterator<?> i = GFF3Parser.parse(bReader); i.hasNext();) {
-            record = (GFF3Record) i.next();
+        Iterator<?> i = GFF3Parser.parse(bReader, parserThreads);
+        try {
+            while (i.hasNext()) {
+                record = (GFF3Record) i.next();
 
-            // we only care about dupes if we are NOT creating locations
-            if (processedIds.contains(record.getId()) && dontCreateLocations) {
-                duplicates = true;
-                duplicatedIds.add(record.getId());
-            } else {
-                if (record.getId() != null) {
-                    processedIds.add(record.getId());
+                // we only care about dupes if we are NOT creating locations
+                if (processedIds.contains(record.getId()) && dontCreateLocations) {
+                    duplicates = true;
+                    duplicatedIds.add(record.getId());
+                } else {
+                    if (record.getId() != null) {
+                        processedIds.add(record.getId());
+                    }
+                }
+                if (!duplicates) {
+                    process(record);
+                }
+                opCount++;
+                if (opCount % 1000 == 0) {
+                    now = System.currentTimeMillis();
+                    LOG.info("processed " + opCount + " lines --took " + (now - start) + " ms");
+                    start = System.currentTimeMillis();
                 }
             }
-            if (!duplicates) {
-                process(record);
-            }
-            opCount++;
-            if (opCount % 1000 == 0) {
-                now = System.currentTimeMillis();
-                LOG.info("processed " + opCount + " lines --took " + (now - start) + " ms");
-                start = System.currentTimeMillis();
+        } finally {
+            // stops the parser's worker threads if we didn't read to the end
+            if (i instanceof Closeable) {
+                ((Closeable) i).close();
             }
         }
         if (duplicates) {
@@ -772,6 +782,15 @@ public class GFF3Converter extends DataConverter
         this.dontCreateLocations = dontCreateLocations;
     }
 
+    /**
+     * Set the number of threads used to parse GFF lines, the default is 1.  Records are still
+     * processed in file order on the calling thread.
+     * @param parserThreads the number of parser threads
+     */
+    public void setParserThreads(int parserThreads) {
+        this.parserThreads = parserThreads;
+    }
+
     /**
      * Create and add a synonym Item from the given information.
      * @param subject the subject of the new Synonym
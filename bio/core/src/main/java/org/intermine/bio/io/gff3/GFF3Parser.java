@@ -10,10 +10,21 @@ package org.intermine.bio.io.gff3;
  *
  */
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
 
 /**
@@ -24,6 +35,11 @@ import java.io.IOException;
 
 public final class GFF3Parser
 {
+    /**
+     * The number of GFF lines handed to a worker thread at a time by the parallel parser.
+     */
+    public static final int BATCH_SIZE = 2000;
+
     private GFF3Parser() {
         // nothing to do
     }
@@ -94,4 +110,173 @@ public final class GFF3Parser
             }
         };
     }
+
+    /**
+     * Read GFF3 lines from a BufferedReader and return an Iterator over the GFF3Records, parsing
+     * the lines on a pool of worker threads.  Lines are read on the calling thread in batches of
+     * BATCH_SIZE and each batch is parsed by a worker, a few batches ahead of the consumer.  The
+     * records are returned in the same order as they appear in the file, so the result can be
+     * used in place of parse(BufferedReader).  If threads is less than two the lines are parsed
+     * on the calling thread.
+     * <br>
+     * The worker threads stop by themselves once the iterator has been read to the end.  A caller
+     * that may stop reading early must close the iterator, which is always Closeable, to stop the
+     * workers and drop the batches they have queued.
+     * @param reader the Reader to reader from
+     * @param threads the number of worker threads to parse with
+     * @return an Iterator over the GFF3Record objects from the reader
+     * @throws IOException if there is an error during reading or parsing the first line
+     */
+    public static Iterator<?> parse(final BufferedReader reader, int threads) throws IOException {
+        if (threads < 2) {
+            return parse(reader);
+        }
+        String line = null;
+        StringBuilder headerBuilder = new StringBuilder();
+
+        while ((line = reader.readLine()) != null) {
+            String trimmedLine = line.trim();
+
+            if (trimmedLine.length() == 0) {
+                continue;
+            }
+
+            if (trimmedLine.startsWith("#")) {
+                headerBuilder.append(trimmedLine);
+                continue;
+            }
+
+            // throws IOException if the first GFF line isn't valid
+            new GFF3Record(headerBuilder.toString(), trimmedLine);
+
+            break;
+        }
+
+        return new ParallelRecordIterator(reader, line, headerBuilder.toString(), threads);
+    }
+
+    /**
+     * Iterator that keeps a bounded window of batches being parsed by an ExecutorService and
+     * hands back their records in file order.
+     */
+    private static final class ParallelRecordIterator implements Iterator<Object>, Closeable
+    {
+        private final BufferedReader reader;
+        private final String header;
+        private final int window;
+        private final ExecutorService executor;
+        private final Deque<Future<List<GFF3Record>>> pending =
+            new ArrayDeque<Future<List<GFF3Record>>>();
+        private String nextLine;
+        private Iterator<GFF3Record> current = null;
+
+        ParallelRecordIterator(BufferedReader reader, String firstLine, String header,
+                int threads) {
+            this.reader = reader;
+            this.nextLine = firstLine;
+            this.header = header;
+            this.window = threads * 2;
+            this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "GFF3Parser worker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            fillWindow();
+        }
+
+        private boolean atEnd() {
+            return nextLine == null || nextLine.startsWith(">");
+        }
+
+        /**
+         * Read batches of lines and submit them for parsing until the window is full or the end
+         * of the GFF section is reached.
+         */
+        private void fillWindow() {
+            try {
+                while (pending.size() < window && !atEnd()) {
+                    final List<String> batch = new ArrayList<String>(BATCH_SIZE);
+                    while (batch.size() < BATCH_SIZE && !atEnd()) {
+                        batch.add(nextLine);
+                        while ((nextLine = reader.readLine()) != null) {
+                            String trimmedLine = nextLine.trim();
+                            if (trimmedLine.length() == 0 || trimmedLine.startsWith("#")) {
+                                continue;
+                            }
+                            break;
+                        }
+                    }
+                    pending.add(executor.submit(new Callable<List<GFF3Record>>() {
+                        @Override
+                        public List<GFF3Record> call() throws IOException {
+                            List<GFF3Record> records = new ArrayList<GFF3Record>(batch.size());
+                            for (String gffLine : batch) {
+                                records.add(new GFF3Record(header, gffLine));
+                            }
+                            return records;
+                        }
+                    }));
+                }
+            } catch (IOException e) {
+                executor.shutdownNow();
+                throw new RuntimeException("IOException while getting next GFF record", e);
+            }
+            if (atEnd()) {
+                executor.shutdown();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (current == null || !current.hasNext()) {
+                if (pending.isEmpty()) {
+                    return false;
+                }
+                try {
+                    current = pending.removeFirst().get().iterator();
+                } catch (InterruptedException e) {
+                    executor.shutdownNow();
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("interrupted while parsing GFF records", e);
+                } catch (ExecutionException e) {
+                    executor.shutdownNow();
+                    throw new RuntimeException("IOException while getting next GFF record",
+                            e.getCause());
+                }
+                fillWindow();
+            }
+            return true;
+        }
+
+        @Override
+        public Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("remove not supported");
+        }
+
+        /**
+         * Stop the worker threads and forget any batches that haven't been read yet.  The reader
+         * is left open, as it belongs to the caller.
+         */
+        @Override
+        public void close() {
+            executor.shutdownNow();
+            for (Future<List<GFF3Record>> future : pending) {
+                future.cancel(true);
+            }
+            pending.clear();
+            current = null;
+            nextLine = null;
+        }
+    }
 }
@@ -66,19 +66,20 @@ public class GFF3Record
     }
 
     private void parseLine(String line) throws IOException {
-        StringTokenizer st = new StringTokenizer(line, "\t", false);
+        String[] fields = splitFields(line);
 
-        if (st.countTokens() < 8) {
-            throw new IOException("GFF line too short (" + st.countTokens() + " fields): " + line);
+        if (fields == null) {
+            throw new IOException("GFF line too short (" + countFields(line) + " fields): "
+                    + line);
         }
 
-        sequenceID = XmlUtil.fixEntityNames(URLDecoder.decode(st.nextToken(), "UTF-8")).trim();
-        source = st.nextToken().trim();
+        sequenceID = XmlUtil.fixEntityNames(decode(fields[0])).trim();
+        source = fields[1].trim();
         if ("".equals(source) || ".".equals(source)) {
             source = null;
         }
-        type = st.nextToken().trim();
-        String startString = st.nextToken().trim();
+        type = fields[2].trim();
+        String startString = fields[3].trim();
         try {
             if (".".equals(startString)) {
                 start = -1;
@@ -90,7 +91,7 @@ public class GFF3Record
                     + " from line: " + line);
         }
 
-        String endString = st.nextToken().trim();
+        String endString = fields[4].trim();
         try {
             if (".".equals(endString)) {
                 end = -1;
@@ -102,7 +103,7 @@ public class GFF3Record
                     + " from line: " + line);
         }
 
-        String scoreString = st.nextToken().trim();
+        String scoreString = fields[5].trim();
 
         if ("".equals(scoreString) || ".".equals(scoreString)) {
             score = null;
@@ -115,22 +116,69 @@ public class GFF3Record
             }
         }
 
-        strand = st.nextToken().trim();
+        strand = fields[6].trim();
 
         if ("".equals(strand) || ".".equals(strand)) {
             strand = null;
         }
 
-        phase = st.nextToken().trim();
+        phase = fields[7].trim();
         if ("".equals(phase) || ".".equals(phase)) {
             phase = null;
         }
 
-        if (st.hasMoreTokens()) {
-            parseAttribute(st.nextToken(), line);
+        if (fields[8] != null) {
+            parseAttribute(fields[8], line);
         }
     }
 
+    /**
+     * Split a GFF line into its nine tab separated columns by scanning the characters of the
+     * line once.  As with StringTokenizer, runs of tabs count as a single separator and any
+     * columns after the ninth are ignored.
+     * @param line the line to split
+     * @return the columns, with null for a missing attributes column, or null if there are
+     * fewer than eight columns
+     */
+    private static String[] splitFields(String line) {
+        String[] fields = new String[9];
+        int fieldCount = 0;
+        int length = line.length();
+        int pos = 0;
+        while (pos < length && fieldCount < fields.length) {
+            while (pos < length && line.charAt(pos) == '\t') {
+                pos++;
+            }
+            if (pos == length) {
+                break;
+            }
+            int tokenStart = pos;
+            while (pos < length && line.charAt(pos) != '\t') {
+                pos++;
+            }
+            fields[fieldCount++] = line.substring(tokenStart, pos);
+        }
+        if (fieldCount < 8) {
+            return null;
+        }
+        return fields;
+    }
+
+    private static int countFields(String line) {
+        return new StringTokenizer(line, "\t", false).countTokens();
+    }
+
+    /**
+     * URL decode a value, skipping the decoder entirely for the common case of a value that
+     * contains no escapes.
+     */
+    private static String decode(String value) throws UnsupportedEncodingException {
+        if (value.indexOf('%') == -1 && value.indexOf('+') == -1) {
+            return value;
+        }
+        return URLDecoder.decode(value, "UTF-8");
+    }
+
     /**
      * Create a new GFF3Record
      * @param sequenceID the sequence name
@@ -163,9 +211,11 @@ public class GFF3Record
 
     private void parseAttribute(String argAttributeString, String line) throws IOException {
         String attributeString = argAttributeString;
-        attributeString = StringUtils.replaceEach(attributeString,
-                new String[] {"&amp;", "&quot;", "&lt;", "&gt;"},
-                new String[] {"&", "\"", "<", ">"});
+        if (attributeString.indexOf('&') != -1) {
+            attributeString = StringUtils.replaceEach(attributeString,
+                    new String[] {"&amp;", "&quot;", "&lt;", "&gt;"},
+                    new String[] {"&", "\"", "<", ">"});
+        }
         StringTokenizer sTok = new StringTokenizer(attributeString, ";", false);
 
         while (sTok.hasMoreTokens()) {
@@ -217,7 +267,7 @@ public class GFF3Record
             for (int i = 0; i < valList.size(); i++) {
                 String value = valList.get(i);
                 if (!"Target".equals(attName) && !"Gap".equals(attName)) {
-                    value = URLDecoder.decode(value, "UTF-8");
+                    value = decode(value);
                 }
                 value = XmlUtil.fixEntityNames(value);
                 valList.set(i, value);
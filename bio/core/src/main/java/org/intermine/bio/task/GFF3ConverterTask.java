@@ -54,6 +54,8 @@ public class GFF3ConverterTask extends Task
 
     private boolean dontCreateLocations = false;
 
+    private int parserThreads = 1;
+
      /**
      * Set the data fileset
      * @param fs the fileset
@@ -162,6 +164,14 @@ public class GFF3ConverterTask extends Task
         this.dontCreateLocations = dontCreateLocations;
     }
 
+    /**
+     * Set the number of threads used to parse the GFF files, the default is 1.
+     * @param parserThreads the number of parser threads
+     */
+    public void setParserThreads(int parserThreads) {
+        this.parserThreads = parserThreads;
+    }
+
     /**
      * @see Task#execute()
      */
@@ -238,6 +248,7 @@ public class GFF3ConverterTask extends Task
             if (dontCreateLocations) {
                 gff3converter.setDontCreateLocations(dontCreateLocations);
             }
+            gff3converter.setParserThreads(parserThreads);
             DirectoryScanner ds = fileSet.getDirectoryScanner(getProject());
             String[] files = ds.getIncludedFiles();
             if (files.length == 0) {
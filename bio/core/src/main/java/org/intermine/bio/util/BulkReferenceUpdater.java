@@ -0,0 +1,260 @@
+package org.intermine.bio.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.CollectionDescriptor;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.Model;
+import org.intermine.metadata.ReferenceDescriptor;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.ObjectStoreWriter;
+import org.intermine.objectstore.intermine.DatabaseSchema;
+import org.intermine.objectstore.intermine.NotXmlParser;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.intermine.ObjectStoreWriterInterMineImpl;
+import org.intermine.objectstore.query.Query;
+import org.intermine.sql.DatabaseUtil;
+
+/**
+ * Fills in references and collections with a few set-based SQL statements rather than by
+ * loading, changing and re-storing every object through the ObjectStoreWriter.  The pairs of
+ * ids to connect are given as a Query selecting two id fields, which the ObjectStore turns into
+ * SQL and which is copied into a temporary table.  The reference columns, the NotXML of the
+ * changed objects and the indirection tables are then updated from that table with
+ * UPDATE ... FROM and INSERT ... SELECT, and the ObjectStore is told which tables have changed
+ * so that its object cache and any affected precomputed tables are dropped.
+ */
+public class BulkReferenceUpdater
+{
+    /**
+     * The intermine property that switches the postprocesses that support it to set-based
+     * updates.
+     */
+    public static final String SET_BASED_PROPERTY = "postprocess.setBased";
+
+    private static final Logger LOG = Logger.getLogger(BulkReferenceUpdater.class);
+    private static final String PAIRS_TABLE = "bulk_reference_pairs";
+
+    private final ObjectStoreWriterInterMineImpl osw;
+    private final DatabaseSchema schema;
+    private final Model model;
+
+    /**
+     * Create a new BulkReferenceUpdater.
+     * @param osw the ObjectStoreWriter for the database to update
+     * @throws IllegalArgumentException if the writer doesn't write to a database
+     */
+    public BulkReferenceUpdater(ObjectStoreWriter osw) {
+        if (!isSupported(osw)) {
+            throw new IllegalArgumentException("Set-based updates need an "
+                    + "ObjectStoreWriterInterMineImpl, not " + osw.getClass().getName());
+        }
+        this.osw = (ObjectStoreWriterInterMineImpl) osw;
+        this.schema = this.osw.getSchema();
+        this.model = this.osw.getModel();
+    }
+
+    /**
+     * Return true if set-based updates can be made through the given ObjectStoreWriter.
+     * @param osw an ObjectStoreWriter
+     * @return true if the writer is an ObjectStoreWriterInterMineImpl
+     */
+    public static boolean isSupported(ObjectStoreWriter osw) {
+        return osw instanceof ObjectStoreWriterInterMineImpl;
+    }
+
+    /**
+     * Set a reference in every object given by a query.  If the query returns more than one
+     * value for an object one of them is chosen arbitrarily.
+     * @param cld the class that has the reference
+     * @param fieldName the name of the reference
+     * @param pairs a query selecting the id of each object to change and the id of the object
+     * to refer to, in that order
+     * @return the number of objects changed
+     * @throws ObjectStoreException if the field isn't a reference or the update fails
+     */
+    public int setReference(ClassDescriptor cld, String fieldName, Query pairs)
+        throws ObjectStoreException {
+        ReferenceDescriptor ref = cld.getReferenceDescriptorByName(fieldName, true);
+        if (ref == null) {
+            throw new ObjectStoreException("Field " + cld.getName() + "." + fieldName
+                    + " is not a reference");
+        }
+        return execute(cld, ref, null, pairs, false);
+    }
+
+    /**
+     * Add objects to a collection in every object given by a query.  For a many-to-many
+     * collection rows are added to the indirection table, any that are already there are left
+     * alone.  For a one-to-many collection the reverse reference of each added object is set.
+     * @param cld the class that has the collection
+     * @param fieldName the name of the collection
+     * @param pairs a query selecting the id of each object whose collection should change and
+     * the id of the object to add to it, in that order
+     * @return the number of rows added to the indirection table or objects changed
+     * @throws ObjectStoreException if the field isn't a collection or the update fails
+     */
+    public int addToCollection(ClassDescriptor cld, String fieldName, Query pairs)
+        throws ObjectStoreException {
+        CollectionDescriptor col = cld.getCollectionDescriptorByName(fieldName, true);
+        if (col == null) {
+            throw new ObjectStoreException("Field " + cld.getName() + "." + fieldName
+                    + " is not a collection");
+        }
+        if (col.relationType() == FieldDescriptor.M_N_RELATION) {
+            return execute(cld, null, col, pairs, false);
+        }
+        // the pairs are owner, element but it is the element's reference that is set
+        return execute(col.getReferencedClassDescriptor(), col.getReverseReferenceDescriptor(),
+                null, pairs, true);
+    }
+
+    private int execute(ClassDescriptor cld, ReferenceDescriptor ref, CollectionDescriptor col,
+            Query pairs, boolean reverse) throws ObjectStoreException {
+        if (osw.isInTransaction()) {
+            throw new ObjectStoreException("Set-based updates can't be made inside a transaction");
+        }
+        // generate the SQL first, the ObjectStore needs the connection to do it
+        String pairsSql = osw.generateSql(pairs);
+        Set<Object> tablesAltered = new HashSet<Object>();
+        long start = System.currentTimeMillis();
+        int count;
+        Connection c = null;
+        try {
+            c = osw.getConnection();
+            c.setAutoCommit(false);
+            try {
+                createPairsTable(c, pairsSql, reverse, ref != null);
+                if (ref != null) {
+                    count = updateReference(c, cld, ref, tablesAltered);
+                } else {
+                    count = insertIndirectionRows(c, col, tablesAltered);
+                }
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Failed to update " + cld.getUnqualifiedName() + "."
+                    + (ref != null ? ref.getName() : col.getName()), e);
+        } finally {
+            osw.releaseConnection(c);
+        }
+        ((ObjectStoreInterMineImpl) osw.getObjectStore()).databaseAltered(tablesAltered);
+        LOG.info("Updated " + count + " rows for " + cld.getUnqualifiedName() + "."
+                + (ref != null ? ref.getName() : col.getName()) + " in tables " + tablesAltered
+                + " - took " + (System.currentTimeMillis() - start) + " ms.");
+        return count;
+    }
+
+    private void createPairsTable(Connection c, String pairsSql, boolean reverse,
+            boolean onePerId) throws SQLException {
+        String id = reverse ? "pairs.b" : "pairs.a";
+        String value = reverse ? "pairs.a" : "pairs.b";
+        String distinct = onePerId ? "DISTINCT ON (" + id + ") " : "DISTINCT ";
+        execute(c, "CREATE TEMPORARY TABLE " + PAIRS_TABLE + " ON COMMIT DROP AS SELECT "
+                + distinct + id + " AS id, " + value + " AS value FROM (" + pairsSql
+                + ") AS pairs(a, b)");
+        execute(c, "ANALYSE " + PAIRS_TABLE);
+    }
+
+    private int updateReference(Connection c, ClassDescriptor cld, ReferenceDescriptor ref,
+            Set<Object> tablesAltered) throws SQLException {
+        String column = DatabaseUtil.getColumnName(ref);
+        String delim = NotXmlParser.DELIM;
+        String escapedDelim = "\\$_\\^";
+        String notXmlPattern = escapedDelim + "r" + ref.getName() + escapedDelim + "-?[0-9]+";
+        String notXmlField = delim + "r" + ref.getName() + delim;
+        ClassDescriptor cldTableMaster = schema.getTableMaster(cld);
+        int count = 0;
+        for (ClassDescriptor tableMaster : getTableMasters(cld)) {
+            String tableName = DatabaseUtil.getTableName(tableMaster);
+            List<String> assignments = new ArrayList<String>();
+            if (tableMaster.getFieldDescriptorByName(ref.getName()) != null) {
+                assignments.add(column + " = p.value");
+            }
+            if ("InterMineObject".equals(tableName) || !(schema.isMissingNotXml()
+                    || schema.isFlatMode(tableMaster.getType()))) {
+                // replace the reference in the serialised object, or add it if it wasn't set
+                assignments.add("OBJECT = regexp_replace(OBJECT, '" + notXmlPattern + "', '')"
+                        + " || '" + notXmlField + "' || p.value");
+            }
+            if (assignments.isEmpty()) {
+                continue;
+            }
+            int rows = execute(c, "UPDATE " + tableName + " SET "
+                    + StringUtils.join(assignments, ", ") + " FROM " + PAIRS_TABLE
+                    + " AS p WHERE " + tableName + ".id = p.id");
+            if (tableMaster == cldTableMaster) {
+                count = rows;
+            }
+            tablesAltered.add(tableName);
+        }
+        return count;
+    }
+
+    private int insertIndirectionRows(Connection c, CollectionDescriptor col,
+            Set<Object> tablesAltered) throws SQLException {
+        String tableName = DatabaseUtil.getIndirectionTableName(col);
+        String inward = DatabaseUtil.getInwardIndirectionColumnName(col, schema.getVersion());
+        String outward = DatabaseUtil.getOutwardIndirectionColumnName(col, schema.getVersion());
+        int rows = execute(c, "INSERT INTO " + tableName + " (" + inward + ", " + outward + ")"
+                + " SELECT p.id, p.value FROM " + PAIRS_TABLE + " AS p WHERE NOT EXISTS"
+                + " (SELECT 1 FROM " + tableName + " AS i WHERE i." + inward + " = p.id"
+                + " AND i." + outward + " = p.value)");
+        tablesAltered.add(tableName);
+        return rows;
+    }
+
+    /**
+     * Return the tables that can hold a row for an object of the given class, that is the
+     * tables of its superclasses and of its subclasses.
+     */
+    private Set<ClassDescriptor> getTableMasters(ClassDescriptor cld) {
+        Set<ClassDescriptor> tableMasters = new LinkedHashSet<ClassDescriptor>();
+        for (ClassDescriptor other : model.getClassDescriptors()) {
+            if (other.getType().isAssignableFrom(cld.getType())
+                    || cld.getType().isAssignableFrom(other.getType())) {
+                ClassDescriptor tableMaster = schema.getTableMaster(other);
+                String tableName = DatabaseUtil.getTableName(tableMaster);
+                if (!schema.getMissingTables().contains(tableName.toLowerCase())) {
+                    tableMasters.add(tableMaster);
+                }
+            }
+        }
+        return tableMasters;
+    }
+
+    private static int execute(Connection c, String sql) throws SQLException {
+        LOG.debug(sql);
+        Statement s = c.createStatement();
+        try {
+            return s.executeUpdate(sql);
+        } finally {
+            s.close();
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package org.intermine.bio.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.intermine.model.bio.Location;
+
+/**
+ * Interval operations on genome coordinates used by the post-processes that derive new features
+ * from existing Locations, eg. introns, intergenic regions and gene flanking regions.  All
+ * coordinates are 1-based and inclusive, as in Location.  Each operation is a linear sweep over
+ * intervals sorted by start.  The *Sorted methods take and return lazy Iterators, so intervals
+ * can be streamed from an ordered query and the results written as they are produced, holding
+ * only a few intervals in memory.  The Collection methods sort their input and collect the
+ * result of the same sweep.
+ */
+public final class GenomeArithmetic
+{
+    private GenomeArithmetic() {
+        // don't
+    }
+
+    /**
+     * Create an Interval covering a Location.
+     * @param location the Location
+     * @return the new Interval
+     */
+    public static Interval fromLocation(Location location) {
+        return new Interval(location.getStart().intValue(), location.getEnd().intValue());
+    }
+
+    /**
+     * Sort the given intervals and merge any that overlap or are adjacent.
+     * @param intervals the intervals, in any order
+     * @return a new list of non-overlapping, non-adjacent intervals sorted by start
+     */
+    public static List<Interval> merge(Collection<Interval> intervals) {
+        return toList(mergeSorted(sorted(intervals)));
+    }
+
+    /**
+     * Merge any overlapping or adjacent intervals in a stream that is already sorted by start,
+     * eg. Locations read from a query ordered by start.  Only the interval being built is held in
+     * memory.
+     * @param intervals the intervals, sorted by start
+     * @return a lazy Iterator over non-overlapping, non-adjacent intervals sorted by start
+     * @throws IllegalArgumentException from the Iterator if the input is not sorted by start
+     */
+    public static Iterator<Interval> mergeSorted(final Iterator<Interval> intervals) {
+        return new SweepIterator() {
+            private Interval current = null;
+            private int lastStart = Integer.MIN_VALUE;
+
+            @Override
+            protected Interval computeNext() {
+                while (intervals.hasNext()) {
+                    Interval interval = intervals.next();
+                    if (interval.getStart() < lastStart) {
+                        throw new IllegalArgumentException("intervals are not sorted by start: "
+                                + interval + " after start " + lastStart);
+                    }
+                    lastStart = interval.getStart();
+                    if (current == null) {
+                        current = interval;
+                    } else if (interval.getStart() <= current.getEnd() + 1) {
+                        if (interval.getEnd() > current.getEnd()) {
+                            current = new Interval(current.getStart(), interval.getEnd());
+                        }
+                    } else {
+                        Interval merged = current;
+                        current = interval;
+                        return merged;
+                    }
+                }
+                Interval last = current;
+                current = null;
+                return last;
+            }
+        };
+    }
+
+    /**
+     * Return the gaps between the given intervals, eg. the introns between the exons of a
+     * transcript.  Regions before the first and after the last interval are not included.
+     * @param intervals the intervals, in any order
+     * @return the gaps sorted by start
+     */
+    public static List<Interval> gaps(Collection<Interval> intervals) {
+        return toList(gapsSorted(sorted(intervals)));
+    }
+
+    /**
+     * Return the gaps between the intervals in a stream that is already sorted by start.
+     * Regions before the first and after the last interval are not included.
+     * @param intervals the intervals, sorted by start
+     * @return a lazy Iterator over the gaps sorted by start
+     */
+    public static Iterator<Interval> gapsSorted(Iterator<Interval> intervals) {
+        final Iterator<Interval> merged = mergeSorted(intervals);
+        return new SweepIterator() {
+            private Interval previous = null;
+
+            @Override
+            protected Interval computeNext() {
+                if (previous == null) {
+                    if (!merged.hasNext()) {
+                        return null;
+                    }
+                    previous = merged.next();
+                }
+                if (!merged.hasNext()) {
+                    return null;
+                }
+                Interval next = merged.next();
+                Interval gap = new Interval(previous.getEnd() + 1, next.getStart() - 1);
+                previous = next;
+                return gap;
+            }
+        };
+    }
+
+    /**
+     * Return the gaps between the given intervals and the ends of a sequence, eg. the
+     * intergenic regions of a chromosome.
+     * @param intervals the intervals, in any order
+     * @param sequenceLength the length of the sequence the intervals are located on
+     * @return the gaps sorted by start
+     */
+    public static List<Interval> gaps(Collection<Interval> intervals, int sequenceLength) {
+        return toList(gapsSorted(sorted(intervals), sequenceLength));
+    }
+
+    /**
+     * Return the gaps between the intervals in a stream that is already sorted by start and the
+     * ends of a sequence.
+     * @param intervals the intervals, sorted by start
+     * @param sequenceLength the length of the sequence the intervals are located on
+     * @return a lazy Iterator over the gaps sorted by start
+     */
+    public static Iterator<Interval> gapsSorted(Iterator<Interval> intervals,
+            final int sequenceLength) {
+        final Iterator<Interval> merged = mergeSorted(intervals);
+        return new SweepIterator() {
+            private int nextStart = 1;
+
+            @Override
+            protected Interval computeNext() {
+                while (merged.hasNext()) {
+                    Interval interval = merged.next();
+                    int gapStart = nextStart;
+                    nextStart = Math.max(nextStart, interval.getEnd() + 1);
+                    if (interval.getStart() > gapStart) {
+                        return new Interval(gapStart, interval.getStart() - 1);
+                    }
+                }
+                if (nextStart <= sequenceLength) {
+                    Interval last = new Interval(nextStart, sequenceLength);
+                    nextStart = sequenceLength + 1;
+                    return last;
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Return the regions covered by both sets of intervals.
+     * @param a the first set of intervals, in any order
+     * @param b the second set of intervals, in any order
+     * @return the intersection sorted by start
+     */
+    public static List<Interval> intersect(Collection<Interval> a, Collection<Interval> b) {
+        return toList(intersectSorted(sorted(a), sorted(b)));
+    }
+
+    /**
+     * Return the regions covered by both of two streams of intervals, each already sorted by
+     * start.
+     * @param a the first stream of intervals, sorted by start
+     * @param b the second stream of intervals, sorted by start
+     * @return a lazy Iterator over the intersection sorted by start
+     */
+    public static Iterator<Interval> intersectSorted(Iterator<Interval> a, Iterator<Interval> b) {
+        final Iterator<Interval> left = mergeSorted(a);
+        final Iterator<Interval> right = mergeSorted(b);
+        return new SweepIterator() {
+            private Interval x = null;
+            private Interval y = null;
+
+            @Override
+            protected Interval computeNext() {
+                while (true) {
+                    if (x == null) {
+                        x = left.hasNext() ? left.next() : null;
+                    }
+                    if (y == null) {
+                        y = right.hasNext() ? right.next() : null;
+                    }
+                    if (x == null || y == null) {
+                        return null;
+                    }
+                    int start = Math.max(x.getStart(), y.getStart());
+                    int end = Math.min(x.getEnd(), y.getEnd());
+                    if (x.getEnd() < y.getEnd()) {
+                        x = null;
+                    } else {
+                        y = null;
+                    }
+                    if (start <= end) {
+                        return new Interval(start, end);
+                    }
+                }
+            }
+        };
+    }
+
+    private static Iterator<Interval> sorted(Collection<Interval> intervals) {
+        List<Interval> sorted = new ArrayList<Interval>(intervals);
+        Collections.sort(sorted);
+        return sorted.iterator();
+    }
+
+    private static List<Interval> toList(Iterator<Interval> intervals) {
+        List<Interval> retval = new ArrayList<Interval>();
+        while (intervals.hasNext()) {
+            retval.add(intervals.next());
+        }
+        return retval;
+    }
+
+    /**
+     * Return the flanking region of a feature, clipped to the ends of the sequence.  Upstream
+     * is towards the start of the sequence for features on the "1" strand and towards the end
+     * for features on the "-1" strand.  Features with any other strand value are treated as
+     * having both flanking regions towards the start of the sequence.
+     * @param feature the feature
+     * @param strand the strand of the feature
+     * @param upstream true for the upstream region, false for the downstream region
+     * @param distance the size of the flanking region in bases
+     * @param includeFeature if true the region also covers the feature itself
+     * @param sequenceLength the length of the sequence the feature is located on
+     * @return the flanking region
+     */
+    public static Interval flank(Interval feature, String strand, boolean upstream, int distance,
+            boolean includeFeature, int sequenceLength) {
+        boolean towardsStart;
+        if (upstream) {
+            towardsStart = !"-1".equals(strand);
+        } else {
+            towardsStart = !"1".equals(strand);
+        }
+        int start, end;
+        if (towardsStart) {
+            start = feature.getStart() - distance;
+            end = includeFeature ? feature.getEnd() : feature.getStart() - 1;
+        } else {
+            start = includeFeature ? feature.getStart() : feature.getEnd() + 1;
+            end = feature.getEnd() + distance;
+        }
+        return new Interval(Math.max(start, 1), Math.min(end, sequenceLength));
+    }
+
+    /**
+     * An Iterator that works out each interval when it is asked for, from computeNext.
+     */
+    private abstract static class SweepIterator implements Iterator<Interval>
+    {
+        private Interval next = null;
+        private boolean done = false;
+
+        /**
+         * @return the next interval, or null if there are no more
+         */
+        protected abstract Interval computeNext();
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !done) {
+                next = computeNext();
+                done = (next == null);
+            }
+            return next != null;
+        }
+
+        @Override
+        public Interval next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Interval retval = next;
+            next = null;
+            return retval;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("remove not supported");
+        }
+    }
+
+    /**
+     * A region of a sequence, 1-based with inclusive start and end.
+     */
+    public static final class Interval implements Comparable<Interval>
+    {
+        private final int start;
+        private final int end;
+
+        /**
+         * Create a new Interval.
+         * @param start the start coordinate
+         * @param end the end coordinate, which must not be less than the start
+         */
+        public Interval(int start, int end) {
+            if (end < start) {
+                throw new IllegalArgumentException("end (" + end + ") is before start ("
+                        + start + ")");
+            }
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * @return the start coordinate
+         */
+        public int getStart() {
+            return start;
+        }
+
+        /**
+         * @return the end coordinate
+         */
+        public int getEnd() {
+            return end;
+        }
+
+        /**
+         * @return the number of bases in this interval
+         */
+        public int getLength() {
+            return end - start + 1;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int compareTo(Interval other) {
+            if (start != other.start) {
+                return start < other.start ? -1 : 1;
+            }
+            if (end != other.end) {
+                return end < other.end ? -1 : 1;
+            }
+            return 0;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof Interval) {
+                Interval other = (Interval) o;
+                return start == other.start && end == other.end;
+            }
+            return false;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return 31 * start + end;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return start + ".." + end;
+        }
+    }
+}
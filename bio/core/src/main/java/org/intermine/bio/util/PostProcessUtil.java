@@ -33,6 +33,7 @@ import org.intermine.objectstore.query.ContainsConstraint;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryCollectionReference;
+import org.intermine.objectstore.query.QueryField;
 import org.intermine.objectstore.query.QueryObjectReference;
 import org.intermine.objectstore.query.QueryReference;
 import org.intermine.objectstore.query.Results;
@@ -193,6 +194,66 @@ public final class PostProcessUtil
         if (!orderBySource) {
             q.addToOrderBy(qcDest);
         }
+        q.setConstraint(connectingConstraint(os.getModel(), qcSource, sourceClassFieldName,
+                    qcConnecting, connectingClassFieldName, qcDest));
+
+        ((ObjectStoreInterMineImpl) os).precompute(q, Constants
+                                                   .PRECOMPUTE_CATEGORY);
+        Results res = os.execute(q, 5000, true, true, true);
+
+        @SuppressWarnings("unchecked") Iterator<ResultsRow<InterMineObject>> retval = (Iterator) res
+            .iterator();
+        return retval;
+    }
+
+    /**
+     * Return a query for the ids of pairs of objects connected by a third class, as in
+     * findConnectingClasses().  The query is for use with BulkReferenceUpdater so selects only
+     * the ids and isn't ordered.
+     * @param model the Model
+     * @param sourceClass the first class in the query
+     * @param sourceClassFieldName the field in the sourceClass which should contain the
+     * connectingClass
+     * @param connectingClass the class referred to by sourceClass.sourceFieldName
+     * @param connectingClassFieldName the field in connectingClass which should contain
+     * destinationClass
+     * @param destinationClass the class referred to by
+     * connectingClass.connectingClassFieldName
+     * @param destinationFirst if true select the destinationClass id first, otherwise select the
+     * sourceClass id first
+     * @return the query
+     * @throws IllegalAccessException if one of the field names doesn't exist in the corresponding
+     * class.
+     */
+    public static Query findConnectingIds(Model model,
+            Class<? extends FastPathObject> sourceClass, String sourceClassFieldName,
+            Class<? extends FastPathObject> connectingClass, String connectingClassFieldName,
+            Class<? extends FastPathObject> destinationClass, boolean destinationFirst)
+        throws IllegalAccessException {
+        Query q = new Query();
+        q.setDistinct(false);
+        QueryClass qcSource = new QueryClass(sourceClass);
+        q.addFrom(qcSource);
+        QueryClass qcConnecting = new QueryClass(connectingClass);
+        q.addFrom(qcConnecting);
+        QueryClass qcDest = new QueryClass(destinationClass);
+        q.addFrom(qcDest);
+        if (destinationFirst) {
+            q.addToSelect(new QueryField(qcDest, "id"));
+            q.addToSelect(new QueryField(qcSource, "id"));
+        } else {
+            q.addToSelect(new QueryField(qcSource, "id"));
+            q.addToSelect(new QueryField(qcDest, "id"));
+        }
+        q.setConstraint(connectingConstraint(model, qcSource, sourceClassFieldName, qcConnecting,
+                    connectingClassFieldName, qcDest));
+        return q;
+    }
+
+    private static ConstraintSet connectingConstraint(Model model, QueryClass qcSource,
+            String sourceClassFieldName, QueryClass qcConnecting, String connectingClassFieldName,
+            QueryClass qcDest) throws IllegalAccessException {
+        Class<?> connectingClass = qcConnecting.getType();
         ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
         QueryCollectionReference ref1 =
             new QueryCollectionReference(qcSource, sourceClassFieldName);
@@ -200,7 +261,7 @@ public final class PostProcessUtil
         cs.addConstraint(cc1);
         QueryReference ref2;
 
-        Map<String, FieldDescriptor> descriptorMap = os.getModel()
+        Map<String, FieldDescriptor> descriptorMap = model
             .getFieldDescriptorsForClass(connectingClass);
         FieldDescriptor fd = descriptorMap.get(connectingClassFieldName);
 
@@ -216,15 +277,7 @@ public final class PostProcessUtil
         }
         ContainsConstraint cc2 = new ContainsConstraint(ref2, ConstraintOp.CONTAINS, qcDest);
         cs.addConstraint(cc2);
-        q.setConstraint(cs);
-
-        ((ObjectStoreInterMineImpl) os).precompute(q, Constants
-                                                   .PRECOMPUTE_CATEGORY);
-        Results res = os.execute(q, 5000, true, true, true);
-
-        @SuppressWarnings("unchecked") Iterator<ResultsRow<InterMineObject>> retval = (Iterator) res
-            .iterator();
-        return retval;
+        return cs;
     }
 
 }
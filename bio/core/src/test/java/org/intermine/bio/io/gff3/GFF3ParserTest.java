@@ -18,6 +18,7 @@ import java.util.List;
 import org.intermine.util.XmlUtil;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.InputStreamReader;
 import java.io.StringReader;
 
@@ -158,4 +159,42 @@ public class GFF3ParserTest extends TestCase
         assertEquals(expected, record.getParents());
     }
 
+    public void testParallelParse() throws Exception {
+        StringBuffer sb = new StringBuffer("##gff-version 3\n");
+        for (int i = 0; i < 3 * GFF3Parser.BATCH_SIZE + 7; i++) {
+            sb.append("4\t.\texon\t" + i + "\t" + (i + 10) + "\t.\t-\t.\tID=e" + i
+                    + ";Parent=CG32013-RA,CG32013-RB\n");
+            if (i % 100 == 0) {
+                sb.append("# comment\n\n");
+            }
+        }
+        sb.append("##FASTA\n>4\nACGT\n");
+        String gff = sb.toString();
+
+        List expected = new ArrayList();
+        Iterator iter = GFF3Parser.parse(new BufferedReader(new StringReader(gff)));
+        while (iter.hasNext()) {
+            expected.add(iter.next().toString());
+        }
+        List actual = new ArrayList();
+        iter = GFF3Parser.parse(new BufferedReader(new StringReader(gff)), 4);
+        while (iter.hasNext()) {
+            actual.add(iter.next().toString());
+        }
+        assertEquals(3 * GFF3Parser.BATCH_SIZE + 7, actual.size());
+        assertEquals(expected, actual);
+    }
+
+    public void testParallelParseClosedEarly() throws Exception {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < 10 * GFF3Parser.BATCH_SIZE; i++) {
+            sb.append("4\t.\texon\t" + i + "\t" + (i + 10) + "\t.\t-\t.\tID=e" + i + "\n");
+        }
+        Iterator iter = GFF3Parser.parse(new BufferedReader(new StringReader(sb.toString())), 4);
+        assertEquals("e0", ((GFF3Record) iter.next()).getId());
+        assertTrue(iter instanceof Closeable);
+        ((Closeable) iter).close();
+        assertFalse(iter.hasNext());
+    }
+
 }
@@ -0,0 +1,146 @@
+package org.intermine.bio.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.bio.util.GenomeArithmetic.Interval;
+
+public class GenomeArithmeticTest extends TestCase
+{
+    public void testMerge() {
+        List<Interval> merged = GenomeArithmetic.merge(Arrays.asList(new Interval(501, 600),
+                new Interval(101, 200), new Interval(150, 300), new Interval(301, 400)));
+        assertEquals(Arrays.asList(new Interval(101, 400), new Interval(501, 600)), merged);
+        assertTrue(GenomeArithmetic.merge(Collections.<Interval>emptyList()).isEmpty());
+    }
+
+    public void testGaps() {
+        // exons out of order, with one contained in another
+        List<Interval> gaps = GenomeArithmetic.gaps(Arrays.asList(new Interval(701, 800),
+                new Interval(101, 200), new Interval(301, 500), new Interval(350, 400)));
+        assertEquals(Arrays.asList(new Interval(201, 300), new Interval(501, 700)), gaps);
+
+        // overlapping and adjacent intervals leave no gap
+        gaps = GenomeArithmetic.gaps(Arrays.asList(new Interval(1, 100), new Interval(101, 200)));
+        assertTrue(gaps.isEmpty());
+    }
+
+    public void testGapsWithSequenceEnds() {
+        List<Interval> gaps = GenomeArithmetic.gaps(Arrays.asList(new Interval(101, 200),
+                new Interval(301, 400)), 1000);
+        assertEquals(Arrays.asList(new Interval(1, 100), new Interval(201, 300),
+                new Interval(401, 1000)), gaps);
+
+        gaps = GenomeArithmetic.gaps(Arrays.asList(new Interval(1, 1000)), 1000);
+        assertTrue(gaps.isEmpty());
+
+        gaps = GenomeArithmetic.gaps(Collections.<Interval>emptyList(), 1000);
+        assertEquals(Arrays.asList(new Interval(1, 1000)), gaps);
+    }
+
+    public void testIntersect() {
+        List<Interval> a = Arrays.asList(new Interval(1, 100), new Interval(201, 300));
+        List<Interval> b = Arrays.asList(new Interval(51, 250), new Interval(291, 400));
+        assertEquals(Arrays.asList(new Interval(51, 100), new Interval(201, 250),
+                new Interval(291, 300)), GenomeArithmetic.intersect(a, b));
+        assertTrue(GenomeArithmetic.intersect(a, Arrays.asList(new Interval(101, 200)))
+                .isEmpty());
+    }
+
+    public void testFlank() {
+        Interval gene = new Interval(1001, 2000);
+
+        assertEquals(new Interval(501, 1000),
+                GenomeArithmetic.flank(gene, "1", true, 500, false, 10000));
+        assertEquals(new Interval(501, 2000),
+                GenomeArithmetic.flank(gene, "1", true, 500, true, 10000));
+        assertEquals(new Interval(2001, 2500),
+                GenomeArithmetic.flank(gene, "1", false, 500, false, 10000));
+        assertEquals(new Interval(2001, 2500),
+                GenomeArithmetic.flank(gene, "-1", true, 500, false, 10000));
+        assertEquals(new Interval(1001, 2500),
+                GenomeArithmetic.flank(gene, "-1", true, 500, true, 10000));
+        assertEquals(new Interval(501, 1000),
+                GenomeArithmetic.flank(gene, "-1", false, 500, false, 10000));
+
+        // clipped to the ends of the sequence
+        assertEquals(new Interval(1, 1000),
+                GenomeArithmetic.flank(gene, "1", true, 5000, false, 10000));
+        assertEquals(new Interval(2001, 2200),
+                GenomeArithmetic.flank(gene, "1", false, 5000, false, 2200));
+    }
+
+    public void testSortedStreams() {
+        // an endless stream of exons 100 bases long with 50 base gaps is only read as needed
+        Iterator<Interval> exons = new Iterator<Interval>() {
+            private int start = 1;
+            public boolean hasNext() {
+                return true;
+            }
+            public Interval next() {
+                Interval exon = new Interval(start, start + 99);
+                start += 150;
+                return exon;
+            }
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        Iterator<Interval> gaps = GenomeArithmetic.gapsSorted(exons);
+        assertEquals(new Interval(101, 150), gaps.next());
+        assertEquals(new Interval(251, 300), gaps.next());
+
+        Iterator<Interval> merged = GenomeArithmetic.mergeSorted(Arrays.asList(new Interval(1, 10),
+                new Interval(5, 20), new Interval(30, 40)).iterator());
+        assertEquals(new Interval(1, 20), merged.next());
+        assertEquals(new Interval(30, 40), merged.next());
+        assertFalse(merged.hasNext());
+
+        Iterator<Interval> intersection = GenomeArithmetic.intersectSorted(
+                Arrays.asList(new Interval(1, 100), new Interval(201, 300)).iterator(),
+                Arrays.asList(new Interval(51, 250)).iterator());
+        assertEquals(new Interval(51, 100), intersection.next());
+        assertEquals(new Interval(201, 250), intersection.next());
+        assertFalse(intersection.hasNext());
+
+        gaps = GenomeArithmetic.gapsSorted(Arrays.asList(new Interval(101, 200)).iterator(), 300);
+        assertEquals(new Interval(1, 100), gaps.next());
+        assertEquals(new Interval(201, 300), gaps.next());
+        assertFalse(gaps.hasNext());
+    }
+
+    public void testUnsortedStream() {
+        Iterator<Interval> merged = GenomeArithmetic.mergeSorted(Arrays.asList(
+                new Interval(100, 200), new Interval(1, 10)).iterator());
+        try {
+            merged.next();
+            fail("expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testInvalidInterval() {
+        try {
+            new Interval(10, 9);
+            fail("expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(1, new Interval(10, 10).getLength());
+    }
+}
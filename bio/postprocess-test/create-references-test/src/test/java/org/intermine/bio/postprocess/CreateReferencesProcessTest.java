@@ -86,8 +86,23 @@ public class CreateReferencesProcessTest extends TestCase {
 
     public void testInsertReferenceField() throws Exception {
         CreateReferencesProcess cr = new CreateReferencesProcess(osw);
+        cr.setSetBased(false);
         cr.insertReferenceField("Gene", "transcripts", "Transcript", "exons", "Exon", "gene");
+        checkGeneExons();
+    }
+
+    public void testInsertReferenceFieldSetBased() throws Exception {
+        CreateReferencesProcess cr = new CreateReferencesProcess(osw);
+        cr.setSetBased(true);
+        cr.insertReferenceField("Gene", "transcripts", "Transcript", "exons", "Exon", "gene");
+        checkGeneExons();
+
+        // the reference must also be in the stored object, not just the column
+        Exon resExon = (Exon) osw.getObjectStore().getObjectById(storedExon3.getId());
+        assertEquals(storedGene1.getId(), resExon.getGene().getId());
+    }
 
+    private void checkGeneExons() throws Exception {
         Query q = new Query();
         QueryClass qcGene = new QueryClass(Gene.class);
         q.addFrom(qcGene);
@@ -114,9 +129,21 @@ public class CreateReferencesProcessTest extends TestCase {
 
     public void testInsertCollectionField() throws Exception {
         CreateReferencesProcess cr = new CreateReferencesProcess(osw);
+        cr.setSetBased(false);
+        cr.insertCollectionField("Gene", "locations", "Location", "locatedOn",
+                "Chromosome", "locatedFeatures", false);
+        checkChromosomeLocatedFeatures();
+    }
 
+    public void testInsertCollectionFieldSetBased() throws Exception {
+        CreateReferencesProcess cr = new CreateReferencesProcess(osw);
+        cr.setSetBased(true);
         cr.insertCollectionField("Gene", "locations", "Location", "locatedOn",
                 "Chromosome", "locatedFeatures", false);
+        checkChromosomeLocatedFeatures();
+    }
+
+    private void checkChromosomeLocatedFeatures() throws Exception {
         Query q = new Query();
         QueryClass qcChromosome = new QueryClass(Chromosome.class);
         q.addFrom(qcChromosome);
@@ -0,0 +1,167 @@
+package org.intermine.bio.postprocess;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.intermine.model.InterMineObject;
+import org.intermine.model.bio.Exon;
+import org.intermine.model.bio.Gene;
+import org.intermine.model.bio.MRNA;
+import org.intermine.model.bio.SOTerm;
+import org.intermine.model.bio.SequenceFeature;
+import org.intermine.objectstore.ObjectStoreWriter;
+import org.intermine.objectstore.ObjectStoreWriterFactory;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.SingletonResults;
+import org.intermine.util.DynamicUtil;
+
+/**
+ * Tests for the PopulateChildFeaturesProcess class.
+ */
+public class PopulateChildFeaturesProcessTest extends TestCase {
+
+    private ObjectStoreWriter osw;
+
+    public void setUp() throws Exception {
+        osw = ObjectStoreWriterFactory.getObjectStoreWriter("osw.bio-test");
+        createData();
+    }
+
+    public void tearDown() throws Exception {
+        if (osw.isInTransaction()) {
+            osw.abortTransaction();
+        }
+        deleteData();
+        osw.close();
+    }
+
+    public void testPostProcess() throws Exception {
+        PopulateChildFeaturesProcess process = new PopulateChildFeaturesProcess(osw);
+        process.setSetBased(false);
+        process.postProcess();
+        checkChildFeatures(getChildFeatures());
+    }
+
+    public void testPostProcessSetBased() throws Exception {
+        PopulateChildFeaturesProcess process = new PopulateChildFeaturesProcess(osw);
+        process.setSetBased(false);
+        process.postProcess();
+        Map<String, Set<String>> expected = getChildFeatures();
+
+        // the same data again, for the set-based SQL
+        deleteData();
+        createData();
+        process = new PopulateChildFeaturesProcess(osw);
+        process.setSetBased(true);
+        process.postProcess();
+        Map<String, Set<String>> actual = getChildFeatures();
+
+        checkChildFeatures(actual);
+        assertEquals(expected, actual);
+    }
+
+    private void checkChildFeatures(Map<String, Set<String>> childFeatures) {
+        assertEquals(Collections.singleton("transcript1"), childFeatures.get("gene1"));
+        assertEquals(new HashSet<String>(Arrays.asList("exon1", "exon2")),
+                childFeatures.get("transcript1"));
+        assertEquals(Collections.emptySet(), childFeatures.get("gene2"));
+        assertEquals(Collections.emptySet(), childFeatures.get("exon1"));
+    }
+
+    // the primary identifiers of the child features of every feature, by its primary identifier
+    private Map<String, Set<String>> getChildFeatures() throws Exception {
+        osw.getObjectStore().flushObjectById();
+        Query q = new Query();
+        QueryClass qc = new QueryClass(SequenceFeature.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        SingletonResults res = osw.getObjectStore().executeSingleton(q);
+        Map<String, Set<String>> childFeatures = new HashMap<String, Set<String>>();
+        for (Object o : res) {
+            SequenceFeature feature = (SequenceFeature) o;
+            Set<String> children = new HashSet<String>();
+            for (SequenceFeature child : feature.getChildFeatures()) {
+                children.add(child.getPrimaryIdentifier());
+            }
+            childFeatures.put(feature.getPrimaryIdentifier(), children);
+        }
+        return childFeatures;
+    }
+
+    private void createData() throws Exception {
+        SOTerm geneTerm = soTerm("gene");
+        SOTerm transcriptTerm = soTerm("transcript", geneTerm);
+        SOTerm mrnaTerm = soTerm("mrna", geneTerm, transcriptTerm);
+        SOTerm exonTerm = soTerm("exon", transcriptTerm, mrnaTerm);
+
+        Gene gene1 = (Gene) DynamicUtil.createObject(Collections.singleton(Gene.class));
+        gene1.setPrimaryIdentifier("gene1");
+        gene1.setSequenceOntologyTerm(geneTerm);
+
+        Gene gene2 = (Gene) DynamicUtil.createObject(Collections.singleton(Gene.class));
+        gene2.setPrimaryIdentifier("gene2");
+        gene2.setSequenceOntologyTerm(geneTerm);
+
+        MRNA transcript = (MRNA) DynamicUtil.createObject(Collections.singleton(MRNA.class));
+        transcript.setPrimaryIdentifier("transcript1");
+        transcript.setSequenceOntologyTerm(mrnaTerm);
+        transcript.setGene(gene1);
+
+        Exon exon1 = (Exon) DynamicUtil.createObject(Collections.singleton(Exon.class));
+        exon1.setPrimaryIdentifier("exon1");
+        exon1.setSequenceOntologyTerm(exonTerm);
+        Exon exon2 = (Exon) DynamicUtil.createObject(Collections.singleton(Exon.class));
+        exon2.setPrimaryIdentifier("exon2");
+        exon2.setSequenceOntologyTerm(exonTerm);
+        transcript.addExons(exon1);
+        transcript.addExons(exon2);
+
+        osw.beginTransaction();
+        for (InterMineObject o : Arrays.asList(geneTerm, transcriptTerm, mrnaTerm, exonTerm,
+                gene1, gene2, transcript, exon1, exon2)) {
+            osw.store(o);
+        }
+        osw.commitTransaction();
+    }
+
+    private static SOTerm soTerm(String name, SOTerm... parents) {
+        SOTerm term = (SOTerm) DynamicUtil.createObject(Collections.singleton(SOTerm.class));
+        term.setName(name);
+        for (SOTerm parent : parents) {
+            term.addParents(parent);
+        }
+        return term;
+    }
+
+    private void deleteData() throws Exception {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(InterMineObject.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        SingletonResults res = osw.getObjectStore().executeSingleton(q);
+        Iterator<?> resIter = res.iterator();
+        osw.beginTransaction();
+        while (resIter.hasNext()) {
+            osw.delete((InterMineObject) resIter.next());
+        }
+        osw.commitTransaction();
+    }
+}
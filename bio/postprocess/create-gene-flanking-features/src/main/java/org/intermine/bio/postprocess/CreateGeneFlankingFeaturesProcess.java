@@ -18,6 +18,8 @@ import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.intermine.bio.util.BioQueries;
+import org.intermine.bio.util.GenomeArithmetic;
+import org.intermine.bio.util.GenomeArithmetic.Interval;
 import org.intermine.bio.util.PostProcessUtil;
 import org.intermine.metadata.ClassDescriptor;
 import org.intermine.metadata.MetaDataException;
@@ -30,6 +32,8 @@ import org.intermine.model.bio.Location;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.ObjectStoreWriter;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.util.DynamicUtil;
@@ -152,21 +156,19 @@ public class CreateGeneFlankingFeaturesProcess extends PostProcessor
             includeGenes = new boolean[] {false};
         }
 
+        // TODO what do we do if strand not set?
+        String strand = geneLoc.getStrand();
+        Interval geneInterval = GenomeArithmetic.fromLocation(geneLoc);
+        int chrLength = chr.getLength().intValue();
+
+        // gene touches a chromosome end so there isn't a flanking region
+        if ((geneInterval.getStart() <= 1) || (geneInterval.getEnd() >= chrLength)) {
+            return;
+        }
+
         for (double distance : distances) {
             for (String direction : directions) {
                 for (boolean includeGene : includeGenes) {
-                    String strand = geneLoc.getStrand();
-
-                    // TODO what do we do if strand not set?
-                    int geneStart = geneLoc.getStart().intValue();
-                    int geneEnd = geneLoc.getEnd().intValue();
-                    int chrLength = chr.getLength().intValue();
-
-                    // gene touches a chromosome end so there isn't a flanking region
-                    if ((geneStart <= 1) || (geneEnd >= chrLength)) {
-                        continue;
-                    }
-
                     GeneFlankingRegion region = (GeneFlankingRegion) DynamicUtil
                             .createObject(Collections.singleton(GeneFlankingRegion.class));
                     Location location = (Location) DynamicUtil
@@ -188,35 +190,19 @@ public class CreateGeneFlankingFeaturesProcess extends PostProcessor
                     region.setPrimaryIdentifier(gene.getPrimaryIdentifier() + " " + distance + "kb "
                             + direction);
 
-                    // this should be some clever algorithm
-                    int start, end;
-
-                    if ("upstream".equals(direction) && "1".equals(strand)) {
-                        start = geneStart - (int) Math.round(distance * 1000);
-                        end = includeGene ? geneEnd : geneStart - 1;
-                    } else if ("upstream".equals(direction) && "-1".equals(strand)) {
-                        start = includeGene ? geneStart : geneEnd + 1;
-                        end = geneEnd + (int) Math.round(distance * 1000);
-                    } else if ("downstream".equals(direction) && "1".equals(strand)) {
-                        start = includeGene ? geneStart : geneEnd + 1;
-                        end = geneEnd + (int) Math.round(distance * 1000);
-                    } else {  // "downstream".equals(direction) && strand.equals("-1")
-                        start = geneStart - (int) Math.round(distance * 1000);
-                        end = includeGene ? geneEnd : geneStart - 1;
-                    }
-
-                    // if the region hangs off the start or end of a chromosome set it to finish
-                    // at the end of the chromosome
-                    location.setStart(new Integer(Math.max(start, 1)));
-                    int e = Math.min(end, chr.getLength().intValue());
-                    location.setEnd(new Integer(e));
+                    // if the region hangs off the start or end of a chromosome it is clipped to
+                    // finish at the end of the chromosome
+                    Interval flank = GenomeArithmetic.flank(geneInterval, strand,
+                            "upstream".equals(direction), (int) Math.round(distance * 1000),
+                            includeGene, chrLength);
+                    location.setStart(new Integer(flank.getStart()));
+                    location.setEnd(new Integer(flank.getEnd()));
 
                     location.setStrand(strand);
                     location.setLocatedOn(chr);
                     location.setFeature(region);
 
-                    region.setLength(new Integer((location.getEnd().intValue()
-                            - location.getStart().intValue()) + 1));
+                    region.setLength(new Integer(flank.getLength()));
 
                     osw.store(location);
                     osw.store(region);
@@ -226,6 +212,17 @@ public class CreateGeneFlankingFeaturesProcess extends PostProcessor
     }
 
     private Chromosome getChromosome(Integer chrId) throws ObjectStoreException {
+        if (chrs.isEmpty()) {
+            // fetch all the chromosomes in one query rather than one lookup per chromosome
+            Query q = new Query();
+            QueryClass qcChr = new QueryClass(Chromosome.class);
+            q.addFrom(qcChr);
+            q.addToSelect(qcChr);
+            for (Object chrObj : os.executeSingleton(q, 1000, false, false, false)) {
+                Chromosome chr = (Chromosome) chrObj;
+                chrs.put(chr.getId(), chr);
+            }
+        }
         Chromosome chr = chrs.get(chrId);
         if (chr == null) {
             chr = (Chromosome) os.getObjectById(chrId, Chromosome.class);
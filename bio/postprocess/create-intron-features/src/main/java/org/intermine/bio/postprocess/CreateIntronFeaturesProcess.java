@@ -10,18 +10,21 @@ package org.intermine.bio.postprocess;
  *
  */
 
-import java.util.BitSet;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.intermine.bio.util.Constants;
+import org.intermine.bio.util.GenomeArithmetic;
+import org.intermine.bio.util.GenomeArithmetic.Interval;
 import org.intermine.bio.util.PostProcessUtil;
 import org.intermine.metadata.MetaDataException;
 import org.intermine.metadata.Model;
@@ -183,10 +186,20 @@ public class CreateIntronFeaturesProcess extends PostProcessor
         QueryObjectReference qorGene = new QueryObjectReference(qcTran, "gene");
         cs.addConstraint(new ContainsConstraint(qorGene, ConstraintOp.CONTAINS, qcGene));
 
+        // Include the id of the Chromosome of the Transcript
+        QueryClass qcChr = new QueryClass(Chromosome.class);
+        q.addFrom(qcChr);
+        QueryField qfChrId = new QueryField(qcChr, "id");
+        q.addToSelect(qfChrId);
+        QueryObjectReference qorChr = new QueryObjectReference(qcTran, "chromosome");
+        cs.addConstraint(new ContainsConstraint(qorChr, ConstraintOp.CONTAINS, qcChr));
+
         // Set the constraint of the query
         q.setConstraint(cs);
 
-        // Force an order by transcripts to make processing easier
+        // Force an order by chromosome then transcript so that each transcript's exons are
+        // together and the introns of a chromosome can be stored before moving to the next
+        q.addToOrderBy(qfChrId);
         q.addToOrderBy(qcTran);
 
         // Precompute this query first, this will create a precomputed table holding
@@ -201,11 +214,11 @@ public class CreateIntronFeaturesProcess extends PostProcessor
         Iterator<?> resultsIter = results.iterator();
 
         Set<Location> locationSet = new HashSet<Location>();
-        Set<Gene> geneSet = new HashSet<Gene>();
         SequenceFeature lastTran = null;
         Location lastTranLoc = null;
         Gene lastGene = null;
-        int tranCount = 0, exonCount = 0, intronCount = 0;
+        Integer lastChrId = null;
+        int tranCount = 0, exonCount = 0, intronCount = 0, stored = 0;
 
         osw.beginTransaction();
         while (resultsIter.hasNext()) {
@@ -214,11 +227,13 @@ public class CreateIntronFeaturesProcess extends PostProcessor
             // as they were added to the select list.
             ResultsRow<?> rr = (ResultsRow<?>) resultsIter.next();
             SequenceFeature thisTran = (SequenceFeature) rr.get(0);
+            Integer thisChrId = (Integer) rr.get(4);
 
             if (lastTran == null) {
                 lastTran = thisTran;
                 lastTranLoc = (Location) rr.get(1);
                 lastGene = (Gene) rr.get(3);
+                lastChrId = thisChrId;
             }
 
             if (!thisTran.getId().equals(lastTran.getId())) {
@@ -233,9 +248,13 @@ public class CreateIntronFeaturesProcess extends PostProcessor
                 lastTran = thisTran;
                 lastTranLoc = (Location) rr.get(1);
                 lastGene = (Gene) rr.get(3);
+                if (!thisChrId.equals(lastChrId)) {
+                    // no more introns for the last chromosome, store them and free the memory
+                    stored += storeIntrons();
+                    lastChrId = thisChrId;
+                }
             }
             locationSet.add((Location) rr.get(2));
-            geneSet.add((Gene) rr.get(3));
         }
 
         if (lastTran != null) {
@@ -243,10 +262,24 @@ public class CreateIntronFeaturesProcess extends PostProcessor
             tranCount++;
             exonCount += locationSet.size();
         }
+        stored += storeIntrons();
+
+        LOG.info("Read " + tranCount + " transcripts with " + exonCount + " exons, stored "
+                + stored + " introns.");
 
-        LOG.info("Read " + tranCount + " transcripts with " + exonCount + " exons.");
+        if (stored > 0) {
+            osw.store(dataSet);
+        }
+        osw.commitTransaction();
+    }
 
-        //osw.beginTransaction();
+    /**
+     * Store the introns created so far with their transcripts collections and clear them from
+     * memory.
+     * @return the number of introns stored
+     * @throws ObjectStoreException if there is an ObjectStore problem
+     */
+    private int storeIntrons() throws ObjectStoreException {
         int stored = 0;
         for (Iterator<String> i = intronMap.keySet().iterator(); i.hasNext();) {
             String identifier = i.next();
@@ -257,70 +290,43 @@ public class CreateIntronFeaturesProcess extends PostProcessor
             }
             osw.store(intron);
             stored++;
-            if (stored % 1000 == 0) {
-                LOG.info("Stored " + stored + " introns.");
-            }
-        }
-
-        if (intronMap.size() > 1) {
-            osw.store(dataSet);
         }
-        osw.commitTransaction();
+        intronMap.clear();
+        intronTranscripts.clear();
+        return stored;
     }
 
 
     /**
-     * Return a set of Intron objects that don't overlap the Locations
-     * in the locationSet argument.  The caller must call ObjectStoreWriter.store() on the
-     * Intron, its chromosomeLocation and the synonym in the synonyms collection.
+     * Create Intron objects for the gaps between the Locations in the locationSet argument.
+     * Exons that overlap or touch are merged first, so each intron lies between two exons and
+     * has no exon inside it.  The Intron Locations are stored, the Introns are kept in intronMap
+     * so that an intron shared by several transcripts is only created once.
      * @param locationSet a set of Locations for the exons on a particular transcript
      * @param transcript Transcript that the Locations refer to
      * @param tranLoc The Location of the Transcript
      * @param gene gene for the transcript
-     * @return a set of Intron objects
+     * @return the number of introns found for the transcript
      * @throws ObjectStoreException if there is an ObjectStore problem
      */
     protected int createIntronFeatures(Set<Location> locationSet, SequenceFeature transcript,
                                        Location tranLoc, Gene gene)
             throws ObjectStoreException {
-        if (locationSet.size() == 1 || tranLoc == null || transcript == null
-                || transcript.getLength() == null) {
+        if (locationSet.size() == 1 || tranLoc == null || transcript == null) {
             return 0;
         }
 
-        final BitSet bs = new BitSet(transcript.getLength().intValue());
         Chromosome chr = transcript.getChromosome();
 
-        int tranStart = tranLoc.getStart().intValue();
-
+        List<Interval> exons = new ArrayList<Interval>(locationSet.size());
         for (Location location : locationSet) {
-            bs.set(location.getStart().intValue() - tranStart,
-                    (location.getEnd().intValue() - tranStart) + 1);
+            exons.add(GenomeArithmetic.fromLocation(location));
         }
+        List<Interval> introns = GenomeArithmetic.gaps(exons);
 
-        int prevEndPos = 0;
-        int intronCount = 0;
-        while (prevEndPos != -1) {
-            intronCount++;
-            int nextIntronStart = bs.nextClearBit(prevEndPos + 1);
-            int intronEnd;
-            int nextSetBit = bs.nextSetBit(nextIntronStart);
-
-            if (nextSetBit == -1) {
-                intronEnd = transcript.getLength().intValue();
-            } else {
-                intronEnd = nextSetBit - 1;
-            }
-
-            if (nextSetBit == -1
-                    || intronCount == (locationSet.size() - 1)) {
-                prevEndPos = -1;
-            } else {
-                prevEndPos = intronEnd;
-            }
-
-            int newLocStart = nextIntronStart + tranStart;
-            int newLocEnd = intronEnd + tranStart;
+        for (Interval intronInterval : introns) {
+            int newLocStart = intronInterval.getStart();
+            int newLocEnd = intronInterval.getEnd();
 
             String identifier = "intron_chr" + chr.getPrimaryIdentifier()
                     + "_" + Integer.toString(newLocStart) + ".." + Integer.toString(newLocEnd);
@@ -348,17 +354,15 @@ public class CreateIntronFeaturesProcess extends PostProcessor
                 intron.setChromosomeLocation(location);
                 osw.store(location);
 
-                int length = location.getEnd().intValue() - location.getStart().intValue() + 1;
-                intron.setLength(new Integer(length));
+                intron.setLength(new Integer(intronInterval.getLength()));
                 addToIntronTranscripts(intron, transcript);
                 intronMap.put(identifier, intron);
             } else {
                 SequenceFeature intron = intronMap.get(identifier);
                 addToIntronTranscripts(intron, transcript);
-                intronMap.put(identifier, intron);
             }
         }
-        return intronCount;
+        return introns.size();
     }
 
     private void addToIntronTranscripts(SequenceFeature intron, SequenceFeature transcript) {
@@ -21,12 +21,15 @@ import org.intermine.metadata.CollectionDescriptor;
 import org.intermine.metadata.MetaDataException;
 import org.intermine.metadata.Model;
 import org.intermine.model.InterMineObject;
+import org.intermine.bio.util.BulkReferenceUpdater;
 import org.intermine.bio.util.PostProcessUtil;
 import org.intermine.objectstore.ObjectStoreWriter;
 import org.intermine.objectstore.intermine.ObjectStoreWriterInterMineImpl;
 import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.postprocess.PostProcessor;
+import org.intermine.util.PropertiesUtil;
 
 /**
  * Calculate additional mappings between annotation after loading into genomic ObjectStore.
@@ -41,6 +44,9 @@ public class CreateReferencesProcess extends PostProcessor
 {
     private Model model;
     private static final Logger LOG = Logger.getLogger(CreateReferencesProcess.class);
+    private boolean setBased = Boolean.parseBoolean(PropertiesUtil.getProperties()
+            .getProperty(BulkReferenceUpdater.SET_BASED_PROPERTY));
+
     /**
      * Create a new instance
      *
@@ -50,6 +56,24 @@ public class CreateReferencesProcess extends PostProcessor
         super(osw);
     }
 
+    /**
+     * If true fill in the references and collections with set-based SQL in the database rather
+     * than by re-storing each object.  Defaults to the postprocess.setBased intermine property.
+     * @param setBased true to use set-based SQL
+     */
+    public void setSetBased(boolean setBased) {
+        this.setBased = setBased;
+    }
+
+    private boolean useSetBased() {
+        if (setBased && !BulkReferenceUpdater.isSupported(osw)) {
+            LOG.warn("Can't make set-based updates through " + osw.getClass().getName()
+                    + ", storing objects instead");
+            return false;
+        }
+        return setBased;
+    }
+
     /**
      * {@inheritDoc}
      * <br/>
@@ -138,6 +162,26 @@ public class CreateReferencesProcess extends PostProcessor
         LOG.info("Beginning " + insertMessage);
         long startTime = System.currentTimeMillis();
 
+        if (useSetBased()) {
+            try {
+                Query q = PostProcessUtil.findConnectingIds(model,
+                        model.getClassDescriptorByName(sourceClsName).getType(),
+                        sourceClassFieldName,
+                        model.getClassDescriptorByName(connectingClsName).getType(),
+                        connectingClassFieldName,
+                        model.getClassDescriptorByName(destinationClsName).getType(), true);
+                int count = new BulkReferenceUpdater(osw).setReference(
+                        model.getClassDescriptorByName(destinationClsName), createFieldName, q);
+                LOG.info("Finished: set " + count + " references in " + destinationClsName
+                        + " to " + sourceClsName + " via " + connectingClsName
+                        + " - took " + (System.currentTimeMillis() - startTime) + " ms.");
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("couldn't find connecting classes " + e);
+            }
+            analyse(destinationClsName);
+            return;
+        }
+
         Iterator<ResultsRow<InterMineObject>> resIter = null;
 
         if (model == null) {
@@ -188,17 +232,7 @@ public class CreateReferencesProcess extends PostProcessor
                 + " - took " + (System.currentTimeMillis() - startTime) + " ms.");
         osw.commitTransaction();
 
-        // now ANALYSE tables relation to class that has been altered - may be rows added
-        // to indirection tables
-        if (osw instanceof ObjectStoreWriterInterMineImpl) {
-            ClassDescriptor cld = model.getClassDescriptorByName(destinationClsName);
-            try {
-                DatabaseUtil.analyse(((ObjectStoreWriterInterMineImpl) osw).getDatabase(), cld,
-                        false);
-            } catch (SQLException e) {
-                throw new RuntimeException("Couldn't analyse database " + e);
-            }
-        }
+        analyse(destinationClsName);
     }
 
     /**
@@ -278,6 +312,27 @@ public class CreateReferencesProcess extends PostProcessor
             manyToMany = true;
         }
 
+        if (useSetBased()) {
+            try {
+                Query q = PostProcessUtil.findConnectingIds(model,
+                        model.getClassDescriptorByName(firstClsName).getType(),
+                        firstClassFieldName,
+                        model.getClassDescriptorByName(connectingClsName).getType(),
+                        connectingClassFieldName,
+                        model.getClassDescriptorByName(secondClsName).getType(),
+                        !createInFirstClass);
+                int count = new BulkReferenceUpdater(osw).addToCollection(destCld,
+                        createFieldName, q);
+                LOG.info("Finished: added " + count + " objects to " + destCld.getUnqualifiedName()
+                        + "." + createFieldName + " via " + connectingClsName
+                        + " - took " + (System.currentTimeMillis() - startTime) + " ms.");
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("couldn't find connecting classes " + e);
+            }
+            analyse(secondClsName);
+            return;
+        }
+
         Iterator<ResultsRow<InterMineObject>> resIter = null;
         try {
             resIter = PostProcessUtil.findConnectingClasses(
@@ -357,10 +412,14 @@ public class CreateReferencesProcess extends PostProcessor
                 + " - took " + (System.currentTimeMillis() - startTime) + " ms.");
         osw.commitTransaction();
 
-        // now ANALYSE tables relation to class that has been altered - may be rows added
-        // to indirection tables
+        analyse(secondClsName);
+    }
+
+    // now ANALYSE tables relation to class that has been altered - may be rows added
+    // to indirection tables
+    private void analyse(String clsName) {
         if (osw instanceof ObjectStoreWriterInterMineImpl) {
-            ClassDescriptor cld = model.getClassDescriptorByName(secondClsName);
+            ClassDescriptor cld = model.getClassDescriptorByName(clsName);
             try {
                 DatabaseUtil.analyse(((ObjectStoreWriterInterMineImpl) osw).getDatabase(), cld,
                         false);
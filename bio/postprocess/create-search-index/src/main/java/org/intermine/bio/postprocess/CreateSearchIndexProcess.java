@@ -20,7 +20,8 @@ import org.intermine.metadata.FieldDescriptor;
 import org.intermine.postprocess.PostProcessor;
 import org.intermine.objectstore.ObjectStoreWriter;
 import org.intermine.api.searchengine.IndexHandler;
-import org.intermine.api.searchengine.solr.SolrIndexHandler;
+import org.intermine.api.searchengine.KeywordSearchPropertiesManager;
+import org.intermine.api.searchengine.SearchEngineFactory;
 
 
 /**
@@ -58,8 +59,12 @@ public class CreateSearchIndexProcess extends PostProcessor
 
         //index and save. Deleting previous index happens within itself
         try {
-            IndexHandler indexHandler = new SolrIndexHandler();
-            indexHandler.createIndex(osw, classKeys);
+            IndexHandler indexHandler = SearchEngineFactory.getIndexHandler(osw);
+            if (KeywordSearchPropertiesManager.getInstance(osw).getIncremental()) {
+                indexHandler.updateIndex(osw, classKeys);
+            } else {
+                indexHandler.createIndex(osw, classKeys);
+            }
         } catch (Exception e) {
             throw e;
         }
@@ -24,19 +24,25 @@ import org.intermine.metadata.TypeUtil;
 import org.intermine.model.InterMineObject;
 import org.intermine.model.bio.OntologyTerm;
 import org.intermine.model.bio.SOTerm;
+import org.intermine.bio.util.BulkReferenceUpdater;
 import org.intermine.bio.util.PostProcessUtil;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.query.ConstraintSet;
 import org.intermine.objectstore.query.ContainsConstraint;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryCollectionReference;
+import org.intermine.objectstore.query.QueryField;
 import org.intermine.objectstore.query.QueryObjectReference;
+import org.intermine.objectstore.query.QueryValue;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.SimpleConstraint;
 
 import org.intermine.postprocess.PostProcessor;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.ObjectStoreWriter;
+import org.intermine.util.PropertiesUtil;
 
 
 /**
@@ -53,7 +59,8 @@ public class PopulateChildFeaturesProcess extends PostProcessor
     private static final String TARGET_COLLECTION = "childFeatures";
     private Map<String, Set<CollectionHolder>> parentToChildren
             = new HashMap<String, Set<CollectionHolder>>();
-
+    private boolean setBased = Boolean.parseBoolean(PropertiesUtil.getProperties()
+            .getProperty(BulkReferenceUpdater.SET_BASED_PROPERTY));
 
     /**
      * Create a new instance
@@ -64,6 +71,15 @@ public class PopulateChildFeaturesProcess extends PostProcessor
         super(osw);
     }
 
+    /**
+     * If true add the child features with set-based SQL in the database rather than by
+     * re-storing each parent feature.  Defaults to the postprocess.setBased intermine property.
+     * @param setBased true to use set-based SQL
+     */
+    public void setSetBased(boolean setBased) {
+        this.setBased = setBased;
+    }
+
     /**
      * {@inheritDoc}
      * <br/>
@@ -77,6 +93,16 @@ public class PopulateChildFeaturesProcess extends PostProcessor
         model = Model.getInstanceByName("genomic");
 
         Map<String, SOTerm> soTerms = populateSOTermMap(osw.getObjectStore());
+
+        if (setBased) {
+            if (BulkReferenceUpdater.isSupported(osw)) {
+                postProcessSetBased(soTerms);
+                return;
+            }
+            LOG.warn("Can't make set-based updates through " + osw.getClass().getName()
+                    + ", storing objects instead");
+        }
+
         Query q = getAllParents();
         Results res = osw.getObjectStore().execute(q);
         Iterator<Object> resIter = res.iterator();
@@ -106,6 +132,36 @@ public class PopulateChildFeaturesProcess extends PostProcessor
                 + " parent features. ");
     }
 
+    // add the children of every parent feature to its childFeatures collection in the database,
+    // one statement per parent SO term and child collection
+    private void postProcessSetBased(Map<String, SOTerm> soTerms) throws ObjectStoreException {
+        BulkReferenceUpdater updater = new BulkReferenceUpdater(osw);
+        ClassDescriptor featureCld = model.getClassDescriptorByName("SequenceFeature");
+        int childCount = 0;
+        for (String parentSOTerm : getParentSOTermNames()) {
+            if (parentToChildren.get(parentSOTerm) == null) {
+                populateParentChildMap(soTerms, parentSOTerm);
+            }
+            Set<CollectionHolder> childHolders = parentToChildren.get(parentSOTerm);
+            if (childHolders == null) {
+                continue;
+            }
+            Class<?> parentClass = model.getClassDescriptorByName(
+                    TypeUtil.javaiseClassName(parentSOTerm)).getType();
+            for (CollectionHolder h : childHolders) {
+                Class<?> childClass = model.getCollectionsForClass(parentClass)
+                        .get(h.getCollectionName());
+                if (!featureCld.getType().isAssignableFrom(childClass)) {
+                    continue;
+                }
+                Query q = getChildFeatureIds(parentClass, parentSOTerm, h.getCollectionName(),
+                        childClass);
+                childCount += updater.addToCollection(featureCld, TARGET_COLLECTION, q);
+            }
+        }
+        LOG.info("Added " + childCount + " child features to parent features.");
+    }
+
     // for each collection in this class (e.g. Gene), test if it's a child feature
     @SuppressWarnings("unchecked")
     private Set<InterMineObject> getChildFeatures(Map<String, SOTerm> soTerms, SOTerm soTerm,
@@ -307,6 +363,74 @@ public class PopulateChildFeaturesProcess extends PostProcessor
         return q;
     }
 
+    /**
+     * @return query for the names of the SO terms of all features
+     */
+    protected Query getParentSOTermNamesQuery() {
+        Query q = new Query();
+        q.setDistinct(true);
+
+        QueryClass qcFeature =
+                new QueryClass(model.getClassDescriptorByName("SequenceFeature").getType());
+        q.addFrom(qcFeature);
+
+        QueryClass qcSOTerm = new QueryClass(OntologyTerm.class);
+        q.addFrom(qcSOTerm);
+        q.addToSelect(new QueryField(qcSOTerm, "name"));
+
+        QueryObjectReference ref1 = new QueryObjectReference(qcFeature, "sequenceOntologyTerm");
+        q.setConstraint(new ContainsConstraint(ref1, ConstraintOp.CONTAINS, qcSOTerm));
+
+        return q;
+    }
+
+    private Set<String> getParentSOTermNames() {
+        Set<String> names = new HashSet<String>();
+        Results res = osw.getObjectStore().execute(getParentSOTermNamesQuery());
+        for (Object row : res) {
+            String name = (String) ((ResultsRow<?>) row).get(0);
+            if (name != null) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @param parentClass the class of the parent features
+     * @param parentSOTerm the name of the SO term of the parent features
+     * @param collectionName the collection of the parent class holding the children
+     * @param childClass the class of the child features
+     * @return query for the ids of parent features with the SO term and their children
+     */
+    protected Query getChildFeatureIds(Class<?> parentClass, String parentSOTerm,
+            String collectionName, Class<?> childClass) {
+        Query q = new Query();
+        q.setDistinct(false);
+
+        QueryClass qcParent = new QueryClass(parentClass);
+        q.addFrom(qcParent);
+        q.addToSelect(new QueryField(qcParent, "id"));
+
+        QueryClass qcChild = new QueryClass(childClass);
+        q.addFrom(qcChild);
+        q.addToSelect(new QueryField(qcChild, "id"));
+
+        QueryClass qcSOTerm = new QueryClass(OntologyTerm.class);
+        q.addFrom(qcSOTerm);
+
+        ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+        QueryObjectReference ref1 = new QueryObjectReference(qcParent, "sequenceOntologyTerm");
+        cs.addConstraint(new ContainsConstraint(ref1, ConstraintOp.CONTAINS, qcSOTerm));
+        cs.addConstraint(new SimpleConstraint(new QueryField(qcSOTerm, "name"),
+                ConstraintOp.EQUALS, new QueryValue(parentSOTerm)));
+        QueryCollectionReference ref2 = new QueryCollectionReference(qcParent, collectionName);
+        cs.addConstraint(new ContainsConstraint(ref2, ConstraintOp.CONTAINS, qcChild));
+        q.setConstraint(cs);
+
+        return q;
+    }
+
     // holds the class name, e.g. transcript and the collection name, e.g. transcripts.
     // might not be necessary for most collections but matters for MRNAs, etc.
     private class CollectionHolder
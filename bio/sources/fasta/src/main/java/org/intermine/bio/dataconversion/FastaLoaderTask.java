@@ -10,14 +10,26 @@ package org.intermine.bio.dataconversion;
  *
  */
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -79,6 +91,14 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
     private String licence = null;
     private Map<String, DataSet> dataSets = new HashMap<String, DataSet>();
 
+    private boolean streaming = false;
+    private int readerThreads = 1;
+    private List<File> streamingFiles = new ArrayList<File>();
+
+    // marks the end of one file in the queue filled by the streaming readers
+    private static final FastaRecordReader.Record END_OF_FILE =
+        new FastaRecordReader.Record(null, null);
+
     /**
      * Set the Taxon Id of the Organism we are loading.  Can be space delimited list of taxonIds
      * @param fastaTaxonId the taxon id to set.
@@ -160,6 +180,26 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
         this.licence = licence;
     }
 
+    /**
+     * If true, read the FASTA files with a FastaRecordReader instead of BioJava and store the
+     * residues without creating intermediate BioJava sequence objects.  Only used by this class,
+     * sub-classes need the BioJava sequence for their identifiers and extra processing so they
+     * always read with BioJava.  The default is false.
+     * @param streaming true to read files with the streaming reader
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Set the number of files to read concurrently in streaming mode, the default is 1.  The
+     * objects are always stored on the calling thread.
+     * @param readerThreads the number of reader threads
+     */
+    public void setReaderThreads(int readerThreads) {
+        this.readerThreads = readerThreads;
+    }
+
     /**
      * Directly set the array of files to read from.  Use this for testing with junit.
      * @param files the File objects
@@ -177,6 +217,7 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
         try {
             storeCount++;
             super.process();
+            processStreamingFiles();
             getIntegrationWriter().commitTransaction();
             getIntegrationWriter().beginTransaction();
             getDirectDataLoader().close();
@@ -219,6 +260,11 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
             for (int i = 0; i < files.length; i++) {
                 processFile(files[i]);
             }
+            try {
+                processStreamingFiles();
+            } catch (ObjectStoreException e) {
+                throw new BuildException("failed to store object", e);
+            }
         } else {
             // this will call processFile() for each file
             super.execute();
@@ -234,6 +280,11 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
      */
     @Override
     public void processFile(File file) {
+        if (isStreaming()) {
+            // read later, possibly alongside other files, by processStreamingFiles()
+            streamingFiles.add(file);
+            return;
+        }
         try {
             System.err .println("reading " + sequenceType + " sequence from: " + file);
             LOG.debug("FastaLoaderTask loading file " + file.getName());
@@ -271,6 +322,100 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
         }
     }
 
+    private boolean isStreaming() {
+        if (streaming && getClass() != FastaLoaderTask.class) {
+            LOG.warn("streaming is not supported by " + getClass().getName()
+                    + ", reading with BioJava instead");
+            streaming = false;
+        }
+        return streaming;
+    }
+
+    /**
+     * Read the files queued by processFile() in streaming mode and store their sequences.  Up
+     * to readerThreads files are read at once.  The readers hand records to this thread through
+     * a bounded queue so that only a few sequences are held in memory at a time.
+     * @throws ObjectStoreException if a store fails
+     */
+    private void processStreamingFiles() throws ObjectStoreException {
+        if (streamingFiles.isEmpty()) {
+            return;
+        }
+        final BlockingQueue<FastaRecordReader.Record> queue =
+            new ArrayBlockingQueue<FastaRecordReader.Record>(Math.max(2, readerThreads * 2));
+        // daemon threads, so that a reader that can't finish never keeps the JVM alive
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, readerThreads),
+                new ThreadFactory() {
+                    private int threadNo = 0;
+
+                    @Override
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "FastaLoaderTask reader " + (threadNo++));
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        List<Future<File>> readers = new ArrayList<Future<File>>();
+        for (final File file : streamingFiles) {
+            readers.add(executor.submit(new Callable<File>() {
+                @Override
+                public File call() throws IOException, InterruptedException {
+                    LOG.info("FastaLoaderTask streaming file " + file.getName());
+                    boolean interrupted = false;
+                    try {
+                        FastaRecordReader reader =
+                            new FastaRecordReader(new BufferedReader(new FileReader(file)));
+                        try {
+                            FastaRecordReader.Record record;
+                            while ((record = reader.next()) != null) {
+                                queue.put(record);
+                            }
+                        } finally {
+                            reader.close();
+                        }
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                        throw e;
+                    } finally {
+                        // once interrupted nothing is taking from the queue any more, so
+                        // waiting for room for the marker could block forever
+                        if (!interrupted) {
+                            queue.put(END_OF_FILE);
+                        }
+                    }
+                    return file;
+                }
+            }));
+        }
+        executor.shutdown();
+        try {
+            int filesLeft = streamingFiles.size();
+            while (filesLeft > 0) {
+                FastaRecordReader.Record record = queue.take();
+                if (record == END_OF_FILE) {
+                    filesLeft--;
+                } else {
+                    storeSequence(getTaskOrganism(), record.getResidues(),
+                            getIdentifierFromHeader(record.getHeader()), null);
+                }
+            }
+            for (Future<File> reader : readers) {
+                reader.get();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new BuildException("interrupted while reading fasta files", e);
+        } catch (ExecutionException e) {
+            throw new BuildException("problem reading fasta file", e.getCause());
+        } finally {
+            // free any reader blocked on a full queue before interrupting it
+            queue.clear();
+            executor.shutdownNow();
+            streamingFiles.clear();
+        }
+    }
+
     /**
      * Get and store() the Organism object to reference when creating new objects.
      * @param bioJavaSequence the biojava sequence to be parsed
@@ -278,6 +423,10 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
      * @return the new Organism
      */
     protected Organism getOrganism(Sequence bioJavaSequence) throws ObjectStoreException {
+        return getTaskOrganism();
+    }
+
+    private Organism getTaskOrganism() throws ObjectStoreException {
         if (org == null) {
             org = getDirectDataLoader().createObject(Organism.class);
             org.setTaxonId(fastaTaxonId);
@@ -300,14 +449,29 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
             return;
         }
 
+        storeSequence(organism, bioJavaSequence.getSequenceAsString(),
+                getIdentifier(bioJavaSequence), bioJavaSequence);
+    }
+
+    /**
+     * Create and store a FlyMine Sequence and an object of type className for the given
+     * residues.
+     * @param organism the Organism to reference from new objects
+     * @param sequence the residues
+     * @param attributeValue the identifier of the new object
+     * @param bioJavaSequence the BioJava Sequence to pass to extraProcessing(), or null if the
+     * residues were read by the streaming reader
+     * @throws ObjectStoreException if store() fails
+     */
+    private void storeSequence(Organism organism, String sequence, String attributeValue,
+            Sequence bioJavaSequence) throws ObjectStoreException {
         org.intermine.model.bio.Sequence flymineSequence = getDirectDataLoader().createObject(
                 org.intermine.model.bio.Sequence.class);
 
-        String sequence = bioJavaSequence.getSequenceAsString();
         String md5checksum = Util.getMd5checksum(sequence);
 
         flymineSequence.setResidues(new PendingClob(sequence));
-        flymineSequence.setLength(bioJavaSequence.getLength());
+        flymineSequence.setLength(sequence.length());
         flymineSequence.setMd5checksum(md5checksum);
 
         Class<? extends InterMineObject> imClass;
@@ -326,7 +490,6 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
         }
         BioEntity imo = (BioEntity) getDirectDataLoader().createObject(imClass);
 
-        String attributeValue = getIdentifier(bioJavaSequence);
         try {
             imo.setFieldValue(classAttribute, attributeValue);
         } catch (Exception e) {
@@ -354,7 +517,9 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
             // Ignore - we don't care if the field doesn't exist.
         }
 
-        extraProcessing(bioJavaSequence, flymineSequence, imo, organism, getDataSet());
+        if (bioJavaSequence != null) {
+            extraProcessing(bioJavaSequence, flymineSequence, imo, organism, getDataSet());
+        }
 
         if (StringUtils.isEmpty(dataSetTitle)) {
             throw new RuntimeException("DataSet title (fasta.dataSetTitle) not set");
@@ -436,6 +601,28 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
         return name;
     }
 
+    /**
+     * Return the identifier for a header read by the streaming reader, following the same rules
+     * as getIdentifier(Sequence).
+     * @param header the FASTA header without the leading '>'
+     * @return an identifier
+     */
+    private String getIdentifierFromHeader(String header) {
+        String name = header + idSuffix;
+        int spaceIndex = name.indexOf(' ');
+        if (spaceIndex != -1) {
+            name = name.substring(0, spaceIndex);
+        }
+        if (name.contains("|")) {
+            String[] bits = name.split("\\|");
+            if (bits.length < 2) {
+                return null;
+            }
+            name = bits[1];
+        }
+        return name;
+    }
+
     private DataSource getDataSource() throws ObjectStoreException {
         if (StringUtils.isEmpty(dataSourceName)) {
             throw new RuntimeException("dataSourceName not set");
@@ -483,12 +670,7 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
      */
     protected Organism getOrganism(ProteinSequence bioJavaSequence)
             throws ObjectStoreException {
-        if (org == null) {
-            org = getDirectDataLoader().createObject(Organism.class);
-            org.setTaxonId(fastaTaxonId);
-            getDirectDataLoader().store(org);
-        }
-        return org;
+        return getTaskOrganism();
     }
 
 }
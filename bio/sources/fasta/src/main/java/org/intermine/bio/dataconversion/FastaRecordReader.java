@@ -0,0 +1,123 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * A streaming FASTA reader that returns one record at a time as a header and a residue String,
+ * without building BioJava sequence objects or reading the whole file into memory.
+ */
+public class FastaRecordReader
+{
+    private final BufferedReader reader;
+    private final StringBuilder residues = new StringBuilder();
+    private String nextHeader = null;
+    private boolean started = false;
+
+    /**
+     * Create a new FastaRecordReader.
+     * @param reader the FASTA input
+     */
+    public FastaRecordReader(BufferedReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Read the next record from the input.
+     * @return the next record or null if there are no more records
+     * @throws IOException if the input can't be read or doesn't start with a header line
+     */
+    public Record next() throws IOException {
+        if (!started) {
+            started = true;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().length() == 0 || line.startsWith(";")) {
+                    continue;
+                }
+                if (!line.startsWith(">")) {
+                    throw new IOException("FASTA input must start with a '>' header line, found: "
+                            + line);
+                }
+                nextHeader = line.substring(1).trim();
+                break;
+            }
+        }
+        if (nextHeader == null) {
+            return null;
+        }
+        String header = nextHeader;
+        nextHeader = null;
+        residues.setLength(0);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(">")) {
+                nextHeader = line.substring(1).trim();
+                break;
+            }
+            if (line.startsWith(";")) {
+                continue;
+            }
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (!Character.isWhitespace(c)) {
+                    residues.append(c);
+                }
+            }
+        }
+        return new Record(header, residues.toString());
+    }
+
+    /**
+     * Close the underlying reader.
+     * @throws IOException if the reader can't be closed
+     */
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * One FASTA entry.
+     */
+    public static final class Record
+    {
+        private final String header;
+        private final String residues;
+
+        /**
+         * Create a new Record.
+         * @param header the header line without the leading '>'
+         * @param residues the residues with all white space removed
+         */
+        public Record(String header, String residues) {
+            this.header = header;
+            this.residues = residues;
+        }
+
+        /**
+         * Return the header line without the leading '>'.
+         * @return the header
+         */
+        public String getHeader() {
+            return header;
+        }
+
+        /**
+         * Return the residues of this record.
+         * @return the residues
+         */
+        public String getResidues() {
+            return residues;
+        }
+    }
+}
@@ -174,6 +174,72 @@ public class FastaLoaderTaskTest {
         //        assertEquals(new Integer(146), protein.getLength());
     }
 
+    @Test
+    public void testStreamingFastaLoad() throws Exception {
+        FastaLoaderTask flt = new FastaLoaderTask();
+        flt.setTaxonId("36329");
+        flt.setIgnoreDuplicates(true);
+        flt.setSequenceType("protein");
+        flt.setClassName("org.intermine.model.bio.Protein");
+        flt.setIntegrationWriterAlias("integration.bio-test");
+        flt.setDataSourceName("fasta-test");
+        flt.setDataSetTitle(dataSetTitle);
+        flt.setSourceName("fasta-test");
+        flt.setStreaming(true);
+        flt.setReaderThreads(2);
+
+        String[] resources = new String[] {"pombe_sid2_short.fasta", "MAL1_trimed.fasta"};
+        File[] files = new File[resources.length];
+        for (int i = 0; i < resources.length; i++) {
+            files[i] = File.createTempFile(resources[i], "tmp");
+            FileWriter fw = new FileWriter(files[i]);
+            InputStream is = getClass().getClassLoader().getResourceAsStream(resources[i]);
+            BufferedReader br = new BufferedReader(new InputStreamReader(is));
+
+            String line = null;
+            while ((line = br.readLine()) != null) {
+                fw.write(line + "\n");
+            }
+
+            fw.close();
+            files[i].deleteOnExit();
+        }
+        flt.setFileArray(files);
+        flt.execute();
+        flt.close();
+
+        ObjectStore os = osw.getObjectStore();
+
+        Query q = new Query();
+        QueryClass queryClass = new QueryClass(Protein.class);
+        QueryClass seqQueryClass = new QueryClass(Sequence.class);
+        q.addToSelect(queryClass);
+        q.addToSelect(seqQueryClass);
+        q.addFrom(queryClass);
+        q.addFrom(seqQueryClass);
+
+        QueryObjectReference qor = new QueryObjectReference(queryClass, "sequence");
+        ContainsConstraint cc = new ContainsConstraint(qor, ConstraintOp.CONTAINS, seqQueryClass);
+
+        q.setConstraint(cc);
+
+        Results r = os.execute(q);
+
+        assertEquals(2, r.size());
+
+        for (Object row : r) {
+            Protein protein = (Protein) ((List) row).get(0);
+            if ("SPAC24B11.11c".equals(protein.getPrimaryIdentifier())) {
+                assertEquals("MNRVNDMSPVEGDLGLQLSSEADKKFDAYMKRHGLFEPGNLSNNDKERNLEDQFNSMKLS"
+                             + "PVASSKENYPDNHMHSKHISKLPIASPIPRGLDRSGELSYKDNNHWSDRSSTGSPRWENG"
+                             + "SMNLSVEEMEKVVQPKVKRMATICQM",
+                             protein.getSequence().getResidues().toString());
+            } else {
+                assertEquals("MAL1", protein.getPrimaryIdentifier());
+            }
+        }
+    }
+
     @After
     public void tearDown() throws Exception {
         LOG.info("in tear down");
@@ -10,16 +10,12 @@ package org.intermine.bio.dataconversion;
  *
  */
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.tools.ant.BuildException;
 import org.intermine.metadata.TypeUtil;
 import org.intermine.model.InterMineObject;
@@ -33,7 +29,6 @@ import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.ObjectStoreWriter;
 import org.intermine.objectstore.proxy.ProxyReference;
 import org.intermine.task.FileDirectDataLoaderTask;
-import org.intermine.util.FormattedTextParser;
 
 /**
  * Loader for VCF files
@@ -49,6 +44,9 @@ public class VcfLoaderTask extends FileDirectDataLoaderTask
     private DataSet dataset = null;
     private DataSource datasource = null;
     private Map<String, ProxyReference> chromosomes = new HashMap<String, ProxyReference>();
+    private Map<String, Class<? extends InterMineObject>> typeClasses =
+        new HashMap<String, Class<? extends InterMineObject>>();
+    private int readerThreads = 1;
 
     //Set this if we want to do some testing...
     private File[] files = null;
@@ -82,6 +80,15 @@ public class VcfLoaderTask extends FileDirectDataLoaderTask
         this.dataSetName = dataSetName;
     }
 
+    /**
+     * Sets the number of threads used to split the lines of each file, the default is 1.
+     *
+     * @param readerThreads number of threads
+     */
+    public void setVcfReaderThreads(int readerThreads) {
+        this.readerThreads = readerThreads;
+    }
+
     /**
      * Process and load the SNP file.
      */
@@ -130,68 +137,45 @@ public class VcfLoaderTask extends FileDirectDataLoaderTask
      */
     public void processFile(File file) {
 
-        FileReader fileReader;
         try {
-            fileReader = new FileReader(file);
-            BufferedReader reader = new BufferedReader(fileReader);
-
-            Iterator lineIter = FormattedTextParser.parseTabDelimitedReader(reader);
-            while (lineIter.hasNext()) {
-                String[] line = (String[]) lineIter.next();
-                processRecord(line);
+            VcfReader reader = new VcfReader(file, readerThreads);
+            try {
+                VcfReader.Record record;
+                while ((record = reader.next()) != null) {
+                    processRecord(record);
+                }
+            } finally {
+                reader.close();
             }
         } catch (FileNotFoundException e) {
             throw new BuildException("problem reading file - file not found: " + file, e);
         } catch (IOException e) {
-            throw new BuildException("error while closing FileReader for: " + file, e);
+            throw new BuildException("error while reading: " + file, e);
         } catch (ObjectStoreException e) {
             throw new BuildException("error while creating objects: " + file, e);
         }
 
     }
 
-    private void processRecord(String[] line)
+    private void processRecord(VcfReader.Record record)
         throws ObjectStoreException {
 
-        String chromosomeIdentifier = line[0];
+        String chromosomeIdentifier = record.getChromosome();
         ProxyReference chromosome = getChromosome(chromosomeIdentifier);
-        String start = line[1];
-        String identifier = line[2];
-        String referenceSeq = line[3];
-        String variantSeq = line[4];
-//        String qual = line[5];
-//        String filter = line[6];
-        String info = line[7];
+        String start = record.getPosition();
+        String identifier = record.getIdentifier();
+        String referenceSeq = record.getReferenceSequence();
+        String variantSeq = record.getVariantSequence();
 
         // create SNV by default?
         String type = "SequenceAlteration";
 
         // dbSNP_138;TSA=insertion
-        String[] infoColumn = info.split(";");
-        // TSA=insertion
-        if (infoColumn != null && infoColumn.length > 1 && StringUtils.isNotEmpty(infoColumn[1])) {
-            String[] tsaString = infoColumn[1].split("=");
-            if (infoColumn != null && infoColumn.length > 1
-                    && StringUtils.isNotEmpty(infoColumn[1])) {
-                type = tsaString[1];
-            }
+        if (record.getType() != null) {
+            type = record.getType();
         }
 
-        String className =  TypeUtil.generateClassName(NAMESPACE, type);
-        Class<? extends InterMineObject> imClass;
-        Class<?> c;
-        try {
-            c = Class.forName(className);
-            if (InterMineObject.class.isAssignableFrom(c)) {
-                imClass = (Class<? extends InterMineObject>) c;
-            } else {
-                throw new RuntimeException("Feature className must be a valid class in the "
-                        + "model that inherits from InterMineObject, but was: " + className);
-            }
-        } catch (ClassNotFoundException e1) {
-            throw new BuildException("unknown class: " + className
-                    + " while creating new SequenceAlteration object");
-        }
+        Class<? extends InterMineObject> imClass = getTypeClass(type);
         SequenceAlteration snp
             = (SequenceAlteration) getDirectDataLoader().createObject(imClass);
 
@@ -215,6 +199,32 @@ public class VcfLoaderTask extends FileDirectDataLoaderTask
         getDirectDataLoader().store(snp);
     }
 
+    /**
+     * Return the model class for a variant type, looking up each type only once.
+     */
+    private Class<? extends InterMineObject> getTypeClass(String type) {
+        Class<? extends InterMineObject> imClass = typeClasses.get(type);
+        if (imClass != null) {
+            return imClass;
+        }
+        String className =  TypeUtil.generateClassName(NAMESPACE, type);
+        Class<?> c;
+        try {
+            c = Class.forName(className);
+            if (InterMineObject.class.isAssignableFrom(c)) {
+                imClass = (Class<? extends InterMineObject>) c;
+            } else {
+                throw new RuntimeException("Feature className must be a valid class in the "
+                        + "model that inherits from InterMineObject, but was: " + className);
+            }
+        } catch (ClassNotFoundException e1) {
+            throw new BuildException("unknown class: " + className
+                    + " while creating new SequenceAlteration object");
+        }
+        typeClasses.put(type, imClass);
+        return imClass;
+    }
+
     private ProxyReference getChromosome(String identifier) throws ObjectStoreException {
         ProxyReference chromosomeRef = chromosomes.get(identifier);
         if (chromosomeRef == null) {
@@ -0,0 +1,306 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the data lines of a VCF file and splits out the columns used by the VcfLoaderTask.
+ * Files ending in .gz or .bgz are decompressed as they are read, bgzip output is a series of
+ * gzip members so it is read the same way as plain gzip.  If more than one thread is requested
+ * the lines are split on a pool of worker threads in batches, a few batches ahead of the caller,
+ * and the records are returned in file order.
+ */
+public class VcfReader
+{
+    /**
+     * The number of lines handed to a worker thread at a time.
+     */
+    public static final int BATCH_SIZE = 5000;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final BufferedReader reader;
+    private final ExecutorService executor;
+    private final int window;
+    private final Deque<Future<List<Record>>> pending = new ArrayDeque<Future<List<Record>>>();
+    private Iterator<Record> current = null;
+    private boolean eof = false;
+
+    /**
+     * Open a VCF file for reading.
+     * @param file the file, which may be gzip or bgzip compressed
+     * @param threads the number of threads to split lines on, 1 to split on the calling thread
+     * @throws IOException if the file can't be opened
+     */
+    public VcfReader(File file, int threads) throws IOException {
+        this(new BufferedReader(new InputStreamReader(openStream(file)), BUFFER_SIZE), threads);
+    }
+
+    /**
+     * Create a reader for VCF input.
+     * @param reader the VCF input
+     * @param threads the number of threads to split lines on, 1 to split on the calling thread
+     */
+    public VcfReader(BufferedReader reader, int threads) {
+        this.reader = reader;
+        if (threads > 1) {
+            this.window = threads * 2;
+            this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "VcfReader worker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        } else {
+            this.window = 1;
+            this.executor = null;
+        }
+    }
+
+    private static InputStream openStream(File file) throws IOException {
+        InputStream is = new FileInputStream(file);
+        String name = file.getName();
+        if (name.endsWith(".gz") || name.endsWith(".bgz")) {
+            return new GZIPInputStream(is, BUFFER_SIZE);
+        }
+        return is;
+    }
+
+    /**
+     * Return the next record, or null at the end of the input.
+     * @return the next record
+     * @throws IOException if the input can't be read or a line has too few columns
+     */
+    public Record next() throws IOException {
+        while (current == null || !current.hasNext()) {
+            fillWindow();
+            if (pending.isEmpty()) {
+                return null;
+            }
+            try {
+                current = pending.removeFirst().get().iterator();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while reading VCF records", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new RuntimeException("failed to parse VCF records", e.getCause());
+            }
+        }
+        return current.next();
+    }
+
+    /**
+     * Close the input and stop any worker threads.
+     * @throws IOException if the input can't be closed
+     */
+    public void close() throws IOException {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        reader.close();
+    }
+
+    private void fillWindow() throws IOException {
+        while (pending.size() < window && !eof) {
+            final List<String> batch = new ArrayList<String>(BATCH_SIZE);
+            String line;
+            while (batch.size() < BATCH_SIZE) {
+                line = reader.readLine();
+                if (line == null) {
+                    eof = true;
+                    break;
+                }
+                if (line.length() == 0 || line.charAt(0) == '#') {
+                    continue;
+                }
+                batch.add(line);
+            }
+            if (batch.isEmpty()) {
+                break;
+            }
+            Callable<List<Record>> task = new Callable<List<Record>>() {
+                @Override
+                public List<Record> call() throws IOException {
+                    List<Record> records = new ArrayList<Record>(batch.size());
+                    for (String vcfLine : batch) {
+                        records.add(parseLine(vcfLine));
+                    }
+                    return records;
+                }
+            };
+            if (executor == null) {
+                pending.add(new ImmediateFuture(task));
+            } else {
+                pending.add(executor.submit(task));
+            }
+        }
+    }
+
+    /**
+     * Split the first eight columns of a VCF data line without using a regular expression.
+     * @param line the line
+     * @return the new Record
+     * @throws IOException if the line has fewer than eight columns
+     */
+    static Record parseLine(String line) throws IOException {
+        String[] columns = new String[8];
+        int start = 0;
+        for (int i = 0; i < columns.length; i++) {
+            int end = line.indexOf('\t', start);
+            if (end == -1) {
+                if (i < columns.length - 1) {
+                    throw new IOException("VCF line has fewer than 8 columns: " + line);
+                }
+                end = line.length();
+            }
+            columns[i] = line.substring(start, end);
+            start = end + 1;
+        }
+        return new Record(columns[0], columns[1], columns[2], columns[3], columns[4],
+                getType(columns[7]));
+    }
+
+    /**
+     * Return the value of the second entry of the INFO column, eg. "insertion" for
+     * "dbSNP_138;TSA=insertion", or null if there isn't one.
+     */
+    private static String getType(String info) {
+        int firstSemi = info.indexOf(';');
+        if (firstSemi == -1) {
+            return null;
+        }
+        int entryEnd = info.indexOf(';', firstSemi + 1);
+        if (entryEnd == -1) {
+            entryEnd = info.length();
+        }
+        if (entryEnd == firstSemi + 1) {
+            return null;
+        }
+        int equalsIndex = info.indexOf('=', firstSemi + 1);
+        if (equalsIndex == -1 || equalsIndex > entryEnd) {
+            return null;
+        }
+        int valueEnd = info.indexOf('=', equalsIndex + 1);
+        if (valueEnd == -1 || valueEnd > entryEnd) {
+            valueEnd = entryEnd;
+        }
+        return info.substring(equalsIndex + 1, valueEnd);
+    }
+
+    /**
+     * A Future for a batch parsed on the calling thread.
+     */
+    private static final class ImmediateFuture extends FutureTask<List<Record>>
+    {
+        ImmediateFuture(Callable<List<Record>> task) {
+            super(task);
+            run();
+        }
+    }
+
+    /**
+     * The columns of one VCF line that are used to create a SequenceAlteration.
+     */
+    public static final class Record
+    {
+        private final String chromosome;
+        private final String position;
+        private final String identifier;
+        private final String referenceSequence;
+        private final String variantSequence;
+        private final String type;
+
+        /**
+         * Create a new Record.
+         * @param chromosome the CHROM column
+         * @param position the POS column
+         * @param identifier the ID column
+         * @param referenceSequence the REF column
+         * @param variantSequence the ALT column
+         * @param type the variant type from the INFO column, or null
+         */
+        public Record(String chromosome, String position, String identifier,
+                String referenceSequence, String variantSequence, String type) {
+            this.chromosome = chromosome;
+            this.position = position;
+            this.identifier = identifier;
+            this.referenceSequence = referenceSequence;
+            this.variantSequence = variantSequence;
+            this.type = type;
+        }
+
+        /**
+         * @return the chromosome identifier
+         */
+        public String getChromosome() {
+            return chromosome;
+        }
+
+        /**
+         * @return the position on the chromosome
+         */
+        public String getPosition() {
+            return position;
+        }
+
+        /**
+         * @return the variant identifier
+         */
+        public String getIdentifier() {
+            return identifier;
+        }
+
+        /**
+         * @return the reference sequence
+         */
+        public String getReferenceSequence() {
+            return referenceSequence;
+        }
+
+        /**
+         * @return the variant sequence
+         */
+        public String getVariantSequence() {
+            return variantSequence;
+        }
+
+        /**
+         * @return the variant type from the INFO column, or null if there isn't one
+         */
+        public String getType() {
+            return type;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+public class VcfReaderTest extends TestCase
+{
+    public void testParseLine() throws Exception {
+        VcfReader.Record record =
+            VcfReader.parseLine("1\t10019\trs376643643\tTA\tT\t.\t.\tdbSNP_138;TSA=deletion");
+        assertEquals("1", record.getChromosome());
+        assertEquals("10019", record.getPosition());
+        assertEquals("rs376643643", record.getIdentifier());
+        assertEquals("TA", record.getReferenceSequence());
+        assertEquals("T", record.getVariantSequence());
+        assertEquals("deletion", record.getType());
+
+        record = VcfReader.parseLine("1\t10019\trs1\tA\tT\t.\t.\tdbSNP_138\tGT");
+        assertNull(record.getType());
+    }
+
+    public void testShortLine() throws Exception {
+        try {
+            VcfReader.parseLine("1\t10019\trs376643643\tTA");
+            fail("expected an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testThreadedRead() throws Exception {
+        StringBuffer sb = new StringBuffer("##fileformat=VCFv4.1\n#CHROM\tPOS\tID\n");
+        int count = 3 * VcfReader.BATCH_SIZE + 11;
+        for (int i = 0; i < count; i++) {
+            sb.append("1\t" + i + "\trs" + i + "\tA\tT\t.\t.\tdbSNP_138;TSA=SNV\n");
+        }
+        VcfReader reader = new VcfReader(new BufferedReader(new StringReader(sb.toString())), 4);
+        List<String> identifiers = new ArrayList<String>();
+        VcfReader.Record record;
+        while ((record = reader.next()) != null) {
+            identifiers.add(record.getIdentifier());
+        }
+        reader.close();
+        assertEquals(count, identifiers.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals("rs" + i, identifiers.get(i));
+        }
+    }
+
+    public void testCompressedFile() throws Exception {
+        File file = File.createTempFile("vcf-test", ".vcf.gz");
+        file.deleteOnExit();
+        InputStream is = getClass().getClassLoader().getResourceAsStream("Homo_sapiens.vcf");
+        BufferedReader br = new BufferedReader(new InputStreamReader(is));
+        OutputStream os = new GZIPOutputStream(new FileOutputStream(file));
+        String line = null;
+        while ((line = br.readLine()) != null) {
+            os.write((line + "\n").getBytes("UTF-8"));
+        }
+        os.close();
+
+        VcfReader reader = new VcfReader(file, 1);
+        List<String> types = new ArrayList<String>();
+        VcfReader.Record record;
+        while ((record = reader.next()) != null) {
+            types.add(record.getType());
+        }
+        reader.close();
+        assertEquals(4, types.size());
+        assertEquals("deletion", types.get(0));
+        assertEquals("insertion", types.get(1));
+    }
+}
@@ -0,0 +1,180 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.intermine.api.profile.InterMineBag;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.query.ObjectStoreBag;
+
+/**
+ * Holds the contents of ObjectStoreBags in memory as SortedIdSets so that list operations, sizes
+ * and membership checks don't have to read osbag_int.  The osbag_int table is still the only
+ * record of a bag's contents: each set is stamped with the ObjectStore sequence number of its
+ * bag and is read again the next time it is needed if the bag has been written to since.  At
+ * most MAX_IDS ids are held per ObjectStore, the least recently used bags are dropped beyond
+ * that.
+ */
+public final class BagContentsCache
+{
+    /**
+     * The maximum number of ids held for each ObjectStore, each takes four bytes.
+     */
+    public static final int MAX_IDS = 10000000;
+
+    private static final Map<ObjectStore, BagContentsCache> INSTANCES
+        = new WeakHashMap<ObjectStore, BagContentsCache>();
+
+    // the ObjectStore is the key of INSTANCES, so mustn't be strongly referenced from here
+    private final WeakReference<ObjectStore> os;
+    private final int maxIds;
+    // in access order, so the eldest entry is the least recently used
+    private final LinkedHashMap<Integer, Entry> contents
+        = new LinkedHashMap<Integer, Entry>(16, 0.75F, true);
+    private long size = 0;
+
+    /**
+     * Construct a cache on its own, for testing.
+     * @param os the ObjectStore
+     * @param maxIds the maximum number of ids to hold
+     */
+    BagContentsCache(ObjectStore os, int maxIds) {
+        this.os = new WeakReference<ObjectStore>(os);
+        this.maxIds = maxIds;
+    }
+
+    /**
+     * Return the cache for the bags of the given ObjectStore.
+     * @param os the production ObjectStore
+     * @return the cache
+     */
+    public static synchronized BagContentsCache getInstance(ObjectStore os) {
+        BagContentsCache cache = INSTANCES.get(os);
+        if (cache == null) {
+            cache = new BagContentsCache(os, MAX_IDS);
+            INSTANCES.put(os, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Return the contents of a bag, reading them from the database if there isn't an up to date
+     * copy in memory.
+     * @param bag the bag
+     * @return the ids in the bag
+     */
+    public SortedIdSet getContents(InterMineBag bag) {
+        ObjectStoreBag osb = bag.getOsb();
+        SortedIdSet ids = getCurrentContents(osb);
+        if (ids != null) {
+            return ids;
+        }
+        // read the sequence first so that a change while reading makes the copy out of date
+        Map<Object, Integer> sequence = getSequence(osb);
+        ids = SortedIdSet.of(bag.getContentsAsIds());
+        store(osb.getBagId(), new Entry(ids, sequence));
+        return ids;
+    }
+
+    /**
+     * Return the contents of a bag if there is an up to date copy in memory, without reading
+     * them from the database.
+     * @param osb the ObjectStoreBag
+     * @return the ids in the bag, or null if they aren't held
+     */
+    public SortedIdSet getCurrentContents(ObjectStoreBag osb) {
+        Entry entry;
+        synchronized (this) {
+            entry = contents.get(osb.getBagId());
+        }
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.sequence.equals(getSequence(osb))) {
+            remove(osb);
+            return null;
+        }
+        return entry.ids;
+    }
+
+    /**
+     * Record the contents of a bag that have just been written to the database, so that they
+     * needn't be read back.
+     * @param osb the ObjectStoreBag
+     * @param ids the ids in the bag
+     */
+    public void put(ObjectStoreBag osb, SortedIdSet ids) {
+        store(osb.getBagId(), new Entry(ids, getSequence(osb)));
+    }
+
+    /**
+     * Drop the copy of the contents of a bag, eg. because it has been deleted.
+     * @param osb the ObjectStoreBag
+     */
+    public synchronized void remove(ObjectStoreBag osb) {
+        Entry entry = contents.remove(osb.getBagId());
+        if (entry != null) {
+            size -= entry.ids.size();
+        }
+    }
+
+    /**
+     * @return the number of ids held
+     */
+    synchronized long size() {
+        return size;
+    }
+
+    private synchronized void store(Integer bagId, Entry entry) {
+        Entry old = contents.remove(bagId);
+        if (old != null) {
+            size -= old.ids.size();
+        }
+        if (entry.ids.size() > maxIds) {
+            // would push everything else out
+            return;
+        }
+        contents.put(bagId, entry);
+        size += entry.ids.size();
+        Iterator<Entry> iter = contents.values().iterator();
+        while (size > maxIds) {
+            size -= iter.next().ids.size();
+            iter.remove();
+        }
+    }
+
+    private Map<Object, Integer> getSequence(ObjectStoreBag osb) {
+        ObjectStore objectStore = os.get();
+        if (objectStore == null) {
+            throw new IllegalStateException("The ObjectStore of this cache has been discarded");
+        }
+        return objectStore.getSequence(Collections.<Object>singleton(osb));
+    }
+
+    // the sequence map also holds the ObjectStore's key for the bag, which keeps its sequence
+    // number from being discarded
+    private static final class Entry
+    {
+        private final SortedIdSet ids;
+        private final Map<Object, Integer> sequence;
+
+        Entry(SortedIdSet ids, Map<Object, Integer> sequence) {
+            this.ids = ids;
+            this.sequence = sequence;
+        }
+    }
+}
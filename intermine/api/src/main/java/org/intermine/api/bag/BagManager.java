@@ -43,10 +43,6 @@ import org.intermine.metadata.Model;
 import org.intermine.api.userprofile.Tag;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
-import org.intermine.objectstore.query.ObjectStoreBag;
-import org.intermine.objectstore.query.ObjectStoreBagsForObject;
-import org.intermine.objectstore.query.Query;
-import org.intermine.objectstore.query.Results;
 
 /**
  * A BagManager provides access to all global and/or user bags and methods to fetch them by
@@ -613,48 +609,8 @@ public class BagManager
 
     private Collection<InterMineBag> getBagsContainingId(Map<String, InterMineBag> imBags,
             Integer id) {
-        Collection<ObjectStoreBag> objectStoreBags = getObjectStoreBags(imBags.values());
-        Map<Integer, InterMineBag> osBagIdToInterMineBag =
-            getOsBagIdToInterMineBag(imBags.values());
-
-        // this searches bags for an object
-        ObjectStoreBagsForObject osbo = new ObjectStoreBagsForObject(id, objectStoreBags);
-
-        // run query
-        Query q = new Query();
-        q.addToSelect(osbo);
-
-        Collection<InterMineBag> bagsContainingId = new HashSet<InterMineBag>();
-
-        // this should return all bags with that object
-        Results res = osProduction.executeSingleton(q);
-        Iterator<Object> resIter = res.iterator();
-        while (resIter.hasNext()) {
-            Integer osBagId = (Integer) resIter.next();
-            if (osBagIdToInterMineBag.containsKey(osBagId)) {
-                bagsContainingId.add(osBagIdToInterMineBag.get(osBagId));
-            }
-        }
-
-        return bagsContainingId;
-    }
-
-    private static Map<Integer, InterMineBag> getOsBagIdToInterMineBag(
-            Collection<InterMineBag> imBags) {
-        Map<Integer, InterMineBag> osBagIdToInterMineBag = new HashMap<Integer, InterMineBag>();
-
-        for (InterMineBag imBag : imBags) {
-            osBagIdToInterMineBag.put(new Integer(imBag.getOsb().getBagId()), imBag);
-        }
-        return osBagIdToInterMineBag;
-    }
-
-    private static Collection<ObjectStoreBag> getObjectStoreBags(Collection<InterMineBag> imBags) {
-        Set<ObjectStoreBag> objectStoreBags = new HashSet<ObjectStoreBag>();
-        for (InterMineBag imBag : imBags) {
-            objectStoreBags.add(imBag.getOsb());
-        }
-        return objectStoreBags;
+        return BagMembershipIndex.getInstance(osProduction).getBagsContainingId(id,
+                imBags.values());
     }
 
     /**
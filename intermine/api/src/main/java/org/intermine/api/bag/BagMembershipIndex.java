@@ -0,0 +1,408 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+import org.intermine.api.profile.InterMineBag;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.ObjectStoreBag;
+import org.intermine.objectstore.query.ObjectStoreBagsForObject;
+import org.intermine.objectstore.query.Query;
+
+/**
+ * A reverse index from object id to the ids of the ObjectStoreBags that contain it, so that the
+ * lists containing an object can be found without querying every list.  A bag is queued to be
+ * indexed in the background the first time it is looked at, until then it is searched from its
+ * contents in BagContentsCache if they are held, or else with an ObjectStoreBagsForObject query.
+ * Each indexed bag is stamped with its ObjectStore sequence number, a bag that has been changed
+ * in a way the index wasn't told about is searched the slow way and indexed again.  At most
+ * MAX_IDS ids are indexed per ObjectStore, the least recently used bags are dropped beyond that.
+ * InterMineBag keeps the index up to date as ids are added to and removed from its bags.
+ */
+public final class BagMembershipIndex
+{
+    /**
+     * The maximum number of ids indexed for each ObjectStore, counting an id once for each bag
+     * it is in.
+     */
+    public static final int MAX_IDS = 5000000;
+
+    private static final Logger LOG = Logger.getLogger(BagMembershipIndex.class);
+    private static final Map<ObjectStore, BagMembershipIndex> INSTANCES
+        = new WeakHashMap<ObjectStore, BagMembershipIndex>();
+    private static final int[] NO_BAGS = new int[0];
+    private static final Executor INDEXER = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "BagMembershipIndex");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    // the ObjectStore is the key of INSTANCES, so mustn't be strongly referenced from here
+    private final WeakReference<ObjectStore> os;
+    private final int maxIds;
+    private Executor indexer;
+    // object id to the sorted ids of the bags that contain it
+    private final Map<Integer, int[]> objectToBags = new HashMap<Integer, int[]>();
+    // in access order, so the eldest entry is the least recently used
+    private final LinkedHashMap<Integer, Entry> indexed
+        = new LinkedHashMap<Integer, Entry>(16, 0.75F, true);
+    // the bags waiting to be indexed
+    private final Set<Integer> queued = new HashSet<Integer>();
+    private long size = 0;
+
+    /**
+     * Construct an index on its own, for testing.
+     * @param os the ObjectStore
+     * @param maxIds the maximum number of ids to index
+     * @param indexer the Executor that indexes bags
+     */
+    BagMembershipIndex(ObjectStore os, int maxIds, Executor indexer) {
+        this.os = new WeakReference<ObjectStore>(os);
+        this.maxIds = maxIds;
+        this.indexer = indexer;
+    }
+
+    /**
+     * Return the index for the bags of the given ObjectStore.
+     * @param os the production ObjectStore
+     * @return the index
+     */
+    public static synchronized BagMembershipIndex getInstance(ObjectStore os) {
+        BagMembershipIndex index = INSTANCES.get(os);
+        if (index == null) {
+            index = new BagMembershipIndex(os, MAX_IDS, INDEXER);
+            INSTANCES.put(os, index);
+        }
+        return index;
+    }
+
+    /**
+     * Set the Executor that indexes bags, eg. to index them in the calling thread in tests.
+     * @param indexer the Executor
+     */
+    synchronized void setIndexer(Executor indexer) {
+        this.indexer = indexer;
+    }
+
+    /**
+     * Return those of the given bags that contain an object.  Any of the bags that aren't in the
+     * index, or have changed since they were indexed, are queued to be indexed.
+     * @param id the object id
+     * @param bags the bags to search
+     * @return the bags that contain the object
+     */
+    public Collection<InterMineBag> getBagsContainingId(Integer id,
+            Collection<InterMineBag> bags) {
+        for (InterMineBag bag : bags) {
+            if (!isCurrent(bag.getOsb())) {
+                queue(bag);
+            }
+        }
+        Collection<InterMineBag> containing = new HashSet<InterMineBag>();
+        Map<Integer, InterMineBag> unindexed = new HashMap<Integer, InterMineBag>();
+        // the bags found current and the entry for the object have to be read together, or a
+        // bag indexed in between would be missed
+        synchronized (this) {
+            int[] bagIds = getBagIds(id);
+            for (InterMineBag bag : bags) {
+                ObjectStoreBag osb = bag.getOsb();
+                if (isCurrent(osb)) {
+                    if (Arrays.binarySearch(bagIds, osb.getBagId()) >= 0) {
+                        containing.add(bag);
+                    }
+                } else {
+                    unindexed.put(osb.getBagId(), bag);
+                }
+            }
+        }
+        BagContentsCache contentsCache = BagContentsCache.getInstance(getObjectStore());
+        Collection<ObjectStoreBag> toQuery = new HashSet<ObjectStoreBag>();
+        for (InterMineBag bag : unindexed.values()) {
+            SortedIdSet ids = contentsCache.getCurrentContents(bag.getOsb());
+            if (ids == null) {
+                toQuery.add(bag.getOsb());
+            } else if (ids.contains(id.intValue())) {
+                containing.add(bag);
+            }
+        }
+        if (!toQuery.isEmpty()) {
+            Query q = new Query();
+            q.addToSelect(new ObjectStoreBagsForObject(id, toQuery));
+            for (Object bagId : getObjectStore().executeSingleton(q)) {
+                InterMineBag bag = unindexed.get(bagId);
+                if (bag != null) {
+                    containing.add(bag);
+                }
+            }
+        }
+        return containing;
+    }
+
+    /**
+     * Return true if the index reflects the current contents of a bag.
+     * @param osb the ObjectStoreBag
+     * @return true if the bag is indexed and hasn't changed since
+     */
+    public synchronized boolean isCurrent(ObjectStoreBag osb) {
+        return getCurrentSequence(osb) != null;
+    }
+
+    /**
+     * Return the sequence number of a bag if the index reflects its current contents.  This is
+     * to be passed to addIds or removeIds after the bag has been written to.
+     * @param osb the ObjectStoreBag
+     * @return the sequence number of the bag, or null if it isn't indexed or has changed since
+     */
+    public synchronized Map<Object, Integer> getCurrentSequence(ObjectStoreBag osb) {
+        Entry entry = indexed.get(osb.getBagId());
+        if (entry != null && entry.sequence.equals(getSequence(osb))) {
+            return entry.sequence;
+        }
+        return null;
+    }
+
+    /**
+     * Record that ids have been added to a bag.  If the bag wasn't current in the index before
+     * the ids were added, or has been written to by anything else since, it is dropped from the
+     * index instead.
+     * @param osb the ObjectStoreBag
+     * @param ids the ids added
+     * @param before the sequence number of the bag from getCurrentSequence before the ids were
+     * added
+     */
+    public synchronized void addIds(ObjectStoreBag osb, Collection<Integer> ids,
+            Map<Object, Integer> before) {
+        Entry entry = getEntryAfterWrite(osb, before);
+        if (entry != null) {
+            SortedIdSet added = SortedIdSet.of(ids).except(entry.ids);
+            for (Integer id : added.asList()) {
+                addBag(id, osb.getBagId());
+            }
+            size += added.size();
+            indexed.put(osb.getBagId(), new Entry(entry.ids.union(added), getSequence(osb)));
+            evict();
+        }
+    }
+
+    /**
+     * Record that ids have been removed from a bag.  If the bag wasn't current in the index
+     * before the ids were removed, or has been written to by anything else since, it is dropped
+     * from the index instead.
+     * @param osb the ObjectStoreBag
+     * @param ids the ids removed
+     * @param before the sequence number of the bag from getCurrentSequence before the ids were
+     * removed
+     */
+    public synchronized void removeIds(ObjectStoreBag osb, Collection<Integer> ids,
+            Map<Object, Integer> before) {
+        Entry entry = getEntryAfterWrite(osb, before);
+        if (entry != null) {
+            SortedIdSet removed = SortedIdSet.of(ids).intersect(entry.ids);
+            for (Integer id : removed.asList()) {
+                removeBag(id, osb.getBagId());
+            }
+            size -= removed.size();
+            indexed.put(osb.getBagId(), new Entry(entry.ids.except(removed), getSequence(osb)));
+        }
+    }
+
+    /**
+     * Take a bag out of the index, eg. because it has been deleted.
+     * @param osb the ObjectStoreBag
+     */
+    public synchronized void remove(ObjectStoreBag osb) {
+        unindex(osb.getBagId());
+    }
+
+    /**
+     * @return the number of ids indexed
+     */
+    synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Index a bag now, unless it is already current or too big to index.
+     * @param bag the bag
+     * @throws ObjectStoreException if the contents of the bag can't be read
+     */
+    void index(InterMineBag bag) throws ObjectStoreException {
+        ObjectStoreBag osb = bag.getOsb();
+        if (isCurrent(osb) || bag.getSize() > maxIds) {
+            return;
+        }
+        // read the sequence first so that a change while reading makes the entry out of date,
+        // and the contents outside the lock as they may come from the database
+        Map<Object, Integer> sequence = getSequence(osb);
+        SortedIdSet ids = BagContentsCache.getInstance(getObjectStore()).getContents(bag);
+        synchronized (this) {
+            unindex(osb.getBagId());
+            for (Integer id : ids.asList()) {
+                addBag(id, osb.getBagId());
+            }
+            indexed.put(osb.getBagId(), new Entry(ids, sequence));
+            size += ids.size();
+            evict();
+        }
+    }
+
+    private void queue(final InterMineBag bag) {
+        final Integer bagId = bag.getOsb().getBagId();
+        Executor executor;
+        synchronized (this) {
+            if (!queued.add(bagId)) {
+                return;
+            }
+            executor = indexer;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    index(bag);
+                } catch (Exception e) {
+                    LOG.warn("Could not index the contents of bag " + bag.getName(), e);
+                } finally {
+                    synchronized (BagMembershipIndex.this) {
+                        queued.remove(bagId);
+                    }
+                }
+            }
+        });
+    }
+
+    // Each write to a bag moves its sequence number on by exactly one, so the entry can only be
+    // brought up to date if it was current before the write and nothing else has been written
+    // since.  Otherwise the entry is dropped, and the bag is indexed again when next looked at.
+    private Entry getEntryAfterWrite(ObjectStoreBag osb, Map<Object, Integer> before) {
+        Entry entry = indexed.get(osb.getBagId());
+        if (entry == null) {
+            return null;
+        }
+        Map<Object, Integer> after = getSequence(osb);
+        if (before == null || !entry.sequence.equals(before)) {
+            unindex(osb.getBagId());
+            return null;
+        }
+        if (after.equals(before)) {
+            // nothing was written
+            return null;
+        }
+        for (Map.Entry<Object, Integer> sequence : after.entrySet()) {
+            Integer previous = before.get(sequence.getKey());
+            if (previous == null || sequence.getValue().intValue() != previous.intValue() + 1) {
+                unindex(osb.getBagId());
+                return null;
+            }
+        }
+        return entry;
+    }
+
+    private void unindex(Integer bagId) {
+        Entry entry = indexed.remove(bagId);
+        if (entry != null) {
+            for (Integer id : entry.ids.asList()) {
+                removeBag(id, bagId.intValue());
+            }
+            size -= entry.ids.size();
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Integer, Entry>> iter = indexed.entrySet().iterator();
+        while (size > maxIds && iter.hasNext()) {
+            Map.Entry<Integer, Entry> eldest = iter.next();
+            iter.remove();
+            for (Integer id : eldest.getValue().ids.asList()) {
+                removeBag(id, eldest.getKey().intValue());
+            }
+            size -= eldest.getValue().ids.size();
+        }
+    }
+
+    private synchronized int[] getBagIds(Integer id) {
+        int[] bagIds = objectToBags.get(id);
+        return bagIds == null ? NO_BAGS : bagIds;
+    }
+
+    private void addBag(Integer id, int bagId) {
+        int[] bagIds = getBagIds(id);
+        int pos = Arrays.binarySearch(bagIds, bagId);
+        if (pos < 0) {
+            pos = -(pos + 1);
+            int[] newBagIds = new int[bagIds.length + 1];
+            System.arraycopy(bagIds, 0, newBagIds, 0, pos);
+            newBagIds[pos] = bagId;
+            System.arraycopy(bagIds, pos, newBagIds, pos + 1, bagIds.length - pos);
+            objectToBags.put(id, newBagIds);
+        }
+    }
+
+    private void removeBag(Integer id, int bagId) {
+        int[] bagIds = getBagIds(id);
+        int pos = Arrays.binarySearch(bagIds, bagId);
+        if (pos >= 0) {
+            if (bagIds.length == 1) {
+                objectToBags.remove(id);
+            } else {
+                int[] newBagIds = new int[bagIds.length - 1];
+                System.arraycopy(bagIds, 0, newBagIds, 0, pos);
+                System.arraycopy(bagIds, pos + 1, newBagIds, pos, bagIds.length - pos - 1);
+                objectToBags.put(id, newBagIds);
+            }
+        }
+    }
+
+    private ObjectStore getObjectStore() {
+        ObjectStore objectStore = os.get();
+        if (objectStore == null) {
+            throw new IllegalStateException("The ObjectStore of this index has been discarded");
+        }
+        return objectStore;
+    }
+
+    private Map<Object, Integer> getSequence(ObjectStoreBag osb) {
+        return getObjectStore().getSequence(Collections.<Object>singleton(osb));
+    }
+
+    // the sequence map also holds the ObjectStore's key for the bag, which keeps its sequence
+    // number from being discarded
+    private static final class Entry
+    {
+        private final SortedIdSet ids;
+        private final Map<Object, Integer> sequence;
+
+        Entry(SortedIdSet ids, Map<Object, Integer> sequence) {
+            this.ids = ids;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.intermine.api.profile.InterMineBag;
+import org.intermine.api.util.LimitedMap;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.query.ObjectStoreBag;
+
+/**
+ * Holds a MinHashSketch of the contents of each ObjectStoreBag so that the similarity of lists
+ * can be estimated without reading their contents from the database.  Each sketch is stamped
+ * with the ObjectStore sequence number of its bag, a sketch whose bag has been changed in a way
+ * the index wasn't told about is rebuilt the next time it is needed.  InterMineBag keeps the
+ * sketches up to date as ids are added, and drops them when ids are removed.  At most
+ * MAX_SKETCHES sketches are held per ObjectStore, the eldest are dropped beyond that.
+ */
+public final class BagSimilarityIndex
+{
+    /**
+     * The maximum number of sketches held for each ObjectStore.  Each sketch takes about 1kB.
+     */
+    public static final int MAX_SKETCHES = 10000;
+
+    private static final Map<ObjectStore, BagSimilarityIndex> INSTANCES
+        = new WeakHashMap<ObjectStore, BagSimilarityIndex>();
+
+    // the ObjectStore is the key of INSTANCES, so mustn't be strongly referenced from here
+    private final WeakReference<ObjectStore> os;
+    private final Map<Integer, Entry> sketches
+        = Collections.synchronizedMap(new LimitedMap<Integer, Entry>(MAX_SKETCHES));
+
+    private BagSimilarityIndex(ObjectStore os) {
+        this.os = new WeakReference<ObjectStore>(os);
+    }
+
+    /**
+     * Return the index for the bags of the given ObjectStore.
+     * @param os the production ObjectStore
+     * @return the index
+     */
+    public static synchronized BagSimilarityIndex getInstance(ObjectStore os) {
+        BagSimilarityIndex index = INSTANCES.get(os);
+        if (index == null) {
+            index = new BagSimilarityIndex(os);
+            INSTANCES.put(os, index);
+        }
+        return index;
+    }
+
+    /**
+     * Return the sketch of the contents of a bag, building it from the contents of the bag if
+     * there isn't an up to date one.
+     * @param bag the bag
+     * @return the sketch
+     */
+    public MinHashSketch getSketch(InterMineBag bag) {
+        ObjectStoreBag osb = bag.getOsb();
+        Entry entry = sketches.get(osb.getBagId());
+        if (entry != null && entry.sequence.equals(getSequence(osb))) {
+            return entry.sketch;
+        }
+        // read the sequence first so that a change while reading makes the sketch out of date
+        Map<Object, Integer> sequence = getSequence(osb);
+        MinHashSketch sketch = MinHashSketch.of(bag.getContentsAsIds());
+        sketches.put(osb.getBagId(), new Entry(sketch, sequence));
+        return sketch;
+    }
+
+    /**
+     * Return true if there is a sketch for the bag that reflects its current contents.
+     * @param osb the ObjectStoreBag
+     * @return true if the sketch is up to date
+     */
+    public boolean isCurrent(ObjectStoreBag osb) {
+        Entry entry = sketches.get(osb.getBagId());
+        if (entry == null) {
+            return false;
+        }
+        if (!entry.sequence.equals(getSequence(osb))) {
+            // changed behind our back, so the sketch is no use to anyone
+            sketches.remove(osb.getBagId());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Return the sequence number of a bag if its sketch reflects its current contents.  This is
+     * to be passed to addIds after ids have been added to the bag.
+     * @param osb the ObjectStoreBag
+     * @return the sequence number of the bag, or null if there is no up to date sketch
+     */
+    public Map<Object, Integer> getCurrentSequence(ObjectStoreBag osb) {
+        Entry entry = sketches.get(osb.getBagId());
+        if (entry != null && entry.sequence.equals(getSequence(osb))) {
+            return entry.sequence;
+        }
+        return null;
+    }
+
+    /**
+     * Add ids to the sketch of a bag after they have been added to the bag.  If the sketch
+     * wasn't current before the ids were added, or the bag has been written to by anything else
+     * since, the sketch is dropped instead, and rebuilt when next needed.
+     * @param osb the ObjectStoreBag
+     * @param ids the ids added
+     * @param before the sequence number of the bag from getCurrentSequence before the ids were
+     * added
+     */
+    public synchronized void addIds(ObjectStoreBag osb, Collection<Integer> ids,
+            Map<Object, Integer> before) {
+        Entry entry = sketches.get(osb.getBagId());
+        if (entry == null) {
+            return;
+        }
+        Map<Object, Integer> after = getSequence(osb);
+        if (before == null || !entry.sequence.equals(before)) {
+            sketches.remove(osb.getBagId());
+            return;
+        }
+        if (after.equals(before)) {
+            // nothing was written
+            return;
+        }
+        // each write moves the sequence number on by exactly one, so anything more means
+        // another write the sketch doesn't have
+        for (Map.Entry<Object, Integer> sequence : after.entrySet()) {
+            Integer previous = before.get(sequence.getKey());
+            if (previous == null || sequence.getValue().intValue() != previous.intValue() + 1) {
+                sketches.remove(osb.getBagId());
+                return;
+            }
+        }
+        entry.sketch.addAll(ids);
+        sketches.put(osb.getBagId(), new Entry(entry.sketch, after));
+    }
+
+    /**
+     * Drop the sketch of a bag, eg. because ids have been removed from it or it was deleted.
+     * @param osb the ObjectStoreBag
+     */
+    public void remove(ObjectStoreBag osb) {
+        sketches.remove(osb.getBagId());
+    }
+
+    /**
+     * Estimate the similarity of a set of ids to each of the given bags and return the bags with
+     * an estimated Jaccard index of at least minimum, most similar first.
+     * @param sketch a sketch of the ids to compare
+     * @param bags the bags to compare them to
+     * @param minimum the minimum estimated Jaccard index to return
+     * @param limit the maximum number of bags to return, or a negative number for no limit
+     * @return the most similar bags
+     */
+    public List<Similarity> findSimilar(MinHashSketch sketch, Collection<InterMineBag> bags,
+            double minimum, int limit) {
+        List<Similarity> similar = new ArrayList<Similarity>();
+        for (InterMineBag bag : bags) {
+            double jaccard = sketch.jaccard(getSketch(bag));
+            if (jaccard >= minimum) {
+                similar.add(new Similarity(bag, jaccard));
+            }
+        }
+        Collections.sort(similar, new Comparator<Similarity>() {
+            @Override
+            public int compare(Similarity a, Similarity b) {
+                return Double.compare(b.getJaccard(), a.getJaccard());
+            }
+        });
+        if (limit >= 0 && similar.size() > limit) {
+            return new ArrayList<Similarity>(similar.subList(0, limit));
+        }
+        return similar;
+    }
+
+    private Map<Object, Integer> getSequence(ObjectStoreBag osb) {
+        ObjectStore objectStore = os.get();
+        if (objectStore == null) {
+            throw new IllegalStateException("The ObjectStore of this index has been discarded");
+        }
+        return objectStore.getSequence(Collections.<Object>singleton(osb));
+    }
+
+    /**
+     * The estimated similarity of a bag to a set of ids.
+     */
+    public static final class Similarity
+    {
+        private final InterMineBag bag;
+        private final double jaccard;
+
+        private Similarity(InterMineBag bag, double jaccard) {
+            this.bag = bag;
+            this.jaccard = jaccard;
+        }
+
+        /**
+         * @return the bag
+         */
+        public InterMineBag getBag() {
+            return bag;
+        }
+
+        /**
+         * @return the estimated Jaccard index
+         */
+        public double getJaccard() {
+            return jaccard;
+        }
+    }
+
+    // the sequence map also holds the ObjectStore's key for the bag, which keeps its sequence
+    // number from being discarded
+    private static final class Entry
+    {
+        private final MinHashSketch sketch;
+        private final Map<Object, Integer> sequence;
+
+        Entry(MinHashSketch sketch, Map<Object, Integer> sequence) {
+            this.sketch = sketch;
+            this.sequence = sequence;
+        }
+    }
+}
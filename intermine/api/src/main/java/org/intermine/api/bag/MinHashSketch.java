@@ -0,0 +1,155 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A bottom-k MinHash sketch of a set of object ids.  The sketch keeps the k smallest hash values
+ * of the ids added to it, which is enough to estimate the Jaccard index of two sets to within
+ * about 1/sqrt(k) without looking at their contents.  Ids can be added to a sketch but not
+ * removed, a sketch for a set that has lost members must be rebuilt.
+ */
+public class MinHashSketch
+{
+    /** The default number of hash values kept, which gives an error of about 0.06. */
+    public static final int DEFAULT_SIZE = 256;
+
+    private final int k;
+    private int[] hashes;
+    private int count = 0;
+
+    /**
+     * Create an empty sketch that keeps the default number of hash values.
+     */
+    public MinHashSketch() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Create an empty sketch.
+     * @param k the number of hash values to keep
+     */
+    public MinHashSketch(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1, was " + k);
+        }
+        this.k = k;
+        this.hashes = new int[k];
+    }
+
+    /**
+     * Create a sketch of the given ids with the default number of hash values.
+     * @param ids the object ids
+     * @return a new sketch
+     */
+    public static MinHashSketch of(Collection<Integer> ids) {
+        MinHashSketch sketch = new MinHashSketch();
+        sketch.addAll(ids);
+        return sketch;
+    }
+
+    /**
+     * Add an object id to the set this sketch represents.
+     * @param id the object id
+     */
+    public synchronized void add(int id) {
+        int hash = hash(id);
+        if (count == k && hash >= hashes[k - 1]) {
+            return;
+        }
+        int pos = Arrays.binarySearch(hashes, 0, count, hash);
+        if (pos >= 0) {
+            return;
+        }
+        pos = -(pos + 1);
+        int toMove = (count == k ? k - 1 : count) - pos;
+        System.arraycopy(hashes, pos, hashes, pos + 1, toMove);
+        hashes[pos] = hash;
+        if (count < k) {
+            count++;
+        }
+    }
+
+    /**
+     * Add object ids to the set this sketch represents.
+     * @param ids the object ids
+     */
+    public synchronized void addAll(Collection<Integer> ids) {
+        for (Integer id : ids) {
+            if (id != null) {
+                add(id.intValue());
+            }
+        }
+    }
+
+    /**
+     * @return true if no ids have been added to this sketch
+     */
+    public synchronized boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Estimate the Jaccard index, the size of the intersection divided by the size of the
+     * union, of the sets represented by this sketch and another.
+     * @param other the other sketch, which must keep the same number of hash values
+     * @return an estimate between 0 and 1
+     */
+    public double jaccard(MinHashSketch other) {
+        if (other.k != k) {
+            throw new IllegalArgumentException("Can't compare sketches of size " + k + " and "
+                    + other.k);
+        }
+        int[] a;
+        int aCount;
+        synchronized (this) {
+            a = Arrays.copyOf(hashes, count);
+            aCount = count;
+        }
+        int[] b;
+        int bCount;
+        synchronized (other) {
+            b = Arrays.copyOf(other.hashes, other.count);
+            bCount = other.count;
+        }
+        if (aCount == 0 || bCount == 0) {
+            return 0.0;
+        }
+        // walk the k smallest values of the union of the two sketches, counting those in both
+        int i = 0, j = 0, seen = 0, shared = 0;
+        while (seen < k && (i < aCount || j < bCount)) {
+            if (j == bCount || (i < aCount && a[i] < b[j])) {
+                i++;
+            } else if (i == aCount || b[j] < a[i]) {
+                j++;
+            } else {
+                shared++;
+                i++;
+                j++;
+            }
+            seen++;
+        }
+        return ((double) shared) / seen;
+    }
+
+    // the finalisation step of MurmurHash3, ids are often consecutive so must be mixed
+    private static int hash(int id) {
+        int h = id;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
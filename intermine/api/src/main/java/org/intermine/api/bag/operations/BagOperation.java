@@ -10,6 +10,7 @@ package org.intermine.api.bag.operations;
  *
  */
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
@@ -19,13 +20,16 @@ import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
+import org.intermine.api.bag.BagContentsCache;
 import org.intermine.api.bag.ClassKeysNotFoundException;
+import org.intermine.api.bag.SortedIdSet;
 import org.intermine.api.bag.UnknownBagTypeException;
 import org.intermine.api.profile.InterMineBag;
 import org.intermine.api.profile.Profile;
 import org.intermine.metadata.ClassDescriptor;
 import org.intermine.metadata.FieldDescriptor;
 import org.intermine.metadata.Model;
+import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.query.ObjectStoreBagCombination;
 import org.intermine.objectstore.query.Query;
@@ -46,6 +50,7 @@ public abstract class BagOperation implements BagProducer
     protected final Model model;
     private InterMineBag combined;
     private Set<ClassDescriptor> classes = new HashSet<ClassDescriptor>();
+    private boolean inMemory = false;
 
     /**
      * @param model model
@@ -87,6 +92,16 @@ public abstract class BagOperation implements BagProducer
         this.classKeys = classKeys;
     }
 
+    /**
+     * Set whether to combine the contents of the lists in memory rather than in the database.
+     * The contents of each list are read into a BagContentsCache, where they are kept for
+     * later operations, and only the result is written to the database.
+     * @param inMemory true to combine the lists in memory
+     */
+    public void setInMemory(boolean inMemory) {
+        this.inMemory = inMemory;
+    }
+
     /**
      * @return profile
      */
@@ -129,9 +144,18 @@ public abstract class BagOperation implements BagProducer
         String name = getNewBagName();
 
         checkCurrency();
-        initCombined(type, name);
-        buildBag();
-        checkSize();
+        if (inMemory) {
+            SortedIdSet ids = combineContents(getContentsCache());
+            if (ids.isEmpty()) {
+                throw new NoContent();
+            }
+            initCombined(type, name);
+            buildBag(ids, type);
+        } else {
+            initCombined(type, name);
+            buildBag();
+            checkSize();
+        }
 
         return combined;
     }
@@ -169,6 +193,51 @@ public abstract class BagOperation implements BagProducer
         }
     }
 
+    private void buildBag(SortedIdSet ids, String type) throws InternalBagOperationException {
+        try {
+            combined.addIdsToBag(new ArrayList<Integer>(ids.asList()), type);
+        } catch (ObjectStoreException e) {
+            cleanUp();
+            throw new InternalBagOperationException("Error constructing bag", e);
+        }
+        getContentsCache().put(combined.getOsb(), ids);
+    }
+
+    private BagContentsCache getContentsCache() {
+        ObjectStore os = getProfile().getProfileManager().getProductionObjectStore();
+        return BagContentsCache.getInstance(os);
+    }
+
+    /**
+     * Combine the contents of the lists in memory, in the same way as combineBags combines them
+     * in the database.
+     * @param cache the contents of the lists
+     * @return the ids in the combined list
+     */
+    protected SortedIdSet combineContents(BagContentsCache cache) {
+        SortedIdSet union = SortedIdSet.EMPTY;
+        SortedIdSet intersection = null;
+        for (InterMineBag bag : bags) {
+            SortedIdSet ids = cache.getContents(bag);
+            union = union.union(ids);
+            intersection = (intersection == null) ? ids : intersection.intersect(ids);
+        }
+        if (intersection == null) {
+            intersection = SortedIdSet.EMPTY;
+        }
+        switch (getOperationCode()) {
+            case ObjectStoreBagCombination.UNION:
+                return union;
+            case ObjectStoreBagCombination.INTERSECT:
+                return intersection;
+            case ObjectStoreBagCombination.ALLBUTINTERSECT:
+                return union.except(intersection);
+            default:
+                throw new IllegalStateException("Can't combine lists in memory with operation "
+                        + getOperationCode());
+        }
+    }
+
     /**
      * @return combined list
      */
@@ -16,6 +16,8 @@ import static org.intermine.metadata.DescriptorUtils.findSumType;
 
 import java.util.Collection;
 
+import org.intermine.api.bag.BagContentsCache;
+import org.intermine.api.bag.SortedIdSet;
 import org.intermine.api.profile.InterMineBag;
 import org.intermine.api.profile.Profile;
 import org.intermine.metadata.ClassDescriptor;
@@ -82,6 +84,21 @@ public class RelativeComplement extends BagOperation
         return osbc;
     }
 
+    @Override
+    protected SortedIdSet combineContents(BagContentsCache cache) {
+        SortedIdSet ids = SortedIdSet.EMPTY;
+        for (InterMineBag bag : getBags()) {
+            ids = ids.union(cache.getContents(bag));
+        }
+        for (InterMineBag bag : excluded) {
+            if (ids.isEmpty()) {
+                break;
+            }
+            ids = ids.except(cache.getContents(bag));
+        }
+        return ids;
+    }
+
     @Override
     protected int getOperationCode() {
         return ObjectStoreBagCombination.EXCEPT;
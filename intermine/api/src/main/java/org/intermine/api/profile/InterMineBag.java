@@ -18,13 +18,18 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.intermine.api.bag.BagContentsCache;
+import org.intermine.api.bag.BagMembershipIndex;
+import org.intermine.api.bag.BagSimilarityIndex;
 import org.intermine.api.bag.ClassKeysNotFoundException;
 import org.intermine.api.bag.IncompatibleTypesException;
+import org.intermine.api.bag.SortedIdSet;
 import org.intermine.api.bag.UnknownBagTypeException;
 import org.intermine.api.search.PropertyChangeEvent;
 import org.intermine.metadata.ClassDescriptor;
@@ -233,6 +238,9 @@ public class InterMineBag extends StorableBag implements Cloneable
                     SavedBag.class);
             uosw.delete(savedBag);
             removeIdsFromBag(getContentsAsIds(), false);
+            BagSimilarityIndex.getInstance(os).remove(osb);
+            BagContentsCache.getInstance(os).remove(osb);
+            BagMembershipIndex.getInstance(os).remove(osb);
             deleteAllBagValues();
             this.profileId = null;
             this.savedBagId = null;
@@ -418,6 +426,9 @@ public class InterMineBag extends StorableBag implements Cloneable
         SavedBag savedBag = (SavedBag) uosw.getObjectById(savedBagId, SavedBag.class);
         try {
             oswProduction = os.getNewWriter();
+            BagSimilarityIndex.getInstance(os).remove(osb);
+            BagContentsCache.getInstance(os).remove(osb);
+            BagMembershipIndex.getInstance(os).remove(osb);
             osb = oswProduction.createObjectStoreBag();
             oswProduction.addAllToBag(osb, values);
             savedBag.setOsbId(osb.getBagId());
@@ -437,6 +448,10 @@ public class InterMineBag extends StorableBag implements Cloneable
 
     @Override
     public int getSize() throws ObjectStoreException {
+        SortedIdSet ids = BagContentsCache.getInstance(os).getCurrentContents(osb);
+        if (ids != null) {
+            return ids.size();
+        }
         Query q = new Query();
         q.addToSelect(osb);
         q.setDistinct(false);
@@ -739,6 +754,12 @@ public class InterMineBag extends StorableBag implements Cloneable
                 addBagValuesFromIds(ids);
             }
         }
+        // if the similarity sketch and membership index are up to date they can be updated with
+        // just the new ids
+        BagSimilarityIndex similarityIndex = BagSimilarityIndex.getInstance(os);
+        Map<Object, Integer> sketchSequence = similarityIndex.getCurrentSequence(osb);
+        BagMembershipIndex membershipIndex = BagMembershipIndex.getInstance(os);
+        Map<Object, Integer> membershipSequence = membershipIndex.getCurrentSequence(osb);
         ObjectStoreWriter oswProduction = null;
         try {
             oswProduction = os.getNewWriter();
@@ -748,6 +769,8 @@ public class InterMineBag extends StorableBag implements Cloneable
                 oswProduction.close();
             }
         }
+        similarityIndex.addIds(osb, ids, sketchSequence);
+        membershipIndex.addIds(osb, ids, membershipSequence);
     }
 
     /**
@@ -814,6 +837,8 @@ public class InterMineBag extends StorableBag implements Cloneable
      */
     public void removeIdsFromBag(Collection<Integer> ids, boolean updateBagValues)
         throws ObjectStoreException {
+        BagMembershipIndex membershipIndex = BagMembershipIndex.getInstance(os);
+        Map<Object, Integer> membershipSequence = membershipIndex.getCurrentSequence(osb);
         ObjectStoreWriter oswProduction = null;
         try {
             oswProduction = os.getNewWriter();
@@ -823,6 +848,9 @@ public class InterMineBag extends StorableBag implements Cloneable
                 oswProduction.close();
             }
         }
+        membershipIndex.removeIds(osb, ids, membershipSequence);
+        // a sketch can't have ids taken out, it will be rebuilt when next needed
+        BagSimilarityIndex.getInstance(os).remove(osb);
         if (profileId != null && updateBagValues) {
             updateBagValues();
         }
@@ -0,0 +1,367 @@
+package org.intermine.api.query;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.intermine.api.bag.BagQueryResult;
+import org.intermine.api.profile.InterMineBag;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.query.PathExpressionField;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryCloner;
+import org.intermine.objectstore.query.QueryCollectionPathExpression;
+import org.intermine.objectstore.query.QueryObjectPathExpression;
+import org.intermine.objectstore.query.QuerySelectable;
+import org.intermine.objectstore.query.ResultsInfo;
+import org.intermine.pathquery.PathQuery;
+
+/**
+ * Holds the IQL queries made from PathQueries so that the same query run by different users, or
+ * by the same user from a different PathQuery object, isn't translated again.  Queries are keyed
+ * by their XML and the ids of the lists they use, so users only share a translation when they
+ * use the same lists.  Each translation is stamped with the ObjectStore sequence numbers of the
+ * tables and lists it reads and is made again if any of them has been written to since.  The
+ * ids found by LOOKUP constraints depend on whichever tables the bag queries searched, so a
+ * translation with LOOKUP constraints is stamped with every table of the model instead.  The
+ * least recently used translations are dropped once the cache is full.  Everyone gets their own
+ * copy of the query and its path map, so nobody can change the cached translation.
+ */
+public final class QueryTranslationCache
+{
+    /** The default number of translations kept. */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private static final Map<ObjectStore, QueryTranslationCache> INSTANCES
+        = new WeakHashMap<ObjectStore, QueryTranslationCache>();
+
+    // the ObjectStore is the key of INSTANCES, so mustn't be strongly referenced from here
+    private final WeakReference<ObjectStore> os;
+    private final Map<String, Translation> translations;
+    private Set<Object> allComponents = null;
+    private int hits = 0;
+    private int misses = 0;
+
+    /**
+     * Construct a cache with the given capacity.  Most callers want getInstance().
+     * @param os the ObjectStore the queries are run against
+     * @param maxEntries the most translations to keep
+     */
+    public QueryTranslationCache(ObjectStore os, final int maxEntries) {
+        this.os = new WeakReference<ObjectStore>(os);
+        translations = new LinkedHashMap<String, Translation>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Translation> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Return the cache for queries against the given ObjectStore.
+     * @param os the production ObjectStore
+     * @return the cache
+     */
+    public static synchronized QueryTranslationCache getInstance(ObjectStore os) {
+        QueryTranslationCache cache = INSTANCES.get(os);
+        if (cache == null) {
+            cache = new QueryTranslationCache(os, DEFAULT_MAX_ENTRIES);
+            INSTANCES.put(os, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Make the key a PathQuery is cached under.
+     * @param pathQuery the query
+     * @param allBags the lists the user running the query can see, by name
+     * @return the key, or null if the query uses a list that doesn't exist, in which case it can't
+     * be translated
+     */
+    public static String makeKey(PathQuery pathQuery, Map<String, InterMineBag> allBags) {
+        StringBuilder key = new StringBuilder(pathQuery.toXml());
+        for (String bagName : new TreeSet<String>(pathQuery.getBagNames())) {
+            InterMineBag bag = allBags.get(bagName);
+            if (bag == null) {
+                return null;
+            }
+            key.append('\n').append(bagName).append('=').append(bag.getOsb().getBagId());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Return a copy of the translation of a query, or null if it hasn't been translated or its
+     * tables or lists have changed since.
+     * @param key the key made by makeKey()
+     * @return the translation or null
+     */
+    public Translation get(String key) {
+        Translation translation;
+        synchronized (this) {
+            translation = translations.get(key);
+        }
+        // checking the sequence takes the ObjectStore's lock, so don't hold ours
+        boolean current = translation != null
+            && translation.sequence.equals(getObjectStore().getSequence(
+                    translation.sequence.keySet()));
+        synchronized (this) {
+            if (current) {
+                hits++;
+                return translation.copy();
+            }
+            if (translation != null) {
+                translations.remove(key);
+            }
+            misses++;
+            return null;
+        }
+    }
+
+    /**
+     * Read the sequence numbers of every table, to be passed to put() once the query has been
+     * translated.  The bag queries of LOOKUP constraints read the database while translating,
+     * so a translation has to be stamped with the tables as they were before it started.
+     * @return the sequence numbers of every table of the model
+     */
+    public Map<Object, Integer> getSequenceBeforeTranslation() {
+        ObjectStore objectStore = getObjectStore();
+        return objectStore.getSequence(getAllComponents(objectStore));
+    }
+
+    /**
+     * Store the translation of a query.  The query and maps are kept as they are and must not be
+     * changed afterwards, the translation returned is a copy.
+     * @param key the key made by makeKey(), or null to make a translation without storing it
+     * @param query the IQL query
+     * @param pathToQueryNode the map from path to the QuerySelectables of the query
+     * @param pathToBagQueryResult the results of the LOOKUP constraints of the query
+     * @param sequenceBefore the result of getSequenceBeforeTranslation() read before the query
+     * was translated
+     * @return a copy of the translation
+     */
+    public Translation put(String key, Query query, Map<String, QuerySelectable> pathToQueryNode,
+            Map<String, BagQueryResult> pathToBagQueryResult,
+            Map<Object, Integer> sequenceBefore) {
+        ObjectStore objectStore = getObjectStore();
+        Set<Object> components = new HashSet<Object>(objectStore.getComponentsForQuery(query));
+        if (!pathToBagQueryResult.isEmpty()) {
+            components.addAll(getAllComponents(objectStore));
+        }
+        Map<Object, Integer> sequence = objectStore.getSequence(components);
+        if (!pathToBagQueryResult.isEmpty()) {
+            // a table written to while the bag queries ran leaves the translation stale at once
+            for (Map.Entry<Object, Integer> entry : sequence.entrySet()) {
+                Integer before = sequenceBefore.get(entry.getKey());
+                if (before != null) {
+                    entry.setValue(before);
+                }
+            }
+        }
+        Translation translation = new Translation(query, pathToQueryNode, pathToBagQueryResult,
+                sequence, new AtomicReference<ResultsInfo>());
+        if (key != null) {
+            synchronized (this) {
+                translations.put(key, translation);
+            }
+        }
+        return translation.copy();
+    }
+
+    /**
+     * Return the components of the ObjectStore for every class in the model.
+     */
+    private synchronized Set<Object> getAllComponents(ObjectStore objectStore) {
+        if (allComponents == null) {
+            Query q = new Query();
+            for (ClassDescriptor cld : objectStore.getModel().getClassDescriptors()) {
+                q.addFrom(new QueryClass(cld.getType()));
+            }
+            allComponents = new HashSet<Object>(objectStore.getComponentsForQuery(q));
+        }
+        return allComponents;
+    }
+
+    private ObjectStore getObjectStore() {
+        ObjectStore objectStore = os.get();
+        if (objectStore == null) {
+            throw new IllegalStateException("The ObjectStore of this cache has been discarded");
+        }
+        return objectStore;
+    }
+
+    /**
+     * Drop all translations.
+     */
+    public synchronized void clear() {
+        translations.clear();
+    }
+
+    /**
+     * @return the number of translations held
+     */
+    public synchronized int size() {
+        return translations.size();
+    }
+
+    /**
+     * @return the number of lookups that found a current translation
+     */
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that didn't find a current translation
+     */
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    /**
+     * A PathQuery translated into an IQL query.  Each lookup in the cache gets its own copy of
+     * the query and of the map from paths to its nodes, which can be changed without affecting
+     * anyone else.  The BagQueryResults are shared and must not be changed.
+     */
+    public static final class Translation
+    {
+        private final Query query;
+        private final Map<String, QuerySelectable> pathToQueryNode;
+        private final Map<String, BagQueryResult> pathToBagQueryResult;
+        // the sequence map also holds the ObjectStore's keys for the components, which keeps
+        // their sequence numbers from being discarded
+        private final Map<Object, Integer> sequence;
+        // shared by all the copies
+        private final AtomicReference<ResultsInfo> info;
+
+        private Translation(Query query, Map<String, QuerySelectable> pathToQueryNode,
+                Map<String, BagQueryResult> pathToBagQueryResult,
+                Map<Object, Integer> sequence, AtomicReference<ResultsInfo> info) {
+            this.query = query;
+            this.pathToQueryNode = new HashMap<String, QuerySelectable>(pathToQueryNode);
+            this.pathToBagQueryResult = Collections.unmodifiableMap(
+                    new HashMap<String, BagQueryResult>(pathToBagQueryResult));
+            this.sequence = sequence;
+            this.info = info;
+        }
+
+        /**
+         * Copy the query, and point the path map at the nodes of the copy.
+         */
+        private Translation copy() {
+            Query copy = QueryCloner.cloneQuery(query);
+            Map<Object, Object> nodes = new IdentityHashMap<Object, Object>();
+            pairNodes(query, copy, nodes);
+            Map<String, QuerySelectable> copyPathToQueryNode
+                = new HashMap<String, QuerySelectable>();
+            for (Map.Entry<String, QuerySelectable> entry : pathToQueryNode.entrySet()) {
+                QuerySelectable node = (QuerySelectable) nodes.get(entry.getValue());
+                // nodes that aren't copied, eg. QueryClasses, are immutable
+                copyPathToQueryNode.put(entry.getKey(), node == null ? entry.getValue() : node);
+            }
+            return new Translation(copy, copyPathToQueryNode, pathToBagQueryResult, sequence,
+                    info);
+        }
+
+        /**
+         * @return the IQL query
+         */
+        public Query getQuery() {
+            return query;
+        }
+
+        /**
+         * @return the map from path to the QuerySelectables of the query
+         */
+        public Map<String, QuerySelectable> getPathToQueryNode() {
+            return pathToQueryNode;
+        }
+
+        /**
+         * @return the results of the LOOKUP constraints of the query
+         */
+        public Map<String, BagQueryResult> getPathToBagQueryResult() {
+            return pathToBagQueryResult;
+        }
+
+        /**
+         * @return the estimate of the size and running time of the query, or null if it hasn't
+         * been explained
+         */
+        public ResultsInfo getInfo() {
+            return info.get();
+        }
+
+        /**
+         * @param info the estimate of the size and running time of the query
+         */
+        public void setInfo(ResultsInfo info) {
+            this.info.set(info);
+        }
+    }
+
+    /**
+     * Record which node of a copy made by QueryCloner corresponds to each node of the original,
+     * walking the two in step.
+     */
+    private static void pairNodes(Object orig, Object copy, Map<Object, Object> nodes) {
+        if (orig == null || copy == null || nodes.containsKey(orig)) {
+            return;
+        }
+        nodes.put(orig, copy);
+        if (orig instanceof Query) {
+            Query origQ = (Query) orig;
+            Query copyQ = (Query) copy;
+            pairNodes(origQ.getFrom(), copyQ.getFrom(), nodes);
+            pairNodes(origQ.getSelect(), copyQ.getSelect(), nodes);
+            pairNodes(origQ.getOrderBy(), copyQ.getOrderBy(), nodes);
+        } else if (orig instanceof QueryObjectPathExpression) {
+            QueryObjectPathExpression origQope = (QueryObjectPathExpression) orig;
+            QueryObjectPathExpression copyQope = (QueryObjectPathExpression) copy;
+            pairNodes(origQope.getDefaultClass(), copyQope.getDefaultClass(), nodes);
+            pairNodes(origQope.getSelect(), copyQope.getSelect(), nodes);
+        } else if (orig instanceof QueryCollectionPathExpression) {
+            QueryCollectionPathExpression origQcpe = (QueryCollectionPathExpression) orig;
+            QueryCollectionPathExpression copyQcpe = (QueryCollectionPathExpression) copy;
+            pairNodes(origQcpe.getDefaultClass(), copyQcpe.getDefaultClass(), nodes);
+            pairNodes(origQcpe.getFrom(), copyQcpe.getFrom(), nodes);
+            pairNodes(origQcpe.getSelect(), copyQcpe.getSelect(), nodes);
+        } else if (orig instanceof PathExpressionField) {
+            pairNodes(((PathExpressionField) orig).getQope(),
+                    ((PathExpressionField) copy).getQope(), nodes);
+        }
+    }
+
+    private static void pairNodes(Collection<?> orig, Collection<?> copy,
+            Map<Object, Object> nodes) {
+        if (orig.size() != copy.size()) {
+            return;
+        }
+        Iterator<?> copyIter = copy.iterator();
+        for (Object origNode : orig) {
+            pairNodes(origNode, copyIter.next(), nodes);
+        }
+    }
+}
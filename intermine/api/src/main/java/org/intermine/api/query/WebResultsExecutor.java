@@ -89,9 +89,10 @@ public class WebResultsExecutor extends QueryExecutor
      */
     public WebResults execute(PathQuery pathQuery, Map<String,
             BagQueryResult> pathToBagQueryResult) throws ObjectStoreException {
-        Map<String, QuerySelectable> pathToQueryNode = new HashMap<String, QuerySelectable>();
-
-        Query q = makeQuery(pathQuery, pathToBagQueryResult, pathToQueryNode);
+        QueryTranslationCache.Translation translation = translate(pathQuery);
+        Query q = translation.getQuery();
+        Map<String, QuerySelectable> pathToQueryNode = translation.getPathToQueryNode();
+        pathToBagQueryResult.putAll(translation.getPathToBagQueryResult());
 
         Results results = os.execute(q, Constants.BATCH_SIZE, true, true, false);
 
@@ -122,8 +123,41 @@ public class WebResultsExecutor extends QueryExecutor
      * @throws ObjectStoreException if there is a problem explaining the query
      */
     public ResultsInfo explain(PathQuery pathQuery) throws ObjectStoreException {
-        Query q = makeQuery(pathQuery);
-        return os.estimate(q);
+        QueryTranslationCache.Translation translation = translate(pathQuery);
+        ResultsInfo info = translation.getInfo();
+        if (info == null) {
+            info = os.estimate(translation.getQuery());
+            translation.setInfo(info);
+        }
+        return info;
+    }
+
+    /**
+     * Translate a PathQuery into an IQL query, or find the translation made earlier for an
+     * identical query using the same lists, by this user or any other.  The query and path map
+     * of the translation are this caller's own copies.
+     *
+     * @param pathQuery the query to translate
+     * @return the translation
+     * @throws ObjectStoreException if problem creating query
+     */
+    protected QueryTranslationCache.Translation translate(PathQuery pathQuery)
+        throws ObjectStoreException {
+        Map<String, InterMineBag> allBags = bagManager.getBags(profile);
+        QueryTranslationCache cache = QueryTranslationCache.getInstance(os);
+        String key = QueryTranslationCache.makeKey(pathQuery, allBags);
+        QueryTranslationCache.Translation translation = (key == null) ? null : cache.get(key);
+        if (translation == null) {
+            Map<String, BagQueryResult> pathToBagQueryResult
+                = new HashMap<String, BagQueryResult>();
+            Map<String, QuerySelectable> pathToQueryNode = new HashMap<String, QuerySelectable>();
+            Map<Object, Integer> sequenceBefore = cache.getSequenceBeforeTranslation();
+            Query q = MainHelper.makeQuery(pathQuery, allBags, pathToQueryNode, bagQueryRunner,
+                    pathToBagQueryResult);
+            translation = cache.put(key, q, pathToQueryNode, pathToBagQueryResult,
+                    sequenceBefore);
+        }
+        return translation;
     }
 
     /**
@@ -134,7 +168,7 @@ public class WebResultsExecutor extends QueryExecutor
      * @throws ObjectStoreException if problem creating query
      */
     public String makeSql(PathQuery pathQuery) throws ObjectStoreException {
-        Query query = makeQuery(pathQuery);
+        Query query = translate(pathQuery).getQuery();
         ObjectStoreInterMineImpl osimi = (ObjectStoreInterMineImpl) os;
         return osimi.generateSql(query);
     }
@@ -210,7 +244,15 @@ public class WebResultsExecutor extends QueryExecutor
      * @return a ResultsInfo object, or null if none is present in the cache
      */
     public ResultsInfo getQueryInfo(PathQuery query) {
-        return infoCache.get(query);
+        ResultsInfo info = infoCache.get(query);
+        if (info == null) {
+            // an identical query may have been explained for someone else
+            String key = QueryTranslationCache.makeKey(query, bagManager.getBags(profile));
+            QueryTranslationCache.Translation translation = (key == null) ? null
+                : QueryTranslationCache.getInstance(os).get(key);
+            info = (translation == null) ? null : translation.getInfo();
+        }
+        return info;
     }
 
     /**
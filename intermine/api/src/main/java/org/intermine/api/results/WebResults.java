@@ -73,6 +73,8 @@ public class WebResults
     private PathQuery pathQuery;
     private LinkRedirectManager redirector;
     private InterMineAPI im;
+    // built from columnPaths when the first row is translated, see getColumnTranslations()
+    private List<ColumnTranslation> columnTranslations = null;
 
     // incremented each time goFaster() is called, and decremented each time releaseGoFaster() is
     // called.  the objectstore goFaster() method is only called when goingFaster == 1 and the
@@ -375,33 +377,22 @@ public class WebResults
         return translateRow(flatResults.get(index));
     }
 
-    // TODO javadoc to describe what this does
+    /**
+     * Turn a row of the flattened results into ResultElements for the columns, with a cell for
+     * each column in each of the row's sub-rows.  The work that only depends on the column is
+     * done once per column, see getColumnTranslations().
+     */
     private MultiRow<ResultsRow<MultiRowValue<ResultElement>>> translateRow(
             MultiRow<ResultsRow<MultiRowValue>> multiRow) {
+        List<ColumnTranslation> translations = getColumnTranslations();
         try {
             MultiRow<ResultsRow<MultiRowValue<ResultElement>>> retval
                 = new MultiRow<ResultsRow<MultiRowValue<ResultElement>>>();
             for (ResultsRow<MultiRowValue> initialList : multiRow) {
                 ResultsRow<MultiRowValue<ResultElement>> rowCells
                     = new ResultsRow<MultiRowValue<ResultElement>>();
-                for (Path columnPath : columnPaths) {
-                    String columnName = columnPath.toStringNoConstraints();
-                    Integer columnIndexInteger = pathToIndex.get(columnName);
-                    String parentColumnName = columnPath.getPrefix().toStringNoConstraints();
-                    if (columnIndexInteger == null) {
-                        columnIndexInteger = pathToIndex.get(parentColumnName);
-                    }
-
-                    if (columnIndexInteger == null) {
-                        throw new NullPointerException("Path: \"" + columnName
-                                + "\", pathToIndex: \"" + pathToIndex + "\", prefix: \""
-                                + parentColumnName + "\", query: \""
-                                + PathQueryBinding.marshal(pathQuery, "",
-                                    pathQuery.getModel().getName(),
-                                    PathQuery.USERPROFILE_VERSION) + "\"");
-                    }
-                    int columnIndex = columnIndexInteger.intValue();
-                    MultiRowValue origO = initialList.get(columnIndex);
+                for (ColumnTranslation column : translations) {
+                    MultiRowValue origO = initialList.get(column.columnIndex);
                     FastPathObject o = (FastPathObject) (origO == null ? null : origO.getValue());
                     int rowspan = -1;
                     if (origO == null) {
@@ -409,58 +400,15 @@ public class WebResults
                     } else if (origO instanceof MultiRowFirstValue) {
                         rowspan = ((MultiRowFirstValue) origO).getRowspan();
                     }
-                    String lastCd;
-                    if (columnPath.endIsAttribute()) {
-                        lastCd = columnPath.getLastClassDescriptor().getName();
-                    } else {
-                        // special case for columns that contain objects eg. Gene.chromosomeLocation
-                        lastCd = columnPath.getLastClassDescriptor().getName();
-                    }
-                    String type = TypeUtil.unqualifiedName(lastCd);
-                    Path path;
-                    String fieldName = null;
-                    try {
-                        if (columnPath.endIsAttribute()) {
-                            fieldName = columnName.substring(columnName.lastIndexOf(".") + 1);
-                            path = new Path(model, type + '.' + fieldName);
-                        } else {
-                            // special case for columns that contain objects
-                            path = new Path(model, type);
-                        }
-                    } catch (PathException e) {
-                        // Should never happen if the field name is valid
-                        throw new Error("There must be a bug", e);
-                    }
 
                     // Three cases:
                     // 1) attribute has a value so create a result element
                     // 2) we have an object but attribute is null -> create a ResultElement with
                     // value null
                     // 3) the object is null (outer join) so add null value rowCells
-//                    Object fieldValue;
-//                    try {
-//                        fieldValue = (o == null ? null : PathUtil.resolvePath(path, o));
-//                    } catch (PathException e) {
-//                        throw new IllegalArgumentException("Path: \"" + columnName
-//                                + "\", pathToIndex: \"" + pathToIndex + "\", prefix: \""
-//                                + parentColumnName + "\", query: \""
-//                                + PathQueryBinding.marshal(pathQuery, "", pathQuery.getModel()
-//                                    .getName(), PathQuery.USERPROFILE_VERSION)
-//                                + "\", columnIndex: \"" + columnIndex + "\", initialList: \""
-//                                + initialList + "\"", e);
-//                    }
                     if (o != null) {
-                        String fieldCDName = path.getLastClassDescriptor().getName();
-                        String unqualifiedFieldCD = TypeUtil.unqualifiedName(fieldCDName);
-                        boolean isKeyField;
-                        if (fieldName == null) {
-                            // special case for columns that contain objects
-                            isKeyField = false;
-                        } else {
-                            isKeyField = ClassKeyHelper.isKeyField(classKeys, unqualifiedFieldCD,
-                                            fieldName);
-                        }
-                        ResultElement resultElement = new ResultElement(o, path, isKeyField);
+                        ResultElement resultElement
+                            = new ResultElement(o, column.path, column.isKeyField);
                         // link to report page by default, unless it says otherwise in config
 
                         if (redirector != null) {
@@ -496,6 +444,60 @@ public class WebResults
         }
     }
 
+    /**
+     * Work out, for each column, where its value is in a row of the flattened results and the
+     * path and key field status of the ResultElements made for it.  This is done the first time a
+     * row is translated and again if columns have been added since.
+     */
+    private synchronized List<ColumnTranslation> getColumnTranslations() {
+        if (columnTranslations != null && columnTranslations.size() == columnPaths.size()) {
+            return columnTranslations;
+        }
+        List<ColumnTranslation> translations = new ArrayList<ColumnTranslation>();
+        for (Path columnPath : columnPaths) {
+            String columnName = columnPath.toStringNoConstraints();
+            Integer columnIndexInteger = pathToIndex.get(columnName);
+            String parentColumnName = columnPath.getPrefix().toStringNoConstraints();
+            if (columnIndexInteger == null) {
+                columnIndexInteger = pathToIndex.get(parentColumnName);
+            }
+
+            if (columnIndexInteger == null) {
+                throw new NullPointerException("Path: \"" + columnName
+                        + "\", pathToIndex: \"" + pathToIndex + "\", prefix: \""
+                        + parentColumnName + "\", query: \""
+                        + PathQueryBinding.marshal(pathQuery, "",
+                            pathQuery.getModel().getName(),
+                            PathQuery.USERPROFILE_VERSION) + "\"");
+            }
+            // columns that contain objects eg. Gene.chromosomeLocation have no field name
+            String type = TypeUtil.unqualifiedName(columnPath.getLastClassDescriptor().getName());
+            Path path;
+            String fieldName = null;
+            try {
+                if (columnPath.endIsAttribute()) {
+                    fieldName = columnName.substring(columnName.lastIndexOf(".") + 1);
+                    path = new Path(model, type + '.' + fieldName);
+                } else {
+                    path = new Path(model, type);
+                }
+            } catch (PathException e) {
+                // Should never happen if the field name is valid
+                throw new Error("There must be a bug", e);
+            }
+            boolean isKeyField = false;
+            if (fieldName != null) {
+                String fieldCDName = path.getLastClassDescriptor().getName();
+                isKeyField = ClassKeyHelper.isKeyField(classKeys,
+                        TypeUtil.unqualifiedName(fieldCDName), fieldName);
+            }
+            translations.add(new ColumnTranslation(columnIndexInteger.intValue(), path,
+                    isKeyField));
+        }
+        columnTranslations = translations;
+        return translations;
+    }
+
     /**
      * @return iterator over results
      */
@@ -535,6 +537,19 @@ public class WebResults
         return pathQuery;
     }
 
+    private static final class ColumnTranslation
+    {
+        private final int columnIndex;
+        private final Path path;
+        private final boolean isKeyField;
+
+        ColumnTranslation(int columnIndex, Path path, boolean isKeyField) {
+            this.columnIndex = columnIndex;
+            this.path = path;
+            this.isKeyField = isKeyField;
+        }
+    }
+
     private class Iter implements Iterator<MultiRow<ResultsRow<MultiRowValue<ResultElement>>>>
     {
         private Iterator<MultiRow<ResultsRow<MultiRowValue>>> subIter;
@@ -15,6 +15,7 @@ import org.intermine.metadata.FieldDescriptor;
 import org.intermine.objectstore.ObjectStore;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -40,4 +41,33 @@ public interface IndexHandler
     void createIndex(ObjectStore os, Map<String, List<FieldDescriptor>> classKeys)
             throws IOException, SolrServerException;
 
+    /**
+     * Add the objects stored since the index was last built or updated to the index, or build
+     * the index from scratch if that isn't known.
+     *
+     * @param os Objectstore that is passed CreateSearchIndexTask
+     * @param classKeys
+     *                  classKeys from InterMineAPI, map of classname to all key field
+     *                  descriptors
+     * @throws IOException IOException is thrown from Objectstore
+     * @throws SolrServerException is thrown from solr
+     */
+    void updateIndex(ObjectStore os, Map<String, List<FieldDescriptor>> classKeys)
+            throws IOException, SolrServerException;
+
+    /**
+     * Update the index for objects that have been stored, changed or deleted, and the objects
+     * whose documents refer to them, without rebuilding the rest of the index.
+     *
+     * @param os Objectstore that is passed CreateSearchIndexTask
+     * @param classKeys
+     *                  classKeys from InterMineAPI, map of classname to all key field
+     *                  descriptors
+     * @param changedIds the ids of the objects that have changed
+     * @throws IOException IOException is thrown from Objectstore
+     * @throws SolrServerException is thrown from solr
+     */
+    void updateIndex(ObjectStore os, Map<String, List<FieldDescriptor>> classKeys,
+            Collection<Integer> changedIds) throws IOException, SolrServerException;
+
 }
@@ -68,8 +68,24 @@ public final class KeywordSearchPropertiesManager
 
     private String solrUrl;
 
+    private String indexEngine = "solr";
+
+    private String luceneDirectory;
+
     private int indexBatchSize = 1000;
 
+    private int indexFetcherThreads = 1;
+
+    private int indexWriterThreads = 1;
+
+    private int indexPartitions = 0;
+
+    private boolean incremental = false;
+
+    private boolean blueGreen = false;
+
+    private String blueGreenConfigSet = "_default";
+
     private boolean enableOptimize = false;
 
     private KeywordSearchPropertiesManager(ObjectStore objectStore) {
@@ -230,8 +246,28 @@ public final class KeywordSearchPropertiesManager
                                         || "on".equals(value.toLowerCase());
                     } else if ("index.solrurl".equals(key) && !StringUtils.isBlank(value)) {
                         solrUrl = value;
+                    } else if ("index.engine".equals(key) && !StringUtils.isBlank(value)) {
+                        indexEngine = value.trim().toLowerCase();
+                    } else if ("index.lucene.directory".equals(key)
+                            && !StringUtils.isBlank(value)) {
+                        luceneDirectory = value.trim();
                     } else if ("index.batch.size".equals(key) && !StringUtils.isBlank(value)) {
                         indexBatchSize = Integer.parseInt(value);
+                    } else if ("index.fetcher.threads".equals(key)
+                            && !StringUtils.isBlank(value)) {
+                        indexFetcherThreads = Math.max(1, Integer.parseInt(value));
+                    } else if ("index.writer.threads".equals(key)
+                            && !StringUtils.isBlank(value)) {
+                        indexWriterThreads = Math.max(1, Integer.parseInt(value));
+                    } else if ("index.partitions".equals(key) && !StringUtils.isBlank(value)) {
+                        indexPartitions = Integer.parseInt(value);
+                    } else if ("index.incremental".equals(key) && !StringUtils.isBlank(value)) {
+                        incremental = Boolean.parseBoolean(value);
+                    } else if ("index.bluegreen".equals(key) && !StringUtils.isBlank(value)) {
+                        blueGreen = Boolean.parseBoolean(value);
+                    } else if ("index.bluegreen.configset".equals(key)
+                            && !StringUtils.isBlank(value)) {
+                        blueGreenConfigSet = value;
                     } else if ("index.optimize".equals(key) && !StringUtils.isBlank(value)) {
                         enableOptimize = Boolean.parseBoolean(value);
                     }
@@ -401,6 +437,20 @@ public final class KeywordSearchPropertiesManager
         return solrUrl;
     }
 
+    /**
+     * @return the search engine holding the index, "solr" unless configured
+     */
+    public String getIndexEngine() {
+        return indexEngine;
+    }
+
+    /**
+     * @return the directory of the embedded lucene index, if the engine is "lucene"
+     */
+    public String getLuceneDirectory() {
+        return luceneDirectory;
+    }
+
     /**
      * @return index batch size needed by solr
      */
@@ -408,6 +458,54 @@ public final class KeywordSearchPropertiesManager
         return indexBatchSize;
     }
 
+    /**
+     * @return the number of threads fetching objects and making documents while indexing
+     */
+    public int getIndexFetcherThreads() {
+        return indexFetcherThreads;
+    }
+
+    /**
+     * @return the number of threads adding documents to solr while indexing
+     */
+    public int getIndexWriterThreads() {
+        return indexWriterThreads;
+    }
+
+    /**
+     * @return the number of id ranges to split the objects into while indexing, four per fetcher
+     * thread unless configured
+     */
+    public int getIndexPartitions() {
+        if (indexPartitions > 0) {
+            return indexPartitions;
+        }
+        return indexFetcherThreads == 1 ? 1 : indexFetcherThreads * 4;
+    }
+
+    /**
+     * @return true if the index should only be updated with the objects stored since it was last
+     * built, rather than rebuilt
+     */
+    public boolean getIncremental() {
+        return incremental;
+    }
+
+    /**
+     * @return true if a full build should go into a second solr core which is then swapped with
+     * the live one, so that searches keep working during the build
+     */
+    public boolean getBlueGreen() {
+        return blueGreen;
+    }
+
+    /**
+     * @return the configset to create the second solr core of a blue/green build from
+     */
+    public String getBlueGreenConfigSet() {
+        return blueGreenConfigSet;
+    }
+
     /**
      * @return flag to whether optimize the index or not
      */
@@ -0,0 +1,57 @@
+package org.intermine.api.searchengine;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.intermine.api.searchengine.lucene.LuceneIndexHandler;
+import org.intermine.api.searchengine.lucene.LuceneKeywordSearchHandler;
+import org.intermine.api.searchengine.solr.SolrIndexHandler;
+import org.intermine.api.searchengine.solr.SolrKeywordSearchHandler;
+import org.intermine.objectstore.ObjectStore;
+
+/**
+ * Makes the handlers of the search engine configured by index.engine in
+ * keyword_search.properties: "solr", the default, or "lucene" for an index embedded in the
+ * webapp.
+ */
+public final class SearchEngineFactory
+{
+    private static final String LUCENE = "lucene";
+
+    private SearchEngineFactory() {
+        // don't
+    }
+
+    /**
+     * @param os the production ObjectStore
+     * @return the handler for building the index
+     */
+    public static IndexHandler getIndexHandler(ObjectStore os) {
+        if (isLucene(os)) {
+            return new LuceneIndexHandler();
+        }
+        return new SolrIndexHandler();
+    }
+
+    /**
+     * @param os the production ObjectStore
+     * @return the handler for searching the index
+     */
+    public static KeywordSearchHandler getKeywordSearchHandler(ObjectStore os) {
+        if (isLucene(os)) {
+            return new LuceneKeywordSearchHandler();
+        }
+        return new SolrKeywordSearchHandler();
+    }
+
+    private static boolean isLucene(ObjectStore os) {
+        return LUCENE.equals(KeywordSearchPropertiesManager.getInstance(os).getIndexEngine());
+    }
+}
@@ -0,0 +1,241 @@
+package org.intermine.api.searchengine;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.common.SolrInputDocument;
+import org.intermine.api.searchengine.solr.SolrIndexPartition;
+import org.intermine.api.searchengine.solr.SolrObjectHandler;
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.model.InterMineObject;
+import org.intermine.modelproduction.MetadataManager;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryFunction;
+import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.SimpleConstraint;
+import org.intermine.pathquery.PathException;
+import org.intermine.util.ObjectPipe;
+
+/**
+ * The parts of building a keyword search index that don't depend on the search engine: finding
+ * the objects to index, recording how far the index has got, and fetching the objects and
+ * making their documents.  The documents are made as SolrInputDocuments whichever engine they
+ * are for.
+ */
+public final class SearchIndexHelper
+{
+    private static final Logger LOG = Logger.getLogger(SearchIndexHelper.class);
+
+    // the most ids looked up in one query
+    private static final int IDS_PER_QUERY = 10000;
+
+    private SearchIndexHelper() {
+        // don't
+    }
+
+    /**
+     * Start the threads that fetch the objects in the partitions and make their documents, as
+     * many as are configured but no more than there are partitions.  The threads put the
+     * documents on the queue, but don't finish it.
+     * @param os the ObjectStore
+     * @param keywordSearchPropertiesManager the keyword search configuration
+     * @param indexingQueue the queue for the documents
+     * @param partitions the id ranges to index, shared between the fetchers
+     * @param solrClient the solr client, or null if the documents aren't for solr
+     * @param indexedFields the names of the fields indexed so far, shared between the fetchers
+     * @param existingFields the fields already in the solr schema, or null to leave the schema
+     * alone
+     * @return the started fetchers
+     */
+    public static List<SolrObjectHandler> startFetchers(ObjectStore os,
+            KeywordSearchPropertiesManager keywordSearchPropertiesManager,
+            ObjectPipe<SolrInputDocument> indexingQueue, Queue<SolrIndexPartition> partitions,
+            SolrClient solrClient, List<String> indexedFields, List<String> existingFields) {
+        int fetcherCount = Math.min(keywordSearchPropertiesManager.getIndexFetcherThreads(),
+                partitions.size());
+        LOG.info("Starting " + fetcherCount + " fetcher threads for " + partitions.size()
+                + " partitions...");
+        List<SolrObjectHandler> fetchers = new ArrayList<SolrObjectHandler>();
+        for (int i = 0; i < fetcherCount; i++) {
+            SolrObjectHandler fetchThread =
+                    new SolrObjectHandler(os,
+                            keywordSearchPropertiesManager.getClassKeys(),
+                            indexingQueue,
+                            keywordSearchPropertiesManager.getIgnoredClasses(),
+                            keywordSearchPropertiesManager.getIgnoredFields(),
+                            keywordSearchPropertiesManager.getSpecialReferences(),
+                            keywordSearchPropertiesManager.getClassBoost(),
+                            keywordSearchPropertiesManager.getFacets(),
+                            keywordSearchPropertiesManager.getAttributePrefixes(),
+                            solrClient,
+                            indexedFields,
+                            existingFields,
+                            partitions);
+            fetchThread.setName("SolrObjectHandler-" + (i + 1));
+            fetchThread.start();
+            fetchers.add(fetchThread);
+        }
+        return fetchers;
+    }
+
+    /**
+     * Return the lowest and highest object ids, or null if there are no objects.
+     * @param os the ObjectStore
+     * @return the lowest and highest ids
+     */
+    public static int[] getIdRange(ObjectStore os) {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(InterMineObject.class);
+        q.addFrom(qc);
+        QueryField id = new QueryField(qc, "id");
+        q.addToSelect(new QueryFunction(id, QueryFunction.MIN));
+        q.addToSelect(new QueryFunction(id, QueryFunction.MAX));
+        List<?> row = (List<?>) os.execute(q).get(0);
+        if (row.get(0) == null) {
+            return null;
+        }
+        return new int[] {((Number) row.get(0)).intValue(), ((Number) row.get(1)).intValue()};
+    }
+
+    /**
+     * Return the ids of the objects with higher ids than the given id, in order, a page at a
+     * time.
+     * @param os the ObjectStore
+     * @param afterId the id to start after
+     * @param limit the most ids to return
+     * @return the lowest ids above afterId, an empty list if there are none
+     */
+    public static List<Integer> getIdsAfter(ObjectStore os, int afterId, int limit) {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(InterMineObject.class);
+        q.addFrom(qc);
+        QueryField id = new QueryField(qc, "id");
+        q.addToSelect(id);
+        q.setConstraint(new SimpleConstraint(id, ConstraintOp.GREATER_THAN,
+                new QueryValue(Integer.valueOf(afterId))));
+        q.addToOrderBy(id);
+        List<Integer> ids = new ArrayList<Integer>();
+        try {
+            for (List<?> row : os.execute(q, 0, limit, false, false,
+                    ObjectStore.SEQUENCE_IGNORE)) {
+                ids.add((Integer) row.get(0));
+            }
+        } catch (ObjectStoreException e) {
+            throw new RuntimeException("Couldn't find the objects with ids above " + afterId, e);
+        }
+        return ids;
+    }
+
+    /**
+     * Return the ids that can have a document in the index, ie. those no higher than the highest
+     * indexed id.
+     * @param ids the ids of some objects
+     * @param indexedMaxId the highest indexed id, or null if it isn't known
+     * @return the ids that can have documents
+     */
+    public static Collection<Integer> getIndexedIds(Collection<Integer> ids,
+            Integer indexedMaxId) {
+        if (indexedMaxId == null) {
+            return ids;
+        }
+        List<Integer> indexed = new ArrayList<Integer>();
+        for (Integer id : ids) {
+            if (id.intValue() <= indexedMaxId.intValue()) {
+                indexed.add(id);
+            }
+        }
+        return indexed;
+    }
+
+    /**
+     * Find the objects whose documents include fields of the given objects through the
+     * configured references.
+     * @param os the ObjectStore
+     * @param specialReferences the references followed for each class, from the keyword search
+     * configuration
+     * @param ids the ids of the changed objects
+     * @return the ids of the objects referring to them
+     */
+    public static Set<Integer> findReferringIds(ObjectStore os,
+            Map<Class<? extends InterMineObject>, String[]> specialReferences,
+            Collection<Integer> ids) {
+        Set<Integer> referring = new HashSet<Integer>();
+        List<Integer> sortedIds = new ArrayList<Integer>(new TreeSet<Integer>(ids));
+        for (Map.Entry<Class<? extends InterMineObject>, String[]> specialReference
+                : specialReferences.entrySet()) {
+            String className = specialReference.getKey().getSimpleName();
+            for (String reference : specialReference.getValue()) {
+                String path = className + "." + reference;
+                for (int i = 0; i < sortedIds.size(); i += IDS_PER_QUERY) {
+                    List<Integer> chunk = sortedIds.subList(i,
+                            Math.min(sortedIds.size(), i + IDS_PER_QUERY));
+                    try {
+                        Query q = SolrObjectHandler.getReferringQuery(os.getModel(), path, chunk);
+                        for (Object id : os.executeSingleton(q, 10000, false, false, false)) {
+                            referring.add((Integer) id);
+                        }
+                    } catch (PathException e) {
+                        LOG.warn("Invalid reference " + path + " in keyword search config", e);
+                        break;
+                    }
+                }
+            }
+        }
+        return referring;
+    }
+
+    /**
+     * @param os the ObjectStore
+     * @return the highest object id recorded by the last build or update of the index, or null
+     */
+    public static Integer getLastIndexedMaxId(ObjectStore os) {
+        try {
+            String value = MetadataManager.retrieve(
+                    ((ObjectStoreInterMineImpl) os).getDatabase(),
+                    MetadataManager.SEARCH_INDEX_MAX_ID);
+            return (value == null) ? null : Integer.valueOf(value);
+        } catch (SQLException e) {
+            LOG.warn("Couldn't read the highest indexed object id", e);
+            return null;
+        }
+    }
+
+    /**
+     * Record the highest indexed object id, so that the next update knows which objects are new.
+     * @param os the ObjectStore
+     * @param maxId the highest object id
+     */
+    public static void storeMaxId(ObjectStore os, int maxId) {
+        try {
+            MetadataManager.store(((ObjectStoreInterMineImpl) os).getDatabase(),
+                    MetadataManager.SEARCH_INDEX_MAX_ID, Integer.toString(maxId));
+        } catch (SQLException e) {
+            LOG.warn("Couldn't store the highest indexed object id, the next update will have to"
+                    + " rebuild the index", e);
+        }
+    }
+}
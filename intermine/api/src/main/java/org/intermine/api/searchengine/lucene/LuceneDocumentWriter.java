@@ -0,0 +1,137 @@
+package org.intermine.api.searchengine.lucene;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.solr.common.SolrInputDocument;
+import org.intermine.util.ObjectPipe;
+
+/**
+ * Thread that takes the documents made by the fetchers from the indexing queue and adds them to
+ * the lucene index.  The writer is thread safe, so several of these may share it and the queue.
+ */
+public class LuceneDocumentWriter extends Thread
+{
+    private static final Logger LOG = Logger.getLogger(LuceneDocumentWriter.class);
+
+    // how often to log progress, in documents
+    private static final int LOG_INTERVAL = 100000;
+
+    private final IndexWriter indexWriter;
+    private final ObjectPipe<SolrInputDocument> indexingQueue;
+    private final Set<String> facetFields;
+    private final AtomicInteger indexed;
+    private int written = 0;
+    private volatile Exception error;
+
+    /**
+     * Construct a writer.
+     * @param indexWriter the writer of the index
+     * @param indexingQueue the queue the fetchers put documents on
+     * @param facetFields the fields to make untokenized copies of for counting facets
+     * @param indexed the count of documents added by all writers
+     */
+    public LuceneDocumentWriter(IndexWriter indexWriter,
+            ObjectPipe<SolrInputDocument> indexingQueue, Set<String> facetFields,
+            AtomicInteger indexed) {
+        super("LuceneDocumentWriter");
+        setDaemon(true);
+        this.indexWriter = indexWriter;
+        this.indexingQueue = indexingQueue;
+        this.facetFields = facetFields;
+        this.indexed = indexed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void run() {
+        long start = System.currentTimeMillis();
+        try {
+            SolrInputDocument doc;
+            while ((doc = take()) != null) {
+                indexWriter.addDocument(toDocument(doc, facetFields));
+                written++;
+                int total = indexed.incrementAndGet();
+                if (total % LOG_INTERVAL == 0) {
+                    LOG.info("docs indexed=" + total + "; memory="
+                            + Runtime.getRuntime().freeMemory() / 1024 + "k/"
+                            + Runtime.getRuntime().maxMemory() / 1024 + "k");
+                }
+            }
+        } catch (Exception e) {
+            LOG.error("Error while adding documents to the lucene index", e);
+            error = e;
+            // keep emptying the queue so that the fetchers aren't left waiting on it
+            while (take() != null) {
+                // discard
+            }
+        }
+        LOG.info(getName() + " added " + written + " documents in "
+                + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    // see SolrDocumentWriter
+    private SolrInputDocument take() {
+        synchronized (indexingQueue) {
+            return indexingQueue.hasNext() ? indexingQueue.next() : null;
+        }
+    }
+
+    /**
+     * Make a lucene document from a document made for solr.  The id is stored and untokenized,
+     * every other field is analyzed, and facet fields get an untokenized copy as well.
+     * @param doc the solr document
+     * @param facetFields the fields to make untokenized copies of
+     * @return the lucene document
+     */
+    public static Document toDocument(SolrInputDocument doc, Set<String> facetFields) {
+        Document document = new Document();
+        for (String name : doc.getFieldNames()) {
+            for (Object value : doc.getFieldValues(name)) {
+                String text = value.toString();
+                if (LuceneIndexManager.ID_FIELD.equals(name)) {
+                    document.add(new Field(name, text, Field.Store.YES,
+                            Field.Index.NOT_ANALYZED_NO_NORMS));
+                    continue;
+                }
+                document.add(new Field(name, text, Field.Store.NO, Field.Index.ANALYZED));
+                if (facetFields.contains(name)) {
+                    document.add(new Field(LuceneIndexManager.FACET_PREFIX + name, text,
+                            Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+                }
+            }
+        }
+        return document;
+    }
+
+    /**
+     * @return the number of documents this writer has added
+     */
+    public int getWritten() {
+        return written;
+    }
+
+    /**
+     * Get the error that stopped this writer, if any.
+     * @return The error.
+     */
+    public Exception getException() {
+        return error;
+    }
+}
@@ -0,0 +1,173 @@
+package org.intermine.api.searchengine.lucene;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.util.OpenBitSet;
+
+/**
+ * Counts the values of facet fields among the documents matching a search.  The collector made
+ * by wrap() records the matching documents of each segment, and count() adds up the values of
+ * those documents.  The values of each document are read from the index once per segment and
+ * cached until the segment is closed, so a reopened reader only reads the segments that are new.
+ */
+final class LuceneFacetCounter
+{
+    // segment reader cache key -> field -> values
+    private static final Map<Object, Map<String, SegmentValues>> CACHE
+        = new WeakHashMap<Object, Map<String, SegmentValues>>();
+
+    private final List<IndexReader> segments = new ArrayList<IndexReader>();
+    private final List<OpenBitSet> matches = new ArrayList<OpenBitSet>();
+
+    /**
+     * Wrap a collector to record the documents it is given.
+     * @param delegate the collector of the hits
+     * @return the wrapping collector
+     */
+    Collector wrap(final Collector delegate) {
+        return new Collector() {
+            private OpenBitSet bits;
+
+            @Override
+            public void setScorer(Scorer scorer) throws IOException {
+                delegate.setScorer(scorer);
+            }
+
+            @Override
+            public void collect(int doc) throws IOException {
+                bits.fastSet(doc);
+                delegate.collect(doc);
+            }
+
+            @Override
+            public void setNextReader(IndexReader reader, int docBase) throws IOException {
+                bits = new OpenBitSet(reader.maxDoc());
+                segments.add(reader);
+                matches.add(bits);
+                delegate.setNextReader(reader, docBase);
+            }
+
+            @Override
+            public boolean acceptsDocsOutOfOrder() {
+                return delegate.acceptsDocsOutOfOrder();
+            }
+        };
+    }
+
+    /**
+     * Count the values of a field among the recorded documents.
+     * @param field the untokenized field
+     * @return the number of documents with each value, leaving out values no document has
+     * @throws IOException if the index can't be read
+     */
+    Map<String, Integer> count(String field) throws IOException {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < segments.size(); i++) {
+            SegmentValues values = getValues(segments.get(i), field);
+            if (values.terms.length == 0) {
+                continue;
+            }
+            int[] segmentCounts = new int[values.terms.length];
+            OpenBitSet bits = matches.get(i);
+            for (int doc = bits.nextSetBit(0); doc >= 0; doc = bits.nextSetBit(doc + 1)) {
+                int[] docTerms = values.docTerms[doc];
+                if (docTerms != null) {
+                    for (int term : docTerms) {
+                        segmentCounts[term]++;
+                    }
+                }
+            }
+            for (int term = 0; term < segmentCounts.length; term++) {
+                if (segmentCounts[term] > 0) {
+                    Integer count = counts.get(values.terms[term]);
+                    counts.put(values.terms[term],
+                            segmentCounts[term] + (count == null ? 0 : count.intValue()));
+                }
+            }
+        }
+        return counts;
+    }
+
+    private static SegmentValues getValues(IndexReader segment, String field) throws IOException {
+        Map<String, SegmentValues> fields;
+        synchronized (CACHE) {
+            fields = CACHE.get(segment.getFieldCacheKey());
+            if (fields == null) {
+                fields = new HashMap<String, SegmentValues>();
+                CACHE.put(segment.getFieldCacheKey(), fields);
+            }
+        }
+        synchronized (fields) {
+            SegmentValues values = fields.get(field);
+            if (values == null) {
+                values = new SegmentValues(segment, field);
+                fields.put(field, values);
+            }
+            return values;
+        }
+    }
+
+    /**
+     * The values of a field in one segment, and the values of each document as indexes into them.
+     */
+    private static final class SegmentValues
+    {
+        private final String[] terms;
+        private final int[][] docTerms;
+
+        SegmentValues(IndexReader segment, String field) throws IOException {
+            List<String> values = new ArrayList<String>();
+            docTerms = new int[segment.maxDoc()][];
+            TermEnum termEnum = segment.terms(new Term(field, ""));
+            TermDocs termDocs = segment.termDocs();
+            try {
+                do {
+                    Term term = termEnum.term();
+                    if (term == null || !field.equals(term.field())) {
+                        break;
+                    }
+                    int index = values.size();
+                    values.add(term.text());
+                    termDocs.seek(termEnum);
+                    while (termDocs.next()) {
+                        int doc = termDocs.doc();
+                        int[] old = docTerms[doc];
+                        if (old == null) {
+                            docTerms[doc] = new int[] {index};
+                        } else {
+                            int[] longer = new int[old.length + 1];
+                            System.arraycopy(old, 0, longer, 0, old.length);
+                            longer[old.length] = index;
+                            docTerms[doc] = longer;
+                        }
+                    }
+                } while (termEnum.next());
+            } finally {
+                termEnum.close();
+                termDocs.close();
+            }
+            terms = values.toArray(new String[values.size()]);
+        }
+    }
+}
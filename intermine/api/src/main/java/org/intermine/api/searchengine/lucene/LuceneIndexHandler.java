@@ -0,0 +1,259 @@
+package org.intermine.api.searchengine.lucene;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.solr.common.SolrInputDocument;
+import org.intermine.api.searchengine.IndexHandler;
+import org.intermine.api.searchengine.KeywordSearchFacetData;
+import org.intermine.api.searchengine.KeywordSearchPropertiesManager;
+import org.intermine.api.searchengine.SearchIndexHelper;
+import org.intermine.api.searchengine.solr.SolrIndexPartition;
+import org.intermine.api.searchengine.solr.SolrObjectHandler;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.util.ObjectPipe;
+
+/**
+ * IndexHandler for the embedded lucene index.  The objects are fetched and made into documents
+ * in the same way as for solr, and the documents are added to the index in this process.  A full
+ * build replaces the documents of the old index in one commit, so searches see the old index
+ * until the new one is complete.
+ */
+public final class LuceneIndexHandler implements IndexHandler
+{
+    private static final Logger LOG = Logger.getLogger(LuceneIndexHandler.class);
+
+    // the most ids deleted or fetched in one go by an incremental update
+    private static final int IDS_PER_QUERY = 10000;
+
+    // the most new objects added to the index in one commit by an incremental update
+    private static final int IDS_PER_UPDATE = 100000;
+
+    // the index to write, or null for the one configured for the ObjectStore
+    private final LuceneIndexManager givenIndexManager;
+
+    /**
+     * Construct a handler for the index configured in keyword_search.properties.
+     */
+    public LuceneIndexHandler() {
+        this(null);
+    }
+
+    /**
+     * Construct a handler for the given index, for testing.
+     * @param indexManager the manager of the index
+     */
+    LuceneIndexHandler(LuceneIndexManager indexManager) {
+        this.givenIndexManager = indexManager;
+    }
+
+    @Override
+    public void createIndex(ObjectStore os, Map<String, List<FieldDescriptor>> classKeys)
+        throws IOException {
+        long time = System.currentTimeMillis();
+        KeywordSearchPropertiesManager keywordSearchPropertiesManager
+                = KeywordSearchPropertiesManager.getInstance(os);
+        LuceneIndexManager indexManager = getIndexManager(os);
+        IndexWriter indexWriter = indexManager.getWriter();
+
+        // not visible until the commit
+        indexWriter.deleteAll();
+
+        int[] idRange = SearchIndexHelper.getIdRange(os);
+        List<SolrIndexPartition> partitions = (idRange == null)
+            ? SolrIndexPartition.split(0, 0, 1)
+            : SolrIndexPartition.split(idRange[0], idRange[1],
+                    keywordSearchPropertiesManager.getIndexPartitions());
+
+        int indexed;
+        try {
+            indexed = index(os, indexWriter, keywordSearchPropertiesManager, partitions);
+        } catch (RuntimeException e) {
+            indexManager.rollback();
+            throw e;
+        }
+        if (keywordSearchPropertiesManager.getEnableOptimize()) {
+            long optimizeTime = System.currentTimeMillis();
+            indexWriter.optimize();
+            LOG.info("Optimizing lucene index finished in "
+                    + (System.currentTimeMillis() - optimizeTime) + "ms");
+        }
+        indexManager.commit();
+        SearchIndexHelper.storeMaxId(os, idRange == null ? 0 : idRange[1]);
+
+        LOG.info("Indexing of " + indexed + " documents finished in "
+                + (System.currentTimeMillis() - time) + "ms");
+    }
+
+    @Override
+    public void updateIndex(ObjectStore os, Map<String, List<FieldDescriptor>> classKeys,
+            Collection<Integer> changedIds) throws IOException {
+        if (changedIds.isEmpty()) {
+            LOG.info("No changed objects, the keyword search index is up to date");
+            return;
+        }
+        updateIndex(os, changedIds, SearchIndexHelper.getLastIndexedMaxId(os));
+    }
+
+    /**
+     * Update the index for the given objects, none of which with a higher id than indexedMaxId
+     * has a document yet.
+     */
+    private void updateIndex(ObjectStore os, Collection<Integer> changedIds,
+            Integer indexedMaxId) throws IOException {
+        long time = System.currentTimeMillis();
+        KeywordSearchPropertiesManager keywordSearchPropertiesManager
+                = KeywordSearchPropertiesManager.getInstance(os);
+        LuceneIndexManager indexManager = getIndexManager(os);
+        IndexWriter indexWriter = indexManager.getWriter();
+
+        // the documents of objects that refer to a changed object hold some of its fields
+        Set<Integer> ids = new TreeSet<Integer>(changedIds);
+        ids.addAll(SearchIndexHelper.findReferringIds(os,
+                keywordSearchPropertiesManager.getSpecialReferences(), changedIds));
+        LOG.info("Updating the keyword search index for " + changedIds.size()
+                + " changed objects, " + ids.size() + " documents in all");
+
+        List<Term> batch = new ArrayList<Term>();
+        for (Integer id : SearchIndexHelper.getIndexedIds(ids, indexedMaxId)) {
+            batch.add(new Term(LuceneIndexManager.ID_FIELD, id.toString()));
+            if (batch.size() == IDS_PER_QUERY) {
+                indexWriter.deleteDocuments(batch.toArray(new Term[batch.size()]));
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            indexWriter.deleteDocuments(batch.toArray(new Term[batch.size()]));
+        }
+
+        int indexed;
+        try {
+            indexed = index(os, indexWriter, keywordSearchPropertiesManager,
+                    SolrIndexPartition.forIds(ids, IDS_PER_QUERY));
+        } catch (RuntimeException e) {
+            // don't leave the deletions to be committed by the next update
+            indexManager.rollback();
+            throw e;
+        }
+        indexManager.commit();
+
+        LOG.info("Updated " + indexed + " documents in "
+                + (System.currentTimeMillis() - time) + "ms");
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * As for solr, the objects stored since the last build or update are those with higher ids
+     * than the highest id recorded then, and they are added a page at a time.
+     */
+    @Override
+    public void updateIndex(ObjectStore os, Map<String, List<FieldDescriptor>> classKeys)
+        throws IOException {
+        Integer maxId = SearchIndexHelper.getLastIndexedMaxId(os);
+        if (maxId == null) {
+            LOG.info("The highest indexed object id wasn't recorded, rebuilding the index");
+            createIndex(os, classKeys);
+            return;
+        }
+        List<Integer> added = SearchIndexHelper.getIdsAfter(os, maxId.intValue(),
+                IDS_PER_UPDATE);
+        if (added.isEmpty()) {
+            LOG.info("No new objects, the keyword search index is up to date");
+        }
+        while (!added.isEmpty()) {
+            updateIndex(os, added, maxId);
+            maxId = added.get(added.size() - 1);
+            SearchIndexHelper.storeMaxId(os, maxId.intValue());
+            added = SearchIndexHelper.getIdsAfter(os, maxId.intValue(), IDS_PER_UPDATE);
+        }
+    }
+
+    private LuceneIndexManager getIndexManager(ObjectStore os) {
+        return (givenIndexManager == null) ? LuceneIndexManager.getInstance(os)
+            : givenIndexManager;
+    }
+
+    /**
+     * Fetch the objects in the partitions, make their documents and add them to the index, with
+     * as many fetchers and writers as are configured.
+     */
+    private int index(ObjectStore os, IndexWriter indexWriter,
+            KeywordSearchPropertiesManager keywordSearchPropertiesManager,
+            List<SolrIndexPartition> partitions) {
+        ObjectPipe<SolrInputDocument> indexingQueue = new ObjectPipe<SolrInputDocument>(100000);
+        Queue<SolrIndexPartition> partitionQueue
+            = new ConcurrentLinkedQueue<SolrIndexPartition>(partitions);
+        List<String> indexedFields = Collections.synchronizedList(new ArrayList<String>());
+
+        Set<String> facetFields = new HashSet<String>();
+        for (KeywordSearchFacetData facet : keywordSearchPropertiesManager.getFacets()) {
+            Collections.addAll(facetFields, facet.getFields());
+        }
+
+        List<SolrObjectHandler> fetchers = SearchIndexHelper.startFetchers(os,
+                keywordSearchPropertiesManager, indexingQueue, partitionQueue, null,
+                indexedFields, null);
+
+        AtomicInteger indexedCount = new AtomicInteger();
+        List<LuceneDocumentWriter> writers = new ArrayList<LuceneDocumentWriter>();
+        for (int i = 0; i < keywordSearchPropertiesManager.getIndexWriterThreads(); i++) {
+            LuceneDocumentWriter writer = new LuceneDocumentWriter(indexWriter, indexingQueue,
+                    facetFields, indexedCount);
+            writer.setName("LuceneDocumentWriter-" + (i + 1));
+            writer.start();
+            writers.add(writer);
+        }
+
+        Exception error = null;
+        try {
+            for (SolrObjectHandler fetchThread : fetchers) {
+                fetchThread.join();
+                if (error == null) {
+                    error = fetchThread.getException();
+                }
+            }
+            indexingQueue.finish();
+            for (LuceneDocumentWriter writer : writers) {
+                writer.join();
+                if (error == null) {
+                    error = writer.getException();
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while indexing", e);
+        }
+
+        for (SolrIndexPartition partition : partitions) {
+            LOG.info("Indexed " + partition);
+        }
+        if (error != null) {
+            throw new RuntimeException("Indexing failed.", error);
+        }
+        return indexedCount.get();
+    }
+}
@@ -0,0 +1,220 @@
+package org.intermine.api.searchengine.lucene;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.KeywordTokenizer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.WhitespaceTokenizer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.intermine.api.searchengine.KeywordSearchPropertiesManager;
+import org.intermine.objectstore.ObjectStore;
+
+/**
+ * Holds the embedded lucene index of an ObjectStore, and the searcher shared by all keyword
+ * searches.  The index is memory mapped.  The searcher is replaced at most once a second with a
+ * reopened reader, which shares the segments that haven't changed with the old one: if this
+ * process is writing to the index the reader comes from the writer and sees documents before
+ * they are committed, otherwise it sees what other processes have committed.  Searchers are
+ * reference counted, so a replaced searcher stays open until the searches using it have
+ * released it.
+ */
+public final class LuceneIndexManager
+{
+    private static final Logger LOG = Logger.getLogger(LuceneIndexManager.class);
+
+    /** The field holding the object id. */
+    public static final String ID_FIELD = "id";
+
+    /** Prepended to the name of a facet field to name the untokenized copy counted for facets. */
+    public static final String FACET_PREFIX = "facet_";
+
+    /** Appended to the name of a field to name the untokenized copy of a class key field. */
+    public static final String RAW_SUFFIX = "_raw";
+
+    // how often the searcher checks for changes to the index, in milliseconds
+    private static final long REOPEN_INTERVAL = 1000;
+
+    private static final Analyzer ANALYZER = new InterMineAnalyzer();
+
+    private static final Map<ObjectStore, LuceneIndexManager> INSTANCES
+        = new HashMap<ObjectStore, LuceneIndexManager>();
+
+    private final Directory directory;
+    private IndexWriter writer = null;
+    private IndexSearcher searcher = null;
+    // the writer the searcher's reader was got from, if any
+    private IndexWriter readerWriter = null;
+    private long lastChecked = 0;
+
+    /**
+     * Construct a manager for an index.  Most callers want getInstance().
+     * @param directory the directory holding the index
+     */
+    public LuceneIndexManager(Directory directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Return the manager for the index of the given ObjectStore, in the directory configured
+     * in keyword_search.properties.
+     * @param os the production ObjectStore
+     * @return the manager
+     */
+    public static synchronized LuceneIndexManager getInstance(ObjectStore os) {
+        LuceneIndexManager manager = INSTANCES.get(os);
+        if (manager == null) {
+            String path = KeywordSearchPropertiesManager.getInstance(os).getLuceneDirectory();
+            if (path == null) {
+                throw new IllegalStateException("index.lucene.directory must be set in "
+                        + "keyword_search.properties to use the lucene search engine");
+            }
+            try {
+                manager = new LuceneIndexManager(new MMapDirectory(new File(path)));
+            } catch (IOException e) {
+                throw new RuntimeException("Couldn't open lucene index directory " + path, e);
+            }
+            LOG.info("Using lucene index in " + path);
+            INSTANCES.put(os, manager);
+        }
+        return manager;
+    }
+
+    /**
+     * @return the analyzer for the documents and the queries
+     */
+    public static Analyzer getAnalyzer() {
+        return ANALYZER;
+    }
+
+    /**
+     * Return the writer for the index, opening it if necessary.  The writer is shared by all the
+     * threads writing the index, and holds its lock until closeWriter() is called or this process
+     * exits.
+     * @return the writer
+     * @throws IOException if the index can't be opened
+     */
+    public synchronized IndexWriter getWriter() throws IOException {
+        if (writer == null) {
+            writer = new IndexWriter(directory, ANALYZER, IndexWriter.MaxFieldLength.UNLIMITED);
+        }
+        return writer;
+    }
+
+    /**
+     * Commit the changes made by the writer, so that they are kept and other processes see them.
+     * @throws IOException if the index can't be written
+     */
+    public synchronized void commit() throws IOException {
+        if (writer != null) {
+            writer.commit();
+        }
+        lastChecked = 0;
+    }
+
+    /**
+     * Commit the changes made by the writer and close it.
+     * @throws IOException if the index can't be written
+     */
+    public synchronized void closeWriter() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+        lastChecked = 0;
+    }
+
+    /**
+     * Discard the changes made by the writer since the last commit, and close it.
+     * @throws IOException if the index can't be written
+     */
+    public synchronized void rollback() throws IOException {
+        if (writer != null) {
+            writer.rollback();
+            writer = null;
+        }
+        lastChecked = 0;
+    }
+
+    /**
+     * Get the current searcher.  It must be given back to release() when the search is done.
+     * @return the searcher
+     * @throws IOException if there is no index, or it can't be read
+     */
+    public synchronized IndexSearcher acquire() throws IOException {
+        long now = System.currentTimeMillis();
+        if (searcher == null || now - lastChecked >= REOPEN_INTERVAL) {
+            refresh();
+            lastChecked = now;
+        }
+        searcher.getIndexReader().incRef();
+        return searcher;
+    }
+
+    /**
+     * Give back a searcher got from acquire().
+     * @param released the searcher
+     * @throws IOException if the searcher was replaced and can't be closed
+     */
+    public void release(IndexSearcher released) throws IOException {
+        released.getIndexReader().decRef();
+    }
+
+    private void refresh() throws IOException {
+        IndexReader current = (searcher == null) ? null : searcher.getIndexReader();
+        IndexReader reader;
+        if (writer != null) {
+            // a reader got from the writer reopens through it
+            reader = (current != null && readerWriter == writer) ? current.reopen()
+                : writer.getReader();
+        } else if (current == null || readerWriter != null) {
+            reader = IndexReader.open(directory, true);
+        } else {
+            reader = current.reopen();
+        }
+        readerWriter = writer;
+        if (reader != current) {
+            searcher = new IndexSearcher(reader);
+            if (current != null) {
+                // closed once the searches still using it release it
+                current.decRef();
+            }
+        }
+    }
+
+    /**
+     * Splits fields on whitespace and lower cases them, like the analyzed_string type of the solr
+     * schema.  The raw copies of class key fields are lower cased but not split, like its
+     * raw_string type.
+     */
+    private static final class InterMineAnalyzer extends Analyzer
+    {
+        @Override
+        public TokenStream tokenStream(String fieldName, Reader reader) {
+            if (fieldName.endsWith(RAW_SUFFIX)) {
+                return new LowerCaseFilter(new KeywordTokenizer(reader));
+            }
+            return new LowerCaseFilter(new WhitespaceTokenizer(reader));
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package org.intermine.api.searchengine.lucene;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.queryParser.MultiFieldQueryParser;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.FilteredQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.util.OpenBitSet;
+import org.apache.lucene.util.Version;
+import org.apache.solr.client.solrj.response.FacetField;
+import org.intermine.api.InterMineAPI;
+import org.intermine.api.data.Objects;
+import org.intermine.api.searchengine.KeywordSearchFacet;
+import org.intermine.api.searchengine.KeywordSearchFacetData;
+import org.intermine.api.searchengine.KeywordSearchHandler;
+import org.intermine.api.searchengine.KeywordSearchPropertiesManager;
+import org.intermine.api.searchengine.KeywordSearchResultContainer;
+import org.intermine.api.searchengine.KeywordSearchResults;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStoreException;
+
+/**
+ * KeywordSearchHandler searching the embedded lucene index with the searcher shared by the
+ * LuceneIndexManager.  Queries are made as solr's edismax parser makes them for the solr
+ * handler: every indexed field is searched, raw copies of key fields count double and the
+ * configured classes are boosted.  Facets are counted in the same search, and returned as the
+ * same counts as the solr handler returns.
+ */
+public final class LuceneKeywordSearchHandler implements KeywordSearchHandler
+{
+    private static final Logger LOG = Logger.getLogger(LuceneKeywordSearchHandler.class);
+
+    // the most values of a facet returned, as for solr
+    private static final int FACET_LIMIT = 100;
+
+    private static final String QUERY_TERM_ALL = "*:*";
+
+    @Override
+    public KeywordSearchResults doKeywordSearch(InterMineAPI im, String queryString,
+            Map<String, String> facetValues, List<Integer> ids, int offSet) {
+        KeywordSearchPropertiesManager keywordSearchPropertiesManager
+                = KeywordSearchPropertiesManager.getInstance(im.getObjectStore());
+        LuceneIndexManager indexManager = LuceneIndexManager.getInstance(im.getObjectStore());
+
+        Vector<KeywordSearchResultContainer> searchHits
+                = new Vector<KeywordSearchResultContainer>();
+        Collection<KeywordSearchFacet> searchResultsFacets = new Vector<KeywordSearchFacet>();
+        int totalHits = 0;
+        try {
+            IndexSearcher searcher = indexManager.acquire();
+            try {
+                Query query = makeQuery(searcher.getIndexReader(),
+                        keywordSearchPropertiesManager.getClassBoost(), queryString, facetValues,
+                        ids);
+                LuceneFacetCounter facetCounter = new LuceneFacetCounter();
+                TopDocs topDocs = searchPage(searcher, query, offSet,
+                        KeywordSearchPropertiesManager.PER_PAGE, facetCounter);
+                totalHits = topDocs.totalHits;
+
+                List<Document> documents = getDocuments(searcher, topDocs);
+                Map<Integer, InterMineObject> objMap = null;
+                try {
+                    objMap = Objects.getObjects(im, getObjectIds(documents));
+                } catch (ObjectStoreException e) {
+                    LOG.error("ObjectStoreException for query term : " + queryString, e);
+                    objMap = Collections.emptyMap();
+                }
+                float maxScore = topDocs.getMaxScore();
+                for (int i = 0; i < documents.size(); i++) {
+                    Document document = documents.get(i);
+                    InterMineObject obj = objMap.get(getId(document));
+                    if (obj == null) {
+                        // deleted since the index was last updated
+                        continue;
+                    }
+                    float score = (maxScore > 0) ? topDocs.scoreDocs[i].score / maxScore : 1.0f;
+                    searchHits.add(new KeywordSearchResultContainer<Document>(document, obj,
+                            score));
+                }
+                searchResultsFacets = getFacets(facetCounter,
+                        keywordSearchPropertiesManager.getFacets(), facetValues);
+            } finally {
+                indexManager.release(searcher);
+            }
+        } catch (IOException e) {
+            LOG.error("Searching the lucene index failed for search term : " + queryString, e);
+        }
+        return new KeywordSearchResults(searchHits, searchResultsFacets, totalHits);
+    }
+
+    @Override
+    public Set<Integer> getObjectIdsFromSearch(InterMineAPI im, String searchString, int offSet,
+            Map<String, String> facetValues, List<Integer> ids, int listSize) {
+        if (listSize == 0) {
+            listSize = 10000;
+        }
+        KeywordSearchPropertiesManager keywordSearchPropertiesManager
+                = KeywordSearchPropertiesManager.getInstance(im.getObjectStore());
+        LuceneIndexManager indexManager = LuceneIndexManager.getInstance(im.getObjectStore());
+        try {
+            IndexSearcher searcher = indexManager.acquire();
+            try {
+                Query query = makeQuery(searcher.getIndexReader(),
+                        keywordSearchPropertiesManager.getClassBoost(), searchString, facetValues,
+                        ids);
+                TopDocs topDocs = searchPage(searcher, query, offSet, listSize, null);
+                return getObjectIds(getDocuments(searcher, topDocs));
+            } finally {
+                indexManager.release(searcher);
+            }
+        } catch (IOException e) {
+            LOG.error("Searching the lucene index failed for search term : " + searchString, e);
+            return new HashSet<Integer>();
+        }
+    }
+
+    @Override
+    public Collection<KeywordSearchFacet> doFacetSearch(InterMineAPI im, String queryString,
+            Map<String, String> facetValues) {
+        KeywordSearchPropertiesManager keywordSearchPropertiesManager
+                = KeywordSearchPropertiesManager.getInstance(im.getObjectStore());
+        LuceneIndexManager indexManager = LuceneIndexManager.getInstance(im.getObjectStore());
+        try {
+            IndexSearcher searcher = indexManager.acquire();
+            try {
+                Query query = makeQuery(searcher.getIndexReader(),
+                        keywordSearchPropertiesManager.getClassBoost(), queryString, facetValues,
+                        null);
+                LuceneFacetCounter facetCounter = new LuceneFacetCounter();
+                searcher.search(query, facetCounter.wrap(TopScoreDocCollector.create(1, true)));
+                return getFacets(facetCounter, keywordSearchPropertiesManager.getFacets(),
+                        facetValues);
+            } finally {
+                indexManager.release(searcher);
+            }
+        } catch (IOException e) {
+            LOG.error("Searching the lucene index failed for search term : " + queryString, e);
+            return new Vector<KeywordSearchFacet>();
+        }
+    }
+
+    /**
+     * Make the query for a search.
+     * @param reader the reader of the index, to find the fields in it
+     * @param classBoost the boosts of the configured classes
+     * @param queryString the search term, in the lucene query syntax
+     * @param facetValues the facet values selected, by field
+     * @param ids the ids of the objects to search in, or null to search all of them
+     * @return the query
+     */
+    static Query makeQuery(IndexReader reader, Map<ClassDescriptor, Float> classBoost,
+            String queryString, Map<String, String> facetValues, Collection<Integer> ids) {
+        Query query;
+        if (StringUtils.isBlank(queryString) || QUERY_TERM_ALL.equals(queryString.trim())) {
+            query = new MatchAllDocsQuery();
+        } else {
+            List<String> fields = new ArrayList<String>();
+            Map<String, Float> boosts = new HashMap<String, Float>();
+            for (String field : reader.getFieldNames(IndexReader.FieldOption.INDEXED)) {
+                if (LuceneIndexManager.ID_FIELD.equals(field)
+                        || field.startsWith(LuceneIndexManager.FACET_PREFIX)) {
+                    continue;
+                }
+                fields.add(field);
+                if (field.endsWith(LuceneIndexManager.RAW_SUFFIX)) {
+                    boosts.put(field, Float.valueOf(2.0f));
+                }
+            }
+            QueryParser parser = new MultiFieldQueryParser(Version.LUCENE_30,
+                    fields.toArray(new String[fields.size()]), LuceneIndexManager.getAnalyzer(),
+                    boosts);
+            BooleanQuery boosted = new BooleanQuery();
+            try {
+                boosted.add(parseQuery(parser, queryString), BooleanClause.Occur.MUST);
+            } catch (ParseException e) {
+                LOG.info("Couldn't parse search term : " + queryString, e);
+                return new BooleanQuery();
+            }
+            for (Map.Entry<ClassDescriptor, Float> entry : classBoost.entrySet()) {
+                TermQuery boost = new TermQuery(new Term("classname",
+                        entry.getKey().getUnqualifiedName().toLowerCase()));
+                boost.setBoost(entry.getValue().floatValue());
+                boosted.add(boost, BooleanClause.Occur.SHOULD);
+            }
+            query = boosted;
+        }
+
+        // filters don't change the scores
+        if (facetValues != null) {
+            for (Map.Entry<String, String> facetValue : facetValues.entrySet()) {
+                if (facetValue.getValue() != null) {
+                    query = new FilteredQuery(query, new QueryWrapperFilter(new TermQuery(
+                            new Term(LuceneIndexManager.FACET_PREFIX + facetValue.getKey(),
+                                    facetValue.getValue()))));
+                }
+            }
+        }
+        if (ids != null && !ids.isEmpty()) {
+            query = new FilteredQuery(query, new IdFilter(ids));
+        }
+        return query;
+    }
+
+    /**
+     * Run a search and return one page of its hits, best first.
+     * @param searcher the searcher
+     * @param query the query
+     * @param offSet the number of hits before the page
+     * @param pageSize the most hits on the page
+     * @param facetCounter records the matching documents for counting facets, or null
+     * @return the hits on the page, with the total number of hits
+     * @throws IOException if the index can't be read
+     */
+    static TopDocs searchPage(IndexSearcher searcher, Query query, int offSet, int pageSize,
+            LuceneFacetCounter facetCounter) throws IOException {
+        TopScoreDocCollector collector = TopScoreDocCollector.create(offSet + pageSize, true);
+        searcher.search(query, (facetCounter == null) ? collector : facetCounter.wrap(collector));
+        TopDocs page = collector.topDocs(offSet, pageSize);
+        // a page after the last hit comes back without the total
+        return new TopDocs(collector.getTotalHits(), page.scoreDocs, page.getMaxScore());
+    }
+
+    // search terms that aren't valid queries, eg. with unbalanced quotes, are searched for as
+    // they are
+    private static Query parseQuery(QueryParser parser, String queryString)
+        throws ParseException {
+        try {
+            return parser.parse(queryString);
+        } catch (ParseException e) {
+            return parser.parse(QueryParser.escape(queryString));
+        }
+    }
+
+    private static List<Document> getDocuments(IndexSearcher searcher, TopDocs topDocs)
+        throws IOException {
+        List<Document> documents = new ArrayList<Document>();
+        for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+            documents.add(searcher.doc(scoreDoc.doc));
+        }
+        return documents;
+    }
+
+    private static Integer getId(Document document) {
+        try {
+            return Integer.valueOf(document.get(LuceneIndexManager.ID_FIELD));
+        } catch (NumberFormatException e) {
+            LOG.info("Invalid id '" + document.get(LuceneIndexManager.ID_FIELD) + "' for hit '"
+                    + document + "'", e);
+            return null;
+        }
+    }
+
+    private static Set<Integer> getObjectIds(List<Document> documents) {
+        Set<Integer> objectIds = new HashSet<Integer>();
+        for (Document document : documents) {
+            Integer id = getId(document);
+            if (id != null) {
+                objectIds.add(id);
+            }
+        }
+        return objectIds;
+    }
+
+    /**
+     * Make the facets of a search from the counts of their values, most frequent first.
+     * @param facetCounter the counter the search was collected with
+     * @param facets the configured facets
+     * @param facetValues the facet values selected, by field
+     * @return the facets
+     * @throws IOException if the index can't be read
+     */
+    static Vector<KeywordSearchFacet> getFacets(LuceneFacetCounter facetCounter,
+            Vector<KeywordSearchFacetData> facets, Map<String, String> facetValues)
+        throws IOException {
+        Vector<KeywordSearchFacet> searchResultsFacets = new Vector<KeywordSearchFacet>();
+        for (KeywordSearchFacetData facet : facets) {
+            final Map<String, Integer> counts = facetCounter.count(
+                    LuceneIndexManager.FACET_PREFIX + facet.getField());
+            List<String> values = new ArrayList<String>(counts.keySet());
+            Collections.sort(values, new Comparator<String>() {
+                @Override
+                public int compare(String a, String b) {
+                    int byCount = counts.get(b).compareTo(counts.get(a));
+                    return byCount != 0 ? byCount : a.compareTo(b);
+                }
+            });
+            FacetField facetField
+                = new FacetField(LuceneIndexManager.FACET_PREFIX + facet.getField());
+            for (String value : values.subList(0, Math.min(FACET_LIMIT, values.size()))) {
+                facetField.add(value, counts.get(value).longValue());
+            }
+            String selected = (facetValues == null) ? null : facetValues.get(facet.getField());
+            searchResultsFacets.add(new KeywordSearchFacet<FacetField.Count>(facet.getField(),
+                    facet.getName(), selected, facetField.getValues()));
+        }
+        return searchResultsFacets;
+    }
+
+    /**
+     * Restricts a search to the documents of particular objects.
+     */
+    private static final class IdFilter extends Filter
+    {
+        private final Collection<Integer> ids;
+
+        IdFilter(Collection<Integer> ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public DocIdSet getDocIdSet(IndexReader reader) throws IOException {
+            OpenBitSet bits = new OpenBitSet(reader.maxDoc());
+            TermDocs termDocs = reader.termDocs();
+            try {
+                for (Integer id : ids) {
+                    termDocs.seek(new Term(LuceneIndexManager.ID_FIELD, id.toString()));
+                    while (termDocs.next()) {
+                        bits.fastSet(termDocs.doc());
+                    }
+                }
+            } finally {
+                termDocs.close();
+            }
+            return bits;
+        }
+    }
+}
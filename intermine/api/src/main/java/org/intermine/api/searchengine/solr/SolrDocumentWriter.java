@@ -0,0 +1,131 @@
+package org.intermine.api.searchengine.solr;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+import org.intermine.util.ObjectPipe;
+
+/**
+ * Thread that takes documents from the indexing queue and adds them to Solr in batches.  Several
+ * writers may drain the same queue, each sending its own stream of updates, until the fetchers
+ * have finished the queue.
+ */
+public class SolrDocumentWriter extends Thread
+{
+    private static final Logger LOG = Logger.getLogger(SolrDocumentWriter.class);
+
+    // how often to log progress, in documents
+    private static final int LOG_INTERVAL = 100000;
+
+    private final SolrClient solrClient;
+    private final ObjectPipe<SolrInputDocument> indexingQueue;
+    private final int batchSize;
+    private final AtomicInteger indexed;
+    private int written = 0;
+    private long addTime = 0;
+    private volatile Exception error;
+
+    /**
+     * Construct a writer.
+     * @param solrClient the client to add the documents with
+     * @param indexingQueue the queue the fetchers put documents on
+     * @param batchSize the number of documents added in one request
+     * @param indexed the count of documents added by all writers
+     */
+    public SolrDocumentWriter(SolrClient solrClient, ObjectPipe<SolrInputDocument> indexingQueue,
+            int batchSize, AtomicInteger indexed) {
+        super("SolrDocumentWriter");
+        setDaemon(true);
+        this.solrClient = solrClient;
+        this.indexingQueue = indexingQueue;
+        this.batchSize = batchSize;
+        this.indexed = indexed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void run() {
+        long start = System.currentTimeMillis();
+        List<SolrInputDocument> batch = new ArrayList<SolrInputDocument>(batchSize);
+        try {
+            SolrInputDocument doc;
+            while ((doc = take()) != null) {
+                batch.add(doc);
+                if (batch.size() >= batchSize) {
+                    add(batch);
+                }
+            }
+            add(batch);
+        } catch (Exception e) {
+            LOG.error("Error while adding documents to Solr. Make sure the Solr instance is up",
+                    e);
+            error = e;
+            // keep emptying the queue so that the fetchers aren't left waiting on it
+            while (take() != null) {
+                // discard
+            }
+        }
+        long time = System.currentTimeMillis() - start;
+        LOG.info(getName() + " added " + written + " documents in " + time + "ms, "
+                + addTime + "ms of it waiting for Solr");
+    }
+
+    // several writers share the queue, so checking for and taking the next document has to be
+    // done in one step; waiting in the queue releases its lock, so this doesn't block the fetchers
+    private SolrInputDocument take() {
+        synchronized (indexingQueue) {
+            return indexingQueue.hasNext() ? indexingQueue.next() : null;
+        }
+    }
+
+    private void add(List<SolrInputDocument> batch) throws IOException, SolrServerException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        // no commitWithin: nothing is visible until SolrIndexHandler commits the whole run
+        solrClient.add(batch);
+        addTime += System.currentTimeMillis() - start;
+        written += batch.size();
+        int total = indexed.addAndGet(batch.size());
+        if (total / LOG_INTERVAL != (total - batch.size()) / LOG_INTERVAL) {
+            LOG.info("docs indexed=" + total + "; memory="
+                    + Runtime.getRuntime().freeMemory() / 1024 + "k/"
+                    + Runtime.getRuntime().maxMemory() / 1024 + "k");
+        }
+        batch.clear();
+    }
+
+    /**
+     * @return the number of documents this writer has added
+     */
+    public int getWritten() {
+        return written;
+    }
+
+    /**
+     * Get the error that stopped this writer, if any.
+     * @return The error.
+     */
+    public Exception getException() {
+        return error;
+    }
+}
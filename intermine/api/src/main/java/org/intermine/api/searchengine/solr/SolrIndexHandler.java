@@ -10,28 +10,40 @@ package org.intermine.api.searchengine.solr;
  *
  */
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.client.solrj.request.CoreAdminRequest;
 import org.apache.solr.client.solrj.request.schema.AnalyzerDefinition;
 import org.apache.solr.client.solrj.request.schema.FieldTypeDefinition;
 import org.apache.solr.client.solrj.request.schema.SchemaRequest;
-import org.apache.solr.client.solrj.response.UpdateResponse;
 import org.apache.solr.client.solrj.response.schema.FieldTypeRepresentation;
 import org.apache.solr.client.solrj.response.schema.SchemaResponse;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CoreAdminParams;
+import org.apache.solr.common.util.NamedList;
 import org.intermine.api.searchengine.IndexHandler;
 import org.intermine.api.searchengine.KeywordSearchFacetData;
 import org.intermine.api.searchengine.KeywordSearchPropertiesManager;
+import org.intermine.api.searchengine.SearchIndexHelper;
 import org.intermine.metadata.FieldDescriptor;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.util.ObjectPipe;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Solr Implementation of IndexHandler
@@ -48,7 +60,14 @@ public final class SolrIndexHandler implements IndexHandler
     //this field type is not analyzed
     private static final String RAW_FIELD_TYPE_NAME = "raw_string";
 
-    private ObjectPipe<SolrInputDocument> indexingQueue = new ObjectPipe<SolrInputDocument>(100000);
+    // appended to the name of the live core to name the core a blue/green build goes into
+    private static final String STAGING_CORE_SUFFIX = "_next";
+
+    // the most ids deleted or fetched in one go by an incremental update
+    private static final int IDS_PER_QUERY = 10000;
+
+    // the most new objects added to the index in one commit by an incremental update
+    private static final int IDS_PER_UPDATE = 100000;
 
     //ArrayLists to store the existing schema data in Solr
     //Based on the existence, schema will be created or updated
@@ -64,108 +83,207 @@ public final class SolrIndexHandler implements IndexHandler
         long time = System.currentTimeMillis();
         LOG.debug("Creating keyword search index...");
 
+        KeywordSearchPropertiesManager keywordSearchPropertiesManager
+                = KeywordSearchPropertiesManager.getInstance(os);
+
         SolrClient solrClient = SolrClientManager.getClientInstance(os);
+        String solrUrl = keywordSearchPropertiesManager.getSolrUrl();
+        String stagingCore = null;
+        if (keywordSearchPropertiesManager.getBlueGreen()) {
+            // build into a second core while the live one keeps serving searches
+            stagingCore = prepareStagingCore(solrUrl,
+                    keywordSearchPropertiesManager.getBlueGreenConfigSet());
+            solrClient = new HttpSolrClient.Builder(getBaseUrl(solrUrl) + "/" + stagingCore)
+                .build();
+        }
 
-        //delete previous documents in solr
+        try {
+            //delete previous documents in solr
 
-        LOG.debug("Delete previous index begins");
-        long deleteStartTime = System.currentTimeMillis();
+            LOG.debug("Delete previous index begins");
+            long deleteStartTime = System.currentTimeMillis();
 
-        try {
-            solrClient.deleteByQuery("*:*");
-            solrClient.commit();
+            try {
+                solrClient.deleteByQuery("*:*");
+                solrClient.commit();
 
-        } catch (SolrServerException e) {
-            LOG.error("Deleting old index failed", e);
-        }
+            } catch (SolrServerException e) {
+                LOG.error("Deleting old index failed", e);
+            }
 
-        LOG.debug("Delete previous index ends and it took "
-                + (System.currentTimeMillis() - deleteStartTime) + "ms");
+            LOG.debug("Delete previous index ends and it took "
+                    + (System.currentTimeMillis() - deleteStartTime) + "ms");
 
-        try {
-            this.existingFields = getAllExistingFieldsFromSolr(solrClient);
-            this.existingFieldTypes = getAllExisitingFieldTypesFromSolr(solrClient);
-            this.existingCopyFields = getAllExisitingCopyFieldsFromSolr(solrClient);
+            prepareSchema(solrClient, keywordSearchPropertiesManager);
 
-        } catch (SolrServerException e) {
-            LOG.error("Retrieving existing schema Definitions in Solr failed");
-        }
+            int[] idRange = SearchIndexHelper.getIdRange(os);
+            List<SolrIndexPartition> partitions = (idRange == null)
+                ? SolrIndexPartition.split(0, 0, 1)
+                : SolrIndexPartition.split(idRange[0], idRange[1],
+                        keywordSearchPropertiesManager.getIndexPartitions());
 
-        this.indexedFields = new ArrayList<String>();
+            int indexed = index(os, solrClient, keywordSearchPropertiesManager, partitions);
 
-        createFieldTypeDefinitions(solrClient);
+            if (stagingCore != null) {
+                swapCores(solrUrl, stagingCore);
+            }
+            SearchIndexHelper.storeMaxId(os, idRange == null ? 0 : idRange[1]);
+
+            time = System.currentTimeMillis() - time;
+            int seconds = (int) Math.floor(time / 1000);
+            LOG.info("Indexing of " + indexed + " documents finished in "
+                    + String.format("%02d:%02d.%03d", (int) Math.floor(seconds / 60),
+                    seconds % 60, time % 1000) + " minutes");
+        } finally {
+            if (stagingCore != null) {
+                solrClient.close();
+            }
+        }
+    }
 
+    @Override
+    public void updateIndex(ObjectStore os, Map<String, List<FieldDescriptor>> classKeys,
+            Collection<Integer> changedIds) throws IOException, SolrServerException {
+        if (changedIds.isEmpty()) {
+            LOG.info("No changed objects, the keyword search index is up to date");
+            return;
+        }
+        updateIndex(os, changedIds, SearchIndexHelper.getLastIndexedMaxId(os));
+    }
 
+    /**
+     * Update the index for the given objects, none of which with a higher id than indexedMaxId
+     * has a document yet.
+     */
+    private void updateIndex(ObjectStore os, Collection<Integer> changedIds,
+            Integer indexedMaxId) throws IOException, SolrServerException {
+        long time = System.currentTimeMillis();
         KeywordSearchPropertiesManager keywordSearchPropertiesManager
                 = KeywordSearchPropertiesManager.getInstance(os);
+        SolrClient solrClient = SolrClientManager.getClientInstance(os);
 
-        addFieldNameToSchema("classname", ANALYZED_FIELD_TYPE_NAME, false, true, solrClient);
-        addFieldNameToSchema("Category", "string", false, true, solrClient);
-
-        for (KeywordSearchFacetData facetData: keywordSearchPropertiesManager.getFacets()) {
-            for (String field : facetData.getFields()) {
-                addFieldNameToSchema(field, ANALYZED_FIELD_TYPE_NAME, false, true, solrClient);
-                addFieldNameToSchema("facet_" + field, "string", false, true, solrClient);
-                addCopyFieldToSchema(field, "facet_" + field, solrClient);
+        // the documents of objects that refer to a changed object hold some of its fields
+        Set<Integer> ids = new TreeSet<Integer>(changedIds);
+        ids.addAll(SearchIndexHelper.findReferringIds(os,
+                keywordSearchPropertiesManager.getSpecialReferences(), changedIds));
+        LOG.info("Updating the keyword search index for " + changedIds.size()
+                + " changed objects, " + ids.size() + " documents in all");
+
+        // deleted objects, and objects of classes that are no longer indexed, just go.  Solr
+        // may commit the deletions before the new documents if autoCommit is on, so only
+        // objects that can have documents are deleted, and new objects are never missing
+        List<String> batch = new ArrayList<String>();
+        for (Integer id : SearchIndexHelper.getIndexedIds(ids, indexedMaxId)) {
+            batch.add(id.toString());
+            if (batch.size() == IDS_PER_QUERY) {
+                solrClient.deleteById(batch);
+                batch.clear();
             }
         }
+        if (!batch.isEmpty()) {
+            solrClient.deleteById(batch);
+        }
 
-        LOG.info("Starting fetcher thread...");
-        SolrObjectHandler fetchThread =
-                new SolrObjectHandler(os,
-                        keywordSearchPropertiesManager.getClassKeys(),
-                        indexingQueue,
-                        keywordSearchPropertiesManager.getIgnoredClasses(),
-                        keywordSearchPropertiesManager.getIgnoredFields(),
-                        keywordSearchPropertiesManager.getSpecialReferences(),
-                        keywordSearchPropertiesManager.getClassBoost(),
-                        keywordSearchPropertiesManager.getFacets(),
-                        keywordSearchPropertiesManager.getAttributePrefixes(),
-                        solrClient,
-                        indexedFields,
-                        existingFields);
-        fetchThread.start();
-
-        int indexed = 0;
-
-        List<SolrInputDocument> solrInputDocuments = new ArrayList<SolrInputDocument>();
-
-        // loop and index while we still have fetchers running
-        LOG.debug("Starting to index...");
-
-        long indexStartTime = System.currentTimeMillis();
-
-        int tempDocs = 0;
-        long tempTime = System.currentTimeMillis();
-
-        while (indexingQueue.hasNext()) {
-            SolrInputDocument doc = indexingQueue.next();
-
-            solrInputDocuments.add(doc);
+        prepareSchema(solrClient, keywordSearchPropertiesManager);
 
-            indexed++;
+        int indexed = index(os, solrClient, keywordSearchPropertiesManager,
+                SolrIndexPartition.forIds(ids, IDS_PER_QUERY));
 
-            if (solrInputDocuments.size() == keywordSearchPropertiesManager.getIndexBatchSize()) {
+        LOG.info("Updated " + indexed + " documents in "
+                + (System.currentTimeMillis() - time) + "ms");
+    }
 
-                tempTime = System.currentTimeMillis();
+    /**
+     * {@inheritDoc}
+     *
+     * Objects are given increasing ids, so the objects stored since the last build or update are
+     * those with higher ids than the highest id recorded then.  They are added a page at a time,
+     * and the highest id is recorded after each page, so a failed update carries on from there.
+     * Changes to objects that were already indexed aren't found, and have to be passed to the
+     * other updateIndex() method.
+     */
+    @Override
+    public void updateIndex(ObjectStore os, Map<String, List<FieldDescriptor>> classKeys)
+        throws IOException, SolrServerException {
+        Integer maxId = SearchIndexHelper.getLastIndexedMaxId(os);
+        if (maxId == null) {
+            LOG.info("The highest indexed object id wasn't recorded, rebuilding the index");
+            createIndex(os, classKeys);
+            return;
+        }
+        List<Integer> added = SearchIndexHelper.getIdsAfter(os, maxId.intValue(),
+                IDS_PER_UPDATE);
+        if (added.isEmpty()) {
+            LOG.info("No new objects, the keyword search index is up to date");
+        }
+        while (!added.isEmpty()) {
+            updateIndex(os, added, maxId);
+            maxId = added.get(added.size() - 1);
+            SearchIndexHelper.storeMaxId(os, maxId.intValue());
+            added = SearchIndexHelper.getIdsAfter(os, maxId.intValue(), IDS_PER_UPDATE);
+        }
+    }
 
-                addSolrDocuments(solrClient, solrInputDocuments);
+    /**
+     * Fetch the objects in the partitions, make their documents and add them to solr, with
+     * as many fetchers and writers as are configured.
+     */
+    private int index(ObjectStore os, SolrClient solrClient,
+            KeywordSearchPropertiesManager keywordSearchPropertiesManager,
+            List<SolrIndexPartition> partitions) throws IOException {
+        ObjectPipe<SolrInputDocument> indexingQueue = new ObjectPipe<SolrInputDocument>(100000);
+        Queue<SolrIndexPartition> partitionQueue
+            = new ConcurrentLinkedQueue<SolrIndexPartition>(partitions);
+        // SolrObjectHandler shares this with the other fetchers
+        this.indexedFields = Collections.synchronizedList(this.indexedFields);
+
+        List<SolrObjectHandler> fetchers = SearchIndexHelper.startFetchers(os,
+                keywordSearchPropertiesManager, indexingQueue, partitionQueue, solrClient,
+                indexedFields, existingFields);
+
+        // index while we still have fetchers running
+        LOG.debug("Starting to index...");
 
-                tempDocs = indexed - tempDocs;
+        long indexStartTime = System.currentTimeMillis();
 
-                LOG.info("docs indexed=" + indexed + "; thread state="
-                        + fetchThread.getState() + "; docs/ms=" + tempDocs * 1.0F
-                        / (System.currentTimeMillis() - tempTime) + "; memory="
-                        + Runtime.getRuntime().freeMemory() / 1024 + "k/"
-                        + Runtime.getRuntime().maxMemory() / 1024 + "k" + "; time="
-                        + (System.currentTimeMillis() - time) + "ms");
+        AtomicInteger indexedCount = new AtomicInteger();
+        List<SolrDocumentWriter> writers = new ArrayList<SolrDocumentWriter>();
+        for (int i = 0; i < keywordSearchPropertiesManager.getIndexWriterThreads(); i++) {
+            SolrDocumentWriter writer = new SolrDocumentWriter(solrClient, indexingQueue,
+                    keywordSearchPropertiesManager.getIndexBatchSize(), indexedCount);
+            writer.setName("SolrDocumentWriter-" + (i + 1));
+            writer.start();
+            writers.add(writer);
+        }
 
-                solrInputDocuments.clear();
+        Exception error = null;
+        try {
+            for (SolrObjectHandler fetchThread : fetchers) {
+                fetchThread.join();
+                if (error == null) {
+                    error = fetchThread.getException();
+                }
             }
+            indexingQueue.finish();
+            for (SolrDocumentWriter writer : writers) {
+                writer.join();
+                if (error == null) {
+                    error = writer.getException();
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while indexing", e);
+        }
 
+        for (SolrIndexPartition partition : partitions) {
+            LOG.info("Indexed " + partition);
         }
 
-        addSolrDocuments(solrClient, solrInputDocuments);
+        if (error != null) {
+            // don't make a partial index visible
+            rollback(solrClient);
+            throw new RuntimeException("Indexing failed.", error);
+        }
 
         commit(solrClient);
 
@@ -176,38 +294,88 @@ public final class SolrIndexHandler implements IndexHandler
         LOG.debug("Solr indexing ends and it took "
                 + (System.currentTimeMillis() - indexStartTime) + "ms");
 
-        if (fetchThread.getException() != null) {
-
-            throw new RuntimeException("Indexing failed.", fetchThread.getException());
-        }
-
-        time = System.currentTimeMillis() - time;
-        int seconds = (int) Math.floor(time / 1000);
-        LOG.info("Indexing of " + indexed + " documents finished in "
-                + String.format("%02d:%02d.%03d", (int) Math.floor(seconds / 60), seconds % 60,
-                time % 1000) + " minutes");
+        return indexedCount.get();
     }
 
+    private void prepareSchema(SolrClient solrClient,
+            KeywordSearchPropertiesManager keywordSearchPropertiesManager) throws IOException {
+        try {
+            this.existingFields = getAllExistingFieldsFromSolr(solrClient);
+            this.existingFieldTypes = getAllExisitingFieldTypesFromSolr(solrClient);
+            this.existingCopyFields = getAllExisitingCopyFieldsFromSolr(solrClient);
 
-    private void addSolrDocuments(SolrClient solrClient, List<SolrInputDocument> solrDocumentList)
-            throws IOException, SolrServerException {
-
-        if (solrDocumentList.size() != 0) {
+        } catch (SolrServerException e) {
+            LOG.error("Retrieving existing schema Definitions in Solr failed");
+        }
 
-            LOG.debug("Beginning to commit Solr Documents into Solr");
+        this.indexedFields = new ArrayList<String>();
 
-            try {
-                UpdateResponse response = solrClient.add(solrDocumentList, 30000);
+        createFieldTypeDefinitions(solrClient);
 
-            } catch (SolrServerException e) {
+        addFieldNameToSchema("classname", ANALYZED_FIELD_TYPE_NAME, false, true, solrClient);
+        addFieldNameToSchema("Category", "string", false, true, solrClient);
 
-                LOG.error("Error while commiting the SolrInputdocuments to the Solrclient. "
-                        + "Make sure the Solr instance is up", e);
+        for (KeywordSearchFacetData facetData: keywordSearchPropertiesManager.getFacets()) {
+            for (String field : facetData.getFields()) {
+                addFieldNameToSchema(field, ANALYZED_FIELD_TYPE_NAME, false, true, solrClient);
+                addFieldNameToSchema("facet_" + field, "string", false, true, solrClient);
+                addCopyFieldToSchema(field, "facet_" + field, solrClient);
+            }
+        }
+    }
 
-                throw e;
+    /**
+     * Make sure the core the next full build goes into exists, creating it from the given
+     * configset if it doesn't.
+     */
+    private String prepareStagingCore(String solrUrl, String configSet)
+        throws IOException, SolrServerException {
+        String stagingCore = getCoreName(solrUrl) + STAGING_CORE_SUFFIX;
+        SolrClient adminClient = new HttpSolrClient.Builder(getBaseUrl(solrUrl)).build();
+        try {
+            NamedList<Object> status = CoreAdminRequest.getStatus(stagingCore, adminClient)
+                .getCoreStatus(stagingCore);
+            if (status == null || status.size() == 0) {
+                LOG.info("Creating solr core " + stagingCore + " from configset " + configSet);
+                CoreAdminRequest.Create create = new CoreAdminRequest.Create();
+                create.setCoreName(stagingCore);
+                create.setInstanceDir(stagingCore);
+                create.setConfigSet(configSet);
+                create.process(adminClient);
             }
+        } finally {
+            adminClient.close();
         }
+        return stagingCore;
+    }
+
+    /**
+     * Atomically swap the newly built core with the live one.  The old index is left in the
+     * staging core, to be overwritten by the next build.
+     */
+    private void swapCores(String solrUrl, String stagingCore)
+        throws IOException, SolrServerException {
+        SolrClient adminClient = new HttpSolrClient.Builder(getBaseUrl(solrUrl)).build();
+        try {
+            CoreAdminRequest swap = new CoreAdminRequest();
+            swap.setAction(CoreAdminParams.CoreAdminAction.SWAP);
+            swap.setCoreName(getCoreName(solrUrl));
+            swap.setOtherCoreName(stagingCore);
+            swap.process(adminClient);
+            LOG.info("Swapped solr core " + stagingCore + " with " + getCoreName(solrUrl));
+        } finally {
+            adminClient.close();
+        }
+    }
+
+    private static String getBaseUrl(String solrUrl) {
+        String url = StringUtils.removeEnd(solrUrl, "/");
+        return url.substring(0, url.lastIndexOf('/'));
+    }
 
+    private static String getCoreName(String solrUrl) {
+        String url = StringUtils.removeEnd(solrUrl, "/");
+        return url.substring(url.lastIndexOf('/') + 1);
     }
 
     private void addFieldNameToSchema(String fieldName, String fieldType, boolean stored,
@@ -275,6 +443,14 @@ public final class SolrIndexHandler implements IndexHandler
         }
     }
 
+    private void rollback(SolrClient solrClient) throws IOException {
+        try {
+            solrClient.rollback();
+        } catch (SolrServerException e) {
+            LOG.error("Error while rolling back.", e);
+        }
+    }
+
     private void optimize(SolrClient solrClient) throws IOException {
 
         long startTime = System.currentTimeMillis();
@@ -0,0 +1,210 @@
+package org.intermine.api.searchengine.solr;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.SimpleConstraint;
+
+/**
+ * A range or set of object ids indexed by one fetcher thread.  The fetchers of a parallel index
+ * build take partitions from a shared queue until there are none left, so more partitions than
+ * fetchers evens out the work when the ids of some classes are denser than others.  Each
+ * partition counts the documents made from it so that progress can be reported per partition.
+ */
+public final class SolrIndexPartition
+{
+    private final int number;
+    private final int count;
+    private final Integer start;
+    private final Integer end;
+    private final Collection<Integer> ids;
+    private volatile int documents = 0;
+    private volatile long startTime = 0;
+    private volatile long endTime = 0;
+
+    /**
+     * Construct a partition.
+     * @param number the number of this partition, counting from 1
+     * @param count the number of partitions
+     * @param start the lowest id in the partition, or null for no lower bound
+     * @param end one more than the highest id in the partition, or null for no upper bound
+     */
+    public SolrIndexPartition(int number, int count, Integer start, Integer end) {
+        this.number = number;
+        this.count = count;
+        this.start = start;
+        this.end = end;
+        this.ids = null;
+    }
+
+    /**
+     * Construct a partition of particular objects.
+     * @param number the number of this partition, counting from 1
+     * @param count the number of partitions
+     * @param ids the ids of the objects in the partition
+     */
+    public SolrIndexPartition(int number, int count, Collection<Integer> ids) {
+        this.number = number;
+        this.count = count;
+        this.start = null;
+        this.end = null;
+        this.ids = new HashSet<Integer>(ids);
+    }
+
+    /**
+     * Split the ids from minId to maxId inclusive into partitions of equal width.  The first
+     * and last partitions are open ended, so together the partitions cover every id.
+     * @param minId the lowest id
+     * @param maxId the highest id
+     * @param partitions the number of partitions wanted
+     * @return the partitions, fewer than asked for if there are fewer ids
+     */
+    public static List<SolrIndexPartition> split(int minId, int maxId, int partitions) {
+        long width = (long) maxId - minId + 1;
+        int count = (int) Math.max(1, Math.min(partitions, width));
+        if (count == 1) {
+            return Collections.singletonList(new SolrIndexPartition(1, 1, null, null));
+        }
+        List<SolrIndexPartition> retval = new ArrayList<SolrIndexPartition>();
+        Integer previous = null;
+        for (int i = 1; i <= count; i++) {
+            Integer next = (i == count) ? null : (int) (minId + (width * i) / count);
+            retval.add(new SolrIndexPartition(i, count, previous, next));
+            previous = next;
+        }
+        return retval;
+    }
+
+    /**
+     * Split a set of ids into partitions of at most the given size, eg. for an incremental
+     * update of the index.
+     * @param ids the ids of the objects to index
+     * @param idsPerPartition the most ids in one partition
+     * @return the partitions
+     */
+    public static List<SolrIndexPartition> forIds(Collection<Integer> ids, int idsPerPartition) {
+        List<Integer> sorted = new ArrayList<Integer>(new TreeSet<Integer>(ids));
+        int count = (sorted.size() + idsPerPartition - 1) / idsPerPartition;
+        List<SolrIndexPartition> retval = new ArrayList<SolrIndexPartition>();
+        for (int i = 0; i < count; i++) {
+            retval.add(new SolrIndexPartition(i + 1, count, sorted.subList(i * idsPerPartition,
+                    Math.min(sorted.size(), (i + 1) * idsPerPartition))));
+        }
+        return retval;
+    }
+
+    /**
+     * Add constraints to a query to restrict an id field to this partition.
+     * @param constraints the constraints of the query
+     * @param id the id field to restrict
+     */
+    public void addConstraints(ConstraintSet constraints, QueryField id) {
+        if (start != null) {
+            constraints.addConstraint(new SimpleConstraint(id,
+                    ConstraintOp.GREATER_THAN_EQUALS, new QueryValue(start)));
+        }
+        if (end != null) {
+            constraints.addConstraint(new SimpleConstraint(id, ConstraintOp.LESS_THAN,
+                    new QueryValue(end)));
+        }
+        if (ids != null) {
+            constraints.addConstraint(new BagConstraint(id, ConstraintOp.IN, ids));
+        }
+    }
+
+    /**
+     * Return whether an id falls in this partition.
+     * @param id an object id
+     * @return true if the id is in the partition
+     */
+    public boolean contains(int id) {
+        if (ids != null) {
+            return ids.contains(id);
+        }
+        return (start == null || id >= start) && (end == null || id < end);
+    }
+
+    /**
+     * @return the lowest id in the partition, or null for no lower bound
+     */
+    public Integer getStart() {
+        return start;
+    }
+
+    /**
+     * @return one more than the highest id in the partition, or null for no upper bound
+     */
+    public Integer getEnd() {
+        return end;
+    }
+
+    /**
+     * Record that the fetcher has started on this partition.
+     */
+    public void started() {
+        startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Record that a document has been made from an object in this partition.
+     */
+    public void documentAdded() {
+        documents++;
+    }
+
+    /**
+     * Record that the fetcher has finished this partition.
+     */
+    public void finished() {
+        endTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the number of documents made from this partition so far
+     */
+    public int getDocuments() {
+        return documents;
+    }
+
+    /**
+     * @return the time spent on this partition so far, in milliseconds
+     */
+    public long getTime() {
+        if (startTime == 0) {
+            return 0;
+        }
+        return (endTime == 0 ? System.currentTimeMillis() : endTime) - startTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        long time = getTime();
+        String range = (ids != null) ? ids.size() + " ids"
+            : "[" + (start == null ? "" : start) + ", " + (end == null ? "" : end) + ")";
+        return "partition " + number + "/" + count + " " + range + ": " + documents
+            + " documents in " + time + "ms ("
+            + (time == 0 ? 0 : documents * 1000L / time) + " docs/s)";
+    }
+}
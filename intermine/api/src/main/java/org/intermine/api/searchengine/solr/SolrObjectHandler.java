@@ -17,6 +17,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.Vector;
 import java.util.Map.Entry;
@@ -53,6 +54,7 @@ import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryCollectionReference;
 import org.intermine.objectstore.query.QueryField;
 import org.intermine.objectstore.query.QueryObjectReference;
+import org.intermine.objectstore.query.QuerySelectable;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.pathquery.PathException;
@@ -61,7 +63,9 @@ import org.intermine.util.ObjectPipe;
 /**
  * Thread to fetch all intermineobjects (with exceptions) from database, create
  * a solr document for them, add references (if applicable) and put the final
- * document in the indexing queue
+ * document in the indexing queue.  For a parallel index build several handlers take
+ * id ranges from a shared queue of partitions and fetch only the objects and references
+ * in each range.
  * @author nils
  * @author arunans23
  */
@@ -96,10 +100,15 @@ public class SolrObjectHandler extends Thread
     private List<String> indexedFields;
     private List<String> existingFields;
 
+    private final Queue<SolrIndexPartition> partitions;
+
     private volatile Exception error;
 
     /**
-     * initialize the documentfetcher thread
+     * initialize the documentfetcher thread.  The thread indexes partitions until the queue of
+     * partitions is empty.  It doesn't finish the indexing queue, as other fetchers may still be
+     * adding to it.  The documents can be written to an index other than solr's, in which case
+     * the client and the existing fields are null and the solr schema isn't touched.
      * @param os
      *            intermine objectstore
      * @param classKeys
@@ -121,11 +130,14 @@ public class SolrObjectHandler extends Thread
      *            fields used for faceting - will be indexed untokenized in
      *            addition to the normal indexing
      * @param attributePrefixes prefixes to be ignored
-     * @param solrClient solrClient Instance
-     * @param indexedFields List of fieldnames that are indexed in the current postprocess
-     * @param existingFields List of fieldnames that are already exisiting
+     * @param solrClient solrClient Instance, or null if the documents aren't for solr
+     * @param indexedFields List of fieldnames that are indexed in the current postprocess,
+     *            shared between the fetchers
+     * @param existingFields List of fieldnames that are already exisiting, or null to leave the
+     *            schema alone
+     * @param partitions the id ranges to index, shared between the fetchers
      */
-    SolrObjectHandler(ObjectStore os, Map<String, List<FieldDescriptor>> classKeys,
+    public SolrObjectHandler(ObjectStore os, Map<String, List<FieldDescriptor>> classKeys,
                       ObjectPipe<SolrInputDocument> indexingQueue,
                       Set<Class<? extends InterMineObject>> ignoredClasses,
                       Map<Class<? extends InterMineObject>, Set<String>> ignoredFields,
@@ -134,9 +146,10 @@ public class SolrObjectHandler extends Thread
                       Map<String, String> attributePrefixes,
                       SolrClient solrClient,
                       List<String> indexedFields,
-                      List<String> existingFields
+                      List<String> existingFields,
+                      Queue<SolrIndexPartition> partitions
     ) {
-        super();
+        super("SolrObjectHandler");
 
         this.os = os;
         this.classKeys = classKeys;
@@ -151,6 +164,7 @@ public class SolrObjectHandler extends Thread
         this.solrClient = solrClient;
         this.indexedFields = indexedFields;
         this.existingFields = existingFields;
+        this.partitions = partitions;
     }
 
     /**
@@ -165,65 +179,76 @@ public class SolrObjectHandler extends Thread
      * fetch objects from database, create documents and add them to the queue
      */
     @Override
-    @SuppressWarnings("unchecked")
     public void run() {
         try {
-            long time = System.currentTimeMillis();
-            long objectParseTime = 0;
-
-            LOG.info("Fetching all InterMineObjects...");
-
-            HashSet<Class<? extends InterMineObject>> seenClasses =
-                    new HashSet<Class<? extends InterMineObject>>();
-            HashMap<String, InterMineResultsContainer> referenceResults =
-                    new HashMap<String, InterMineResultsContainer>();
-
-            try {
+            SolrIndexPartition partition;
+            while ((partition = partitions.poll()) != null) {
+                partition.started();
+                index(partition);
+                partition.finished();
+                LOG.info("Indexed " + partition);
+            }
+        } catch (Exception e) {
+            LOG.warn("Error occurred during processing", e);
+            setException(e);
+            // the build has failed, so stop the other fetchers after their current partition
+            partitions.clear();
+        }
+    }
 
-                //query all objects except the ones we are ignoring
-                Query q = new Query();
-                QueryClass qc = new QueryClass(InterMineObject.class);
-                q.addFrom(qc);
-                q.addToSelect(qc);
+    @SuppressWarnings("unchecked")
+    private void index(SolrIndexPartition partition) throws Exception {
+        long time = System.currentTimeMillis();
+        long objectParseTime = 0;
 
-                QueryField qf = new QueryField(qc, "class");
-                q.setConstraint(new BagConstraint(qf, ConstraintOp.NOT_IN, ignoredClasses));
+        LOG.info("Fetching all InterMineObjects in " + partition + "...");
 
-                LOG.info("QUERY: " + q.toString());
+        HashSet<Class<? extends InterMineObject>> seenClasses =
+                new HashSet<Class<? extends InterMineObject>>();
+        HashMap<String, InterMineResultsContainer> referenceResults =
+                new HashMap<String, InterMineResultsContainer>();
 
-                Results results = os.execute(q, 1000, true, false, true);
+        try {
 
-                @SuppressWarnings("rawtypes")
-                ListIterator<ResultsRow<InterMineObject>> it = (ListIterator) results
-                        .listIterator();
-                int i = iterateOverObjects(time, objectParseTime, seenClasses,
-                        referenceResults, results, it);
-                StringBuilder doneMessage = new StringBuilder();
-                for (String fieldName : fieldNames) {
-                    if (doneMessage.length() > 0) {
-                        doneMessage.append(", ");
-                    }
-                    doneMessage.append(fieldName);
-                    if (normFields.contains(fieldName)) {
-                        doneMessage.append(" NO_NORMS");
-                    }
+            //query all objects except the ones we are ignoring
+            Query q = new Query();
+            QueryClass qc = new QueryClass(InterMineObject.class);
+            q.addFrom(qc);
+            q.addToSelect(qc);
+
+            QueryField qf = new QueryField(qc, "class");
+            ConstraintSet constraints = new ConstraintSet(ConstraintOp.AND);
+            constraints.addConstraint(new BagConstraint(qf, ConstraintOp.NOT_IN, ignoredClasses));
+            partition.addConstraints(constraints, new QueryField(qc, "id"));
+            q.setConstraint(constraints);
+
+            LOG.info("QUERY: " + q.toString());
+
+            Results results = os.execute(q, 1000, true, false, true);
+
+            @SuppressWarnings("rawtypes")
+            ListIterator<ResultsRow<InterMineObject>> it = (ListIterator) results
+                    .listIterator();
+            int i = iterateOverObjects(time, objectParseTime, seenClasses,
+                    referenceResults, results, it, partition);
+            StringBuilder doneMessage = new StringBuilder();
+            for (String fieldName : fieldNames) {
+                if (doneMessage.length() > 0) {
+                    doneMessage.append(", ");
                 }
-                LOG.info("COMPLETED index with " + i + " records.  Fields: " + doneMessage);
-
-            } finally {
-                for (InterMineResultsContainer resultsContainer : referenceResults.values()) {
-                    ((ObjectStoreInterMineImpl) os).releaseGoFaster(resultsContainer.getResults()
-                            .getQuery());
+                doneMessage.append(fieldName);
+                if (normFields.contains(fieldName)) {
+                    doneMessage.append(" NO_NORMS");
                 }
             }
+            LOG.info("COMPLETED index with " + i + " records.  Fields: " + doneMessage);
 
-        } catch (Exception e) {
-            LOG.warn("Error occurred during processing", e);
-            setException(e);
+        } finally {
+            for (InterMineResultsContainer resultsContainer : referenceResults.values()) {
+                ((ObjectStoreInterMineImpl) os).releaseGoFaster(resultsContainer.getResults()
+                        .getQuery());
+            }
         }
-
-        //notify main thread that we're done
-        indexingQueue.finish();
     }
 
     private void setException(Exception e) {
@@ -241,7 +266,8 @@ public class SolrObjectHandler extends Thread
     private SolrInputDocument handleObject(
             InterMineObject object,
             HashSet<Class<? extends InterMineObject>> seenClasses,
-            HashMap<String, InterMineResultsContainer> referenceResults)
+            HashMap<String, InterMineResultsContainer> referenceResults,
+            SolrIndexPartition partition)
             throws PathException, ObjectStoreException, IllegalAccessException {
 
         long objectParseStart = System.currentTimeMillis();
@@ -293,7 +319,7 @@ public class SolrObjectHandler extends Thread
             for (String reference : references) {
                 // LOG.info("Querying reference " + reference);
 
-                Query queryReference = getPathQuery(reference);
+                Query queryReference = getPathQuery(os.getModel(), reference, partition);
 
                 // do not count this towards objectParseTime
                 objectParseTime += (System.currentTimeMillis() - objectParseStart);
@@ -421,7 +447,8 @@ public class SolrObjectHandler extends Thread
     private int iterateOverObjects(long time, long objectParseTime,
                                    HashSet<Class<? extends InterMineObject>> seenClasses,
                                    HashMap<String, InterMineResultsContainer> referenceResults,
-                                   Results results, ListIterator<ResultsRow<InterMineObject>> it)
+                                   Results results, ListIterator<ResultsRow<InterMineObject>> it,
+                                   SolrIndexPartition partition)
             throws PathException, ObjectStoreException, IllegalAccessException {
         int i = 0;
         int size = results.size();
@@ -438,10 +465,12 @@ public class SolrObjectHandler extends Thread
             }
 
             for (InterMineObject object : row) {
-                SolrInputDocument doc = handleObject(object, seenClasses, referenceResults);
+                SolrInputDocument doc = handleObject(object, seenClasses, referenceResults,
+                        partition);
 
                 // finally add doc to queue
                 indexingQueue.put(doc);
+                partition.documentAdded();
 
             }
 
@@ -618,12 +647,17 @@ public class SolrObjectHandler extends Thread
         return attributes;
     }
 
-    private Query getPathQuery(String pathString) throws PathException {
+    /**
+     * Make a query for a reference path, selecting the id of the object at its start and the
+     * object at its end, in order of the first id.
+     */
+    private static Query getPathQuery(Model model, String pathString,
+            SolrIndexPartition partition) throws PathException {
         Query q = new Query();
         ConstraintSet constraints = new ConstraintSet(ConstraintOp.AND);
 
         org.intermine.pathquery.Path path =
-                new org.intermine.pathquery.Path(os.getModel(), pathString);
+                new org.intermine.pathquery.Path(model, pathString);
         List<ClassDescriptor> classDescriptors = path.getElementClassDescriptors();
         List<String> fields = path.getElements();
 
@@ -643,6 +677,9 @@ public class SolrObjectHandler extends Thread
                 QueryField topId = new QueryField(queryClass, "id");
                 q.addToSelect(topId);
                 q.addToOrderBy(topId); // important for optimization in run()
+                if (partition != null) {
+                    partition.addConstraints(constraints, topId);
+                }
             } else {
                 if (parentClassDescriptor == null) {
                     continue;
@@ -683,35 +720,41 @@ public class SolrObjectHandler extends Thread
         return q;
     }
 
+    /**
+     * Make a query for the ids of the objects at the start of a reference path whose documents
+     * include any of the given objects at its end.
+     * @param model the model
+     * @param pathString the reference path, starting with a class name
+     * @param ids the ids of the objects at the end of the path
+     * @return the query, which selects distinct ids
+     * @throws PathException if the path is not valid
+     */
+    public static Query getReferringQuery(Model model, String pathString, Collection<Integer> ids)
+        throws PathException {
+        Query q = getPathQuery(model, pathString, null);
+        QuerySelectable topId = q.getSelect().get(0);
+        QueryClass lastQueryClass = (QueryClass) q.getSelect().get(1);
+        ((ConstraintSet) q.getConstraint()).addConstraint(new BagConstraint(
+                new QueryField(lastQueryClass, "id"), ConstraintOp.IN, ids));
+        q.clearSelect();
+        q.clearOrderBy();
+        q.addToSelect(topId);
+        q.setDistinct(true);
+        return q;
+    }
+
     private void addFieldNameToSchema(String fieldName, String fieldType,
                                      boolean stored, boolean indexed) {
 
         if (!fieldNames.contains(fieldName)) {
             fieldNames.add(fieldName);
 
-            if (!indexedFields.contains(fieldName)) {
-                if (existingFields != null) {
-                    if (!existingFields.contains(fieldName)) {
-                        Map<String, Object> fieldAttributes = new HashMap();
-                        fieldAttributes.put("name", fieldName);
-                        fieldAttributes.put("type", fieldType);
-                        fieldAttributes.put("stored", stored);
-                        fieldAttributes.put("indexed", indexed);
-                        fieldAttributes.put("multiValued", true);
-                        fieldAttributes.put("required", false);
-
-                        try {
-                            SchemaRequest.AddField schemaRequest
-                                    = new SchemaRequest.AddField(fieldAttributes);
-                            SchemaResponse.UpdateResponse response
-                                    = schemaRequest.process(solrClient);
-
-                            indexedFields.add(fieldName);
-
-                        } catch (Exception e) {
-                            LOG.error("Error while adding fields to the solrclient.", e);
-
-                            e.printStackTrace();
+            // indexedFields is shared by the fetchers of a parallel build
+            synchronized (indexedFields) {
+                if (!indexedFields.contains(fieldName)) {
+                    if (existingFields != null) {
+                        if (!existingFields.contains(fieldName)) {
+                            addFieldToSchema(fieldName, fieldType, stored, indexed);
                         }
                     }
                 }
@@ -719,4 +762,29 @@ public class SolrObjectHandler extends Thread
         }
     }
 
+    private void addFieldToSchema(String fieldName, String fieldType, boolean stored,
+                                  boolean indexed) {
+        Map<String, Object> fieldAttributes = new HashMap();
+        fieldAttributes.put("name", fieldName);
+        fieldAttributes.put("type", fieldType);
+        fieldAttributes.put("stored", stored);
+        fieldAttributes.put("indexed", indexed);
+        fieldAttributes.put("multiValued", true);
+        fieldAttributes.put("required", false);
+
+        try {
+            SchemaRequest.AddField schemaRequest
+                    = new SchemaRequest.AddField(fieldAttributes);
+            SchemaResponse.UpdateResponse response
+                    = schemaRequest.process(solrClient);
+
+            indexedFields.add(fieldName);
+
+        } catch (Exception e) {
+            LOG.error("Error while adding fields to the solrclient.", e);
+
+            e.printStackTrace();
+        }
+    }
+
 }
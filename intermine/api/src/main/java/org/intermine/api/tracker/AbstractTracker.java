@@ -14,6 +14,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Queue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.intermine.api.tracker.track.Track;
@@ -27,6 +28,8 @@ import org.intermine.sql.DatabaseUtil;
 public abstract class AbstractTracker implements Tracker
 {
     private static final Logger LOG = Logger.getLogger(AbstractTracker.class);
+    private static final int DROPPED_LOG_INTERVAL = 1000;
+    private static final AtomicLong DROPPED_TRACKS = new AtomicLong();
     protected Queue<Track> trackQueue = null;
     protected String trackTableName;
     protected TrackerLogger trackerLogger = null;
@@ -78,10 +81,13 @@ public abstract class AbstractTracker implements Tracker
     public void storeTrack(Track track) {
         if (trackTableName != null) {
             if (track.validate()) {
-                try {
-                    trackQueue.add(track);
-                } catch (IllegalStateException ise) {
-                    LOG.error("Problem adding the track to the queue", ise);
+                // never hold up the request: if the logger can't keep up, drop the track
+                if (!trackQueue.offer(track)) {
+                    long dropped = DROPPED_TRACKS.incrementAndGet();
+                    if (dropped % DROPPED_LOG_INTERVAL == 1) {
+                        LOG.error("The track queue is full, " + dropped
+                                + " tracks have been dropped");
+                    }
                 }
             } else {
                 LOG.error("Failed to write to track table: input non valid");
@@ -91,6 +97,14 @@ public abstract class AbstractTracker implements Tracker
         }
     }
 
+    /**
+     * Return the number of tracks that have been dropped because the queue was full.
+     * @return the number of dropped tracks
+     */
+    public static long getDroppedTracks() {
+        return DROPPED_TRACKS.get();
+    }
+
     /**
      * Return the tracker's name
      * @return String tracker's name
@@ -128,27 +128,38 @@ public class TemplateTracker extends AbstractTracker
      * @return map with key the template name and executions number
      */
     protected Map<String, Integer> getAccessCounter(Connection con) {
-        ResultSet rs = null;
-        Statement stm = null;
+        try {
+            return getExecutionCounts(con);
+        } catch (SQLException sqle) {
+            LOG.error("Error in getAccessCounter method: ", sqle);
+        }
+        return null;
+    }
+
+    /**
+     * Return the number of executions for each public template, read straight from the tracker
+     * table, for use outside a running webapp.
+     * @param con connection to the userprofile database
+     * @return map with key the template name and executions number
+     * @throws SQLException if the tracker table can't be read
+     */
+    public static Map<String, Integer> getExecutionCounts(Connection con) throws SQLException {
         Map<String, Integer> templateRank = new HashMap<String, Integer>();
+        Statement stm = con.createStatement();
         try {
-            stm = con.createStatement();
             String sql = "SELECT tt.templatename, COUNT(tt.templatename) as accessnumbers "
                         + "FROM templatetrack tt, tag t "
                         + "WHERE tt.templatename=t.objectidentifier "
                         + "AND t.tagname LIKE '%public' AND t.type='template' "
                         + "GROUP BY tt.templatename";
-            rs = stm.executeQuery(sql);
+            ResultSet rs = stm.executeQuery(sql);
             while (rs.next()) {
                 templateRank.put(rs.getString(1), rs.getInt(2));
             }
             return templateRank;
-        } catch (SQLException sqle) {
-            LOG.error("Error in getAccessCounter method: ", sqle);
         } finally {
-            releaseResources(rs, stm);
+            stm.close();
         }
-        return null;
     }
 
     /**
@@ -13,10 +13,10 @@ import java.lang.ref.WeakReference;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.apache.log4j.Logger;
 import org.intermine.api.profile.Profile;
@@ -40,6 +40,8 @@ import org.intermine.util.Shutdownable;
 public class TrackerDelegate implements Shutdownable
 {
     private static final Logger LOG = Logger.getLogger(TrackerDelegate.class);
+    // tracks beyond this many waiting to be written are dropped
+    private static final int QUEUE_CAPACITY = 10000;
     protected Map<String, Tracker> trackers = new HashMap<String, Tracker>();
     protected ObjectStoreWriter osw;
     protected final Connection connection;
@@ -52,7 +54,7 @@ public class TrackerDelegate implements Shutdownable
      * @param osw the object store witer used to retrieve the connections
      */
     public TrackerDelegate(String[] trackerClassNames, ObjectStoreWriter osw) {
-        Queue<Track> trackQueue = new LinkedList<Track>();
+        BlockingQueue<Track> trackQueue = new ArrayBlockingQueue<Track>(QUEUE_CAPACITY);
         this.osw = osw;
         ShutdownHook.registerObject(new WeakReference<Object>(this));
         try {
@@ -75,7 +77,7 @@ public class TrackerDelegate implements Shutdownable
         }
 
         TrackerLogger trackerLogger = new TrackerLogger(connection, trackQueue);
-        trackerLoggerThread = new Thread(trackerLogger);
+        trackerLoggerThread = new Thread(trackerLogger, "TrackerLogger");
         trackerLoggerThread.setDaemon(true);
         trackerLoggerThread.start();
     }
@@ -361,6 +363,7 @@ public class TrackerDelegate implements Shutdownable
         if (isClosed) {
             return;
         }
+        // the logger writes the tracks still in the queue before it stops
         trackerLoggerThread.interrupt();
         try {
             trackerLoggerThread.join();
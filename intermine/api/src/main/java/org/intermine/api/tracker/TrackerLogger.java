@@ -10,33 +10,79 @@ package org.intermine.api.tracker;
  *
  */
 import java.sql.Connection;
-import java.util.Queue;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.log4j.Logger;
 import org.intermine.api.tracker.track.Track;
+import org.intermine.api.tracker.track.TrackAbstract;
 
 /**
  * Runnable object providing insertion into the database. TrackerLogger is created
  * for a specific connection and table.
+ *
+ * Tracks are taken from the queue in batches and each table's tracks are written with a single
+ * multi-row INSERT.  A batch is written once it is full or once its first track has waited
+ * maxDelay milliseconds, whichever comes first.  When the thread is interrupted the tracks still
+ * in the queue are written before it stops.
+ *
  * @author dbutano
  *
  */
 public class TrackerLogger implements Runnable
 {
+    private static final Logger LOG = Logger.getLogger(TrackerLogger.class);
+
+    /** The default number of tracks written in one go. **/
+    public static final int DEFAULT_BATCH_SIZE = 200;
+    /** The default longest time a track waits to be written, in milliseconds. **/
+    public static final long DEFAULT_MAX_DELAY = 1000;
+
+    // postgres allows at most 32767 parameters in a statement
+    private static final int MAX_PARAMETERS = 32767;
 
     private Connection connection;
-    private Queue<Track> trackQueue;
+    private BlockingQueue<Track> trackQueue;
+    private final int batchSize;
+    private final long maxDelay;
+    private final AtomicLong storedTracks = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    /**
+     * Construct a TrackerLogger for a specific connection and table
+     * @param connection the connection to the database
+     * @param trackQueue track queue
+     */
+    public TrackerLogger(Connection connection, BlockingQueue<Track> trackQueue) {
+        this(connection, trackQueue, DEFAULT_BATCH_SIZE, DEFAULT_MAX_DELAY);
+    }
 
     /**
      * Construct a TrackerLogger for a specific connection and table
      * @param connection the connection to the database
      * @param trackQueue track queue
+     * @param batchSize the most tracks to write in one go
+     * @param maxDelay the longest time a track waits to be written, in milliseconds
      */
-    public TrackerLogger(Connection connection, Queue<Track> trackQueue) {
+    public TrackerLogger(Connection connection, BlockingQueue<Track> trackQueue, int batchSize,
+            long maxDelay) {
         this.connection = connection;
         this.trackQueue = trackQueue;
         if (connection == null || trackQueue == null) {
             throw new IllegalArgumentException("neither connection or track queue may be null");
         }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.batchSize = batchSize;
+        this.maxDelay = maxDelay;
     }
 
     /**
@@ -44,21 +90,108 @@ public class TrackerLogger implements Runnable
      */
     @Override
     public void run() {
-        for (;;) {
-            if (Thread.interrupted()) {
-                return;
+        List<Track> batch = new ArrayList<Track>(batchSize);
+        long deadline = 0;
+        try {
+            for (;;) {
+                Track track;
+                if (batch.isEmpty()) {
+                    track = trackQueue.take();
+                    deadline = System.currentTimeMillis() + maxDelay;
+                } else {
+                    long wait = deadline - System.currentTimeMillis();
+                    track = (wait > 0) ? trackQueue.poll(wait, TimeUnit.MILLISECONDS) : null;
+                }
+                if (track != null) {
+                    batch.add(track);
+                    trackQueue.drainTo(batch, batchSize - batch.size());
+                }
+                if (batch.size() >= batchSize || (track == null && !batch.isEmpty())) {
+                    store(batch);
+                    batch.clear();
+                }
             }
+        } catch (InterruptedException e) {
+            // shutting down: write what is left
+            trackQueue.drainTo(batch);
+            store(batch);
+            LOG.info("Tracker logger stopped, having stored " + storedTracks.get()
+                    + " tracks in " + batches.get() + " batches");
+        }
+    }
 
-            Track track = trackQueue.poll();
-            if (track != null) {
-                track.store(connection);
+    /**
+     * @return the number of tracks written to the database so far
+     */
+    public long getStoredTracks() {
+        return storedTracks.get();
+    }
+
+    /**
+     * @return the number of batches written to the database so far
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    private void store(List<Track> tracks) {
+        Map<String, List<Track>> byTable = new LinkedHashMap<String, List<Track>>();
+        for (Track track : tracks) {
+            List<Track> tableTracks = byTable.get(track.getTableName());
+            if (tableTracks == null) {
+                tableTracks = new ArrayList<Track>();
+                byTable.put(track.getTableName(), tableTracks);
             }
-            try {
-                Thread.sleep(10);
-            } catch (InterruptedException e) {
-                return;
+            tableTracks.add(track);
+        }
+        for (Map.Entry<String, List<Track>> entry : byTable.entrySet()) {
+            List<Track> tableTracks = entry.getValue();
+            int columns = tableTracks.get(0).getFormattedTrack().length;
+            int rowsPerStatement = Math.max(1, MAX_PARAMETERS / Math.max(1, columns));
+            for (int i = 0; i < tableTracks.size(); i += rowsPerStatement) {
+                List<Track> rows = tableTracks.subList(i,
+                        Math.min(tableTracks.size(), i + rowsPerStatement));
+                try {
+                    insert(entry.getKey(), columns, rows);
+                    storedTracks.addAndGet(rows.size());
+                } catch (SQLException e) {
+                    LOG.warn("Problem storing a batch of " + rows.size() + " tracks in "
+                            + entry.getKey() + ", storing them one at a time", e);
+                    for (Track track : rows) {
+                        track.store(connection);
+                    }
+                }
+                batches.incrementAndGet();
             }
+        }
+    }
 
+    private void insert(String table, int columns, List<Track> rows) throws SQLException {
+        StringBuilder row = new StringBuilder("(");
+        for (int i = 0; i < columns; i++) {
+            row.append(i == 0 ? "?" : ",?");
+        }
+        row.append(")");
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" VALUES ");
+        for (int i = 0; i < rows.size(); i++) {
+            sql.append(i == 0 ? "" : ",").append(row);
+        }
+        PreparedStatement stm = connection.prepareStatement(sql.toString());
+        try {
+            int index = 0;
+            for (Track track : rows) {
+                Object[] values = track.getFormattedTrack();
+                if (values.length != columns) {
+                    throw new SQLException("Tracks for " + table + " have "
+                            + values.length + " and " + columns + " values");
+                }
+                for (Object value : values) {
+                    TrackAbstract.setParameter(stm, ++index, value);
+                }
+            }
+            stm.executeUpdate();
+        } finally {
+            stm.close();
         }
     }
 }
@@ -43,20 +43,13 @@ public abstract class TrackAbstract implements Track
         try {
             sql = "INSERT INTO " + getTableName() + " VALUES(" + valuesBuffer + ")";
             stm = con.prepareStatement(sql);
-            Object value = null;
-            for (int index = 0; index < valuesSize; ) {
-                value = values[index];
-                if (value instanceof Integer) {
-                    stm.setInt(++index, (Integer) value);
-                } else if (value instanceof Timestamp) {
-                    stm.setTimestamp(++index, (Timestamp) value);
-                } else {
-                    stm.setString(++index, value.toString());
-                }
+            for (int index = 0; index < valuesSize; index++) {
+                setParameter(stm, index + 1, values[index]);
             }
             stm.executeUpdate();
         } catch (SQLException sqe) {
             LOG.error("Problem executing the statement: " + sql, sqe);
+        } finally {
             if (stm != null) {
                 try {
                     stm.close();
@@ -67,6 +60,24 @@ public abstract class TrackAbstract implements Track
         }
     }
 
+    /**
+     * Set a parameter of a statement inserting tracks to one of the values of a formatted track.
+     * @param stm the statement
+     * @param index the index of the parameter, starting at 1
+     * @param value the value
+     * @throws SQLException if the parameter can't be set
+     */
+    public static void setParameter(PreparedStatement stm, int index, Object value)
+        throws SQLException {
+        if (value instanceof Integer) {
+            stm.setInt(index, (Integer) value);
+        } else if (value instanceof Timestamp) {
+            stm.setTimestamp(index, (Timestamp) value);
+        } else {
+            stm.setString(index, value.toString());
+        }
+    }
+
     /**
      * Return the timestamp of the event
      * @return Timestamp the timestamp
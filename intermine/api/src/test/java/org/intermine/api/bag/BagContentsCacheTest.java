@@ -0,0 +1,75 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+import org.intermine.objectstore.query.ObjectStoreBag;
+import org.junit.Test;
+
+public class BagContentsCacheTest
+{
+    private final ObjectStoreDummyImpl os = new ObjectStoreDummyImpl();
+    private final BagContentsCache cache = new BagContentsCache(os, 10);
+    private final ObjectStoreBag osb1 = new ObjectStoreBag(1);
+    private final ObjectStoreBag osb2 = new ObjectStoreBag(2);
+    private final ObjectStoreBag osb3 = new ObjectStoreBag(3);
+    private final SortedIdSet ids = SortedIdSet.of(Arrays.asList(1, 2, 3, 4));
+
+    @Test
+    public void testPut() {
+        cache.put(osb1, ids);
+        assertEquals(ids, cache.getCurrentContents(osb1));
+        assertNull(cache.getCurrentContents(osb2));
+        assertEquals(4, cache.size());
+    }
+
+    @Test
+    public void testChangedBag() {
+        cache.put(osb1, ids);
+        os.changeSequence(Collections.<Object>singleton(osb1));
+        assertNull(cache.getCurrentContents(osb1));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testRemove() {
+        cache.put(osb1, ids);
+        cache.put(osb1, ids);
+        assertEquals(4, cache.size());
+        cache.remove(osb1);
+        assertNull(cache.getCurrentContents(osb1));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEviction() {
+        cache.put(osb1, ids);
+        cache.put(osb2, ids);
+        // osb1 is now the most recently used
+        cache.getCurrentContents(osb1);
+        cache.put(osb3, ids);
+        assertEquals(ids, cache.getCurrentContents(osb1));
+        assertNull(cache.getCurrentContents(osb2));
+        assertEquals(ids, cache.getCurrentContents(osb3));
+        assertEquals(8, cache.size());
+
+        // too big to hold at all
+        cache.put(osb2, SortedIdSet.of(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11)));
+        assertNull(cache.getCurrentContents(osb2));
+        assertEquals(8, cache.size());
+    }
+}
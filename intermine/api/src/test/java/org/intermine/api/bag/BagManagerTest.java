@@ -7,6 +7,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import org.intermine.api.InterMineAPITestCase;
 import org.intermine.api.profile.BagState;
@@ -24,6 +25,7 @@ import org.intermine.model.testmodel.Address;
 import org.intermine.api.userprofile.Tag;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.ObjectStoreWriter;
+import org.intermine.objectstore.query.ObjectStoreBag;
 import org.intermine.util.DynamicUtil;
 
 public class BagManagerTest extends InterMineAPITestCase
@@ -62,6 +64,12 @@ public class BagManagerTest extends InterMineAPITestCase
                 noQueries, noBags, noTemplates, isLocal, isSuperUser);
         pm.createProfile(bobProfile);
         setUpBagsAndTags();
+        // index bags straight away rather than in the background
+        BagMembershipIndex.getInstance(os).setIndexer(new Executor() {
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
     }
 
     private void setUpBagsAndTags() throws Exception {
@@ -261,6 +269,95 @@ public class BagManagerTest extends InterMineAPITestCase
         }
     }
 
+    public void testGetCurrentBagsContainingIdAfterChanges() throws Exception {
+        storeAddress();
+        try {
+            Set<InterMineBag> expected = Collections.emptySet();
+            assertEquals(expected, bagManager.getCurrentBagsContainingId(testUser, ADDRESS_ID));
+
+            // the bags are indexed now, so these go through the incremental updates
+            globalAddressBag.addIdToBag(ADDRESS_ID, "Address");
+            userAddressBag.addIdToBag(ADDRESS_ID, "Address");
+            expected = new HashSet<InterMineBag>(Arrays.asList(globalAddressBag, userAddressBag));
+            assertEquals(expected, bagManager.getCurrentBagsContainingId(testUser, ADDRESS_ID));
+
+            globalAddressBag.removeIdFromBag(ADDRESS_ID);
+            expected = new HashSet<InterMineBag>(Arrays.asList(userAddressBag));
+            assertEquals(expected, bagManager.getCurrentBagsContainingId(testUser, ADDRESS_ID));
+        } finally {
+            deleteAddress();
+        }
+    }
+
+    public void testGetCurrentBagsContainingIdAfterOtherChanges() throws Exception {
+        storeAddress();
+        try {
+            globalAddressBag.addIdToBag(ADDRESS_ID, "Address");
+            Set<InterMineBag> expected = new HashSet<InterMineBag>(Arrays.asList(globalAddressBag));
+            assertEquals(expected, bagManager.getCurrentBagsContainingId(testUser, ADDRESS_ID));
+
+            // changes made by another session, which the index isn't told about
+            ObjectStoreWriter osw = os.getNewWriter();
+            try {
+                osw.removeFromBag(globalAddressBag.getOsb(), ADDRESS_ID);
+                osw.addToBag(userAddressBag.getOsb(), ADDRESS_ID);
+            } finally {
+                osw.close();
+            }
+            expected = new HashSet<InterMineBag>(Arrays.asList(userAddressBag));
+            assertEquals(expected, bagManager.getCurrentBagsContainingId(testUser, ADDRESS_ID));
+
+            // a change made by another session between this one reading the index and updating
+            // it mustn't be lost
+            BagMembershipIndex index = BagMembershipIndex.getInstance(os);
+            Map<Object, Integer> before = index.getCurrentSequence(globalAddressBag.getOsb());
+            assertNotNull(before);
+            osw = os.getNewWriter();
+            try {
+                osw.addToBag(globalAddressBag.getOsb(), ADDRESS_ID);
+                osw.addToBag(globalAddressBag.getOsb(), DUMMY_ID);
+            } finally {
+                osw.close();
+            }
+            index.addIds(globalAddressBag.getOsb(), Collections.singleton(DUMMY_ID), before);
+            expected = new HashSet<InterMineBag>(Arrays.asList(globalAddressBag, userAddressBag));
+            assertEquals(expected, bagManager.getCurrentBagsContainingId(testUser, ADDRESS_ID));
+        } finally {
+            deleteAddress();
+        }
+    }
+
+    public void testSimilaritySketchAfterOtherChanges() throws Exception {
+        storeAddress();
+        try {
+            BagSimilarityIndex index = BagSimilarityIndex.getInstance(os);
+            ObjectStoreBag osb = globalAddressBag.getOsb();
+            index.getSketch(globalAddressBag);
+
+            // a write that the sketch is told about keeps it current
+            globalAddressBag.addIdToBag(ADDRESS_ID, "Address");
+            assertTrue(index.isCurrent(osb));
+
+            // a change made by another session between this one reading the sequence and
+            // updating the sketch mustn't be lost
+            Map<Object, Integer> before = index.getCurrentSequence(osb);
+            assertNotNull(before);
+            ObjectStoreWriter osw = os.getNewWriter();
+            try {
+                osw.removeFromBag(osb, ADDRESS_ID);
+                osw.addToBag(osb, DUMMY_ID);
+            } finally {
+                osw.close();
+            }
+            index.addIds(osb, Collections.singleton(DUMMY_ID), before);
+            assertFalse(index.isCurrent(osb));
+            assertEquals(1.0, index.getSketch(globalAddressBag).jaccard(
+                    MinHashSketch.of(Collections.singleton(DUMMY_ID))), 0.0);
+        } finally {
+            deleteAddress();
+        }
+    }
+
     public void testGetUserOrGlobalBagsContainingIdNoBagsWithId() throws Exception {
         Set<InterMineBag> expected = Collections.emptySet();
         assertEquals(expected, bagManager.getCurrentBagsContainingId(testUser, DUMMY_ID));
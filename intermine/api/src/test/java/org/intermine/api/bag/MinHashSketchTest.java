@@ -0,0 +1,70 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MinHashSketchTest
+{
+    @Test
+    public void testSmallSetsAreExact() {
+        MinHashSketch a = MinHashSketch.of(Arrays.asList(1, 2, 3, 4));
+        MinHashSketch b = MinHashSketch.of(Arrays.asList(3, 4, 5, 6, 4));
+        // intersection {3, 4}, union {1, 2, 3, 4, 5, 6}
+        assertEquals(2.0 / 6, a.jaccard(b), 0.0);
+        assertEquals(1.0, a.jaccard(a), 0.0);
+    }
+
+    @Test
+    public void testEmpty() {
+        MinHashSketch a = MinHashSketch.of(Collections.<Integer>emptyList());
+        assertTrue(a.isEmpty());
+        assertEquals(0.0, a.jaccard(MinHashSketch.of(Arrays.asList(1))), 0.0);
+    }
+
+    @Test
+    public void testEstimate() {
+        // two sets of 10000 consecutive ids overlapping by 5000, Jaccard index 1/3
+        List<Integer> first = new ArrayList<Integer>();
+        List<Integer> second = new ArrayList<Integer>();
+        for (int i = 0; i < 10000; i++) {
+            first.add(i);
+            second.add(i + 5000);
+        }
+        double estimate = MinHashSketch.of(first).jaccard(MinHashSketch.of(second));
+        assertEquals(1.0 / 3, estimate, 0.1);
+    }
+
+    @Test
+    public void testIncrementalAddMatchesRebuild() {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int i = 0; i < 5000; i++) {
+            ids.add(i * 7);
+        }
+        MinHashSketch built = MinHashSketch.of(ids);
+        MinHashSketch incremental = MinHashSketch.of(ids.subList(0, 1000));
+        incremental.addAll(ids.subList(1000, ids.size()));
+        assertEquals(1.0, built.jaccard(incremental), 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDifferentSizes() {
+        new MinHashSketch(16).jaccard(new MinHashSketch(32));
+    }
+}
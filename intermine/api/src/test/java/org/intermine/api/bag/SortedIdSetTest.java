@@ -0,0 +1,67 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class SortedIdSetTest
+{
+    private final SortedIdSet a = SortedIdSet.of(Arrays.asList(5, 1, 3, 7, 3, null));
+    private final SortedIdSet b = SortedIdSet.of(Arrays.asList(3, 4, 5, 6));
+
+    @Test
+    public void testOf() {
+        assertEquals(Arrays.asList(1, 3, 5, 7), a.asList());
+        assertEquals(4, a.size());
+        assertTrue(SortedIdSet.of(Collections.<Integer>emptyList()).isEmpty());
+        assertEquals(SortedIdSet.EMPTY, SortedIdSet.of(Collections.<Integer>emptyList()));
+    }
+
+    @Test
+    public void testContains() {
+        assertTrue(a.contains(1));
+        assertTrue(a.contains(7));
+        assertFalse(a.contains(4));
+        assertFalse(SortedIdSet.EMPTY.contains(0));
+    }
+
+    @Test
+    public void testUnion() {
+        assertEquals(Arrays.asList(1, 3, 4, 5, 6, 7), a.union(b).asList());
+        assertEquals(a, a.union(SortedIdSet.EMPTY));
+        assertEquals(a, SortedIdSet.EMPTY.union(a));
+    }
+
+    @Test
+    public void testIntersect() {
+        assertEquals(Arrays.asList(3, 5), a.intersect(b).asList());
+        assertTrue(a.intersect(SortedIdSet.EMPTY).isEmpty());
+    }
+
+    @Test
+    public void testExcept() {
+        assertEquals(Arrays.asList(1, 7), a.except(b).asList());
+        assertEquals(Arrays.asList(4, 6), b.except(a).asList());
+        assertEquals(a, a.except(SortedIdSet.EMPTY));
+    }
+
+    @Test
+    public void testSymmetricDifference() {
+        assertEquals(Arrays.asList(1, 4, 6, 7), a.union(b).except(a.intersect(b)).asList());
+    }
+}
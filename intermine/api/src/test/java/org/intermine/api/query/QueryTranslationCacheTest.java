@@ -0,0 +1,180 @@
+package org.intermine.api.query;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.intermine.api.bag.BagQueryResult;
+import org.intermine.metadata.Model;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.ConstraintOp;
+import org.intermine.objectstore.query.FromElement;
+import org.intermine.objectstore.query.ObjectStoreBag;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryObjectPathExpression;
+import org.intermine.objectstore.query.QuerySelectable;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryTranslationCacheTest
+{
+    private static final String KEY = "<query/>";
+
+    private ComponentsObjectStore os;
+    private QueryTranslationCache cache;
+    private ObjectStoreBag osb = new ObjectStoreBag(5);
+
+    @Before
+    public void setUp() throws Exception {
+        os = new ComponentsObjectStore();
+        os.setModel(Model.getInstanceByName("testmodel"));
+        cache = new QueryTranslationCache(os, 10);
+    }
+
+    @Test
+    public void testHitIsCopy() {
+        Map<String, QuerySelectable> pathToQueryNode = new HashMap<String, QuerySelectable>();
+        Query q = makeQuery(pathToQueryNode, null);
+        cache.put(KEY, q, pathToQueryNode, Collections.<String, BagQueryResult>emptyMap(),
+                cache.getSequenceBeforeTranslation());
+
+        QueryTranslationCache.Translation first = cache.get(KEY);
+        assertNotNull(first);
+        assertEquals(1, cache.getHits());
+        assertNotSame(q, first.getQuery());
+        assertEquals(q.toString(), first.getQuery().toString());
+        // the path map points at the nodes of the copy
+        Map<String, QuerySelectable> copyPathToQueryNode = first.getPathToQueryNode();
+        assertSame(first.getQuery().getSelect().get(1),
+                copyPathToQueryNode.get("Employee.department"));
+        assertNotSame(pathToQueryNode.get("Employee.department"),
+                copyPathToQueryNode.get("Employee.department"));
+
+        // changing a copy doesn't change the cached translation
+        first.getQuery().addToSelect(new QueryField((QueryClass) q.getSelect().get(0), "age"));
+        first.getPathToQueryNode().clear();
+        QueryTranslationCache.Translation second = cache.get(KEY);
+        assertEquals(q.toString(), second.getQuery().toString());
+        assertEquals(2, second.getPathToQueryNode().size());
+        assertNotSame(first.getQuery(), second.getQuery());
+    }
+
+    @Test
+    public void testTableChanged() {
+        Map<String, QuerySelectable> pathToQueryNode = new HashMap<String, QuerySelectable>();
+        cache.put(KEY, makeQuery(pathToQueryNode, null), pathToQueryNode,
+                Collections.<String, BagQueryResult>emptyMap(),
+                cache.getSequenceBeforeTranslation());
+        // a table the query doesn't read
+        os.changeSequence(Collections.<Object>singleton("Company"));
+        assertNotNull(cache.get(KEY));
+
+        os.changeSequence(Collections.<Object>singleton("Employee"));
+        assertNull(cache.get(KEY));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testBagChanged() {
+        Map<String, QuerySelectable> pathToQueryNode = new HashMap<String, QuerySelectable>();
+        cache.put(KEY, makeQuery(pathToQueryNode, osb), pathToQueryNode,
+                Collections.<String, BagQueryResult>emptyMap(),
+                cache.getSequenceBeforeTranslation());
+        os.changeSequence(Collections.<Object>singleton(new ObjectStoreBag(6)));
+        assertNotNull(cache.get(KEY));
+
+        os.changeSequence(Collections.<Object>singleton(osb));
+        assertNull(cache.get(KEY));
+    }
+
+    @Test
+    public void testLookupTableChanged() {
+        Map<String, QuerySelectable> pathToQueryNode = new HashMap<String, QuerySelectable>();
+        Map<String, BagQueryResult> pathToBagQueryResult = new HashMap<String, BagQueryResult>();
+        pathToBagQueryResult.put("Employee", new BagQueryResult());
+        cache.put(KEY, makeQuery(pathToQueryNode, null), pathToQueryNode, pathToBagQueryResult,
+                cache.getSequenceBeforeTranslation());
+        assertNotNull(cache.get(KEY));
+
+        // the bag queries of a LOOKUP may read tables the query itself doesn't
+        os.changeSequence(Collections.<Object>singleton("Company"));
+        assertNull(cache.get(KEY));
+    }
+
+    @Test
+    public void testTableChangedDuringLookup() {
+        Map<String, QuerySelectable> pathToQueryNode = new HashMap<String, QuerySelectable>();
+        Map<String, BagQueryResult> pathToBagQueryResult = new HashMap<String, BagQueryResult>();
+        pathToBagQueryResult.put("Employee", new BagQueryResult());
+        Map<Object, Integer> sequenceBefore = cache.getSequenceBeforeTranslation();
+        // written to while the bag queries were running, so they may have missed it
+        os.changeSequence(Collections.<Object>singleton("Company"));
+        QueryTranslationCache.Translation translation = cache.put(KEY,
+                makeQuery(pathToQueryNode, null), pathToQueryNode, pathToBagQueryResult,
+                sequenceBefore);
+        assertNotNull(translation);
+        assertNull(cache.get(KEY));
+    }
+
+    private static Query makeQuery(Map<String, QuerySelectable> pathToQueryNode,
+            ObjectStoreBag osb) {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Employee.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        QueryObjectPathExpression qope = new QueryObjectPathExpression(qc, "department");
+        q.addToSelect(qope);
+        if (osb != null) {
+            q.setConstraint(new BagConstraint(qc, ConstraintOp.IN, osb));
+        }
+        pathToQueryNode.put("Employee", qc);
+        pathToQueryNode.put("Employee.department", qope);
+        return q;
+    }
+
+    /**
+     * An ObjectStore that reports the classes and bags a query reads as its components.
+     */
+    private static class ComponentsObjectStore extends ObjectStoreDummyImpl
+    {
+        @Override
+        public Set<Object> getComponentsForQuery(Query q) {
+            Set<Object> components = new HashSet<Object>();
+            for (FromElement from : q.getFrom()) {
+                if (from instanceof QueryClass) {
+                    components.add(((QueryClass) from).getType().getSimpleName());
+                }
+            }
+            if (q.getConstraint() instanceof BagConstraint) {
+                ObjectStoreBag osb = ((BagConstraint) q.getConstraint()).getOsb();
+                if (osb != null) {
+                    components.add(osb);
+                }
+            }
+            return components;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.intermine.api.searchengine;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.intermine.api.InterMineAPITestCase;
+import org.intermine.model.InterMineObject;
+import org.intermine.model.testmodel.Company;
+import org.intermine.model.testmodel.Department;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.objectstore.ObjectStoreWriter;
+import org.intermine.util.DynamicUtil;
+
+public class SearchIndexHelperTest extends InterMineAPITestCase
+{
+    private Company company;
+    private Department department1, department2;
+    private Employee employee1, employee2, employee3;
+
+    public SearchIndexHelperTest(String arg) {
+        super(arg);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        company = (Company) DynamicUtil.createObject(Collections.singleton(Company.class));
+        company.setName("CompanyA");
+        department1 = new Department();
+        department1.setName("DepartmentA");
+        department1.setCompany(company);
+        department2 = new Department();
+        department2.setName("DepartmentB");
+        department2.setCompany(company);
+        employee1 = employee("EmployeeA", department1);
+        employee2 = employee("EmployeeB", department2);
+        employee3 = employee("EmployeeC", department1);
+        ObjectStoreWriter osw = os.getNewWriter();
+        try {
+            osw.beginTransaction();
+            for (InterMineObject o : Arrays.asList(company, department1, department2, employee1,
+                        employee2, employee3)) {
+                osw.store(o);
+            }
+            osw.commitTransaction();
+        } finally {
+            osw.close();
+        }
+    }
+
+    private static Employee employee(String name, Department department) {
+        Employee employee = new Employee();
+        employee.setName(name);
+        employee.setDepartment(department);
+        return employee;
+    }
+
+    public void testFindReferringIds() throws Exception {
+        Map<Class<? extends InterMineObject>, String[]> specialReferences
+            = new HashMap<Class<? extends InterMineObject>, String[]>();
+        specialReferences.put(Employee.class, new String[] {"department",
+            "department.company"});
+
+        assertEquals(new HashSet<Integer>(Arrays.asList(employee1.getId(), employee3.getId())),
+                SearchIndexHelper.findReferringIds(os, specialReferences,
+                    Collections.singleton(department1.getId())));
+        assertEquals(new HashSet<Integer>(Arrays.asList(employee1.getId(), employee2.getId(),
+                        employee3.getId())),
+                SearchIndexHelper.findReferringIds(os, specialReferences,
+                    Collections.singleton(company.getId())));
+        // nothing refers to employees
+        assertEquals(Collections.emptySet(), SearchIndexHelper.findReferringIds(os,
+                    specialReferences, Collections.singleton(employee1.getId())));
+    }
+
+    public void testGetIdsAfter() throws Exception {
+        List<Integer> expected = new ArrayList<Integer>(new TreeSet<Integer>(Arrays.asList(
+                        company.getId(), department1.getId(), department2.getId(),
+                        employee1.getId(), employee2.getId(), employee3.getId())));
+
+        // page through the objects two at a time, as an incremental update does
+        List<Integer> found = new ArrayList<Integer>();
+        List<Integer> page = SearchIndexHelper.getIdsAfter(os, expected.get(0) - 1, 2);
+        while (!page.isEmpty()) {
+            assertTrue(page.size() <= 2);
+            found.addAll(page);
+            page = SearchIndexHelper.getIdsAfter(os, page.get(page.size() - 1), 2);
+        }
+        assertEquals(new ArrayList<Integer>(new TreeSet<Integer>(found)), found);
+        // ignore anything else in the database
+        found.retainAll(expected);
+        assertEquals(expected, found);
+
+        List<Integer> after = SearchIndexHelper.getIdsAfter(os, expected.get(2), 100);
+        after.retainAll(expected);
+        assertEquals(expected.subList(3, 6), after);
+    }
+
+    public void testGetIndexedIds() throws Exception {
+        List<Integer> ids = Arrays.asList(3, 7, 10, 12);
+        // objects above the highest indexed id have no documents to delete
+        assertEquals(Arrays.asList(3, 7, 10),
+                new ArrayList<Integer>(SearchIndexHelper.getIndexedIds(ids, 10)));
+        assertEquals(Collections.emptyList(),
+                new ArrayList<Integer>(SearchIndexHelper.getIndexedIds(ids, 2)));
+        assertEquals(ids, new ArrayList<Integer>(SearchIndexHelper.getIndexedIds(ids, null)));
+    }
+
+    public void testStoreMaxId() throws Exception {
+        SearchIndexHelper.storeMaxId(os, employee3.getId());
+        assertEquals(employee3.getId(), SearchIndexHelper.getLastIndexedMaxId(os));
+    }
+}
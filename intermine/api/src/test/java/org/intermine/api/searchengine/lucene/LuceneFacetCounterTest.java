@@ -0,0 +1,113 @@
+package org.intermine.api.searchengine.lucene;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LuceneFacetCounterTest
+{
+    private static final Set<String> FACETS = Collections.singleton("organism");
+
+    private LuceneIndexManager manager;
+    private IndexWriter writer;
+
+    @Before
+    public void setUp() throws Exception {
+        manager = new LuceneIndexManager(new RAMDirectory());
+        writer = manager.getWriter();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        manager.closeWriter();
+    }
+
+    @Test
+    public void testMultipleValues() throws Exception {
+        add(1, "gene", "D. melanogaster", "H. sapiens");
+        add(2, "gene", "D. melanogaster");
+        add(3, "protein", "H. sapiens");
+        add(4, "protein");
+        manager.commit();
+
+        // each value of a document is counted, and documents without a value aren't
+        assertEquals(counts("D. melanogaster", 2, "H. sapiens", 2),
+                count(new MatchAllDocsQuery(), "organism"));
+        assertEquals(counts("D. melanogaster", 2, "H. sapiens", 1),
+                count(new TermQuery(new Term("type", "gene")), "organism"));
+        // no such field
+        assertTrue(count(new MatchAllDocsQuery(), "length").isEmpty());
+    }
+
+    @Test
+    public void testDeletedDocuments() throws Exception {
+        add(1, "gene", "D. melanogaster");
+        add(2, "gene", "H. sapiens");
+        manager.commit();
+        assertEquals(counts("D. melanogaster", 1, "H. sapiens", 1),
+                count(new MatchAllDocsQuery(), "organism"));
+
+        // the values cached for the segment are still right once it has deletions
+        writer.deleteDocuments(new Term(LuceneIndexManager.ID_FIELD, "2"));
+        add(3, "gene", "D. melanogaster");
+        manager.commit();
+        assertEquals(counts("D. melanogaster", 2),
+                count(new MatchAllDocsQuery(), "organism"));
+    }
+
+    private void add(int id, String type, String... organisms) throws Exception {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("id", Integer.toString(id));
+        doc.addField("type", type);
+        for (String organism : organisms) {
+            doc.addField("organism", organism);
+        }
+        writer.addDocument(LuceneDocumentWriter.toDocument(doc, FACETS));
+    }
+
+    private Map<String, Integer> count(Query query, String field) throws Exception {
+        IndexSearcher searcher = manager.acquire();
+        try {
+            LuceneFacetCounter counter = new LuceneFacetCounter();
+            searcher.search(query, counter.wrap(TopScoreDocCollector.create(10, true)));
+            return counter.count(LuceneIndexManager.FACET_PREFIX + field);
+        } finally {
+            manager.release(searcher);
+        }
+    }
+
+    private static Map<String, Integer> counts(Object... valuesAndCounts) {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < valuesAndCounts.length; i += 2) {
+            counts.put((String) valuesAndCounts[i], (Integer) valuesAndCounts[i + 1]);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,114 @@
+package org.intermine.api.searchengine.lucene;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collections;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.intermine.api.InterMineAPITestCase;
+import org.intermine.api.searchengine.SearchIndexHelper;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.objectstore.ObjectStoreWriter;
+
+public class LuceneIndexHandlerTest extends InterMineAPITestCase
+{
+    private LuceneIndexManager manager;
+    private LuceneIndexHandler handler;
+    private Employee employee1, employee2;
+
+    public LuceneIndexHandlerTest(String arg) {
+        super(arg);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        manager = new LuceneIndexManager(new RAMDirectory());
+        handler = new LuceneIndexHandler(manager);
+        employee1 = store("EmployeeA");
+        employee2 = store("EmployeeB");
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        manager.closeWriter();
+        super.tearDown();
+    }
+
+    private Employee store(String name) throws Exception {
+        Employee employee = new Employee();
+        employee.setName(name);
+        ObjectStoreWriter osw = os.getNewWriter();
+        try {
+            osw.store(employee);
+        } finally {
+            osw.close();
+        }
+        return employee;
+    }
+
+    public void testCreateIndex() throws Exception {
+        handler.createIndex(os, im.getClassKeys());
+        assertEquals(1, countDocuments(employee1.getId()));
+        assertEquals(1, countDocuments(employee2.getId()));
+        assertTrue(SearchIndexHelper.getLastIndexedMaxId(os).intValue() >= employee2.getId());
+
+        // building again replaces the documents
+        handler.createIndex(os, im.getClassKeys());
+        assertEquals(1, countDocuments(employee1.getId()));
+    }
+
+    public void testUpdateIndexWithNewObjects() throws Exception {
+        handler.createIndex(os, im.getClassKeys());
+        Employee employee3 = store("EmployeeC");
+        assertEquals(0, countDocuments(employee3.getId()));
+
+        handler.updateIndex(os, im.getClassKeys());
+        assertEquals(1, countDocuments(employee3.getId()));
+        assertEquals(1, countDocuments(employee1.getId()));
+        assertEquals(employee3.getId(), SearchIndexHelper.getLastIndexedMaxId(os));
+
+        // nothing new
+        handler.updateIndex(os, im.getClassKeys());
+        assertEquals(1, countDocuments(employee3.getId()));
+        assertEquals(employee3.getId(), SearchIndexHelper.getLastIndexedMaxId(os));
+    }
+
+    public void testUpdateIndexWithChangedObjects() throws Exception {
+        handler.createIndex(os, im.getClassKeys());
+        ObjectStoreWriter osw = os.getNewWriter();
+        try {
+            osw.delete(employee1);
+        } finally {
+            osw.close();
+        }
+
+        handler.updateIndex(os, im.getClassKeys(), Collections.singleton(employee1.getId()));
+        assertEquals(0, countDocuments(employee1.getId()));
+
+        // updated documents are replaced, not duplicated
+        handler.updateIndex(os, im.getClassKeys(), Collections.singleton(employee2.getId()));
+        assertEquals(1, countDocuments(employee2.getId()));
+    }
+
+    private int countDocuments(Integer id) throws Exception {
+        IndexSearcher searcher = manager.acquire();
+        try {
+            return searcher.search(new TermQuery(new Term(LuceneIndexManager.ID_FIELD,
+                    id.toString())), 10).totalHits;
+        } finally {
+            manager.release(searcher);
+        }
+    }
+}
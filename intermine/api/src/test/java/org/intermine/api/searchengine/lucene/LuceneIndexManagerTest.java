@@ -0,0 +1,121 @@
+package org.intermine.api.searchengine.lucene;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Test;
+
+public class LuceneIndexManagerTest
+{
+    private static final Set<String> FACETS = Collections.singleton("Category");
+
+    @Test
+    public void testSearcherSeesUncommittedDocuments() throws Exception {
+        LuceneIndexManager manager = new LuceneIndexManager(new RAMDirectory());
+        IndexWriter writer = manager.getWriter();
+        writer.addDocument(LuceneDocumentWriter.toDocument(doc(1, "Gene", "eve"), FACETS));
+        writer.addDocument(LuceneDocumentWriter.toDocument(doc(2, "Gene", "zen"), FACETS));
+        writer.addDocument(LuceneDocumentWriter.toDocument(doc(3, "Protein", "EVE_DROME"),
+                FACETS));
+
+        IndexSearcher searcher = manager.acquire();
+        try {
+            assertEquals(3, count(searcher, new MatchAllDocsQuery()));
+            // analyzed fields are lower cased, raw fields aren't split
+            assertEquals(1, count(searcher, new TermQuery(new Term("symbol", "eve"))));
+            assertEquals(1, count(searcher, new TermQuery(new Term("symbol_raw", "eve_drome"))));
+            assertEquals("3", searcher.doc(2).get(LuceneIndexManager.ID_FIELD));
+        } finally {
+            manager.release(searcher);
+        }
+
+        writer.deleteDocuments(new Term(LuceneIndexManager.ID_FIELD, "2"));
+        manager.commit();
+        IndexSearcher reopened = manager.acquire();
+        try {
+            assertEquals(2, count(reopened, new MatchAllDocsQuery()));
+        } finally {
+            manager.release(reopened);
+        }
+        manager.closeWriter();
+    }
+
+    @Test
+    public void testFacetCounts() throws Exception {
+        LuceneIndexManager manager = new LuceneIndexManager(new RAMDirectory());
+        IndexWriter writer = manager.getWriter();
+        for (int i = 0; i < 10; i++) {
+            writer.addDocument(LuceneDocumentWriter.toDocument(
+                    doc(i, i % 3 == 0 ? "Protein" : "Gene", "gene" + (i % 2)), FACETS));
+            if (i == 4) {
+                // so that the counts are added up over two segments
+                manager.commit();
+            }
+        }
+        manager.commit();
+
+        IndexSearcher searcher = manager.acquire();
+        try {
+            Map<String, Integer> counts = facets(searcher, new MatchAllDocsQuery());
+            assertEquals(Integer.valueOf(6), counts.get("Gene"));
+            assertEquals(Integer.valueOf(4), counts.get("Protein"));
+
+            counts = facets(searcher, new TermQuery(new Term("symbol", "gene1")));
+            assertEquals(Integer.valueOf(3), counts.get("Gene"));
+            assertEquals(Integer.valueOf(2), counts.get("Protein"));
+
+            counts = facets(searcher, new TermQuery(new Term("symbol", "nothing")));
+            assertFalse(counts.containsKey("Gene"));
+            assertNull(counts.get("Protein"));
+        } finally {
+            manager.release(searcher);
+        }
+        manager.closeWriter();
+    }
+
+    private static SolrInputDocument doc(int id, String category, String symbol) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("id", Integer.toString(id));
+        doc.addField("Category", category);
+        doc.addField("symbol", symbol);
+        doc.addField("symbol_raw", symbol);
+        return doc;
+    }
+
+    private static int count(IndexSearcher searcher, Query query) throws Exception {
+        TopScoreDocCollector collector = TopScoreDocCollector.create(10, true);
+        searcher.search(query, collector);
+        return collector.getTotalHits();
+    }
+
+    private static Map<String, Integer> facets(IndexSearcher searcher, Query query)
+        throws Exception {
+        LuceneFacetCounter counter = new LuceneFacetCounter();
+        searcher.search(query, counter.wrap(TopScoreDocCollector.create(10, true)));
+        return counter.count(LuceneIndexManager.FACET_PREFIX + "Category");
+    }
+}
@@ -0,0 +1,212 @@
+package org.intermine.api.searchengine.lucene;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.solr.client.solrj.response.FacetField;
+import org.apache.solr.common.SolrInputDocument;
+import org.intermine.api.searchengine.KeywordSearchFacet;
+import org.intermine.api.searchengine.KeywordSearchFacetData;
+import org.intermine.api.searchengine.KeywordSearchFacetType;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.Model;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LuceneKeywordSearchHandlerTest
+{
+    private static final Set<String> FACETS = Collections.singleton("Category");
+    private static final Map<ClassDescriptor, Float> NO_BOOST
+        = Collections.<ClassDescriptor, Float>emptyMap();
+
+    private LuceneIndexManager manager;
+    private IndexSearcher searcher;
+
+    @Before
+    public void setUp() throws Exception {
+        manager = new LuceneIndexManager(new RAMDirectory());
+        IndexWriter writer = manager.getWriter();
+        add(writer, doc(1, "Gene", "eve"));
+        add(writer, doc(2, "Gene", "eve skipped"));
+        add(writer, doc(3, "Protein", "EVE_DROME"));
+        add(writer, doc(4, "Employee", "smith"));
+        add(writer, doc(5, "Department", "smith"));
+        for (int i = 10; i < 35; i++) {
+            add(writer, doc(i, "Thing", "many"));
+        }
+        manager.commit();
+        searcher = manager.acquire();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        manager.release(searcher);
+        manager.closeWriter();
+    }
+
+    @Test
+    public void testMakeQuery() throws Exception {
+        Query query = LuceneKeywordSearchHandler.makeQuery(searcher.getIndexReader(), NO_BOOST,
+                "eve", null, null);
+        // every indexed field is searched, and the raw copies of key fields count double
+        String parsed = query.toString();
+        assertTrue(parsed, parsed.contains("symbol:eve"));
+        assertTrue(parsed, parsed.contains("symbol_raw:eve^2.0"));
+        assertTrue(parsed, !parsed.contains(LuceneIndexManager.FACET_PREFIX));
+        // the exact match of the key field comes first
+        assertEquals(Arrays.asList(1, 2), ids(search(query, 0, 10)));
+
+        assertEquals(Arrays.asList(3), ids(search(LuceneKeywordSearchHandler.makeQuery(
+                searcher.getIndexReader(), NO_BOOST, "eve_drome", null, null), 0, 10)));
+    }
+
+    @Test
+    public void testMakeQueryAll() throws Exception {
+        for (String all : new String[] {null, "", "  ", "*:*"}) {
+            assertTrue(LuceneKeywordSearchHandler.makeQuery(searcher.getIndexReader(),
+                    NO_BOOST, all, null, null) instanceof MatchAllDocsQuery);
+        }
+    }
+
+    @Test
+    public void testMakeQueryUnparsable() throws Exception {
+        // searched for as it is rather than failing
+        Query query = LuceneKeywordSearchHandler.makeQuery(searcher.getIndexReader(), NO_BOOST,
+                "\"eve", null, null);
+        assertEquals(0, search(query, 0, 10).totalHits);
+    }
+
+    @Test
+    public void testClassBoost() throws Exception {
+        Model model = Model.getInstanceByName("testmodel");
+        Map<ClassDescriptor, Float> classBoost = new HashMap<ClassDescriptor, Float>();
+        classBoost.put(model.getClassDescriptorByName("Department"), Float.valueOf(10.0f));
+        Query query = LuceneKeywordSearchHandler.makeQuery(searcher.getIndexReader(),
+                classBoost, "smith", null, null);
+        assertTrue(query.toString(), query.toString().contains("classname:department^10.0"));
+        assertEquals(Arrays.asList(5, 4), ids(search(query, 0, 10)));
+
+        classBoost.put(model.getClassDescriptorByName("Employee"), Float.valueOf(20.0f));
+        query = LuceneKeywordSearchHandler.makeQuery(searcher.getIndexReader(), classBoost,
+                "smith", null, null);
+        assertEquals(Arrays.asList(4, 5), ids(search(query, 0, 10)));
+    }
+
+    @Test
+    public void testFilters() throws Exception {
+        Query query = LuceneKeywordSearchHandler.makeQuery(searcher.getIndexReader(), NO_BOOST,
+                "eve*", Collections.singletonMap("Category", "Protein"), null);
+        assertEquals(Arrays.asList(3), ids(search(query, 0, 10)));
+
+        query = LuceneKeywordSearchHandler.makeQuery(searcher.getIndexReader(), NO_BOOST,
+                "eve*", null, Arrays.asList(2, 3, 4));
+        assertEquals(new HashSet<Integer>(Arrays.asList(2, 3)),
+                new HashSet<Integer>(ids(search(query, 0, 10))));
+
+        // a facet with no value selected doesn't filter
+        query = LuceneKeywordSearchHandler.makeQuery(searcher.getIndexReader(), NO_BOOST,
+                "eve*", Collections.<String, String>singletonMap("Category", null), null);
+        assertEquals(3, search(query, 0, 10).totalHits);
+    }
+
+    @Test
+    public void testSearchPage() throws Exception {
+        Query query = LuceneKeywordSearchHandler.makeQuery(searcher.getIndexReader(), NO_BOOST,
+                "many", null, null);
+        List<Integer> all = new ArrayList<Integer>();
+        for (int offSet = 0; offSet < 30; offSet += 10) {
+            TopDocs page = search(query, offSet, 10);
+            assertEquals(25, page.totalHits);
+            assertEquals(Math.min(10, 25 - offSet), page.scoreDocs.length);
+            all.addAll(ids(page));
+        }
+        // the pages don't overlap and nothing is left out
+        assertEquals(25, new HashSet<Integer>(all).size());
+
+        TopDocs after = search(query, 30, 10);
+        assertEquals(0, after.scoreDocs.length);
+        assertEquals(25, after.totalHits);
+    }
+
+    @Test
+    public void testGetFacets() throws Exception {
+        LuceneFacetCounter facetCounter = new LuceneFacetCounter();
+        LuceneKeywordSearchHandler.searchPage(searcher, new MatchAllDocsQuery(), 0, 1,
+                facetCounter);
+        Vector<KeywordSearchFacetData> facets = new Vector<KeywordSearchFacetData>();
+        facets.add(new KeywordSearchFacetData("Category", "Type", KeywordSearchFacetType.SINGLE));
+
+        Vector<KeywordSearchFacet> found = LuceneKeywordSearchHandler.getFacets(facetCounter,
+                facets, Collections.singletonMap("Category", "Gene"));
+        assertEquals(1, found.size());
+        KeywordSearchFacet<FacetField.Count> facet = found.get(0);
+        assertEquals("Category", facet.getField());
+        assertEquals("Type", facet.getName());
+        assertEquals("Gene", facet.getValue());
+        // most frequent first, then by name
+        List<String> values = new ArrayList<String>();
+        for (FacetField.Count count : facet.getItems()) {
+            values.add(count.getName() + "=" + count.getCount());
+        }
+        assertEquals(Arrays.asList("Thing=25", "Gene=2", "Department=1", "Employee=1",
+                    "Protein=1"), values);
+
+        found = LuceneKeywordSearchHandler.getFacets(facetCounter, facets, null);
+        assertNull(found.get(0).getValue());
+    }
+
+    private TopDocs search(Query query, int offSet, int pageSize) throws Exception {
+        return LuceneKeywordSearchHandler.searchPage(searcher, query, offSet, pageSize, null);
+    }
+
+    private List<Integer> ids(TopDocs topDocs) throws Exception {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+            ids.add(Integer.valueOf(searcher.doc(scoreDoc.doc).get(LuceneIndexManager.ID_FIELD)));
+        }
+        return ids;
+    }
+
+    private static void add(IndexWriter writer, SolrInputDocument doc) throws Exception {
+        writer.addDocument(LuceneDocumentWriter.toDocument(doc, FACETS));
+    }
+
+    private static SolrInputDocument doc(int id, String category, String symbol) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("id", Integer.toString(id));
+        doc.addField("classname", category);
+        doc.addField("Category", category);
+        doc.addField("symbol", symbol);
+        doc.addField("symbol_raw", symbol);
+        return doc;
+    }
+}
@@ -0,0 +1,143 @@
+package org.intermine.api.searchengine.solr;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.intermine.util.ObjectPipe;
+import org.junit.Test;
+
+public class SolrIndexPartitionTest
+{
+    @Test
+    public void testSplitCoversEveryId() {
+        List<SolrIndexPartition> partitions = SolrIndexPartition.split(1000, 1999, 7);
+        assertEquals(7, partitions.size());
+        assertNull(partitions.get(0).getStart());
+        assertNull(partitions.get(6).getEnd());
+        for (int i = 1; i < partitions.size(); i++) {
+            assertEquals(partitions.get(i - 1).getEnd(), partitions.get(i).getStart());
+        }
+        for (int id = 0; id < 3000; id++) {
+            int containing = 0;
+            for (SolrIndexPartition partition : partitions) {
+                if (partition.contains(id)) {
+                    containing++;
+                }
+            }
+            assertEquals(1, containing);
+        }
+    }
+
+    @Test
+    public void testSplitFewIds() {
+        assertEquals(3, SolrIndexPartition.split(5, 7, 10).size());
+        List<SolrIndexPartition> one = SolrIndexPartition.split(5, 5, 10);
+        assertEquals(1, one.size());
+        assertTrue(one.get(0).contains(Integer.MIN_VALUE));
+        assertTrue(one.get(0).contains(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testForIds() {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int i = 0; i < 25; i++) {
+            ids.add(1000 - i * 7);
+        }
+        List<SolrIndexPartition> partitions = SolrIndexPartition.forIds(ids, 10);
+        assertEquals(3, partitions.size());
+        for (int id = 800; id <= 1000; id++) {
+            int containing = 0;
+            for (SolrIndexPartition partition : partitions) {
+                if (partition.contains(id)) {
+                    containing++;
+                }
+            }
+            assertEquals(ids.contains(id) ? 1 : 0, containing);
+        }
+        assertTrue(SolrIndexPartition.forIds(new ArrayList<Integer>(), 10).isEmpty());
+    }
+
+    @Test
+    public void testWritersShareTheQueue() throws Exception {
+        final ObjectPipe<SolrInputDocument> queue = new ObjectPipe<SolrInputDocument>(100);
+        RecordingSolrClient solr = new RecordingSolrClient();
+        AtomicInteger indexed = new AtomicInteger();
+        List<SolrDocumentWriter> writers = new ArrayList<SolrDocumentWriter>();
+        for (int i = 0; i < 3; i++) {
+            SolrDocumentWriter writer = new SolrDocumentWriter(solr, queue, 64, indexed);
+            writer.start();
+            writers.add(writer);
+        }
+        List<Thread> fetchers = new ArrayList<Thread>();
+        for (int f = 0; f < 2; f++) {
+            final int fetcher = f;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 5000; i++) {
+                        SolrInputDocument doc = new SolrInputDocument();
+                        doc.addField("id", fetcher + "." + i);
+                        queue.put(doc);
+                    }
+                }
+            };
+            thread.start();
+            fetchers.add(thread);
+        }
+        for (Thread fetcher : fetchers) {
+            fetcher.join();
+        }
+        queue.finish();
+        int written = 0;
+        for (SolrDocumentWriter writer : writers) {
+            writer.join();
+            assertNull(writer.getException());
+            written += writer.getWritten();
+        }
+        assertEquals(10000, written);
+        assertEquals(10000, indexed.get());
+        assertEquals(10000, solr.ids.size());
+    }
+
+    private static class RecordingSolrClient extends SolrClient
+    {
+        private final Set<Object> ids = new HashSet<Object>();
+
+        @Override
+        public synchronized NamedList<Object> request(SolrRequest request, String collection) {
+            Collection<SolrInputDocument> docs = ((UpdateRequest) request).getDocuments();
+            assertTrue(docs.size() <= 64);
+            for (SolrInputDocument doc : docs) {
+                assertTrue(ids.add(doc.getFieldValue("id")));
+            }
+            return new NamedList<Object>();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -14,7 +14,6 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
-import java.util.LinkedList;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 
@@ -57,13 +56,17 @@ public class TrackerLoggerTest extends TestCase {
             trackQueue.add(new LoginTrack("user" + index,
                           new Timestamp(System.currentTimeMillis())));
         }
-        trackerLogger = new TrackerLogger(con, trackQueue);
-        new Thread(trackerLogger).start();
-        synchronized (trackQueue) {
-            while (!trackQueue.isEmpty()) {
-                Thread.sleep(100);
-            }
+        trackerLogger = new TrackerLogger(con, trackQueue, 30, 1000);
+        Thread thread = new Thread(trackerLogger);
+        thread.start();
+        while (!trackQueue.isEmpty()) {
+            Thread.sleep(100);
         }
+        // the last batch may still be waiting: stopping the logger writes it
+        thread.interrupt();
+        thread.join();
+        assertEquals(count, trackerLogger.getStoredTracks());
+        assertEquals(4, trackerLogger.getBatches());
         String sql = "SELECT COUNT(*) FROM logintrack";
         Statement stm = con.createStatement();
         ResultSet rs = stm.executeQuery(sql);
@@ -80,6 +80,12 @@ public final class MetadataManager
      * The name of the key to use to store the search Directory.
      */
     public static final String SEARCH_INDEX_DIRECTORY = "search_directory";
+
+    /**
+     * The name of the key to use to store the highest object id in the keyword search index.
+     */
+    public static final String SEARCH_INDEX_MAX_ID = "search_max_id";
+
     /**
      * Name of the key under which to store the serialized version of the class descriptions
      */
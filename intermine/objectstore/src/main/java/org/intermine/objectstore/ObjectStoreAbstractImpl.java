@@ -54,6 +54,7 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
     protected long maxTime = Long.MAX_VALUE;
     // Optimiser will use a default query parse time if none is provided from properties
     protected Long maxQueryParseTime = null;
+    protected int explainThreads = 1;
     protected CacheMap<Integer, InterMineObject> cache;
 
     protected int getObjectOps = 0;
@@ -95,6 +96,10 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
             maxQueryParseTime = Long.parseLong((String) props.get("max-query-parse-time"));
         }
 
+        if (props.get("explain-threads") != null) {
+            explainThreads = Integer.parseInt((String) props.get("explain-threads"));
+        }
+
         LOG.info("Creating new " + getClass().getName() + " with sequence = " + sequenceNumber
                 + ", model = \"" + model.getName() + "\"");
         cache = new CacheMap<Integer, InterMineObject>(getClass().getName() + " with sequence = "
@@ -492,6 +497,17 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
         return maxQueryParseTime;
     }
 
+    /**
+     * Returns the number of explains the query optimiser may run at once when comparing the
+     * candidate queries for one query.  Each one above 1 takes another pooled connection while
+     * a query is optimised.
+     *
+     * @return the number of explain threads, set by the os.query.explain-threads property
+     */
+    public int getExplainThreads() {
+        return explainThreads;
+    }
+
     /**
      * Creates a new empty ObjectStoreBag object that is valid for this ObjectStore.
      *
@@ -206,6 +206,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         if (maxQueryParseTime != null) {
             limitedContext.setMaxQueryParseTime(maxQueryParseTime);
         }
+        limitedContext.setExplainThreads(getExplainThreads());
         description = "ObjectStoreInterMineImpl(" + db + ")";
     }
 
@@ -533,6 +534,15 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         this.log = log;
     }
 
+    /**
+     * Returns the name of the table that executed queries are logged to.
+     *
+     * @return the table name, or null if queries are not being logged to a table
+     */
+    public synchronized String getLogTableName() {
+        return logTableName;
+    }
+
     /**
      * Allows the log table name to be set in this objectstore.
      *
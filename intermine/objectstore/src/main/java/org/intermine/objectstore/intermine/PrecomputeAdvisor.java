@@ -0,0 +1,598 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.metadata.Model;
+import org.intermine.metadata.Util;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.ClassConstraint;
+import org.intermine.objectstore.query.Constraint;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.ContainsConstraint;
+import org.intermine.objectstore.query.FromElement;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryNode;
+import org.intermine.objectstore.query.ResultsInfo;
+import org.intermine.objectstore.query.SimpleConstraint;
+import org.intermine.objectstore.query.iql.IqlQuery;
+import org.intermine.sql.precompute.PrecomputedTable;
+import org.intermine.sql.precompute.PrecomputedTableManager;
+
+/**
+ * Proposes precomputed tables from the queries that have actually been run.  Each Query is
+ * reduced to its join shape - the classes in its FROM list and the constraints that join them,
+ * leaving out any constraints on values - and the cost of the queries with each shape is added
+ * up.  The shapes that cost the most for the disk space their precomputed table would take are
+ * proposed, up to a disk budget, and can then be created with a ParallelPrecomputer.
+ * <br>
+ * Queries can be read from the execute log table that the ObjectStore writes when it has a
+ * logTable property, or added with a cost from anywhere else, such as the template tracker.
+ * <br>
+ * The tables the advisor has already created share the budget with the new ones, and those that
+ * are no longer worth their space are reported by propose as stale, so that they can be dropped.
+ */
+public class PrecomputeAdvisor
+{
+    /** The precompute category of the tables created by the advisor */
+    public static final String CATEGORY = "PrecomputeAdvisor";
+    /** A rough number of bytes taken by each column of each row of a precomputed table */
+    protected static final int BYTES_PER_COLUMN = 16;
+
+    private static final Logger LOG = Logger.getLogger(PrecomputeAdvisor.class);
+
+    private final ObjectStoreInterMineImpl os;
+    private final Map<String, Shape> shapes = new HashMap<String, Shape>();
+    private List<PrecomputedTable> staleTables = new ArrayList<PrecomputedTable>();
+
+    /**
+     * Constructor.
+     *
+     * @param os the ObjectStore that the queries are run on, and the tables would be created in
+     */
+    public PrecomputeAdvisor(ObjectStoreInterMineImpl os) {
+        this.os = os;
+    }
+
+    /**
+     * Adds the queries in an execute log table, with the time spent executing them.
+     *
+     * @param logTableName the name of the log table
+     * @return the number of distinct logged queries that had a join shape
+     * @throws ObjectStoreException if the log table can't be read
+     */
+    public int addLoggedQueries(String logTableName) throws ObjectStoreException {
+        os.flushLogTable();
+        String packageName = os.getModel().getPackageName();
+        int added = 0;
+        int unparsed = 0;
+        Connection c = null;
+        try {
+            c = os.getConnection();
+            Statement s = c.createStatement();
+            ResultSet r = s.executeQuery("SELECT iql, SUM(execute), COUNT(*) FROM "
+                    + logTableName + " GROUP BY iql");
+            while (r.next()) {
+                Query q = parseLoggedIql(r.getString(1), packageName);
+                if (q == null) {
+                    unparsed++;
+                } else if (addQuery(q, r.getLong(2), r.getInt(3))) {
+                    added++;
+                }
+            }
+            s.close();
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Could not read log table " + logTableName, e);
+        } finally {
+            os.releaseConnection(c);
+        }
+        LOG.info("Added " + added + " queries from log table " + logTableName + ", could not parse "
+                + unparsed);
+        return added;
+    }
+
+    /**
+     * Adds a Query that has been run a number of times, using the estimated time of the Query as
+     * the cost of each run.
+     *
+     * @param q the Query
+     * @param runs the number of times the Query has been run
+     * @return true if the Query has a join shape
+     * @throws ObjectStoreException if the Query can't be estimated
+     */
+    public boolean addRuns(Query q, int runs) throws ObjectStoreException {
+        if (getJoinShape(q) == null) {
+            return false;
+        }
+        ResultsInfo info = os.estimate(q);
+        return addQuery(q, info.getComplete() * runs, runs);
+    }
+
+    /**
+     * Adds a Query with the total cost of running it.
+     *
+     * @param q the Query
+     * @param cost the total time spent running the Query, in milliseconds
+     * @param runs the number of times the Query has been run
+     * @return true if the Query has a join shape, false if it has been ignored
+     */
+    public synchronized boolean addQuery(Query q, long cost, int runs) {
+        Query shapeQuery = getJoinShape(q);
+        if (shapeQuery == null) {
+            return false;
+        }
+        String key = shapeQuery.toString();
+        Shape shape = shapes.get(key);
+        if (shape == null) {
+            shape = new Shape(key, shapeQuery);
+            shapes.put(key, shape);
+        }
+        shape.cost += cost;
+        shape.runs += runs;
+        return true;
+    }
+
+    /**
+     * Returns all the join shapes seen so far, most costly first.
+     *
+     * @return a List of Shapes
+     */
+    public synchronized List<Shape> getShapes() {
+        List<Shape> retval = new ArrayList<Shape>(shapes.values());
+        Collections.sort(retval, new Comparator<Shape>() {
+            public int compare(Shape s1, Shape s2) {
+                return (s2.cost > s1.cost ? 1 : (s2.cost < s1.cost ? -1
+                            : s1.key.compareTo(s2.key)));
+            }
+        });
+        return retval;
+    }
+
+    /**
+     * Proposes the join shapes to precompute.  The size of each new table is estimated, and the
+     * tables that the advisor has already precomputed count with their actual size, so that the
+     * budget covers all of them.  The shapes that save the most time for each byte are chosen
+     * until the disk budget is used up.  Existing tables that are not chosen, including those
+     * for shapes that are no longer run, become the stale tables.
+     *
+     * @param diskBudget the number of bytes that all the advisor's precomputed tables may take
+     * @return the chosen Shapes that are not precomputed yet, best value first
+     * @throws ObjectStoreException if a shape can't be estimated
+     */
+    public List<Shape> propose(long diskBudget) throws ObjectStoreException {
+        // the advisor's tables that no shape has claimed yet
+        Map<String, PrecomputedTable> unclaimed = getAdvisorTables();
+        Map<Shape, PrecomputedTable> precomputed = new HashMap<Shape, PrecomputedTable>();
+        List<Shape> candidates = new ArrayList<Shape>();
+        for (Shape shape : getShapes()) {
+            PrecomputedTable pt = unclaimed.remove(getPrecomputeSql(shape.query));
+            if (pt == null) {
+                ResultsInfo info = os.estimate(shape.query);
+                shape.estimatedSize = ((long) info.getRows()) * countColumns(os.getModel(),
+                        shape.query) * BYTES_PER_COLUMN;
+            } else {
+                precomputed.put(shape, pt);
+                shape.estimatedSize = getTableSize(pt.getName());
+            }
+            candidates.add(shape);
+        }
+        List<Shape> retval = new ArrayList<Shape>();
+        long kept = 0;
+        for (Shape shape : select(candidates, diskBudget)) {
+            if (precomputed.remove(shape) == null) {
+                retval.add(shape);
+            } else {
+                kept += shape.estimatedSize;
+            }
+        }
+        List<PrecomputedTable> stale = new ArrayList<PrecomputedTable>(unclaimed.values());
+        stale.addAll(precomputed.values());
+        synchronized (this) {
+            staleTables = stale;
+        }
+        LOG.info("Proposing " + retval.size() + " of " + candidates.size() + " join shapes for a"
+                + " disk budget of " + diskBudget + " bytes, keeping " + kept + " bytes of"
+                + " existing tables, with " + stale.size() + " stale tables");
+        return retval;
+    }
+
+    /**
+     * Returns the tables created by the advisor that the last call to propose didn't keep.
+     *
+     * @return a List of PrecomputedTables, empty if propose hasn't been called
+     */
+    public synchronized List<PrecomputedTable> getStaleTables() {
+        return new ArrayList<PrecomputedTable>(staleTables);
+    }
+
+    /**
+     * Drops the tables created by the advisor that the last call to propose didn't keep, to
+     * make room for the new ones.
+     *
+     * @return the number of tables dropped
+     * @throws ObjectStoreException if a table can't be dropped
+     */
+    public synchronized int dropStaleTables() throws ObjectStoreException {
+        try {
+            PrecomputedTableManager ptm = PrecomputedTableManager.getInstance(os.getDatabase());
+            for (PrecomputedTable pt : staleTables) {
+                LOG.info("Dropping stale precomputed table " + pt.getName());
+                ptm.delete(pt);
+            }
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Could not drop stale precomputed tables", e);
+        }
+        int retval = staleTables.size();
+        staleTables = new ArrayList<PrecomputedTable>();
+        return retval;
+    }
+
+    /**
+     * Returns the tables that the advisor has created, by the SQL that they precompute.
+     */
+    private Map<String, PrecomputedTable> getAdvisorTables() throws ObjectStoreException {
+        try {
+            PrecomputedTableManager ptm = PrecomputedTableManager.getInstance(os.getDatabase());
+            return new HashMap<String, PrecomputedTable>(ptm.lookupCategory(CATEGORY));
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Could not read the precomputed tables", e);
+        }
+    }
+
+    /**
+     * Returns the SQL that precompute() stores for the table of a shape, which includes all the
+     * fields of its classes, so that the table can be found again.
+     */
+    private String getPrecomputeSql(Query q) throws ObjectStoreException {
+        Map<Object, String> empty = Collections.emptyMap();
+        return SqlGenerator.generate(q, os.getSchema(), os.getDatabase(), null,
+                SqlGenerator.QUERY_FOR_PRECOMP, empty);
+    }
+
+    /**
+     * Returns the number of bytes that a table takes on disk, including its indexes.
+     */
+    private long getTableSize(String tableName) throws ObjectStoreException {
+        Connection c = null;
+        try {
+            c = os.getConnection();
+            PreparedStatement s = c.prepareStatement("SELECT pg_total_relation_size(?::regclass)");
+            try {
+                s.setString(1, tableName);
+                ResultSet r = s.executeQuery();
+                r.next();
+                return r.getLong(1);
+            } finally {
+                s.close();
+            }
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Could not read the size of table " + tableName, e);
+        } finally {
+            os.releaseConnection(c);
+        }
+    }
+
+    /**
+     * Creates precomputed tables for some join shapes.
+     *
+     * @param chosen the Shapes to precompute, usually from propose
+     * @param threadCount the number of tables to create in parallel
+     * @param minRows don't create tables estimated to have less than this many rows
+     * @throws ObjectStoreException if something goes wrong
+     */
+    public void precompute(Collection<Shape> chosen, int threadCount, int minRows)
+        throws ObjectStoreException {
+        List<ParallelPrecomputer.Job> jobs = new ArrayList<ParallelPrecomputer.Job>();
+        for (Shape shape : chosen) {
+            List<QueryNode> indexes = new ArrayList<QueryNode>();
+            for (FromElement fe : shape.query.getFrom()) {
+                indexes.add((QueryClass) fe);
+            }
+            jobs.add(new ParallelPrecomputer.Job(shape.key, shape.query, indexes, true,
+                        CATEGORY));
+        }
+        ParallelPrecomputer pp = new ParallelPrecomputer(os, threadCount);
+        pp.setMinRows(minRows);
+        pp.precompute(jobs);
+    }
+
+    /**
+     * Chooses the Shapes with the most cost for their estimated size, until the budget is used.
+     * A Shape that doesn't fit is skipped, so that smaller ones after it can still be chosen.
+     *
+     * @param candidates Shapes with estimated sizes
+     * @param diskBudget the number of bytes available
+     * @return the chosen Shapes, best value first
+     */
+    static List<Shape> select(Collection<Shape> candidates, long diskBudget) {
+        List<Shape> sorted = new ArrayList<Shape>(candidates);
+        Collections.sort(sorted, new Comparator<Shape>() {
+            public int compare(Shape s1, Shape s2) {
+                double value1 = ((double) s1.cost) / Math.max(1L, s1.estimatedSize);
+                double value2 = ((double) s2.cost) / Math.max(1L, s2.estimatedSize);
+                return (value2 > value1 ? 1 : (value2 < value1 ? -1
+                            : s1.key.compareTo(s2.key)));
+            }
+        });
+        List<Shape> retval = new ArrayList<Shape>();
+        long remaining = diskBudget;
+        for (Shape shape : sorted) {
+            if ((shape.cost > 0) && (shape.estimatedSize <= remaining)) {
+                retval.add(shape);
+                remaining -= shape.estimatedSize;
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Parses a query as written to the iql column of the execute log table.  The parameters
+     * appended to the IQL can't be read back, so each one is replaced with an empty collection.
+     * That is enough for bags, which are dropped from the join shape anyway, but queries with
+     * parameters that are objects can't be parsed.
+     *
+     * @param logged the logged IQL, followed by its parameters
+     * @param packageName the package name of the model
+     * @return a Query, or null if the IQL can't be parsed
+     */
+    static Query parseLoggedIql(String logged, String packageName) {
+        // IqlQuery.toString() appends " 1: <value> 2: <value>..." after the last question mark
+        int parameterCount = 0;
+        int end = logged.length();
+        boolean inQuote = false;
+        for (int i = 0; i < logged.length(); i++) {
+            char ch = logged.charAt(i);
+            if (ch == '\'') {
+                inQuote = !inQuote;
+            } else if (!inQuote) {
+                if (ch == '?') {
+                    parameterCount++;
+                } else if ((parameterCount > 0) && logged.startsWith(" 1: ", i)) {
+                    end = i;
+                    break;
+                }
+            }
+        }
+        List<Object> parameters = new ArrayList<Object>();
+        for (int i = 0; i < parameterCount; i++) {
+            parameters.add(new ArrayList<Object>());
+        }
+        try {
+            return new IqlQuery(logged.substring(0, end), packageName, parameters).toQuery();
+        } catch (RuntimeException e) {
+            LOG.debug("Could not parse logged query " + logged, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the join shape of a Query - a Query selecting the QueryClasses in its FROM list,
+     * constrained only by the constraints that join them together.  Only constraints that must
+     * all be true are used, ie those in the top-level AND of the WHERE clause.  The classes are
+     * sorted by name and the joins by their IQL, so that queries with the same shape give the
+     * same IQL String.
+     *
+     * @param q the Query
+     * @return a Query, or null if the Query doesn't join at least two classes together
+     */
+    static Query getJoinShape(Query q) {
+        List<QueryClass> classes = new ArrayList<QueryClass>();
+        for (FromElement fe : q.getFrom()) {
+            if (fe instanceof QueryClass) {
+                classes.add((QueryClass) fe);
+            }
+        }
+        if (classes.size() < 2) {
+            return null;
+        }
+        Collections.sort(classes, new Comparator<QueryClass>() {
+            public int compare(QueryClass qc1, QueryClass qc2) {
+                return qc1.toString().compareTo(qc2.toString());
+            }
+        });
+        List<Constraint> joins = new ArrayList<Constraint>();
+        int[] groups = new int[classes.size()];
+        for (int i = 0; i < groups.length; i++) {
+            groups[i] = i;
+        }
+        addJoins(q.getConstraint(), classes, joins, groups);
+        for (int group : groups) {
+            if (group != groups[0]) {
+                // a precomputed cross product would be no use to anyone
+                return null;
+            }
+        }
+
+        Query shape = new Query();
+        for (int i = 0; i < classes.size(); i++) {
+            shape.addFrom(classes.get(i), "a" + (i + 1) + "_");
+            shape.addToSelect(classes.get(i));
+        }
+        final Map<Constraint, String> iql = new HashMap<Constraint, String>();
+        for (Constraint join : joins) {
+            iql.put(join, IqlQuery.constraintToString(shape, join, new ArrayList<Object>()));
+        }
+        Collections.sort(joins, new Comparator<Constraint>() {
+            public int compare(Constraint c1, Constraint c2) {
+                return iql.get(c1).compareTo(iql.get(c2));
+            }
+        });
+        ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+        for (Constraint join : joins) {
+            cs.addConstraint(join);
+        }
+        shape.setConstraint(cs);
+        return shape;
+    }
+
+    /**
+     * Adds the constraints that join two of the classes together, and merges the groups of the
+     * classes they join.
+     */
+    private static void addJoins(Constraint c, List<QueryClass> classes, List<Constraint> joins,
+            int[] groups) {
+        if (c instanceof ConstraintSet) {
+            if (ConstraintOp.AND.equals(c.getOp())) {
+                for (Constraint sub : ((ConstraintSet) c).getConstraints()) {
+                    addJoins(sub, classes, joins, groups);
+                }
+            }
+            return;
+        }
+        Object left = null;
+        Object right = null;
+        if (c instanceof ContainsConstraint) {
+            ContainsConstraint cc = (ContainsConstraint) c;
+            if (ConstraintOp.CONTAINS.equals(cc.getOp())) {
+                left = cc.getReference().getQueryClass();
+                right = cc.getQueryClass();
+            }
+        } else if (c instanceof ClassConstraint) {
+            ClassConstraint cc = (ClassConstraint) c;
+            if (ConstraintOp.EQUALS.equals(cc.getOp())) {
+                left = cc.getArg1();
+                right = cc.getArg2QueryClass();
+            }
+        } else if (c instanceof SimpleConstraint) {
+            SimpleConstraint sc = (SimpleConstraint) c;
+            if (ConstraintOp.EQUALS.equals(sc.getOp()) && (sc.getArg1() instanceof QueryField)
+                    && (sc.getArg2() instanceof QueryField)) {
+                left = ((QueryField) sc.getArg1()).getFromElement();
+                right = ((QueryField) sc.getArg2()).getFromElement();
+            }
+        }
+        int leftIndex = classes.indexOf(left);
+        int rightIndex = classes.indexOf(right);
+        if ((leftIndex != -1) && (rightIndex != -1) && (leftIndex != rightIndex)) {
+            joins.add(c);
+            int from = groups[rightIndex];
+            int to = groups[leftIndex];
+            for (int i = 0; i < groups.length; i++) {
+                if (groups[i] == from) {
+                    groups[i] = to;
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the columns that a precomputed table of a join shape would have, with all fields.
+     */
+    private static int countColumns(Model model, Query shape) {
+        int retval = 0;
+        for (FromElement fe : shape.getFrom()) {
+            for (Class<?> c : Util.decomposeClass(((QueryClass) fe).getType())) {
+                ClassDescriptor cld = model.getClassDescriptorByName(c.getName());
+                if (cld != null) {
+                    retval += cld.getAllAttributeDescriptors().size()
+                        + cld.getAllReferenceDescriptors().size();
+                }
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * The queries that share a join shape, with their total cost.
+     */
+    public static class Shape
+    {
+        private final String key;
+        private final Query query;
+        // package-private so that the selection can be tested without a database
+        long cost = 0;
+        int runs = 0;
+        long estimatedSize = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param key the IQL of the join shape
+         * @param query the join shape
+         */
+        Shape(String key, Query query) {
+            this.key = key;
+            this.query = query;
+        }
+
+        /**
+         * Returns the IQL of the join shape.
+         *
+         * @return a String
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Returns the join shape, which is the Query that would be precomputed.
+         *
+         * @return a Query
+         */
+        public Query getQuery() {
+            return query;
+        }
+
+        /**
+         * Returns the total time spent running queries with this shape.
+         *
+         * @return a number of milliseconds
+         */
+        public long getCost() {
+            return cost;
+        }
+
+        /**
+         * Returns the number of times queries with this shape have been run.
+         *
+         * @return an int
+         */
+        public int getRuns() {
+            return runs;
+        }
+
+        /**
+         * Returns the estimated size of a precomputed table of this shape, once propose has been
+         * called.
+         *
+         * @return a number of bytes
+         */
+        public long getEstimatedSize() {
+            return estimatedSize;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return key + " (cost " + cost + " ms over " + runs + " runs, about " + estimatedSize
+                + " bytes)";
+        }
+    }
+}
@@ -12,24 +12,59 @@ package org.intermine.sql.precompute;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.log4j.Logger;
+import org.intermine.sql.Database;
 import org.intermine.sql.query.ExplainResult;
+import org.intermine.sql.query.PostgresExplainResult;
 import org.intermine.sql.query.Query;
 
 /**
  * Gets the database to explain each Query added and keeps hold of the best one so far.
+ * <br>
+ * Candidates that are not explained as they are added are explained when the best Query is
+ * asked for.  If this object was given a Database and more than one explain thread, those
+ * candidates are explained concurrently, each on its own connection from the Database.  The
+ * outstanding explains are cancelled as soon as the best candidate is good enough.
  *
  * @author Andrew Varley
  */
 public class BestQueryExplainer extends BestQuery
 {
+    private static final Logger LOG = Logger.getLogger(BestQueryExplainer.class);
     private static final int OVERHEAD = 300;
     protected static final int ALWAYS_EXPLAIN_TABLES = 3;
     protected static final int NEVER_EXPLAIN_TABLES = 8;
+    /** Concurrent explains stop once a candidate is this many times faster than the best */
+    protected static final int CUTOFF_FACTOR = 10;
+
+    private static final ExecutorService EXPLAINERS = Executors.newCachedThreadPool(
+            new ThreadFactory() {
+                private int threadNo = 0;
+
+                @Override
+                public synchronized Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "BestQueryExplainer " + (threadNo++));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
 
     protected List<Candidate> candidates = new ArrayList<Candidate>();
     protected int candidateTables = Integer.MAX_VALUE;
@@ -37,6 +72,8 @@ public class BestQueryExplainer extends BestQuery
     protected Connection con;
     protected Date start = new Date();
     protected long timeLimit = 0;
+    protected Database database;
+    protected int explainThreads = 1;
 
     /**
      * Constructs an empty BestQueryExplainer for testing purposes
@@ -61,6 +98,23 @@ public class BestQueryExplainer extends BestQuery
         this.timeLimit = timeLimit;
     }
 
+    /**
+     * Constructs a BestQueryExplainer that will use the given Connection to explain Queries as
+     * they are added, and connections from the given Database to explain the remaining
+     * candidates concurrently.
+     *
+     * @param con the Connection to use
+     * @param timeLimit a time limit in milliseconds
+     * @param database the Database to get connections for concurrent explains from
+     * @param explainThreads the maximum number of explains to run at once
+     */
+    public BestQueryExplainer(Connection con, long timeLimit, Database database,
+            int explainThreads) {
+        this(con, timeLimit);
+        this.database = database;
+        this.explainThreads = explainThreads;
+    }
+
     /**
      * Allows a Query to be added to this tracker.
      *
@@ -217,6 +271,9 @@ public class BestQueryExplainer extends BestQuery
      * @throws SQLException if an error occurs in the underlying database
      */
     protected Candidate getBest() throws SQLException {
+        if ((explainThreads > 1) && (candidates.size() > 1)) {
+            explainConcurrently();
+        }
         Iterator<Candidate> iter = candidates.iterator();
         while (iter.hasNext()) {
             if (bestCandidate != null) {
@@ -241,6 +298,117 @@ public class BestQueryExplainer extends BestQuery
         return bestCandidate;
     }
 
+    /**
+     * Explains all the candidates that have not been explained yet, explainThreads at a time, and
+     * updates the best Candidate.  This stops early, cancelling the explains still running, if
+     * the time limit is reached, if the best Candidate would run in less time than has been spent
+     * optimising, or if a Candidate is CUTOFF_FACTOR times faster than the best one was before.
+     * It always waits for at least one explain to finish before stopping, and Candidates that
+     * were not explained are only dropped once there is a best Candidate.  If an explain fails,
+     * for instance because the other connections can't see a table created in the current
+     * transaction, the rest of the candidates are left to be explained one by one on the main
+     * Connection.
+     *
+     * @throws SQLException if an error occurs in the underlying database
+     */
+    protected void explainConcurrently() throws SQLException {
+        Iterator<Candidate> toExplain = new ArrayList<Candidate>(candidates).iterator();
+        candidates.clear();
+        Candidate previousBest = bestCandidate;
+        CompletionService<ExplainResult> completion = new ExecutorCompletionService<ExplainResult>(
+                EXPLAINERS);
+        Map<Future<ExplainResult>, ConcurrentExplain> running
+            = new HashMap<Future<ExplainResult>, ConcurrentExplain>();
+        boolean failed = false;
+        try {
+            while ((running.size() < explainThreads) && toExplain.hasNext()) {
+                ConcurrentExplain explain = new ConcurrentExplain(toExplain.next());
+                running.put(completion.submit(explain), explain);
+            }
+            while (!running.isEmpty()) {
+                long wait = getConcurrentWait(previousBest);
+                if (wait <= 0) {
+                    break;
+                }
+                Future<ExplainResult> done = completion.poll(wait, TimeUnit.MILLISECONDS);
+                if (done != null) {
+                    Candidate c = running.remove(done).candidate;
+                    try {
+                        c.explainResult = done.get();
+                    } catch (ExecutionException e) {
+                        LOG.debug("Concurrent explain failed - explaining on the main connection",
+                                e.getCause());
+                        candidates.add(c);
+                        failed = true;
+                        // don't try again for this query
+                        explainThreads = 1;
+                        break;
+                    }
+                    if (c.betterThan(bestCandidate)) {
+                        bestCandidate = c;
+                    }
+                    if (toExplain.hasNext()) {
+                        ConcurrentExplain explain = new ConcurrentExplain(toExplain.next());
+                        running.put(completion.submit(explain), explain);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // without a best Candidate, for instance when interrupted, the rest are kept so
+            // that getBest() still has something to explain
+            boolean keep = failed || (bestCandidate == null);
+            for (ConcurrentExplain explain : running.values()) {
+                explain.cancel();
+                if (keep) {
+                    candidates.add(explain.candidate);
+                }
+            }
+            while (keep && toExplain.hasNext()) {
+                candidates.add(toExplain.next());
+            }
+        }
+    }
+
+    /**
+     * Returns how long to wait for the next concurrent explain to finish.
+     *
+     * @param previousBest the best Candidate before the concurrent explains started
+     * @return a time in milliseconds, or zero if the explains should stop now.  This is never
+     * zero while no Candidate has been explained
+     * @throws SQLException if an error occurs in the underlying database
+     */
+    private long getConcurrentWait(Candidate previousBest) throws SQLException {
+        if (bestCandidate == null) {
+            // like the sequential loop, always wait for at least one explain, whatever the time
+            // limit, as there is nothing to fall back on
+            return Long.MAX_VALUE;
+        }
+        long bestTime = bestCandidate.getExplain().getTime();
+        if ((previousBest != null) && (bestCandidate != previousBest)
+                && (bestTime * CUTOFF_FACTOR < previousBest.getExplain().getTime())) {
+            return 0;
+        }
+        long elapsed = System.currentTimeMillis() - start.getTime();
+        long wait = bestTime - (elapsed + OVERHEAD);
+        if (timeLimit >= 0) {
+            wait = Math.min(wait, timeLimit - elapsed);
+        }
+        return Math.max(wait, 0);
+    }
+
+    /**
+     * Returns a new Connection to use for concurrent explains.  It can be overridden by
+     * subclasses.
+     *
+     * @return a Connection, which will be closed after use
+     * @throws SQLException if an error occurs in the underlying database
+     */
+    protected Connection getExplainConnection() throws SQLException {
+        return database.getConnection();
+    }
+
     /**
      * Throws an exception. This gives the subclasses a chance to intercept it.
      *
@@ -364,4 +532,57 @@ public class BestQueryExplainer extends BestQuery
                     : ", queryString = " + queryString);
         }
     }
+
+    /**
+     * Explains one Candidate on a connection of its own, and can be cancelled from another
+     * thread.
+     */
+    private class ConcurrentExplain implements Callable<ExplainResult>
+    {
+        private final Candidate candidate;
+        private final String sql;
+        private Statement statement = null;
+        private boolean cancelled = false;
+
+        ConcurrentExplain(Candidate candidate) {
+            this.candidate = candidate;
+            this.sql = candidate.getQueryString();
+        }
+
+        @Override
+        public ExplainResult call() throws SQLException {
+            Connection c = getExplainConnection();
+            try {
+                Statement s;
+                synchronized (this) {
+                    if (cancelled) {
+                        return null;
+                    }
+                    s = c.createStatement();
+                    statement = s;
+                }
+                try {
+                    return new PostgresExplainResult(sql, s);
+                } finally {
+                    synchronized (this) {
+                        statement = null;
+                    }
+                    s.close();
+                }
+            } finally {
+                c.close();
+            }
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            if (statement != null) {
+                try {
+                    statement.cancel();
+                } catch (SQLException e) {
+                    LOG.debug("Could not cancel explain of " + sql, e);
+                }
+            }
+        }
+    }
 }
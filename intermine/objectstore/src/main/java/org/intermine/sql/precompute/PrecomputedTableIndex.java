@@ -0,0 +1,262 @@
+package org.intermine.sql.precompute;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.intermine.sql.query.AbstractConstraint;
+import org.intermine.sql.query.AbstractTable;
+import org.intermine.sql.query.AbstractValue;
+import org.intermine.sql.query.Constraint;
+import org.intermine.sql.query.ConstraintSet;
+import org.intermine.sql.query.Field;
+import org.intermine.sql.query.NotConstraint;
+import org.intermine.sql.query.Query;
+import org.intermine.sql.query.SelectValue;
+import org.intermine.sql.query.Table;
+
+/**
+ * An index of a set of PrecomputedTables, for finding the ones that could possibly be merged into
+ * a Query without trying each of them in turn.  A PrecomputedTable can only be used if every
+ * table in its FROM list maps onto a distinct table with the same name in the Query, so the
+ * PrecomputedTables are grouped by the names of their tables, and each group is filed under the
+ * first of those names.  Looking up a Query only visits the groups filed under the names of its
+ * own tables.  Each candidate is then checked against its join signature - the pairs of tables
+ * joined by equality in its WHERE clause, which the Query must join too - and the DISTINCT and
+ * GROUP BY rules of QueryOptimiser.merge.
+ * <br>
+ * The index is a cheap filter, not a replacement for merge.  Every PrecomputedTable it rejects
+ * would have produced no merged Queries, and merge still does the real matching on the rest.
+ */
+public class PrecomputedTableIndex
+{
+    /** Stands in for the name of every SubQuery, as they are not compared by name */
+    private static final String SUBQUERY = "(subquery)";
+
+    private final Set<PrecomputedTable> precomputedTables;
+    private final Map<String, List<TableSet>> tableSetsByFirstName
+        = new HashMap<String, List<TableSet>>();
+
+    /**
+     * Constructs an index of some PrecomputedTables.
+     *
+     * @param precomputedTables the PrecomputedTables to index
+     */
+    public PrecomputedTableIndex(Collection<PrecomputedTable> precomputedTables) {
+        this.precomputedTables = Collections.unmodifiableSet(
+                new TreeSet<PrecomputedTable>(precomputedTables));
+        Map<Map<String, Integer>, TableSet> tableSets = new HashMap<Map<String, Integer>,
+            TableSet>();
+        for (PrecomputedTable pt : this.precomputedTables) {
+            Map<String, Integer> counts = countTableNames(pt.getQuery().getFrom());
+            TableSet tableSet = tableSets.get(counts);
+            if (tableSet == null) {
+                tableSet = new TableSet(counts);
+                tableSets.put(counts, tableSet);
+                String firstName = counts.isEmpty() ? "" : counts.keySet().iterator().next();
+                List<TableSet> filed = tableSetsByFirstName.get(firstName);
+                if (filed == null) {
+                    filed = new ArrayList<TableSet>();
+                    tableSetsByFirstName.put(firstName, filed);
+                }
+                filed.add(tableSet);
+            }
+            tableSet.entries.add(new Entry(pt));
+        }
+    }
+
+    /**
+     * Returns all the PrecomputedTables in this index.
+     *
+     * @return an unmodifiable Set of PrecomputedTables
+     */
+    public Set<PrecomputedTable> getPrecomputedTables() {
+        return precomputedTables;
+    }
+
+    /**
+     * Returns the PrecomputedTables that could be merged into the given Query.  Any
+     * PrecomputedTable left out would not produce any Queries from QueryOptimiser.merge.
+     *
+     * @param query the Query to optimise
+     * @return a Set of PrecomputedTables, in their natural order
+     */
+    public Set<PrecomputedTable> getCandidates(Query query) {
+        Set<PrecomputedTable> retval = new TreeSet<PrecomputedTable>();
+        Map<String, Integer> queryCounts = countTableNames(query.getFrom());
+        Set<String> queryJoins = null;
+        boolean hasAggregate = hasAggregate(query);
+        Set<String> names = new HashSet<String>(queryCounts.keySet());
+        // a PrecomputedTable with no tables at all is filed under the empty name
+        names.add("");
+        for (String name : names) {
+            List<TableSet> filed = tableSetsByFirstName.get(name);
+            if (filed == null) {
+                continue;
+            }
+            for (TableSet tableSet : filed) {
+                if (!tableSet.isCoveredBy(queryCounts)) {
+                    continue;
+                }
+                if (queryJoins == null) {
+                    queryJoins = new HashSet<String>();
+                    addJoins(query.getWhere(), queryJoins, false);
+                }
+                for (Entry entry : tableSet.entries) {
+                    if (entry.couldMerge(query, queryJoins, hasAggregate)) {
+                        retval.add(entry.pt);
+                    }
+                }
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the number of each table name in a FROM list.  The names are sorted, so that equal
+     * lists of tables produce equal Maps that iterate in the same order.
+     */
+    private static Map<String, Integer> countTableNames(Collection<AbstractTable> from) {
+        Map<String, Integer> retval = new TreeMap<String, Integer>();
+        for (AbstractTable table : from) {
+            String name = (table instanceof Table) ? ((Table) table).getName() : SUBQUERY;
+            Integer count = retval.get(name);
+            retval.put(name, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+        }
+        return retval;
+    }
+
+    /**
+     * Adds the pairs of table names that the given constraints compare a field of one with a
+     * field of the other.  For a PrecomputedTable, only equality constraints in the top level of
+     * the WHERE clause are used, as each of those must be matched by a constraint in the Query.
+     * For the Query, every comparison is used, however deep, so that nothing that could match
+     * one of those constraints is missed.
+     *
+     * @param constraints the constraints to look through
+     * @param joins the Set to add the joins to
+     * @param precomputed true for the constraints of a PrecomputedTable, false for a Query
+     */
+    private static void addJoins(Set<AbstractConstraint> constraints, Set<String> joins,
+            boolean precomputed) {
+        for (AbstractConstraint constraint : constraints) {
+            if (constraint instanceof Constraint) {
+                Constraint c = (Constraint) constraint;
+                if ((!precomputed) || (c.getOperation() == Constraint.EQ)) {
+                    String join = getJoin(c.getLeft(), c.getRight());
+                    if (join != null) {
+                        joins.add(join);
+                    }
+                }
+            } else if (!precomputed) {
+                if (constraint instanceof ConstraintSet) {
+                    addJoins(((ConstraintSet) constraint).getConstraints(), joins, false);
+                } else if (constraint instanceof NotConstraint) {
+                    addJoins(Collections.singleton(((NotConstraint) constraint).getConstraint()),
+                            joins, false);
+                }
+            }
+        }
+    }
+
+    private static String getJoin(AbstractValue left, AbstractValue right) {
+        if ((left instanceof Field) && (right instanceof Field)) {
+            AbstractTable leftTable = ((Field) left).getTable();
+            AbstractTable rightTable = ((Field) right).getTable();
+            if ((leftTable instanceof Table) && (rightTable instanceof Table)
+                    && (leftTable != rightTable)) {
+                String leftName = ((Table) leftTable).getName();
+                String rightName = ((Table) rightTable).getName();
+                return (leftName.compareTo(rightName) <= 0 ? leftName + " " + rightName
+                        : rightName + " " + leftName);
+            }
+        }
+        return null;
+    }
+
+    private static boolean hasAggregate(Query query) {
+        if (!query.getGroupBy().isEmpty()) {
+            return true;
+        }
+        for (SelectValue sv : query.getSelect()) {
+            if (sv.getValue().isAggregate()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The PrecomputedTables that have the same table names in their FROM lists.
+     */
+    private static class TableSet
+    {
+        private final Map<String, Integer> counts;
+        private final List<Entry> entries = new ArrayList<Entry>();
+
+        TableSet(Map<String, Integer> counts) {
+            this.counts = counts;
+        }
+
+        boolean isCoveredBy(Map<String, Integer> queryCounts) {
+            for (Map.Entry<String, Integer> count : counts.entrySet()) {
+                Integer queryCount = queryCounts.get(count.getKey());
+                if ((queryCount == null) || (queryCount.intValue() < count.getValue().intValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A PrecomputedTable, with the parts of its Query that the index checks.
+     */
+    private static class Entry
+    {
+        private final PrecomputedTable pt;
+        private final Set<String> joins = new HashSet<String>();
+        private final boolean distinct;
+        private final int fromSize;
+        private final int groupBySize;
+
+        Entry(PrecomputedTable pt) {
+            this.pt = pt;
+            Query q = pt.getQuery();
+            distinct = q.isDistinct();
+            fromSize = q.getFrom().size();
+            groupBySize = q.getGroupBy().size();
+            addJoins(q.getWhere(), joins, true);
+        }
+
+        boolean couldMerge(Query query, Set<String> queryJoins, boolean hasAggregate) {
+            if (groupBySize > 0) {
+                // mergeGroupBy needs the same number of tables and GROUP BY values
+                if ((query.getFrom().size() != fromSize)
+                        || (query.getGroupBy().size() != groupBySize)) {
+                    return false;
+                }
+            } else if (distinct && ((!query.isDistinct()) || hasAggregate)) {
+                return false;
+            }
+            return queryJoins.containsAll(joins);
+        }
+    }
+}
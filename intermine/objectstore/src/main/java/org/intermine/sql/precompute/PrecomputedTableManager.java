@@ -52,6 +52,7 @@ public class PrecomputedTableManager
         = new HashMap<String, Map<String, PrecomputedTable>>();
     protected Database database;
     protected Connection conn;
+    protected PrecomputedTableIndex index = null;
     protected static final String TABLE_INDEX = "precompute_index";
     protected static Map<Object, PrecomputedTableManager> instances
         = new HashMap<Object, PrecomputedTableManager>();
@@ -176,6 +177,7 @@ public class PrecomputedTableManager
             addTableToDatabase(pt, indexes, true);
             precomputedTables.add(pt);
             queryStrings.put(queryString, pt);
+            invalidateIndex();
         }
     }
 
@@ -193,6 +195,7 @@ public class PrecomputedTableManager
         }
 
         types.clear();
+        invalidateIndex();
     }
 
     /**
@@ -222,6 +225,7 @@ public class PrecomputedTableManager
                 String queryString = pt.getOriginalSql();
                 Map<String, PrecomputedTable> queryStrings = types.get(pt.getCategory());
                 queryStrings.remove(queryString);
+                invalidateIndex();
             }
         }
     }
@@ -247,6 +251,7 @@ public class PrecomputedTableManager
         String queryString = pt.getOriginalSql();
         Map<String, PrecomputedTable> queryStrings = types.get(pt.getCategory());
         queryStrings.remove(queryString);
+        invalidateIndex();
     }
 
     /**
@@ -258,6 +263,23 @@ public class PrecomputedTableManager
         return precomputedTables;
     }
 
+    /**
+     * Get an index of the precomputed tables in the underlying database, for finding the ones
+     * that may be used in a given query.  The index is rebuilt after tables are added or deleted.
+     *
+     * @return a PrecomputedTableIndex
+     */
+    public synchronized PrecomputedTableIndex getIndex() {
+        if (index == null) {
+            index = new PrecomputedTableIndex(precomputedTables);
+        }
+        return index;
+    }
+
+    private synchronized void invalidateIndex() {
+        index = null;
+    }
+
     /**
      * Add a PrecomputedTable to the database.
      *
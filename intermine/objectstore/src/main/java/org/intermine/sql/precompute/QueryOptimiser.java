@@ -42,6 +42,7 @@ import org.intermine.sql.query.InListConstraint;
 import org.intermine.sql.query.NotConstraint;
 import org.intermine.sql.query.OrderDescending;
 import org.intermine.sql.query.Query;
+import org.intermine.sql.query.ParsedQueryCache;
 import org.intermine.sql.query.QueryParseTimeoutException;
 import org.intermine.sql.query.SelectValue;
 import org.intermine.sql.query.SubQuery;
@@ -160,10 +161,9 @@ public final class QueryOptimiser
             return new BestQueryFallback(null, query);
         }
 
-        Set<PrecomputedTable> precomputedTables = ptm.getPrecomputedTables();
         OptimiserCache cache = OptimiserCache.getInstance(database);
         return optimiseWith(query, originalQuery, database, explainConnection, context,
-                            precomputedTables, cache);
+                            ptm.getIndex(), cache);
     }
 
     /**
@@ -183,6 +183,27 @@ public final class QueryOptimiser
     public static BestQuery optimiseWith(String query, Query originalQuery, Database database,
             Connection connection, QueryOptimiserContext context,
             Set<PrecomputedTable> precomputedTables, OptimiserCache cache) throws SQLException {
+        return optimiseWith(query, originalQuery, database, connection, context,
+                new PrecomputedTableIndex(precomputedTables), cache);
+    }
+
+    /**
+     * Runs the optimiser through the query repesented in the String and Query, given the Connection
+     * and an index of PrecomputedTables.
+     *
+     * @param query the query String to optimise
+     * @param originalQuery the Query object to optimise - or optionally null
+     * @param database a Database
+     * @param connection the database connection to use, or null if database is a Database
+     * @param context a QueryOptimiserContext, to alter settings
+     * @param index a PrecomputedTableIndex of the PrecomputedTables to use
+     * @param cache an OptimiserCache
+     * @return a BestQuery object
+     * @throws SQLException if a database error occurs
+     */
+    public static BestQuery optimiseWith(String query, Query originalQuery, Database database,
+            Connection connection, QueryOptimiserContext context,
+            PrecomputedTableIndex index, OptimiserCache cache) throws SQLException {
         Connection explainConnection = connection;
         Query optimiseQuery = originalQuery;
         callCount++;
@@ -222,6 +243,9 @@ public final class QueryOptimiser
                 bestQuery = new BestQueryLogger(true);
             } else if (context.getMode() == QueryOptimiserContext.MODE_VERBOSE_SUMMARY) {
                 bestQuery = new BestQueryLogger(false);
+            } else if ((context.getExplainThreads() > 1) && (database != null)) {
+                bestQuery = new BestQueryExplainer(explainConnection, context.getTimeLimit(),
+                        database, context.getExplainThreads());
             } else {
                 bestQuery = new BestQueryExplainer(explainConnection, context.getTimeLimit());
             }
@@ -233,10 +257,10 @@ public final class QueryOptimiser
                 // to say optimisation is not worth it, before parsing.
                 bestQuery.add(query);
                 if (originalQuery == null) {
-                    originalQuery = new Query(query, context.getMaxQueryParseTime());
+                    originalQuery = ParsedQueryCache.parse(query, context.getMaxQueryParseTime());
                 }
                 parseTime = new Date().getTime();
-                recursiveOptimiseCheckSubquery(precomputedTables, originalQuery, bestQuery);
+                recursiveOptimiseCheckSubquery(index, originalQuery, bestQuery);
             } catch (BestQueryException e) {
                 // Ignore - bestQuery decided to cut short the search
                 //if (bestQuery instanceof BestQueryExplainer) {
@@ -322,6 +346,24 @@ public final class QueryOptimiser
      */
     public static void recursiveOptimiseCheckSubquery(Set<PrecomputedTable> precomputedTables,
             Query query, BestQuery bestQuery) throws BestQueryException, SQLException {
+        recursiveOptimiseCheckSubquery(new PrecomputedTableIndex(precomputedTables), query,
+                bestQuery);
+    }
+
+    /**
+     * Recursively optimises the query, given an index of precomputed tables, and updates the
+     * BestQuery object with each Query found. This method looks for simple subqueries to
+     * optimise, and calls recursiveOptimise with those precomputed tables that the index says
+     * could be used in the query.
+     *
+     * @param index a PrecomputedTableIndex of the PrecomputedTables to use
+     * @param query a query to optimise
+     * @param bestQuery a BestQuery object to update with each optimised Query object
+     * @throws BestQueryException if the BestQuery decides to cut short the search
+     * @throws SQLException if a database error occurs
+     */
+    public static void recursiveOptimiseCheckSubquery(PrecomputedTableIndex index,
+            Query query, BestQuery bestQuery) throws BestQueryException, SQLException {
         if (query.getFrom().size() == 1) {
             AbstractTable at = query.getFrom().iterator().next();
             if (at instanceof SubQuery) {
@@ -332,12 +374,14 @@ public final class QueryOptimiser
                 bestQuery = new EncloseSubqueryBestQuery(bestQuery,
                         originalQuery.substring(0, position),
                         originalQuery.substring(position + subQueryString.length()));
-                recursiveOptimiseCheckSubquery(precomputedTables, subQuery, bestQuery);
+                recursiveOptimiseCheckSubquery(index, subQuery, bestQuery);
                 return;
             }
         }
         remapAliasesToAvoidPrecomputePrefix(query);
-        recursiveOptimise(precomputedTables, query, bestQuery, query);
+        // Only the first level of recursiveOptimise tries every precomputed table, so that is
+        // the one worth narrowing down
+        recursiveOptimise(index.getCandidates(query), query, bestQuery, query);
     }
 
     /**
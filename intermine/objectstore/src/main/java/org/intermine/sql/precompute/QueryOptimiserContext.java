@@ -33,6 +33,7 @@ public class QueryOptimiserContext
     // to a Query object in milliseconds. It can be overwritten by the property:
     // os.query.max-query-parse-time=200
     private long maxQueryParseTime = 100;
+    private int explainThreads = 1;
 
 
     /**
@@ -113,6 +114,30 @@ public class QueryOptimiserContext
         this.maxQueryParseTime = maxQueryParseTime;
     }
 
+    /**
+     * Returns the number of candidate queries that the optimiser may explain at once.
+     *
+     * @return the number of explain threads
+     */
+    public int getExplainThreads() {
+        return explainThreads;
+    }
+
+    /**
+     * Sets the number of candidate queries that the optimiser may explain at once, each on its
+     * own database connection. A value of 1 explains them one after another on the connection
+     * the optimiser was given.
+     *
+     * @param explainThreads the number of explain threads
+     */
+    public void setExplainThreads(int explainThreads) {
+        if (explainThreads < 1) {
+            throw new IllegalArgumentException("Invalid number of explain threads "
+                    + explainThreads);
+        }
+        this.explainThreads = explainThreads;
+    }
+
     /**
      * The default context - normal operation with no time limit.
      */
@@ -138,5 +163,11 @@ public class QueryOptimiserContext
         public long getTimeLimit() {
             return -1;
         }
+
+        @Override
+        public void setExplainThreads(@SuppressWarnings("unused") int explainThreads) {
+            throw new IllegalStateException("This is the default QueryOptimiserContext - it cannot"
+                    + " be altered");
+        }
     };
 }
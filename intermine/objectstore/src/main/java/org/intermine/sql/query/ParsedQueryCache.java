@@ -0,0 +1,143 @@
+package org.intermine.sql.query;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.intermine.util.CacheMap;
+
+import antlr.ASTFactory;
+import antlr.Token;
+import antlr.TokenStreamException;
+import antlr.collections.AST;
+
+/**
+ * Parses SQL strings into Query objects, parsing each shape of query only once.  The SQL that
+ * the SqlGenerator produces for one query differs from run to run only in its literal values, so
+ * the literals are replaced by placeholders and the parsed AST of the result is cached.  A Query
+ * is then made from a copy of the cached AST with the real literals put back, which is much
+ * cheaper than parsing and tree-parsing the SQL again.  Anything that can't be handled this way
+ * falls back to parsing the original String.
+ */
+public final class ParsedQueryCache
+{
+    private static final Map<String, AST> TEMPLATES = Collections.synchronizedMap(
+            new CacheMap<String, AST>("ParsedQueryCache templates"));
+    private static final ASTFactory FACTORY = new ASTFactory();
+
+    private ParsedQueryCache() {
+        // don't
+    }
+
+    /**
+     * Construct a new parsed Query from a String.
+     *
+     * @param sql a SQL SELECT String to parse
+     * @param timeOut maximum time in milliseconds to spend parsing, can be null for no timeout
+     * @return a Query
+     * @throws IllegalArgumentException if the SQL String is invalid
+     */
+    public static Query parse(String sql, Long timeOut) {
+        List<String> literals = new ArrayList<String>();
+        String template;
+        try {
+            template = toTemplate(sql, literals);
+        } catch (TokenStreamException e) {
+            return new Query(sql, timeOut);
+        }
+        AST ast = TEMPLATES.get(template);
+        if (ast == null) {
+            try {
+                ast = Query.parseAST(template, true, timeOut);
+            } catch (IllegalArgumentException e) {
+                // report the error against the original SQL
+                return new Query(sql, timeOut);
+            }
+            TEMPLATES.put(template, ast);
+        }
+        AST copy = FACTORY.dupList(ast);
+        fillLiterals(copy, literals);
+        return new Query(copy);
+    }
+
+    /**
+     * Replaces the literals in some SQL with numbered placeholders.
+     *
+     * @param sql the SQL String
+     * @param literals a List to which the literals are added, in order
+     * @return the SQL with placeholders instead of literals
+     * @throws TokenStreamException if the SQL can't be tokenised
+     */
+    static String toTemplate(String sql, List<String> literals) throws TokenStreamException {
+        SqlLexer lexer = new SqlLexer(new ByteArrayInputStream(sql.getBytes()));
+        StringBuilder template = new StringBuilder();
+        Token token = lexer.nextToken();
+        while (token.getType() != Token.EOF_TYPE) {
+            if (template.length() > 0) {
+                template.append(' ');
+            }
+            if (isLiteral(token.getType())) {
+                template.append(placeholder(token.getType(), literals.size()));
+                literals.add(token.getText());
+            } else {
+                template.append(token.getText());
+            }
+            token = lexer.nextToken();
+        }
+        return template.toString();
+    }
+
+    private static boolean isLiteral(int type) {
+        return (type == SqlTokenTypes.QUOTED_STRING) || (type == SqlTokenTypes.ESCAPED_STRING)
+            || (type == SqlTokenTypes.INTEGER) || (type == SqlTokenTypes.FLOAT);
+    }
+
+    // a placeholder lexes as the same type of token as the literal it replaces
+    private static String placeholder(int type, int index) {
+        switch (type) {
+            case SqlTokenTypes.QUOTED_STRING:
+                return "'" + index + "'";
+            case SqlTokenTypes.ESCAPED_STRING:
+                return "e'" + index + "'";
+            case SqlTokenTypes.FLOAT:
+                return index + ".0";
+            default:
+                return Integer.toString(index);
+        }
+    }
+
+    private static int indexOf(String placeholder) {
+        String index = placeholder;
+        if (index.startsWith("e")) {
+            index = index.substring(1);
+        }
+        if (index.startsWith("'")) {
+            index = index.substring(1, index.length() - 1);
+        }
+        if (index.endsWith(".0")) {
+            index = index.substring(0, index.length() - 2);
+        }
+        return Integer.parseInt(index);
+    }
+
+    private static void fillLiterals(AST node, List<String> literals) {
+        for (AST ast = node; ast != null; ast = ast.getNextSibling()) {
+            if (isLiteral(ast.getType())) {
+                ast.setText(literals.get(indexOf(ast.getText())));
+            }
+            fillLiterals(ast.getFirstChild(), literals);
+        }
+    }
+}
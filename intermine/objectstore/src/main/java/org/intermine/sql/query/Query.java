@@ -158,10 +158,33 @@ public class Query implements SQLStringable
      * @throws IllegalArgumentException if the SQL String is invalid
      */
     public Query(String sql, boolean treeParse, Long timeOut) {
+        this(parseAST(sql, treeParse, timeOut));
+    }
+
+    /**
+     * Construct a new Query from an AST produced by the SqlParser and SqlTreeParser.
+     *
+     * @param ast a SQL_STATEMENT AST node
+     * @throws IllegalArgumentException if the AST is not a valid SQL statement
+     */
+    Query(AST ast) {
         this();
 
         aliasToTable = new HashMap<String, AbstractTable>();
         originalAliasToTable = new HashMap<String, AbstractTable>();
+        processSqlStatementAST(ast);
+    }
+
+    /**
+     * Parse a String into an AST, ready for processing into a Query.
+     *
+     * @param sql a SQL SELECT String to parse
+     * @param treeParse true if a tree-parse step is required (usually so)
+     * @param timeOut maximum time in milliseconds to spend parsing, can be null for no timeout
+     * @return the SQL_STATEMENT AST node
+     * @throws IllegalArgumentException if the SQL String is invalid
+     */
+    static AST parseAST(String sql, boolean treeParse, Long timeOut) {
         try {
             InputStream is = new ByteArrayInputStream(sql.getBytes());
 
@@ -191,7 +214,7 @@ public class Query implements SQLStringable
                 } while (!oldAst.equalsList(ast));
             }
 
-            processSqlStatementAST(ast);
+            return ast;
         } catch (antlr.RecognitionException e) {
             try {
                 InputStream is = new ByteArrayInputStream(sql.getBytes());
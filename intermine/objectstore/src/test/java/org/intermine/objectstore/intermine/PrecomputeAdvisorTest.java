@@ -0,0 +1,172 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.intermine.objectstore.ObjectStoreFactory;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.iql.IqlQuery;
+import org.intermine.sql.precompute.PrecomputedTable;
+import org.intermine.sql.precompute.PrecomputedTableManager;
+
+public class PrecomputeAdvisorTest extends TestCase
+{
+    private static final String PACKAGE = "org.intermine.model.testmodel";
+
+    public PrecomputeAdvisorTest(String arg) {
+        super(arg);
+    }
+
+    private static Query iql(String iql) {
+        return new IqlQuery(iql, PACKAGE).toQuery();
+    }
+
+    public void testJoinShape() throws Exception {
+        Query shape1 = PrecomputeAdvisor.getJoinShape(iql("SELECT a1_, a2_ FROM Employee"
+                    + " AS a1_, Department AS a2_ WHERE a1_.department CONTAINS a2_ AND a1_.age"
+                    + " > 30"));
+        Query shape2 = PrecomputeAdvisor.getJoinShape(iql("SELECT b1_ FROM Department AS b1_,"
+                    + " Employee AS b2_ WHERE b2_.department CONTAINS b1_ AND b1_.name = 'Sales'"
+                    + " AND (b2_.age < 20 OR b2_.age > 60) ORDER BY b1_"));
+        assertNotNull(shape1);
+        assertEquals(shape1.toString(), shape2.toString());
+        assertEquals("SELECT DISTINCT a1_, a2_ FROM " + PACKAGE + ".Department AS a1_, "
+                + PACKAGE + ".Employee AS a2_ WHERE (a2_.department CONTAINS a1_)",
+                shape1.toString());
+
+        // joins inside an OR aren't part of the shape
+        assertNull(PrecomputeAdvisor.getJoinShape(iql("SELECT a1_ FROM Employee AS a1_,"
+                    + " Department AS a2_ WHERE (a1_.department CONTAINS a2_ OR a1_.age = 5)")));
+        // neither are single classes or unjoined classes
+        assertNull(PrecomputeAdvisor.getJoinShape(iql("SELECT a1_ FROM Employee AS a1_")));
+        assertNull(PrecomputeAdvisor.getJoinShape(iql("SELECT a1_ FROM Employee AS a1_,"
+                    + " Department AS a2_, Company AS a3_ WHERE a1_.department CONTAINS a2_")));
+        assertNotNull(PrecomputeAdvisor.getJoinShape(iql("SELECT a1_ FROM Employee AS a1_,"
+                    + " Department AS a2_, Company AS a3_ WHERE a1_.department CONTAINS a2_"
+                    + " AND a2_.company CONTAINS a3_")));
+    }
+
+    public void testAddQuery() throws Exception {
+        PrecomputeAdvisor advisor = new PrecomputeAdvisor(null);
+        assertTrue(advisor.addQuery(iql("SELECT a1_ FROM Employee AS a1_, Department AS a2_"
+                        + " WHERE a1_.department CONTAINS a2_ AND a1_.age = 10"), 100, 2));
+        assertTrue(advisor.addQuery(iql("SELECT a2_ FROM Employee AS a1_, Department AS a2_"
+                        + " WHERE a1_.department CONTAINS a2_ AND a1_.age = 20"), 50, 1));
+        assertTrue(advisor.addQuery(iql("SELECT a1_ FROM Department AS a1_, Company AS a2_"
+                        + " WHERE a1_.company CONTAINS a2_"), 500, 1));
+        assertFalse(advisor.addQuery(iql("SELECT a1_ FROM Employee AS a1_"), 1000, 1));
+
+        List<PrecomputeAdvisor.Shape> shapes = advisor.getShapes();
+        assertEquals(2, shapes.size());
+        assertEquals(500, shapes.get(0).getCost());
+        assertEquals(150, shapes.get(1).getCost());
+        assertEquals(3, shapes.get(1).getRuns());
+    }
+
+    public void testParseLoggedIql() throws Exception {
+        Query q = PrecomputeAdvisor.parseLoggedIql("SELECT a1_, a2_ FROM " + PACKAGE
+                + ".Employee AS a1_, " + PACKAGE + ".Department AS a2_ WHERE (a1_.department"
+                + " CONTAINS a2_ AND a1_.name = 'Who? 1: me' AND a1_.id IN ?) 1: [1, 2, 3]",
+                PACKAGE);
+        assertNotNull(q);
+        assertNotNull(PrecomputeAdvisor.getJoinShape(q));
+
+        // objects can't be made up from their logged String
+        assertNull(PrecomputeAdvisor.parseLoggedIql("SELECT a1_ FROM " + PACKAGE
+                    + ".Employee AS a1_ WHERE a1_ = ? 1: Employee [id=5]", PACKAGE));
+    }
+
+    public void testSelect() throws Exception {
+        List<PrecomputeAdvisor.Shape> shapes = new ArrayList<PrecomputeAdvisor.Shape>();
+        PrecomputeAdvisor.Shape big = shape("big", 1000, 800);
+        PrecomputeAdvisor.Shape dense = shape("dense", 500, 100);
+        PrecomputeAdvisor.Shape small = shape("small", 60, 150);
+        PrecomputeAdvisor.Shape unused = shape("unused", 0, 1);
+        shapes.add(big);
+        shapes.add(dense);
+        shapes.add(small);
+        shapes.add(unused);
+
+        List<PrecomputeAdvisor.Shape> chosen = PrecomputeAdvisor.select(shapes, 1000);
+        assertEquals(2, chosen.size());
+        assertEquals(dense, chosen.get(0));
+        assertEquals(big, chosen.get(1));
+
+        // the big one doesn't fit, but the smaller ones still do
+        chosen = PrecomputeAdvisor.select(shapes, 500);
+        assertEquals(2, chosen.size());
+        assertEquals(dense, chosen.get(0));
+        assertEquals(small, chosen.get(1));
+    }
+
+    public void testExistingTables() throws Exception {
+        ObjectStoreInterMineImpl os = (ObjectStoreInterMineImpl)
+            ObjectStoreFactory.getObjectStore("os.unittest");
+        dropAdvisorTables(os);
+        try {
+            PrecomputeAdvisor advisor = new PrecomputeAdvisor(os);
+            advisor.addQuery(iql("SELECT a1_ FROM Employee AS a1_, Department AS a2_"
+                        + " WHERE a1_.department CONTAINS a2_"), 1000, 1);
+            List<PrecomputeAdvisor.Shape> shapes = advisor.getShapes();
+            advisor.precompute(shapes, 1, 0);
+            assertEquals(1, getAdvisorTables(os).size());
+
+            // an existing table that is still worth its space is kept, and takes up budget
+            assertTrue(advisor.propose(Long.MAX_VALUE).isEmpty());
+            assertTrue(advisor.getShapes().get(0).getEstimatedSize() > 0);
+            assertTrue(advisor.getStaleTables().isEmpty());
+
+            // one that doesn't fit the budget any more is stale
+            assertTrue(advisor.propose(0).isEmpty());
+            assertEquals(1, advisor.getStaleTables().size());
+            assertEquals(1, advisor.dropStaleTables());
+            assertTrue(getAdvisorTables(os).isEmpty());
+            assertTrue(advisor.getStaleTables().isEmpty());
+
+            // and the shape can be proposed again once it has gone
+            assertEquals(1, advisor.propose(Long.MAX_VALUE).size());
+
+            // a table for a shape that isn't run any more is stale whatever the budget
+            advisor.precompute(shapes, 1, 0);
+            PrecomputeAdvisor unused = new PrecomputeAdvisor(os);
+            assertTrue(unused.propose(Long.MAX_VALUE).isEmpty());
+            assertEquals(1, unused.getStaleTables().size());
+        } finally {
+            dropAdvisorTables(os);
+        }
+    }
+
+    private static Map<String, PrecomputedTable> getAdvisorTables(ObjectStoreInterMineImpl os)
+        throws Exception {
+        return PrecomputedTableManager.getInstance(os.getDatabase())
+            .lookupCategory(PrecomputeAdvisor.CATEGORY);
+    }
+
+    private static void dropAdvisorTables(ObjectStoreInterMineImpl os) throws Exception {
+        PrecomputedTableManager ptm = PrecomputedTableManager.getInstance(os.getDatabase());
+        for (PrecomputedTable pt : new ArrayList<PrecomputedTable>(
+                    getAdvisorTables(os).values())) {
+            ptm.delete(pt);
+        }
+    }
+
+    private static PrecomputeAdvisor.Shape shape(String key, long cost, long size) {
+        PrecomputeAdvisor.Shape shape = new PrecomputeAdvisor.Shape(key, null);
+        shape.cost = cost;
+        shape.estimatedSize = size;
+        return shape;
+    }
+}
@@ -10,6 +10,15 @@ package org.intermine.sql.precompute;
  *
  */
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import junit.framework.*;
 import org.intermine.sql.query.*;
 
@@ -105,4 +114,189 @@ public class BestQueryExplainerTest extends TestCase
         }
     }
 
+    public void testConcurrentExplain() throws Exception {
+        FakeDatabase db = new FakeDatabase();
+        BestQueryExplainer bq = new FakeExplainer(db, 4);
+        bq.add(fiveTableQuery("t1", 50000000, 0));
+        bq.add(fiveTableQuery("t2", 40000000, 0));
+        for (int i = 3; i <= 10; i++) {
+            bq.add(fiveTableQuery("t" + i, 30000000 - i, 200));
+        }
+        long start = System.currentTimeMillis();
+        assertEquals(fiveTableQuery("t10", 29999990, 200), bq.getBestQuery());
+        long time = System.currentTimeMillis() - start;
+        assertEquals(4, db.maxRunning.get());
+        assertTrue("Took " + time + " ms", time < 1200);
+    }
+
+    public void testConcurrentExplainCutOff() throws Exception {
+        FakeDatabase db = new FakeDatabase();
+        BestQueryExplainer bq = new FakeExplainer(db, 4);
+        bq.add(fiveTableQuery("t1", 50000000, 0));
+        bq.add(fiveTableQuery("t2", 40000000, 0));
+        bq.add(fiveTableQuery("t3", 30000000, 5000));
+        bq.add(fiveTableQuery("t4", 30000, 10));
+        bq.add(fiveTableQuery("t5", 30000000, 5000));
+        bq.add(fiveTableQuery("t6", 30000000, 5000));
+        long start = System.currentTimeMillis();
+        assertEquals(fiveTableQuery("t4", 30000, 10), bq.getBestQuery());
+        long time = System.currentTimeMillis() - start;
+        assertTrue("Took " + time + " ms", time < 2000);
+        // the slow explains were cancelled
+        Thread.sleep(100);
+        assertEquals(3, db.cancelled.get());
+    }
+
+    public void testConcurrentExplainFallsBack() throws Exception {
+        FakeDatabase db = new FakeDatabase();
+        BestQueryExplainer bq = new FakeExplainer(db, 4) {
+            @Override
+            protected Connection getExplainConnection() throws SQLException {
+                throw new SQLException("No more connections");
+            }
+        };
+        bq.add(fiveTableQuery("t1", 50000000, 0));
+        bq.add(fiveTableQuery("t2", 40000000, 0));
+        bq.add(fiveTableQuery("t3", 30000000, 0));
+        bq.add(fiveTableQuery("t4", 20000000, 0));
+        assertEquals(fiveTableQuery("t4", 20000000, 0), bq.getBestQuery());
+    }
+
+    public void testConcurrentExplainTimeLimitBeforeAnyExplain() throws Exception {
+        FakeDatabase db = new FakeDatabase();
+        BestQueryExplainer bq = new FakeExplainer(db, 4, 50);
+        // too many tables to be explained as they are added
+        bq.add(eightTableQuery("t1", 40000000, 300));
+        bq.add(eightTableQuery("t2", 30000000, 1000));
+        // the time limit passes before any explain finishes, but there is still a best query
+        assertEquals(eightTableQuery("t1", 40000000, 300), bq.getBestQuery());
+        assertNotNull(bq.getBestQueryString());
+    }
+
+    /**
+     * Returns a Query with eight tables, explained like the ones from fiveTableQuery.
+     */
+    private static Query eightTableQuery(String name, int cost, int delay) {
+        return new Query("SELECT " + name + ".a FROM " + name + ", b, c, d, e, f, g, h WHERE "
+                + name + ".cost = " + cost + " AND " + name + ".delay = " + delay);
+    }
+
+    /**
+     * Returns a Query with five tables, which the FakeDatabase explains with the given cost,
+     * taking the given number of milliseconds.
+     */
+    private static Query fiveTableQuery(String name, int cost, int delay) {
+        return new Query("SELECT " + name + ".a FROM " + name + ", b, c, d, e WHERE " + name
+                + ".cost = " + cost + " AND " + name + ".delay = " + delay);
+    }
+
+    private static class FakeExplainer extends BestQueryExplainer
+    {
+        private FakeDatabase db;
+
+        FakeExplainer(FakeDatabase db, int threads) {
+            this(db, threads, -1);
+        }
+
+        FakeExplainer(FakeDatabase db, int threads, long timeLimit) {
+            super(db.getConnection(), timeLimit, null, threads);
+            this.db = db;
+        }
+
+        @Override
+        protected Connection getExplainConnection() throws SQLException {
+            return db.getConnection();
+        }
+    }
+
+    /**
+     * Makes Connections that explain the queries from fiveTableQuery, and count how many
+     * explains run at once and how many are cancelled.
+     */
+    private static class FakeDatabase
+    {
+        AtomicInteger running = new AtomicInteger(0);
+        AtomicInteger maxRunning = new AtomicInteger(0);
+        AtomicInteger cancelled = new AtomicInteger(0);
+
+        Connection getConnection() {
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class[] {Connection.class}, new InvocationHandler() {
+                        public Object invoke(Object proxy, Method m, Object[] args) {
+                            if ("createStatement".equals(m.getName())) {
+                                return createStatement();
+                            }
+                            return null;
+                        }
+                    });
+        }
+
+        Statement createStatement() {
+            final Thread[] executing = new Thread[1];
+            final String[] plan = new String[1];
+            return (Statement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class[] {Statement.class}, new InvocationHandler() {
+                        public Object invoke(Object proxy, Method m, Object[] args)
+                            throws Exception {
+                            String name = m.getName();
+                            if ("execute".equals(name)) {
+                                String sql = (String) args[0];
+                                int cost = Integer.parseInt(sql.replaceAll(".*cost = ([0-9]+).*",
+                                            "$1"));
+                                int delay = Integer.parseInt(sql.replaceAll(
+                                            ".*delay = ([0-9]+).*", "$1"));
+                                plan[0] = "Seq Scan on a  (cost=0.00.." + cost
+                                    + ".00 rows=100 width=4)";
+                                int now = running.incrementAndGet();
+                                synchronized (maxRunning) {
+                                    maxRunning.set(Math.max(maxRunning.get(), now));
+                                }
+                                synchronized (executing) {
+                                    executing[0] = Thread.currentThread();
+                                }
+                                try {
+                                    Thread.sleep(delay);
+                                } catch (InterruptedException e) {
+                                    throw new SQLException("canceling statement due to user"
+                                            + " request");
+                                } finally {
+                                    synchronized (executing) {
+                                        executing[0] = null;
+                                    }
+                                    running.decrementAndGet();
+                                }
+                                return Boolean.TRUE;
+                            } else if ("cancel".equals(name)) {
+                                synchronized (executing) {
+                                    if (executing[0] != null) {
+                                        cancelled.incrementAndGet();
+                                        executing[0].interrupt();
+                                    }
+                                }
+                                return null;
+                            } else if ("getResultSet".equals(name)) {
+                                return resultSet(plan[0]);
+                            } else if ("getMoreResults".equals(name)) {
+                                return Boolean.FALSE;
+                            }
+                            return null;
+                        }
+                    });
+        }
+
+        ResultSet resultSet(final String plan) {
+            final int[] row = new int[] {0};
+            return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class[] {ResultSet.class}, new InvocationHandler() {
+                        public Object invoke(Object proxy, Method m, Object[] args) {
+                            if ("next".equals(m.getName())) {
+                                return Boolean.valueOf(row[0]++ == 0);
+                            } else if ("getString".equals(m.getName())) {
+                                return plan;
+                            }
+                            return null;
+                        }
+                    });
+        }
+    }
 }
@@ -0,0 +1,140 @@
+package org.intermine.sql.precompute;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.intermine.sql.query.Query;
+
+public class PrecomputedTableIndexTest extends TestCase
+{
+    private static final String QUERY = "SELECT t1.a AS x, t2.a AS y, t3.a AS z FROM t1, t2, t3"
+        + " WHERE t1.id = t2.ref AND t2.id = t3.ref AND t1.c = 'five' ORDER BY t1.a";
+
+    public PrecomputedTableIndexTest(String arg) {
+        super(arg);
+    }
+
+    private static PrecomputedTable precomp(String name, String sql) {
+        return new PrecomputedTable(new Query(sql), sql, name, null, null);
+    }
+
+    public void testTableNames() throws Exception {
+        PrecomputedTable pt1 = precomp("precomp1", "SELECT t1.a AS a, t1.id AS id FROM t1");
+        PrecomputedTable pt2 = precomp("precomp2", "SELECT t4.a AS a FROM t4");
+        PrecomputedTable pt3 = precomp("precomp3", "SELECT t1.a AS a, t5.a AS b FROM t1, t5");
+        PrecomputedTable pt4 = precomp("precomp4", "SELECT a.a AS a, b.a AS b FROM t1 AS a,"
+                + " t1 AS b");
+        PrecomputedTable pt5 = precomp("precomp5", "SELECT t3.a AS a, t2.a AS b FROM t2, t3");
+        List<PrecomputedTable> all = new ArrayList<PrecomputedTable>();
+        all.add(pt1);
+        all.add(pt2);
+        all.add(pt3);
+        all.add(pt4);
+        all.add(pt5);
+        PrecomputedTableIndex index = new PrecomputedTableIndex(all);
+
+        Set<PrecomputedTable> expected = new HashSet<PrecomputedTable>();
+        expected.add(pt1);
+        expected.add(pt5);
+        assertEquals(expected, new HashSet<PrecomputedTable>(index.getCandidates(
+                new Query(QUERY))));
+        assertEquals(5, index.getPrecomputedTables().size());
+    }
+
+    public void testJoins() throws Exception {
+        PrecomputedTable pt1 = precomp("precomp1", "SELECT t1.a AS a, t2.a AS b FROM t1, t2"
+                + " WHERE t1.id = t2.ref");
+        PrecomputedTable pt2 = precomp("precomp2", "SELECT t1.a AS a, t2.a AS b FROM t1, t2"
+                + " WHERE t2.ref = t1.id");
+        PrecomputedTable pt3 = precomp("precomp3", "SELECT t1.a AS a, t3.a AS b FROM t1, t3"
+                + " WHERE t1.id = t3.ref");
+        PrecomputedTable pt4 = precomp("precomp4", "SELECT t1.a AS a, t3.a AS b FROM t1, t3");
+        List<PrecomputedTable> all = new ArrayList<PrecomputedTable>();
+        all.add(pt1);
+        all.add(pt2);
+        all.add(pt3);
+        all.add(pt4);
+        PrecomputedTableIndex index = new PrecomputedTableIndex(all);
+
+        Set<PrecomputedTable> expected = new HashSet<PrecomputedTable>();
+        expected.add(pt1);
+        expected.add(pt2);
+        expected.add(pt4);
+        assertEquals(expected, new HashSet<PrecomputedTable>(index.getCandidates(
+                new Query(QUERY))));
+        // joins inside an OR could still match
+        expected.add(pt3);
+        assertEquals(expected, new HashSet<PrecomputedTable>(index.getCandidates(new Query(
+                "SELECT t1.a AS x FROM t1, t2, t3 WHERE t1.id = t2.ref AND (t1.id = t3.ref"
+                + " OR t1.c = 'six')"))));
+    }
+
+    public void testDistinctAndGroupBy() throws Exception {
+        PrecomputedTable pt1 = precomp("precomp1", "SELECT DISTINCT t1.a AS a FROM t1");
+        PrecomputedTable pt2 = precomp("precomp2", "SELECT t1.a AS a, COUNT(*) AS b FROM t1"
+                + " GROUP BY t1.a");
+        List<PrecomputedTable> all = new ArrayList<PrecomputedTable>();
+        all.add(pt1);
+        all.add(pt2);
+        PrecomputedTableIndex index = new PrecomputedTableIndex(all);
+
+        assertTrue(index.getCandidates(new Query(QUERY)).isEmpty());
+        assertEquals(pt1, index.getCandidates(new Query("SELECT DISTINCT t1.a AS x FROM t1, t2"))
+                .iterator().next());
+        assertEquals(pt2, index.getCandidates(new Query("SELECT t1.a AS x, COUNT(*) AS y FROM t1"
+                + " GROUP BY t1.a")).iterator().next());
+    }
+
+    /**
+     * Runs the optimiser with 100 precomputed tables, with and without the index, checking that
+     * the index finds the same optimised queries.
+     */
+    public void testManyTables() throws Exception {
+        List<PrecomputedTable> all = new ArrayList<PrecomputedTable>();
+        all.add(precomp("match1", "SELECT t1.a AS fa, t1.id AS fb, t2.a AS fc, t2.id AS fd"
+                    + " FROM t1, t2 WHERE t1.id = t2.ref AND t1.c = 'five'"));
+        all.add(precomp("match2", "SELECT t3.a AS fa, t3.ref AS fb FROM t3"));
+        for (int i = all.size(); i < 100; i++) {
+            // tables t4 onwards aren't in the query, and some don't join the same way
+            String t1 = "t" + (1 + (i % 50));
+            String t2 = "t" + (4 + (i % 47));
+            all.add(precomp("precomp" + i, "SELECT " + t1 + ".a AS fa, " + t2 + ".a AS fb"
+                        + " FROM " + t1 + ", " + t2 + " WHERE " + t1 + ".id = " + t2 + ".ref"
+                        + " AND " + t1 + ".c = '" + i + "'"));
+        }
+        PrecomputedTableIndex index = new PrecomputedTableIndex(all);
+
+        BestQueryStorer withIndex = new BestQueryStorer();
+        QueryOptimiser.recursiveOptimiseCheckSubquery(index, new Query(QUERY), withIndex);
+
+        BestQueryStorer withoutIndex = new BestQueryStorer();
+        Query q = new Query(QUERY);
+        QueryOptimiser.remapAliasesToAvoidPrecomputePrefix(q);
+        QueryOptimiser.recursiveOptimise(index.getPrecomputedTables(), q, withoutIndex, q);
+
+        assertEquals(3, withIndex.getQueries().size());
+        assertEquals(withoutAliases(withoutIndex), withoutAliases(withIndex));
+    }
+
+    private static Set<String> withoutAliases(BestQueryStorer bestQuery) {
+        Set<String> retval = new HashSet<String>();
+        for (Query q : bestQuery.getQueries()) {
+            retval.add(q.getSQLString().replaceAll("P[0-9]+", "P"));
+        }
+        return retval;
+    }
+}
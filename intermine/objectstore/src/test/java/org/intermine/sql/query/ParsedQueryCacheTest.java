@@ -0,0 +1,76 @@
+package org.intermine.sql.query;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class ParsedQueryCacheTest extends TestCase
+{
+    private static final String[] SQL = {
+        "SELECT a1_.id AS a1_ FROM Gene AS a1_ WHERE a1_.symbol = 'eve' ORDER BY a1_.id",
+        "SELECT a1_.id AS a1_ FROM Gene AS a1_ WHERE a1_.symbol = 'it''s' AND a1_.length > 12"
+            + " ORDER BY a1_.id LIMIT 1000 OFFSET 2000",
+        "SELECT a1_.id AS a1_ FROM Gene AS a1_ WHERE LOWER(a1_.name) LIKE e'%\\\\_x%'",
+        "SELECT a1_.score AS a2_ FROM Feature AS a1_ WHERE a1_.score < -2 OR a1_.score > 2.5",
+        "SELECT t.a FROM t WHERE (t.i = 1 AND t.j = 2) OR t.k = 3",
+        "SELECT t.a FROM t WHERE t.a IN ('x', 'y', 'z') AND NOT (t.b = 1 OR t.c = 'q')",
+        "SELECT t.a FROM t, (SELECT u.b FROM u WHERE u.c = 7) AS v WHERE t.a = v.b",
+        "SELECT COUNT(*) AS a1_, t.b AS a2_ FROM t WHERE t.c = true GROUP BY t.b"
+            + " HAVING COUNT(*) > 5 ORDER BY t.b"
+    };
+
+    public void testSameAsParsing() {
+        for (String sql : SQL) {
+            Query expected = new Query(sql);
+            // the first parse fills the cache, the second uses it
+            for (int i = 0; i < 2; i++) {
+                Query parsed = ParsedQueryCache.parse(sql, null);
+                assertEquals(sql, expected, parsed);
+                assertEquals(sql, expected.getSQLString(), parsed.getSQLString());
+            }
+        }
+    }
+
+    public void testDifferentLiterals() {
+        ParsedQueryCache.parse("SELECT t.a FROM t WHERE t.b = 'one' AND t.c = 1 LIMIT 10", null);
+        String sql = "SELECT t.a FROM t WHERE t.b = 'two' AND t.c = 2 LIMIT 20 OFFSET 40";
+        Query expected = new Query(sql);
+        Query parsed = ParsedQueryCache.parse(sql, null);
+        assertEquals(expected, parsed);
+        assertEquals(expected.getSQLString(), parsed.getSQLString());
+        assertEquals(20, parsed.getLimit());
+        assertEquals(40, parsed.getOffset());
+    }
+
+    public void testTemplate() throws Exception {
+        List<String> literals = new ArrayList<String>();
+        String template = ParsedQueryCache.toTemplate(
+                "SELECT t.a FROM t WHERE t.b = 'x' AND t.c > -1.5 AND t.d = 3", literals);
+        assertEquals("SELECT t . a FROM t WHERE t . b = '0' AND t . c > 1.0 AND t . d = 2",
+                template);
+        assertEquals(3, literals.size());
+        assertEquals("'x'", literals.get(0));
+        assertEquals("-1.5", literals.get(1));
+        assertEquals("3", literals.get(2));
+    }
+
+    public void testInvalid() {
+        try {
+            ParsedQueryCache.parse("A load of rubbish", null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
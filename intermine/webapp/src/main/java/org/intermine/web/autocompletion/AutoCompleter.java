@@ -10,6 +10,7 @@ package org.intermine.web.autocompletion;
  *
  */
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -36,6 +37,7 @@ import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryFunction;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
 
@@ -59,6 +61,13 @@ public class AutoCompleter
 
     private static final String CLASSNAME_FIELD = "className";
 
+    // how often to check whether the prefix index file has been rebuilt, in milliseconds
+    private static final long INDEX_CHECK_INTERVAL = 60000;
+
+    private AutocompleteIndex index = null;
+    private long indexModified = 0;
+    private long indexChecked = 0;
+
     /**
      * Autocompleter build index constructor.
      *
@@ -87,6 +96,10 @@ public class AutoCompleter
      */
     public String[] getFastList(String query, String field, String className,  int n) {
 
+        if (propertiesManager.getIndexFile() != null) {
+            return getFastListFromIndex(query, field, className, n);
+        }
+
         String status = "true";
         String[] stringResults = null;
 
@@ -162,8 +175,50 @@ public class AutoCompleter
         return null;
     }
 
+    private String[] getFastListFromIndex(String query, String field, String className, int n) {
+        if ("".equals(query) || query.trim().startsWith("*")) {
+            return null;
+        }
+        AutocompleteIndex prefixIndex = getIndex();
+        if (prefixIndex == null) {
+            return null;
+        }
+        List<String> values = prefixIndex.lookup(className, field, query, n);
+        if (values == null) {
+            return null;
+        }
+        String[] stringResults = new String[values.size() + 1];
+        stringResults[0] = "true";
+        for (int i = 0; i < values.size(); i++) {
+            stringResults[i + 1] = values.get(i);
+        }
+        return stringResults;
+    }
+
+    // the index is mapped again when CreateAutocompleteIndexProcess replaces the file
+    private synchronized AutocompleteIndex getIndex() {
+        long now = System.currentTimeMillis();
+        if (index == null || now - indexChecked > INDEX_CHECK_INTERVAL) {
+            indexChecked = now;
+            File file = new File(propertiesManager.getIndexFile());
+            long modified = file.lastModified();
+            if (modified != indexModified) {
+                try {
+                    index = AutocompleteIndex.open(file);
+                    indexModified = modified;
+                    LOG.info("Opened autocomplete index " + file);
+                } catch (IOException e) {
+                    LOG.error("Couldn't open autocomplete index " + file, e);
+                }
+            }
+        }
+        return index;
+    }
+
     /**
-     * Build the index from the database blob
+     * Build the index from the database blob.  If autocomplete.index.file is configured the
+     * values are written to a prefix index in that file, ordered by the number of objects with
+     * each value, otherwise they are added to solr.
      * @param os Objectstore
      * @throws IOException IOException
      * @throws ObjectStoreException ObjectStoreException
@@ -178,6 +233,9 @@ public class AutoCompleter
 
         fieldList.add(CLASSNAME_FIELD);
 
+        AutocompleteIndex.Builder builder = (propertiesManager.getIndexFile() == null) ? null
+            : new AutocompleteIndex.Builder();
+
         for (Map.Entry<String, String> entry: classFieldMap.entrySet()) {
             String key = entry.getKey();
             String value = entry.getValue();
@@ -200,16 +258,22 @@ public class AutoCompleter
                 }
 
                 Query q = new Query();
-                q.setDistinct(true);
                 QueryClass qc = new QueryClass(Class.forName(cld.getName()));
-                q.addToSelect(new QueryField(qc, fieldName));
+                QueryField qf = new QueryField(qc, fieldName);
+                q.addToSelect(qf);
+                q.addToSelect(new QueryFunction());
                 q.addFrom(qc);
+                q.addToGroupBy(qf);
                 Results results = os.execute(q);
 
                 for (Object resRow: results) {
                     @SuppressWarnings("rawtypes")
-                    Object fieldValue = ((ResultsRow) resRow).get(0);
-                    if (fieldValue != null) {
+                    ResultsRow row = (ResultsRow) resRow;
+                    Object fieldValue = row.get(0);
+                    if (fieldValue != null && builder != null) {
+                        builder.add(cld.getUnqualifiedName(), fieldName, fieldValue.toString(),
+                                ((Number) row.get(1)).intValue());
+                    } else if (fieldValue != null) {
                         SolrInputDocument solrInputDocument = new SolrInputDocument();
                         solrInputDocument.addField(fieldName, fieldValue.toString());
                         solrInputDocument.addField(CLASSNAME_FIELD, cld.getUnqualifiedName());
@@ -219,6 +283,12 @@ public class AutoCompleter
             }
         }
 
+        if (builder != null) {
+            builder.write(new File(propertiesManager.getIndexFile()));
+            LOG.info("Wrote autocomplete index " + propertiesManager.getIndexFile());
+            return;
+        }
+
         SolrClient solrClient = SolrClientHandler
                 .getClientInstance(this.propertiesManager.getSolrUrl());
 
@@ -0,0 +1,500 @@
+package org.intermine.web.autocompletion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A prefix index of the values of the autocompleted fields, kept in a file that is memory mapped
+ * by the webapp.  For each class and field the distinct values are numbered from the most to the
+ * least frequent, and the words of the values are held in an array sorted by word and then value
+ * number, so the values with a word starting with a prefix are found by binary search and the
+ * most frequent of them are the lowest numbered.  Prefixes of up to SHORT_PREFIX characters
+ * match so many words that their most frequent values are worked out when the index is built.
+ */
+public final class AutocompleteIndex
+{
+    /** The length of the prefixes whose most frequent values are stored in the index. */
+    public static final int SHORT_PREFIX = 2;
+
+    /** The number of values stored for each short prefix. */
+    public static final int TOP_K = 32;
+
+    private static final int MAGIC = 0x494d4143;
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 4;
+    private static final int SECTION_INTS = 7;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+    private final int stringsStart;
+    private final Map<String, Section> sections = new HashMap<String, Section>();
+
+    private AutocompleteIndex(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not an autocomplete index, or made by a different version");
+        }
+        int sectionCount = buffer.getInt(8);
+        stringsStart = buffer.getInt(12);
+        for (int i = 0; i < sectionCount; i++) {
+            int at = (HEADER_INTS + i * SECTION_INTS) * 4;
+            // the number of values, at + 4, isn't needed to look them up
+            Section section = new Section(buffer.getInt(at + 8), buffer.getInt(at + 12),
+                    buffer.getInt(at + 16), buffer.getInt(at + 20), buffer.getInt(at + 24));
+            sections.put(getString(buffer.getInt(at)), section);
+        }
+    }
+
+    /**
+     * Memory map an index file.
+     * @param file the file written by a Builder
+     * @return the index
+     * @throws IOException if the file can't be read or isn't an index
+     */
+    public static AutocompleteIndex open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            // the mapping stays valid once the file is closed
+            return new AutocompleteIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Return whether the index has the values of a field.
+     * @param className the unqualified class name
+     * @param field the field name
+     * @return true if the field is indexed
+     */
+    public boolean contains(String className, String field) {
+        return sections.containsKey(className + "." + field);
+    }
+
+    /**
+     * Find the most frequent values of a field that have a word starting with each word of the
+     * query.
+     * @param className the unqualified class name
+     * @param field the field name
+     * @param query the words typed so far
+     * @param n the most values to return
+     * @return the values, most frequent first, or null if the field isn't indexed
+     */
+    public List<String> lookup(String className, String field, String query, int n) {
+        Section section = sections.get(className + "." + field);
+        if (section == null) {
+            return null;
+        }
+        List<String> words = tokenize(query);
+        if (words.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // the longest word matches the fewest values
+        String longest = words.get(0);
+        for (String word : words) {
+            if (word.length() > longest.length()) {
+                longest = word;
+            }
+        }
+        byte[] prefix = longest.getBytes(UTF8);
+
+        if (longest.length() <= SHORT_PREFIX) {
+            int lo = lowerBound(section.shortStart, section.shortCount, prefix);
+            int hi = upperBound(section.shortStart, section.shortCount, prefix, false);
+            List<String> retval = collect(section, section.shortStart, lo, hi, words, n);
+            if (retval.size() == n || hi - lo < TOP_K) {
+                return retval;
+            }
+            // other words of the query ruled out too many of the stored values
+        }
+        int lo = lowerBound(section.entriesStart, section.entryCount, prefix);
+        int hi = upperBound(section.entriesStart, section.entryCount, prefix, true);
+        return collect(section, section.entriesStart, lo, hi, words, n);
+    }
+
+    private List<String> collect(Section section, int table, int lo, int hi, List<String> words,
+            int n) {
+        int[] ids = new int[hi - lo];
+        for (int i = lo; i < hi; i++) {
+            ids[i - lo] = buffer.getInt(table + i * 8 + 4);
+        }
+        Arrays.sort(ids);
+        List<String> retval = new ArrayList<String>();
+        for (int i = 0; i < ids.length && retval.size() < n; i++) {
+            if (i > 0 && ids[i] == ids[i - 1]) {
+                continue;
+            }
+            String value = getString(buffer.getInt(section.valuesStart + ids[i] * 4));
+            if (words.size() == 1 || matches(value, words)) {
+                retval.add(value);
+            }
+        }
+        return retval;
+    }
+
+    private static boolean matches(String value, List<String> words) {
+        List<String> valueWords = tokenize(value);
+        for (String word : words) {
+            boolean found = false;
+            for (String valueWord : valueWords) {
+                if (valueWord.startsWith(word)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // first entry whose word is not less than the prefix
+    private int lowerBound(int table, int count, byte[] prefix) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(buffer.getInt(table + mid * 8), prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // first entry after the ones whose word starts with, or if not startsWith equals, the prefix
+    private int upperBound(int table, int count, byte[] prefix, boolean startsWith) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int word = buffer.getInt(table + mid * 8);
+            int cmp = compare(word, prefix);
+            if (cmp <= 0 || (startsWith && startsWith(word, prefix))) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int compare(int offset, byte[] key) {
+        int at = stringsStart + offset;
+        int length = buffer.getInt(at);
+        for (int i = 0; i < length && i < key.length; i++) {
+            int diff = (buffer.get(at + 4 + i) & 0xff) - (key[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - key.length;
+    }
+
+    private boolean startsWith(int offset, byte[] prefix) {
+        int at = stringsStart + offset;
+        if (buffer.getInt(at) < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(at + 4 + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String getString(int offset) {
+        int at = stringsStart + offset;
+        byte[] bytes = new byte[buffer.getInt(at)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(at + 4 + i);
+        }
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Split a value or query into lower case words of letters and digits.
+     * @param text the value or query
+     * @return the words
+     */
+    static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<String>();
+        for (String word : text.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (word.length() > 0) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    private static int compareBytes(byte[] a, byte[] b) {
+        for (int i = 0; i < a.length && i < b.length; i++) {
+            int diff = (a[i] & 0xff) - (b[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * The offsets of the tables of one class and field.
+     */
+    private static final class Section
+    {
+        private final int valuesStart;
+        private final int entryCount;
+        private final int entriesStart;
+        private final int shortCount;
+        private final int shortStart;
+
+        Section(int valuesStart, int entryCount, int entriesStart, int shortCount,
+                int shortStart) {
+            this.valuesStart = valuesStart;
+            this.entryCount = entryCount;
+            this.entriesStart = entriesStart;
+            this.shortCount = shortCount;
+            this.shortStart = shortStart;
+        }
+    }
+
+    /**
+     * Collects the values of the autocompleted fields and writes the index file.
+     */
+    public static final class Builder
+    {
+        // class.field -> value -> number of objects with that value
+        private final Map<String, Map<String, Integer>> values
+            = new TreeMap<String, Map<String, Integer>>();
+
+        /**
+         * Add a value of a field.
+         * @param className the unqualified class name
+         * @param field the field name
+         * @param value the value
+         * @param count the number of objects with that value
+         */
+        public void add(String className, String field, String value, int count) {
+            String key = className + "." + field;
+            Map<String, Integer> fieldValues = values.get(key);
+            if (fieldValues == null) {
+                fieldValues = new HashMap<String, Integer>();
+                values.put(key, fieldValues);
+            }
+            Integer old = fieldValues.get(value);
+            fieldValues.put(value, count + (old == null ? 0 : old.intValue()));
+        }
+
+        /**
+         * Write the index.  It is written to a temporary file which then replaces the file, so
+         * that a webapp never maps a partly written index.
+         * @param file the index file
+         * @throws IOException if the file can't be written
+         */
+        public void write(File file) throws IOException {
+            Strings strings = new Strings();
+            List<int[]> tables = new ArrayList<int[]>();
+            List<Integer> names = new ArrayList<Integer>();
+            for (Map.Entry<String, Map<String, Integer>> section : values.entrySet()) {
+                names.add(strings.add(section.getKey()));
+                tables.addAll(makeTables(section.getValue(), strings));
+            }
+
+            int at = (HEADER_INTS + names.size() * SECTION_INTS) * 4;
+            int[] header = new int[HEADER_INTS + names.size() * SECTION_INTS];
+            header[0] = MAGIC;
+            header[1] = VERSION;
+            header[2] = names.size();
+            for (int i = 0; i < names.size(); i++) {
+                int[] valueTable = tables.get(i * 3);
+                int[] entryTable = tables.get(i * 3 + 1);
+                int[] shortTable = tables.get(i * 3 + 2);
+                int h = HEADER_INTS + i * SECTION_INTS;
+                header[h] = names.get(i);
+                header[h + 1] = valueTable.length;
+                header[h + 2] = at;
+                at += valueTable.length * 4;
+                header[h + 3] = entryTable.length / 2;
+                header[h + 4] = at;
+                at += entryTable.length * 4;
+                header[h + 5] = shortTable.length / 2;
+                header[h + 6] = at;
+                at += shortTable.length * 4;
+            }
+            header[3] = at;
+
+            ByteBuffer out = ByteBuffer.allocate(at + strings.size());
+            for (int value : header) {
+                out.putInt(value);
+            }
+            for (int[] table : tables) {
+                for (int value : table) {
+                    out.putInt(value);
+                }
+            }
+            strings.writeTo(out);
+
+            File temp = new File(file.getPath() + ".tmp");
+            FileOutputStream stream = new FileOutputStream(temp);
+            try {
+                stream.write(out.array());
+            } finally {
+                stream.close();
+            }
+            if (!temp.renameTo(file)) {
+                file.delete();
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Couldn't replace " + file);
+                }
+            }
+        }
+
+        // the values, the words and the short prefixes of one field
+        private static List<int[]> makeTables(final Map<String, Integer> fieldValues,
+                Strings strings) {
+            List<String> sorted = new ArrayList<String>(fieldValues.keySet());
+            Collections.sort(sorted, new Comparator<String>() {
+                @Override
+                public int compare(String a, String b) {
+                    int byCount = fieldValues.get(b).compareTo(fieldValues.get(a));
+                    return byCount != 0 ? byCount : a.compareTo(b);
+                }
+            });
+            int[] valueTable = new int[sorted.size()];
+            List<Entry> entries = new ArrayList<Entry>();
+            Map<String, TreeSet<Integer>> shortPrefixes = new LinkedHashMap<String,
+                TreeSet<Integer>>();
+            for (int id = 0; id < sorted.size(); id++) {
+                valueTable[id] = strings.add(sorted.get(id));
+                Set<String> words = new LinkedHashSet<String>(tokenize(sorted.get(id)));
+                Set<String> prefixes = new LinkedHashSet<String>();
+                for (String word : words) {
+                    entries.add(new Entry(word, id));
+                    for (int length = 1; length <= Math.min(SHORT_PREFIX, word.length());
+                            length++) {
+                        prefixes.add(word.substring(0, length));
+                    }
+                }
+                for (String prefix : prefixes) {
+                    TreeSet<Integer> ids = shortPrefixes.get(prefix);
+                    if (ids == null) {
+                        ids = new TreeSet<Integer>();
+                        shortPrefixes.put(prefix, ids);
+                    }
+                    // values are added most frequent first, so the first TOP_K are kept
+                    if (ids.size() < TOP_K) {
+                        ids.add(id);
+                    }
+                }
+            }
+            List<Entry> shortEntries = new ArrayList<Entry>();
+            for (Map.Entry<String, TreeSet<Integer>> prefix : shortPrefixes.entrySet()) {
+                for (Integer id : prefix.getValue()) {
+                    shortEntries.add(new Entry(prefix.getKey(), id));
+                }
+            }
+            List<int[]> retval = new ArrayList<int[]>();
+            retval.add(valueTable);
+            retval.add(toTable(entries, strings));
+            retval.add(toTable(shortEntries, strings));
+            return retval;
+        }
+
+        private static int[] toTable(List<Entry> entries, Strings strings) {
+            Collections.sort(entries);
+            int[] table = new int[entries.size() * 2];
+            for (int i = 0; i < entries.size(); i++) {
+                table[i * 2] = strings.add(entries.get(i).word);
+                table[i * 2 + 1] = entries.get(i).id;
+            }
+            return table;
+        }
+    }
+
+    /**
+     * A word and the number of a value with that word, ordered as in the index.
+     */
+    private static final class Entry implements Comparable<Entry>
+    {
+        private final String word;
+        private final byte[] bytes;
+        private final int id;
+
+        Entry(String word, int id) {
+            this.word = word;
+            this.bytes = word.getBytes(UTF8);
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int cmp = compareBytes(bytes, other.bytes);
+            return cmp != 0 ? cmp : id - other.id;
+        }
+    }
+
+    /**
+     * The strings of the index, each stored once as its length and UTF-8 bytes.
+     */
+    private static final class Strings
+    {
+        private final Map<String, Integer> offsets = new HashMap<String, Integer>();
+        private final List<byte[]> strings = new ArrayList<byte[]>();
+        private int size = 0;
+
+        int add(String string) {
+            Integer offset = offsets.get(string);
+            if (offset == null) {
+                byte[] bytes = string.getBytes(UTF8);
+                offset = size;
+                offsets.put(string, offset);
+                strings.add(bytes);
+                size += 4 + bytes.length;
+            }
+            return offset;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void writeTo(ByteBuffer out) {
+            for (byte[] bytes : strings) {
+                out.putInt(bytes.length);
+                out.put(bytes);
+            }
+        }
+    }
+}
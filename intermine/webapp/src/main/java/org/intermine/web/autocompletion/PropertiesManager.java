@@ -39,6 +39,8 @@ final class PropertiesManager
 
     private String solrUrl;
 
+    private String indexFile;
+
     private PropertiesManager() {
         parseProperties();
     }
@@ -82,6 +84,9 @@ final class PropertiesManager
                         classFieldMap.put(className, value);
                     } else if ("autocomplete.solrurl".equals(key) && !StringUtils.isBlank(value)) {
                         solrUrl = value;
+                    } else if ("autocomplete.index.file".equals(key)
+                            && !StringUtils.isBlank(value)) {
+                        indexFile = value.trim();
                     }
 
                 }
@@ -107,4 +112,11 @@ final class PropertiesManager
     String getSolrUrl() {
         return solrUrl;
     }
+
+    /**
+     * @return the file of the prefix index, or null if the values are indexed in solr
+     */
+    String getIndexFile() {
+        return indexFile;
+    }
 }
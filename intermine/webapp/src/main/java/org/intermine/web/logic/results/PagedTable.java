@@ -12,6 +12,7 @@ package org.intermine.web.logic.results;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -19,9 +20,16 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.servlet.http.HttpSession;
 
+import org.apache.log4j.Logger;
 import org.intermine.api.profile.InterMineBag;
 import org.intermine.api.results.Column;
 import org.intermine.api.results.ResultElement;
@@ -68,7 +76,18 @@ import org.intermine.web.logic.session.SessionMethods;
 @Deprecated
 public class PagedTable
 {
+    private static final Logger LOG = Logger.getLogger(PagedTable.class);
     private static final int FIRST_SELECTED_FIELDS_COUNT = 25;
+    private static final int PREFETCH_THREADS = 2;
+    private static final ExecutorService PREFETCHER = Executors.newFixedThreadPool(
+            PREFETCH_THREADS, new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "PagedTable prefetch");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
     private final WebTable webTable;
     private List<String> columnNames = null;
     private int startRow = 0;
@@ -79,6 +98,21 @@ public class PagedTable
 
     private List<MultiRow<ResultsRow<MultiRowValue<ResultElement>>>> rows = null;
 
+    // the rows that have been converted from the results, from the page before the current one
+    // to the page after it, so that paging back and forth doesn't convert them again and the
+    // memory used doesn't grow with the number of pages looked at.  Only used by the request
+    // thread.
+    private final Map<Integer, MultiRow<ResultsRow<MultiRowValue<ResultElement>>>> window
+        = new HashMap<Integer, MultiRow<ResultsRow<MultiRowValue<ResultElement>>>>();
+    // the number of columns when the rows in the window were converted
+    private int windowColumnCount = -1;
+    // converting the rows of the next page in the background, into a map of their own that the
+    // request thread adds to the window
+    private Future<Map<Integer, MultiRow<ResultsRow<MultiRowValue<ResultElement>>>>> prefetch
+        = null;
+    // the number of columns when the prefetch was started
+    private int prefetchColumnCount = -1;
+
     // object ids that have been selected in the table
     // TODO this may be more memory efficient with an IntPresentSet
     // note: if allSelected != -1 then this map contains those objects that are NOT selected
@@ -757,11 +791,15 @@ public class PagedTable
             throw new PageOutOfRangeException(invalidStartMessage);
         }
 
+        // the next page may be being converted already
+        awaitPrefetch();
+        slideWindow(startRow - pageSize, startRow + 2 * pageSize);
+
         try {
             if (startRow == 0) {
                 // no problem - 0 is always valid
             } else {
-                webTable.getResultElements(startRow);
+                getRow(startRow);
             }
         } catch (final IndexOutOfBoundsException e) {
             throw new PageOutOfRangeException(invalidStartMessage);
@@ -770,13 +808,134 @@ public class PagedTable
         final int max = startRow + pageSize;
         for (int i = startRow; i < max; i++) {
             try {
-                newRows.add(webTable.getResultElements(i));
+                newRows.add(getRow(i));
             } catch (final IndexOutOfBoundsException e) {
                 // we're probably at the end of the results object, so stop looping
                 break;
             }
         }
         rows = newRows;
+        if (newRows.size() == pageSize) {
+            startPrefetch(max, max + pageSize);
+        }
+    }
+
+    /**
+     * Get a row from the window, converting it from the results if it isn't there yet.
+     */
+    private MultiRow<ResultsRow<MultiRowValue<ResultElement>>> getRow(final int index) {
+        MultiRow<ResultsRow<MultiRowValue<ResultElement>>> row = window.get(index);
+        if (row == null) {
+            row = convertRow(webTable, index);
+            window.put(index, row);
+        }
+        return row;
+    }
+
+    /**
+     * Convert a row from the results.  WebTables aren't thread-safe, so this holds the lock on
+     * the table to keep the request thread and the prefetch from converting rows at once.
+     */
+    private static MultiRow<ResultsRow<MultiRowValue<ResultElement>>> convertRow(
+            final WebTable table, final int index) {
+        synchronized (table) {
+            return table.getResultElements(index);
+        }
+    }
+
+    /**
+     * Forget the converted rows outside the given range, or all of them if columns have been
+     * added since they were converted.
+     */
+    private void slideWindow(final int start, final int end) {
+        final int columnCount = webTable.getColumnsPath().size();
+        if (columnCount != windowColumnCount) {
+            window.clear();
+            windowColumnCount = columnCount;
+        }
+        for (Iterator<Integer> it = window.keySet().iterator(); it.hasNext();) {
+            final int index = it.next().intValue();
+            if (index < start || index >= end) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Convert the rows of the next page in the background, so that they are ready if the user
+     * moves on to it.  Results is already fetching the batches ahead of sequential reads.
+     */
+    private void startPrefetch(final int start, final int end) {
+        if (!webTable.isSizeEstimate() && start >= webTable.getEstimatedSize()) {
+            return;
+        }
+        final List<Integer> indexes = new ArrayList<Integer>();
+        for (int i = start; i < end; i++) {
+            if (!window.containsKey(i)) {
+                indexes.add(i);
+            }
+        }
+        if (indexes.isEmpty()) {
+            return;
+        }
+        prefetchColumnCount = windowColumnCount;
+        prefetch = PREFETCHER.submit(new Prefetch(webTable, indexes));
+    }
+
+    /**
+     * Converts rows in the background, into a map of its own so that nothing the request thread
+     * uses is touched.
+     */
+    private static class Prefetch
+        implements Callable<Map<Integer, MultiRow<ResultsRow<MultiRowValue<ResultElement>>>>>
+    {
+        private final WebTable table;
+        private final List<Integer> indexes;
+
+        Prefetch(final WebTable table, final List<Integer> indexes) {
+            this.table = table;
+            this.indexes = indexes;
+        }
+
+        @Override
+        public Map<Integer, MultiRow<ResultsRow<MultiRowValue<ResultElement>>>> call() {
+            final Map<Integer, MultiRow<ResultsRow<MultiRowValue<ResultElement>>>> prefetched
+                = new HashMap<Integer, MultiRow<ResultsRow<MultiRowValue<ResultElement>>>>();
+            for (final Integer index : indexes) {
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                try {
+                    prefetched.put(index, convertRow(table, index.intValue()));
+                } catch (final IndexOutOfBoundsException e) {
+                    break;
+                }
+            }
+            return prefetched;
+        }
+    }
+
+    /**
+     * Wait for the prefetch to finish and add its rows to the window, unless columns have been
+     * added since it started.
+     */
+    private void awaitPrefetch() {
+        if (prefetch != null) {
+            try {
+                final Map<Integer, MultiRow<ResultsRow<MultiRowValue<ResultElement>>>> prefetched
+                    = prefetch.get();
+                if (prefetchColumnCount == webTable.getColumnsPath().size()
+                        && prefetchColumnCount == windowColumnCount) {
+                    window.putAll(prefetched);
+                }
+            } catch (final ExecutionException e) {
+                // the rows will be fetched again, and any problem reported, in this thread
+                LOG.debug("Prefetching rows failed", e.getCause());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            prefetch = null;
+        }
     }
 
     /**
@@ -0,0 +1,279 @@
+package org.intermine.web.logic.widget;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.intermine.api.bag.BagContentsCache;
+import org.intermine.api.bag.SortedIdSet;
+import org.intermine.api.profile.InterMineBag;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.web.logic.widget.config.EnrichmentWidgetConfig;
+
+/**
+ * Calculates the enrichment of many lists for many widgets.  For each widget the annotations of
+ * the objects in all the lists are fetched with one query, and the sample counts of every list
+ * are summed up from those results, rather than running the sample queries once per list.  The
+ * population statistics come from the WidgetStatisticsCache, so lists with the same population
+ * share them.  Results are handed over as soon as each list has been calculated.
+ */
+public class BatchEnrichment
+{
+    private static final int BATCH_SIZE = 20000;
+
+    private final ObjectStore os;
+    private final EnrichmentOptions options;
+
+    /**
+     * Receives the results of the batch, one list and widget at a time.
+     */
+    public interface ResultHandler
+    {
+        /**
+         * @param bag the list
+         * @param config the widget
+         * @param results the enrichment of the list, with error correction applied
+         */
+        void handle(InterMineBag bag, EnrichmentWidgetConfig config, EnrichmentResults results);
+
+        /**
+         * @param bag the list
+         * @param config the widget
+         * @param message why the widget couldn't be calculated for the list
+         */
+        void error(InterMineBag bag, EnrichmentWidgetConfig config, String message);
+    }
+
+    /**
+     * @param os the ObjectStore to query
+     * @param options the maximum p-value, the error correction and the filter to use for all
+     * the widgets.  If there is no filter, each widget uses its default one
+     */
+    public BatchEnrichment(ObjectStore os, EnrichmentOptions options) {
+        this.os = os;
+        this.options = options;
+    }
+
+    /**
+     * Calculate the enrichment of every list for every widget.
+     * @param bags the lists
+     * @param widgets the enrichment widgets
+     * @param handler receives the results
+     */
+    public void process(Collection<InterMineBag> bags, Collection<EnrichmentWidgetConfig> widgets,
+            ResultHandler handler) {
+        for (EnrichmentWidgetConfig config : widgets) {
+            // lists with different filters need different queries
+            Map<String, List<InterMineBag>> bagsByFilter =
+                new LinkedHashMap<String, List<InterMineBag>>();
+            for (InterMineBag bag : bags) {
+                if (!isValidBagType(bag, config)) {
+                    handler.error(bag, config, "The " + config.getId() + " enrichment query only"
+                            + " accepts lists of " + config.getTypeClass());
+                    continue;
+                }
+                String filter = getFilter(bag, config);
+                List<InterMineBag> group = bagsByFilter.get(filter);
+                if (group == null) {
+                    group = new ArrayList<InterMineBag>();
+                    bagsByFilter.put(filter, group);
+                }
+                group.add(bag);
+            }
+            for (Map.Entry<String, List<InterMineBag>> entry : bagsByFilter.entrySet()) {
+                process(entry.getValue(), config, entry.getKey(), handler);
+            }
+        }
+    }
+
+    private void process(List<InterMineBag> bags, EnrichmentWidgetConfig config, String filter,
+            ResultHandler handler) {
+        // the ids of each list, as sorted int arrays shared with the bag contents cache
+        BagContentsCache contentsCache = BagContentsCache.getInstance(os);
+        List<SortedIdSet> contents = new ArrayList<SortedIdSet>();
+        for (InterMineBag bag : bags) {
+            contents.add(contentsCache.getContents(bag));
+        }
+        Membership membership = new Membership(contents);
+
+        List<Map<String, Integer>> sampleCounts = new ArrayList<Map<String, Integer>>();
+        List<Set<Integer>> analysed = new ArrayList<Set<Integer>>();
+        for (int i = 0; i < bags.size(); i++) {
+            sampleCounts.add(new HashMap<String, Integer>());
+            analysed.add(new HashSet<Integer>());
+        }
+        Map<String, String> labels = new HashMap<String, String>();
+
+        EnrichmentWidgetImplLdr ldr = new EnrichmentWidgetImplLdr(null, null, os, config, filter,
+                false, null, null, null);
+        Results results = os.execute(ldr.getSampleMembersQuery(bags), BATCH_SIZE, true, true,
+                true);
+        for (Object o : results) {
+            @SuppressWarnings("rawtypes")
+            ResultsRow row = (ResultsRow) o;
+            Integer id = (Integer) row.get(0);
+            // an identifier for an attribute value, e.g. a department name
+            String identifier = String.valueOf(row.get(1));
+            labels.put(identifier, String.valueOf(row.get(row.size() - 1)));
+            for (int i : membership.getBags(id.intValue())) {
+                Map<String, Integer> counts = sampleCounts.get(i);
+                Integer count = counts.get(identifier);
+                counts.put(identifier, (count == null) ? 1 : count + 1);
+                analysed.get(i).add(id);
+            }
+        }
+
+        for (int i = 0; i < bags.size(); i++) {
+            InterMineBag bag = bags.get(i);
+            EnrichmentWidgetImplLdr populationLdr = new EnrichmentWidgetImplLdr(bag, null, os,
+                    config, filter, false, null, null, null);
+            EnrichmentInput input = new SampleInput(new EnrichmentInputWidgetLdr(os,
+                    populationLdr), sampleCounts.get(i), labels, analysed.get(i).size());
+            try {
+                handler.handle(bag, config, EnrichmentCalculation.calculate(input,
+                        options.getMaxPValue(), options.getCorrection(), false, null));
+            } catch (IllegalArgumentException e) {
+                handler.error(bag, config, e.getMessage());
+            }
+        }
+    }
+
+    private boolean isValidBagType(InterMineBag bag, EnrichmentWidgetConfig config) {
+        ClassDescriptor bagType = os.getModel().getClassDescriptorByName(bag.getType());
+        ClassDescriptor widgetType = os.getModel().getClassDescriptorByName(
+                config.getTypeClass());
+        if (bagType == null || widgetType == null) {
+            return false;
+        }
+        return "InterMineObject".equals(widgetType.getName()) || bagType.equals(widgetType)
+            || bagType.getAllSuperDescriptors().contains(widgetType);
+    }
+
+    private String getFilter(InterMineBag bag, EnrichmentWidgetConfig config) {
+        if (StringUtils.isNotBlank(options.getFilter())) {
+            return options.getFilter();
+        }
+        List<String> filters = config.getFiltersValues(os, bag, null);
+        return (filters == null || filters.isEmpty()) ? null : filters.get(0);
+    }
+
+    /**
+     * Which lists each object is in, held as (id, list index) pairs packed into longs and sorted,
+     * so that each result row only visits the lists that contain its object rather than checking
+     * every list.  This takes 8 bytes for each id of each list, instead of a map entry per object.
+     */
+    private static final class Membership
+    {
+        private final long[] pairs;
+
+        Membership(List<SortedIdSet> contents) {
+            int size = 0;
+            for (SortedIdSet ids : contents) {
+                size += ids.size();
+            }
+            pairs = new long[size];
+            int n = 0;
+            for (int i = 0; i < contents.size(); i++) {
+                for (Integer id : contents.get(i).asList()) {
+                    pairs[n++] = pair(id.intValue(), i);
+                }
+            }
+            // the id is in the high half, so this sorts by id and then by list
+            Arrays.sort(pairs);
+        }
+
+        /**
+         * @param id an object id
+         * @return the indexes of the lists containing the object, in order
+         */
+        int[] getBags(int id) {
+            int from = Arrays.binarySearch(pairs, pair(id, 0));
+            if (from < 0) {
+                from = -from - 1;
+            }
+            int to = from;
+            while (to < pairs.length && (int) (pairs[to] >> 32) == id) {
+                to++;
+            }
+            int[] bagIndexes = new int[to - from];
+            for (int i = 0; i < bagIndexes.length; i++) {
+                bagIndexes[i] = (int) pairs[from + i];
+            }
+            return bagIndexes;
+        }
+
+        private static long pair(int id, int bagIndex) {
+            return ((long) id << 32) | bagIndex;
+        }
+    }
+
+    /**
+     * The sample of one list, counted from the batch results, with the population from the
+     * widget loader of the list.
+     */
+    private static final class SampleInput implements EnrichmentInput
+    {
+        private final EnrichmentInput population;
+        private final Map<String, Integer> sampleCounts;
+        private final Map<String, String> labels;
+        private final int sampleSize;
+
+        SampleInput(EnrichmentInput population, Map<String, Integer> sampleCounts,
+                Map<String, String> labels, int sampleSize) {
+            this.population = population;
+            this.sampleCounts = sampleCounts;
+            this.labels = labels;
+            this.sampleSize = sampleSize;
+        }
+
+        @Override
+        public PopulationInfo getPopulationInfo() {
+            return population.getPopulationInfo();
+        }
+
+        @Override
+        public int getSampleSize() {
+            return sampleSize;
+        }
+
+        @Override
+        public Map<String, Integer> getAnnotatedCountsInSample() {
+            return sampleCounts;
+        }
+
+        @Override
+        public Map<String, PopulationInfo> getAnnotatedCountsInPopulation() {
+            return population.getAnnotatedCountsInPopulation();
+        }
+
+        @Override
+        public Map<String, String> getLabels() {
+            return labels;
+        }
+
+        @Override
+        public int getTestCount() {
+            return population.getAnnotatedCountsInPopulation().size();
+        }
+    }
+}
@@ -20,7 +20,6 @@ import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
-import org.intermine.util.CacheMap;
 
 /**
  * Executes queries and summarises data for a specific EnrichmentWidgetLdr ready for calculation.
@@ -37,19 +36,6 @@ public class EnrichmentInputWidgetLdr implements EnrichmentInput
     private Map<String, String> labels = null;
     private static final int BATCH_SIZE = 20000;
 
-    // population queries that don't involve bags can be cached between widget executions
-    private static CacheMap<String, PopulationInfo> populationCache = new CacheMap<String,
-        PopulationInfo>();
-    private static CacheMap<String, Map<String, PopulationInfo>> populationCountsCache =
-        new CacheMap<String, Map<String, PopulationInfo>>();
-
-    // TODO population counts and sizes are no longer cached
-
-    // TODO make a static cache from populate query to size and populationCounts maps,
-    // this should only have a few entries per widget depending on the organism composition
-    // of bags and other parameters, e.g. GO namespace.  But log cache size for a bit to make
-    // sure.  This should be a CacheMap, old cache was just a standard Map.
-
     /**
      * Construct with an EnrichmentWidgetLdr that contains queries needed for specific widget tests.
      * This class executes queries and summarises data ready for calculation.
@@ -65,8 +51,10 @@ public class EnrichmentInputWidgetLdr implements EnrichmentInput
     public Map<String, PopulationInfo> getAnnotatedCountsInPopulation() {
         if (populationCounts == null) {
             Query query = ldr.getPopulationQuery(false);
+            WidgetStatisticsCache cache = getCache();
+            String key = query.toString();
 
-            populationCounts = populationCountsCache.get(query.toString());
+            populationCounts = (cache == null) ? null : cache.getPopulationCounts(key);
             if (populationCounts == null) {
                 populationCounts = new HashMap<String, PopulationInfo>();
 
@@ -92,7 +80,9 @@ public class EnrichmentInputWidgetLdr implements EnrichmentInput
                     }
                     populationCounts.put(identifier, new PopulationInfo(count, geneLengthAverage));
                 }
-                populationCountsCache.put(query.toString(), populationCounts);
+                if (cache != null) {
+                    cache.putPopulationCounts(key, populationCounts);
+                }
             }
         }
         return populationCounts;
@@ -138,7 +128,9 @@ public class EnrichmentInputWidgetLdr implements EnrichmentInput
     @Override
     public PopulationInfo getPopulationInfo() {
         Query q = ldr.getPopulationQuery(true);
-        PopulationInfo populationInfo = populationCache.get(q.toString());
+        WidgetStatisticsCache cache = getCache();
+        String key = q.toString();
+        PopulationInfo populationInfo = (cache == null) ? null : cache.getPopulationInfo(key);
         if (populationInfo == null) {
             int size = 0;
             float extraAttribute = 0;
@@ -152,7 +144,9 @@ public class EnrichmentInputWidgetLdr implements EnrichmentInput
                 }
             }
             populationInfo = new PopulationInfo(size, extraAttribute);
-            populationCache.put(q.toString(), populationInfo);
+            if (cache != null) {
+                cache.putPopulationInfo(key, populationInfo);
+            }
         }
         return populationInfo;
     }
@@ -169,6 +163,11 @@ public class EnrichmentInputWidgetLdr implements EnrichmentInput
         return populationCounts.keySet().size();
     }
 
+    // a background population list can change, so its statistics aren't cached
+    private WidgetStatisticsCache getCache() {
+        return ldr.isPopulationCacheable() ? WidgetStatisticsCache.getInstance(os) : null;
+    }
+
     private int calcTotal(Query q) {
         Object[] o = os.executeSingleton(q).toArray();
         if (o.length == 0) {
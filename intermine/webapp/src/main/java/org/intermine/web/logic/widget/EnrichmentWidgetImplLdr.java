@@ -14,6 +14,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 import org.intermine.api.profile.InterMineBag;
 import org.intermine.metadata.ConstraintOp;
@@ -50,6 +51,11 @@ public class EnrichmentWidgetImplLdr extends WidgetLdr
     private boolean extraCorrectionCoefficient;
     private CorrectionCoefficient correctionCoefficient;
     private String populationIds;
+    // the values of list constraints, e.g. the organisms of the genes in the list
+    private Map<String, Collection<Object>> listConstraintValues =
+        new HashMap<String, Collection<Object>>();
+    // the lists of a batch, for the members query
+    private Collection<InterMineBag> sampleBags;
 
     /**
      * Construct an Enrichment widget loader, which performs the queries needed for
@@ -140,7 +146,14 @@ public class EnrichmentWidgetImplLdr extends WidgetLdr
 
         QueryField qfStartClassId = new QueryField(startClass, "id");
         if (!action.startsWith("population")) {
-            if (bag != null) {
+            if (sampleBags != null) {
+                ConstraintSet inAnyBag = new ConstraintSet(ConstraintOp.OR);
+                for (InterMineBag sampleBag : sampleBags) {
+                    inAnyBag.addConstraint(new BagConstraint(qfStartClassId, ConstraintOp.IN,
+                            sampleBag.getOsb()));
+                }
+                cs.addConstraint(inAnyBag);
+            } else if (bag != null) {
                 cs.addConstraint(new BagConstraint(qfStartClassId, ConstraintOp.IN, bag.getOsb()));
             } else if (ids != null) {
                 // use list of IDs instead of bag
@@ -195,6 +208,14 @@ public class EnrichmentWidgetImplLdr extends WidgetLdr
         } else if ("analysed".equals(action)) {
             subQ.addToSelect(qfStartClassId);
             return subQ;
+        // members query: the annotations of every object in any of the lists
+        } else if ("members".equals(action)) {
+            subQ.addToSelect(qfStartClassId);
+            subQ.addToSelect(qfEnrichId);
+            if (qfEnrichId != qfEnrich) {
+                subQ.addToSelect(qfEnrich);
+            }
+            return subQ;
         // total query:  only return the count of unique genes
         } else if (action.endsWith("Total")) {
             subQ.addToSelect(qfStartClassId);
@@ -280,10 +301,11 @@ public class EnrichmentWidgetImplLdr extends WidgetLdr
                             csSubQuery.addConstraint(new BagConstraint(qfStartClassId,
                                     ConstraintOp.IN, idsCollection));
                         }
-                        QueryField outerQFConstraint = new QueryField(subQuery, qfConstraint);
-                        cs.addConstraint(new SimpleConstraint(qfConstraint, ConstraintOp.EQUALS,
-                                                              outerQFConstraint));
-                        query.addFrom(subQuery);
+                        // constrain the population to the values in the list rather than joining
+                        // to the list, so that the population query and its statistics can be
+                        // shared by every list with the same values
+                        cs.addConstraint(new BagConstraint(qfConstraint, ConstraintOp.IN,
+                                getListConstraintValues(pc.getPath(), subQuery)));
                     }
                 } else {
                     if (queryValue != null) {
@@ -334,6 +356,25 @@ public class EnrichmentWidgetImplLdr extends WidgetLdr
         }
     }
 
+    private Collection<Object> getListConstraintValues(String path, Query subQuery) {
+        Collection<Object> values = listConstraintValues.get(path);
+        if (values == null) {
+            subQuery.setDistinct(true);
+            values = new LinkedHashSet<Object>(os.executeSingleton(subQuery));
+            listConstraintValues.put(path, values);
+        }
+        return values;
+    }
+
+    /**
+     * The statistics of the population can be kept between widget executions unless the
+     * population is a list given by the user, which may change.
+     * @return true if the population doesn't depend on a background population list
+     */
+    public boolean isPopulationCacheable() {
+        return populationBag == null;
+    }
+
     /**
      * @param calcTotal whether or not to calculate the total number of annotated objects in the
      * sample
@@ -354,6 +395,22 @@ public class EnrichmentWidgetImplLdr extends WidgetLdr
         return getQuery(actionLocal, null);
     }
 
+    /**
+     * Returns a query for the annotations of the objects in several lists at once, so that the
+     * sample counts of each list can be worked out from one set of results.  The rows are the
+     * object id, the enrichment identifier and, if it's different, the enrichment value.
+     * @param bags the lists to analyse
+     * @return the query for the annotations of all the objects in the lists
+     */
+    public Query getSampleMembersQuery(Collection<InterMineBag> bags) {
+        sampleBags = bags;
+        try {
+            return getQuery("members", null);
+        } finally {
+            sampleBags = null;
+        }
+    }
+
     /**
      * @param keys the keys to the records to be exported
      * @return the query representing the records to be exported
@@ -0,0 +1,131 @@
+package org.intermine.web.logic.widget;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * Tail probabilities of the hypergeometric distribution, calculated in log space with primitive
+ * doubles.  The log factorials are kept in a table shared by all calculations, so that testing
+ * every term of an enrichment widget doesn't create a distribution object per term.
+ */
+public final class Hypergeometric
+{
+    private static final int INITIAL_TABLE_SIZE = 1024;
+    // stop summing the tail once the terms no longer change the result
+    private static final double EPSILON = 1e-17;
+
+    private static volatile double[] logFactorials = buildTable(new double[0], INITIAL_TABLE_SIZE);
+
+    private Hypergeometric() {
+        // don't
+    }
+
+    /**
+     * The probability of drawing at least sampleCount annotated items in a sample taken from a
+     * population, ie. the p-value of a one-sided hypergeometric test for over-representation.
+     *
+     * @param populationSize the number of items in the population, N
+     * @param populationCount the number of items in the population with the annotation, M
+     * @param sampleSize the number of items in the sample, n
+     * @param sampleCount the number of items in the sample with the annotation, k
+     * @return P(X &gt;= k)
+     */
+    public static double upperCumulativeProbability(int populationSize, int populationCount,
+            int sampleSize, int sampleCount) {
+        int min = Math.max(0, sampleSize - (populationSize - populationCount));
+        int max = Math.min(populationCount, sampleSize);
+        if (sampleCount <= min) {
+            return 1.0;
+        }
+        if (sampleCount > max) {
+            return 0.0;
+        }
+        int others = populationSize - populationCount - sampleSize;
+        int mode = (int) (((double) sampleSize + 1) * (populationCount + 1) / (populationSize + 2));
+        if (sampleCount > mode) {
+            // the terms get smaller from k upwards, sum them relative to P(X = k)
+            double term = 1.0;
+            double sum = 1.0;
+            for (int i = sampleCount; i < max; i++) {
+                term *= ((double) (populationCount - i) * (sampleSize - i))
+                    / ((double) (i + 1) * (others + i + 1));
+                sum += term;
+                if (term < sum * EPSILON) {
+                    break;
+                }
+            }
+            double p = Math.exp(logProbability(populationSize, populationCount, sampleSize,
+                    sampleCount) + Math.log(sum));
+            return Math.min(1.0, p);
+        }
+        // the upper tail is large, so work out 1 - P(X < k) from k - 1 downwards instead
+        double term = 1.0;
+        double sum = 1.0;
+        for (int i = sampleCount - 1; i > min; i--) {
+            term *= ((double) i * (others + i))
+                / ((double) (populationCount - i + 1) * (sampleSize - i + 1));
+            sum += term;
+            if (term < sum * EPSILON) {
+                break;
+            }
+        }
+        double lower = Math.exp(logProbability(populationSize, populationCount, sampleSize,
+                sampleCount - 1) + Math.log(sum));
+        return Math.max(0.0, 1.0 - lower);
+    }
+
+    /**
+     * @param populationSize the number of items in the population, N
+     * @param populationCount the number of items in the population with the annotation, M
+     * @param sampleSize the number of items in the sample, n
+     * @param sampleCount the number of items in the sample with the annotation, k
+     * @return log P(X = k)
+     */
+    static double logProbability(int populationSize, int populationCount, int sampleSize,
+            int sampleCount) {
+        return logBinomial(populationCount, sampleCount)
+            + logBinomial(populationSize - populationCount, sampleSize - sampleCount)
+            - logBinomial(populationSize, sampleSize);
+    }
+
+    private static double logBinomial(int n, int k) {
+        return logFactorial(n) - logFactorial(k) - logFactorial(n - k);
+    }
+
+    /**
+     * @param n a non-negative integer
+     * @return log(n!)
+     */
+    static double logFactorial(int n) {
+        double[] table = logFactorials;
+        if (n >= table.length) {
+            table = growTable(n + 1);
+        }
+        return table[n];
+    }
+
+    private static synchronized double[] growTable(int size) {
+        double[] table = logFactorials;
+        if (size > table.length) {
+            table = buildTable(table, Math.max(size, table.length * 2));
+            logFactorials = table;
+        }
+        return table;
+    }
+
+    private static double[] buildTable(double[] from, int size) {
+        double[] table = new double[size];
+        System.arraycopy(from, 0, table, 0, from.length);
+        for (int i = Math.max(1, from.length); i < size; i++) {
+            table[i] = table[i - 1] + Math.log(i);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,84 @@
+package org.intermine.web.logic.widget;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.util.CacheMap;
+
+/**
+ * Population statistics of enrichment widgets, kept between widget executions.  The population
+ * of a widget only depends on the widget, the organisms and the filter unless the user gives a
+ * background population list, so the term counts are only worked out the first time they're
+ * needed.  Entries are keyed by the IQL of the population query, which includes all of these.
+ */
+final class WidgetStatisticsCache
+{
+    private static final Map<ObjectStore, WidgetStatisticsCache> INSTANCES =
+        new HashMap<ObjectStore, WidgetStatisticsCache>();
+
+    private final Map<String, PopulationInfo> totals = Collections.synchronizedMap(
+            new CacheMap<String, PopulationInfo>("enrichment population totals"));
+    private final Map<String, Map<String, PopulationInfo>> counts = Collections.synchronizedMap(
+            new CacheMap<String, Map<String, PopulationInfo>>("enrichment population counts"));
+
+    private WidgetStatisticsCache() {
+        // use getInstance()
+    }
+
+    /**
+     * @param os the ObjectStore the widgets query
+     * @return the cache of population statistics for the ObjectStore
+     */
+    static synchronized WidgetStatisticsCache getInstance(ObjectStore os) {
+        WidgetStatisticsCache cache = INSTANCES.get(os);
+        if (cache == null) {
+            cache = new WidgetStatisticsCache();
+            INSTANCES.put(os, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * @param query the IQL of the population total query
+     * @return the size of the population, or null if it isn't cached
+     */
+    PopulationInfo getPopulationInfo(String query) {
+        return totals.get(query);
+    }
+
+    /**
+     * @param query the IQL of the population total query
+     * @param info the size of the population
+     */
+    void putPopulationInfo(String query, PopulationInfo info) {
+        totals.put(query, info);
+    }
+
+    /**
+     * @param query the IQL of the population query
+     * @return the count of items in the population for each term, or null if they aren't cached
+     */
+    Map<String, PopulationInfo> getPopulationCounts(String query) {
+        return counts.get(query);
+    }
+
+    /**
+     * @param query the IQL of the population query
+     * @param populationCounts the count of items in the population for each term
+     */
+    void putPopulationCounts(String query, Map<String, PopulationInfo> populationCounts) {
+        counts.put(query, Collections.unmodifiableMap(populationCounts));
+    }
+}
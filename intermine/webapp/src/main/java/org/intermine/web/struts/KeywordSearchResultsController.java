@@ -38,7 +38,7 @@ import org.intermine.api.searchengine.KeywordSearchResults;
 import org.intermine.api.searchengine.KeywordSearchHandler;
 import org.intermine.api.profile.InterMineBag;
 import org.intermine.api.profile.Profile;
-import org.intermine.api.searchengine.solr.SolrKeywordSearchHandler;
+import org.intermine.api.searchengine.SearchEngineFactory;
 import org.intermine.web.logic.config.WebConfig;
 import org.intermine.web.logic.session.SessionMethods;
 import org.intermine.web.search.KeywordSearchResult;
@@ -122,7 +122,8 @@ public class KeywordSearchResultsController extends TilesAction
 //        Collection<KeywordSearchFacet> searchResultsFacets = results.getFacets();
 //        totalHits = results.getTotalHits();
 
-        KeywordSearchHandler keywordSearchHandler = new SolrKeywordSearchHandler();
+        KeywordSearchHandler keywordSearchHandler
+                = SearchEngineFactory.getKeywordSearchHandler(im.getObjectStore());
 
         KeywordSearchResults results
                 = keywordSearchHandler.doKeywordSearch(im, searchTerm, facetValues, ids, offset);
@@ -29,7 +29,7 @@ import org.intermine.api.InterMineAPI;
 import org.intermine.api.profile.InterMineBag;
 import org.intermine.api.profile.Profile;
 import org.intermine.api.searchengine.KeywordSearchHandler;
-import org.intermine.api.searchengine.solr.SolrKeywordSearchHandler;
+import org.intermine.api.searchengine.SearchEngineFactory;
 import org.intermine.api.util.NameUtil;
 import org.intermine.web.logic.session.SessionMethods;
 import org.json.JSONArray;
@@ -73,7 +73,8 @@ public class SaveFromIdsToBagAction extends InterMineAction
                 Map<String, String> facetMap = jsonToJava(jsonRequest);
                 int offset = 0;
 
-                KeywordSearchHandler keywordSearchHandler = new SolrKeywordSearchHandler();
+                KeywordSearchHandler keywordSearchHandler
+                        = SearchEngineFactory.getKeywordSearchHandler(im.getObjectStore());
 
                 idSet = keywordSearchHandler.
                         getObjectIdsFromSearch(im, searchTerm, offset, facetMap,
@@ -15,7 +15,7 @@ import org.apache.solr.client.solrj.response.FacetField;
 import org.intermine.api.InterMineAPI;
 import org.intermine.api.searchengine.KeywordSearchFacet;
 import org.intermine.api.searchengine.KeywordSearchHandler;
-import org.intermine.api.searchengine.solr.SolrKeywordSearchHandler;
+import org.intermine.api.searchengine.SearchEngineFactory;
 import org.intermine.webservice.server.core.JSONService;
 
 import java.util.ArrayList;
@@ -46,7 +46,8 @@ public class FacetListService extends JSONService
     @Override
     protected void execute() throws Exception {
 
-        KeywordSearchHandler searchHandler = new SolrKeywordSearchHandler();
+        KeywordSearchHandler searchHandler
+                = SearchEngineFactory.getKeywordSearchHandler(im.getObjectStore());
 
         //empty Map to pass to the method
         Map<String, String> facetValues = new HashMap<String, String>();
@@ -18,7 +18,7 @@ import org.intermine.api.searchengine.KeywordSearchFacet;
 import org.intermine.api.searchengine.KeywordSearchFacetData;
 import org.intermine.api.searchengine.KeywordSearchHandler;
 import org.intermine.api.searchengine.KeywordSearchPropertiesManager;
-import org.intermine.api.searchengine.solr.SolrKeywordSearchHandler;
+import org.intermine.api.searchengine.SearchEngineFactory;
 import org.intermine.webservice.server.core.JSONService;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -61,7 +61,8 @@ public class FacetService extends JSONService
 
         Vector<KeywordSearchFacetData> facets = keywordSearchPropertiesManager.getFacets();
 
-        KeywordSearchHandler searchHandler = new SolrKeywordSearchHandler();
+        KeywordSearchHandler searchHandler
+                = SearchEngineFactory.getKeywordSearchHandler(im.getObjectStore());
 
         String searchTerm = request.getParameter("q");
 
@@ -39,7 +39,9 @@ public enum Format {
     /** JSON Table format constant **/
     TABLE("application/json;format=table"),
     /** JSON Row format constant **/
-    ROWS("application/json;format=rows");
+    ROWS("application/json;format=rows"),
+    /** Binary columnar format, for bulk exports **/
+    COLUMNAR("application/x-intermine-columnar");
 
     /** The basic formats: HTML, TEXT, XML, JSON **/
     public static final Set<Format> BASIC_FORMATS = new HashSet<Format>(Arrays.asList(
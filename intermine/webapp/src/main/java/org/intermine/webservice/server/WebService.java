@@ -55,6 +55,8 @@ import org.intermine.webservice.server.exceptions.ServiceException;
 import org.intermine.webservice.server.exceptions.ServiceForbiddenException;
 import org.intermine.webservice.server.exceptions.UnauthorizedException;
 import org.intermine.webservice.server.output.CSVFormatter;
+import org.intermine.webservice.server.output.CompressingOutputStream;
+import org.intermine.webservice.server.output.CompressingOutputStream.Encoding;
 import org.intermine.webservice.server.output.HTMLTableFormatter;
 import org.intermine.webservice.server.output.JSONFormatter;
 import org.intermine.webservice.server.output.JSONObjectFormatter;
@@ -116,6 +118,10 @@ public abstract class WebService
     private static final String WS_HEADERS_PREFIX = "ws.response.header";
     private static final String BOTS = "ws.robots";
     private static final String WEB_SERVICE_DISABLED_PROPERTY = "webservice.disabled";
+    private static final String COMPRESSION_PROPERTY = "ws.compression";
+    private static final String COMPRESSION_BUFFER_PROPERTY = "ws.compression.buffersize";
+    private static final String COMPRESSION_FLUSH_PROPERTY = "ws.compression.flushsize";
+    private static final String RESPONSE_BUFFER_PROPERTY = "ws.response.buffersize";
 
     /**
      * The servlet request.
@@ -142,6 +148,7 @@ public abstract class WebService
 
     private ApiPermission permission = ProfileManager.getDefaultPermission(ANON_PROFILE);
     private boolean initialised = false;
+    private CompressingOutputStream compressor = null;
     private String propertyNameSpace = null;
 
     /**
@@ -363,6 +370,17 @@ public abstract class WebService
             logError(t, "Error flushing", 500);
         }
 
+        if (compressor != null) {
+            // in case the output didn't close the stream, which would leave it unfinished
+            try {
+                compressor.close();
+                LOG.debug("Compressed response to " + request.getRequestURI() + ", "
+                        + compressor);
+            } catch (Throwable t) {
+                LOG.error("Error finishing compressed response", t);
+            }
+        }
+
         try {
             cleanUp();
         } catch (Throwable t) {
@@ -798,12 +816,14 @@ public abstract class WebService
         OutputStream os;
         try {
             // set reasonable buffer size
-            response.setBufferSize(8 * 1024);
+            response.setBufferSize(getIntProperty(RESPONSE_BUFFER_PROPERTY, 8 * 1024));
             os = response.getOutputStream();
             if (isGzip()) {
                 os = new GZIPOutputStream(os);
             } else if (isZip()) {
                 os = new ZipOutputStream(new BufferedOutputStream(os));
+            } else {
+                os = negotiateCompression(os);
             }
             out = new PrintWriter(os);
         } catch (IOException e) {
@@ -872,9 +892,24 @@ public abstract class WebService
                     ResponseUtil.setJSONHeader(response, "result.json", formatIsJSONP());
                 }
                 break;
+            case COLUMNAR:
+                // a binary format, which only a streaming output can write
+                output = null;
+                filename += ".imcol";
+                if (isUncompressed()) {
+                    ResponseUtil.setCustomTypeHeader(response, filename,
+                            Format.COLUMNAR.getContentType());
+                }
+                break;
             default:
                 output = getDefaultOutput(out, os, separator);
         }
+        Output streamingOutput = makeStreamingOutput(os, separator);
+        if (streamingOutput != null) {
+            output = streamingOutput;
+        } else if (output == null) {
+            throw new NotAcceptableException();
+        }
         if (!isUncompressed()) {
             ResponseUtil.setGzippedHeader(response, filename + getExtension());
             if (isZip()) {
@@ -887,6 +922,42 @@ public abstract class WebService
         }
     }
 
+    /**
+     * Compress the response if the client accepts a content coding we can write, unless the
+     * user has asked for a compressed file instead or compression has been turned off.  Unlike
+     * the compress parameter this is invisible to the user, the client undoes it as the
+     * response arrives.
+     */
+    private OutputStream negotiateCompression(OutputStream os) throws IOException {
+        if ("false".equalsIgnoreCase(webProperties.getProperty(COMPRESSION_PROPERTY))) {
+            return os;
+        }
+        response.addHeader("Vary", "Accept-Encoding");
+        Encoding encoding = CompressingOutputStream.negotiate(
+                request.getHeader("Accept-Encoding"));
+        if (encoding == null) {
+            return os;
+        }
+        response.setHeader("Content-Encoding", encoding.getToken());
+        compressor = new CompressingOutputStream(os, encoding,
+                getIntProperty(COMPRESSION_BUFFER_PROPERTY, 8 * 1024),
+                getIntProperty(COMPRESSION_FLUSH_PROPERTY, 64 * 1024));
+        return compressor;
+    }
+
+    private int getIntProperty(String name, int defaultValue) {
+        String value = webProperties.getProperty(name);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            LOG.warn("Ignoring invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
     /**
      * @return The line separator for the client's platform.
      */
@@ -923,6 +994,19 @@ public abstract class WebService
         }
     }
 
+    /**
+     * Make an output that writes straight to the response's output stream rather than through
+     * its PrintWriter, for services whose results can be written by a StreamingFormatter.  The
+     * headers of the response have been set for the format by the time this is called.
+     *
+     * @param os The response's output stream.
+     * @param separator The client's line separator.
+     * @return An Output, or null to use the usual output for the format (the default).
+     */
+    protected Output makeStreamingOutput(OutputStream os, String separator) {
+        return null;
+    }
+
     /**
      * Make the default output for this service.
      *
@@ -66,6 +66,9 @@ public class WebServiceRequestParser
     /** Value of parameter when user wants comma separated output to be returned. **/
     public static final String FORMAT_PARAMETER_CSV = "csv";
 
+    /** Value of parameter when user wants the binary columnar format to be returned. **/
+    public static final String FORMAT_PARAMETER_COLUMNAR = "columnar";
+
     /** Value of parameter when user wants comma separated output to be returned. **/
     public static final String FORMAT_PARAMETER_COUNT = "count";
 
@@ -202,6 +205,7 @@ public class WebServiceRequestParser
             put(FORMAT_PARAMETER_TAB, Format.TSV);
             put(FORMAT_PARAMETER_TSV, Format.TSV);
             put(FORMAT_PARAMETER_CSV, Format.CSV);
+            put(FORMAT_PARAMETER_COLUMNAR, Format.COLUMNAR);
             put(FORMAT_PARAMETER_TEXT, Format.TEXT);
             put(FORMAT_PARAMETER_COUNT, Format.TEXT);
             put(FORMAT_PARAMETER_JSON_OBJ, Format.OBJECTS);
@@ -318,6 +322,8 @@ public class WebServiceRequestParser
                         }
                         areAcceptable.add(Format.JSON);
                         continue;
+                    } else if (Format.COLUMNAR.getContentType().equals(type)) {
+                        areAcceptable.add(Format.COLUMNAR);
                     } else {
                         areAcceptable.add(Format.UNKNOWN);
                     }
@@ -10,23 +10,36 @@ package org.intermine.webservice.server.core;
  *
  */
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A class for making sure that certain resources don't get hammered.
+ *
+ * Each requester has a sliding window over the period, made of a fixed number of slots that
+ * each count the requests made in a fraction of the period, so checking and recording a request
+ * take the same time however many requests have been made.  A request is counted for at least
+ * the period and at most one slot longer.  Requesters are only locked against themselves, and
+ * those that haven't made a request for a period are forgotten.
+ *
  * @author Alex Kalderimis
  */
 public class RateLimitHistory implements Predicate<String>
 {
+    private static final int SLOTS = 16;
+
+    private static final int ACCEPTED = 0;
+    private static final int REFUSED = 1;
+    private static final int EXPIRED = 2;
 
-    private final Map<String, List<Long>> historyOfRequests = new HashMap<String, List<Long>>();
+    private final ConcurrentMap<String, Window> windows = new ConcurrentHashMap<String, Window>();
+    private final AtomicLong lastExpiry = new AtomicLong(0);
 
-    private int periodLength;
-    private int maxRequests;
+    private final long periodLength;
+    private final long slotLength;
+    private final int maxRequests;
 
     /**
      * Constructor
@@ -34,28 +47,16 @@ public class RateLimitHistory implements Predicate<String>
      * @param maxRequestsPerPeriod The maximum number of requests in any given period.
      */
     public RateLimitHistory(int periodInSeconds, int maxRequestsPerPeriod) {
-        periodLength = periodInSeconds;
+        periodLength = periodInSeconds * 1000L;
+        slotLength = Math.max(1, periodLength / SLOTS);
         maxRequests = maxRequestsPerPeriod;
     }
 
-    private synchronized List<Long> getRequestHistory(String id) {
-        List<Long> requestHistory = new ArrayList<Long>();
-        if (id != null) {
-            if (historyOfRequests.containsKey(id)) {
-                requestHistory = historyOfRequests.get(id);
-                // Cull all records of requests made outside time period.
-                for (Iterator<Long> it = requestHistory.iterator(); it.hasNext();) {
-                    Long timestamp = it.next();
-                    if (timestamp == null
-                            || System.currentTimeMillis() - timestamp > (periodLength * 1000)) {
-                        it.remove();
-                    }
-                }
-            } else {
-                historyOfRequests.put(id, requestHistory);
-            }
-        }
-        return requestHistory;
+    /**
+     * @return The current time in milliseconds.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
     }
 
     /**
@@ -63,9 +64,11 @@ public class RateLimitHistory implements Predicate<String>
      * @param id The ID to key their requests against.
      * @return true or false.
      */
-    public synchronized boolean isWithinLimit(String id) {
-        List<Long> requests = getRequestHistory(id);
-        return requests.size() < maxRequests;
+    public boolean isWithinLimit(String id) {
+        long now = currentTimeMillis();
+        expireIdle(now);
+        Window window = (id == null) ? null : windows.get(id);
+        return (window == null ? 0 : window.count(now)) < maxRequests;
     }
 
     @Override
@@ -78,9 +81,115 @@ public class RateLimitHistory implements Predicate<String>
      * @param id The id to key this request against.
      */
     public void recordRequest(String id) {
-        List<Long> requests = getRequestHistory(id);
-        synchronized (requests) {
-            requests.add(Long.valueOf(System.currentTimeMillis()));
+        if (id != null) {
+            record(id, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Record a request if this requester is within their limit, as one step, so that
+     * concurrent requests can't both get the last place.
+     * @param id The id to key this request against.
+     * @return true if the request was within the limit and has been recorded.
+     */
+    public boolean tryRecordRequest(String id) {
+        if (id == null) {
+            return maxRequests > 0;
+        }
+        return record(id, maxRequests);
+    }
+
+    /**
+     * @return The number of requesters currently being tracked.
+     */
+    public int size() {
+        return windows.size();
+    }
+
+    private boolean record(String id, int limit) {
+        long now = currentTimeMillis();
+        expireIdle(now);
+        while (true) {
+            Window window = windows.get(id);
+            if (window == null) {
+                Window fresh = new Window();
+                window = windows.putIfAbsent(id, fresh);
+                if (window == null) {
+                    window = fresh;
+                }
+            }
+            int result = window.add(now, limit);
+            if (result != EXPIRED) {
+                return result == ACCEPTED;
+            }
+            // it was forgotten just as we got it: make a new one
+            windows.remove(id, window);
+        }
+    }
+
+    // at most once a period, forget the requesters who haven't been seen in that time
+    private void expireIdle(long now) {
+        long last = lastExpiry.get();
+        if (now - last < periodLength || !lastExpiry.compareAndSet(last, now)) {
+            return;
+        }
+        for (Map.Entry<String, Window> entry : windows.entrySet()) {
+            if (entry.getValue().expireIfIdle(now)) {
+                windows.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private final class Window
+    {
+        // one more slot than the period needs, for the one that is filling up
+        private final long[] slotNumbers = new long[SLOTS + 1];
+        private final int[] counts = new int[SLOTS + 1];
+        private int total = 0;
+        private long lastRequest = 0;
+        private boolean expired = false;
+
+        synchronized int count(long now) {
+            advance(now / slotLength);
+            return total;
+        }
+
+        synchronized int add(long now, int limit) {
+            if (expired) {
+                return EXPIRED;
+            }
+            long current = now / slotLength;
+            advance(current);
+            if (total >= limit) {
+                return REFUSED;
+            }
+            int i = (int) (current % counts.length);
+            if (slotNumbers[i] != current) {
+                total -= counts[i];
+                counts[i] = 0;
+                slotNumbers[i] = current;
+            }
+            counts[i]++;
+            total++;
+            lastRequest = now;
+            return ACCEPTED;
+        }
+
+        synchronized boolean expireIfIdle(long now) {
+            if (now - lastRequest > periodLength + slotLength) {
+                expired = true;
+            }
+            return expired;
+        }
+
+        // drop the counts of the slots that have left the window
+        private void advance(long current) {
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0 && slotNumbers[i] < current - SLOTS) {
+                    total -= counts[i];
+                    counts[i] = 0;
+                }
+            }
         }
     }
 }
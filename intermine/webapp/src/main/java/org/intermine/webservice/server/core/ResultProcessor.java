@@ -18,6 +18,7 @@ import java.util.List;
 import org.intermine.api.results.ResultElement;
 import org.intermine.pathquery.ConstraintValueParser;
 import org.intermine.webservice.server.output.Output;
+import org.intermine.webservice.server.output.StreamingOutput;
 
 /**
  * Processor of Results object for easy accessing and parsing of results to list of strings.
@@ -47,12 +48,43 @@ public class ResultProcessor
      * @param output output
      */
     public void write(Iterator<List<ResultElement>> resultIt, Output output) {
+        if (output instanceof StreamingOutput) {
+            writeValues(resultIt, (StreamingOutput) output);
+            return;
+        }
         while (resultIt.hasNext())  {
             List<ResultElement> row = resultIt.next();
             output.addResultItem(convertResultElementsToStrings(row));
         }
     }
 
+    /**
+     * Write results to a streaming output.  By default this writes the values of the fields in
+     * each row and leaves the output to format them.
+     * @param resultIt iterator over results row
+     * @param output output
+     */
+    protected void writeValues(Iterator<List<ResultElement>> resultIt, StreamingOutput output) {
+        writeFieldValues(resultIt, output);
+    }
+
+    /**
+     * Write the values of the fields in each row to a streaming output.
+     * @param resultIt iterator over results row
+     * @param output output
+     */
+    protected final void writeFieldValues(Iterator<List<ResultElement>> resultIt,
+            StreamingOutput output) {
+        List<Object> values = new ArrayList<Object>();
+        while (resultIt.hasNext())  {
+            values.clear();
+            for (ResultElement el : resultIt.next()) {
+                values.add(el == null ? null : el.getField());
+            }
+            output.addRow(values);
+        }
+    }
+
     private static List<String> convertResultElementsToStrings(List<ResultElement> row) {
         List<String> ret = new ArrayList<String>();
         String value;
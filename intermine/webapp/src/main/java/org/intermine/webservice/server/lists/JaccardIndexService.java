@@ -17,6 +17,8 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.apache.commons.collections.ListUtils;
 import org.intermine.api.InterMineAPI;
+import org.intermine.api.bag.BagSimilarityIndex;
+import org.intermine.api.bag.MinHashSketch;
 import org.intermine.api.profile.InterMineBag;
 import org.intermine.webservice.server.Format;
 import org.intermine.webservice.server.WebService;
@@ -29,6 +31,7 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -39,7 +42,10 @@ import java.util.Map.Entry;
 
 
 /**
- * A service to compare the given list to all other available lists using the Jaccard Index
+ * A service to compare the given list to all other available lists using the Jaccard Index.
+ * If the approximate parameter is true the index is estimated from MinHash sketches of the
+ * lists held by the BagSimilarityIndex, so the contents of the lists aren't read.  The size
+ * parameter limits the results to the most similar lists.
  * @author Julie Sullivan
  *
  */
@@ -61,7 +67,10 @@ public class JaccardIndexService extends WebService
         String ids = request.getParameter("ids");
         String min = request.getParameter("min");
         String type = request.getParameter("type");
+        boolean approximate = Boolean.parseBoolean(request.getParameter("approximate"));
+        String size = request.getParameter("size");
         BigDecimal minimumValue = new BigDecimal(0);
+        int limit = -1;
 
         if (listName == null && ids == null) {
             throw new BadRequestException("Provide either name of a list or set of InterMine IDs");
@@ -74,19 +83,26 @@ public class JaccardIndexService extends WebService
                 throw new BadRequestException("Min must be a valid number: '" + min + "'");
             }
         }
+        if (size != null) {
+            try {
+                limit = Integer.parseInt(size);
+            } catch (NumberFormatException e) {
+                throw new BadRequestException("Size must be a valid number: '" + size + "'");
+            }
+        }
 
         ListManager listManager = new ListManager(im, getPermission().getProfile());
         Map<String, InterMineBag> lists = listManager.getListMap();
         List<Integer> bagOfInterest = new ArrayList<>();
+        InterMineBag listOfInterest = null;
 
         if (listName != null) {
-            InterMineBag bag = lists.get(listName);
-            if (bag == null) {
+            listOfInterest = lists.get(listName);
+            if (listOfInterest == null) {
                 throw new BadRequestException("User does not have access to list named '"
                     + listName + "'");
             }
-            bagOfInterest = bag.getContentsAsIds();
-            type = bag.getType();
+            type = listOfInterest.getType();
         } else if (ids != null) {
             if (type == null) {
                 // need type if we don't have a list
@@ -99,9 +115,7 @@ public class JaccardIndexService extends WebService
             }
         }
 
-        Map<String, BigDecimal> results = new HashMap<String, BigDecimal>();
-
-        output.setHeaderAttributes(getHeaderAttributes());
+        Map<String, InterMineBag> candidates = new LinkedHashMap<String, InterMineBag>();
         for (Map.Entry<String, InterMineBag> entry : lists.entrySet()) {
             String name = entry.getKey();
             InterMineBag bag = entry.getValue();
@@ -116,7 +130,45 @@ public class JaccardIndexService extends WebService
                 // only compare bags of the same type
                 continue;
             }
+            candidates.put(name, bag);
+        }
 
+        Map<String, BigDecimal> results;
+        output.setHeaderAttributes(getHeaderAttributes());
+        if (approximate) {
+            results = getApproximateResults(listOfInterest, bagOfInterest,
+                    candidates.values(), minimumValue);
+        } else {
+            if (listOfInterest != null) {
+                bagOfInterest = listOfInterest.getContentsAsIds();
+            }
+            results = getExactResults(bagOfInterest, candidates, minimumValue);
+        }
+
+        // sort results. need to be in this format to preserve sort order in JavaScript
+        Map<String, BigDecimal> sortedMap = sortByValue(results);
+        ObjectMapper mapper = new ObjectMapper();
+        ArrayNode rootNode = mapper.createArrayNode();
+        int count = 0;
+        for (Map.Entry<String, BigDecimal> entry : sortedMap.entrySet()) {
+            if (limit >= 0 && count++ >= limit) {
+                break;
+            }
+            JsonNode childNode = mapper.createObjectNode();
+            ((ObjectNode) childNode).put(entry.getKey(), entry.getValue().toString());
+            ((ArrayNode) rootNode).add(childNode);
+        }
+
+        String jsonString = mapper.writerWithDefaultPrettyPrinter().writeValueAsString(rootNode);
+        output.addResultItem(Collections.singletonList(jsonString));
+    }
+
+    private Map<String, BigDecimal> getExactResults(List<Integer> bagOfInterest,
+            Map<String, InterMineBag> candidates, BigDecimal minimumValue) throws Exception {
+        Map<String, BigDecimal> results = new HashMap<String, BigDecimal>();
+        for (Map.Entry<String, InterMineBag> entry : candidates.entrySet()) {
+            String name = entry.getKey();
+            InterMineBag bag = entry.getValue();
             List<Integer> comparisonList = bag.getContentsAsIds();
             List<Integer> intersection = (List<Integer>) ListUtils.intersection(bagOfInterest,
                     comparisonList);
@@ -134,19 +186,26 @@ public class JaccardIndexService extends WebService
                 results.put(name, jaccardSimilarity);
             }
         }
+        return results;
+    }
 
-        // sort results. need to be in this format to preserve sort order in JavaScript
-        Map<String, BigDecimal> sortedMap = sortByValue(results);
-        ObjectMapper mapper = new ObjectMapper();
-        ArrayNode rootNode = mapper.createArrayNode();
-        for (Map.Entry<String, BigDecimal> entry : sortedMap.entrySet()) {
-            JsonNode childNode = mapper.createObjectNode();
-            ((ObjectNode) childNode).put(entry.getKey(), entry.getValue().toString());
-            ((ArrayNode) rootNode).add(childNode);
+    private Map<String, BigDecimal> getApproximateResults(InterMineBag listOfInterest,
+            List<Integer> bagOfInterest, Collection<InterMineBag> candidates,
+            BigDecimal minimumValue) {
+        BagSimilarityIndex index = BagSimilarityIndex.getInstance(im.getObjectStore());
+        MinHashSketch sketch;
+        if (listOfInterest != null) {
+            sketch = index.getSketch(listOfInterest);
+        } else {
+            sketch = MinHashSketch.of(bagOfInterest);
         }
-
-        String jsonString = mapper.writerWithDefaultPrettyPrinter().writeValueAsString(rootNode);
-        output.addResultItem(Collections.singletonList(jsonString));
+        Map<String, BigDecimal> results = new HashMap<String, BigDecimal>();
+        for (BagSimilarityIndex.Similarity similarity
+                : index.findSimilar(sketch, candidates, minimumValue.doubleValue(), -1)) {
+            results.put(similarity.getBag().getName(), new BigDecimal(similarity.getJaccard())
+                    .setScale(4, RoundingMode.HALF_EVEN));
+        }
+        return results;
     }
 
     /**
@@ -28,6 +28,11 @@ import org.intermine.webservice.server.exceptions.BadRequestException;
  */
 public abstract class ListOperationService extends ListMakerService
 {
+    /**
+     * The web property that makes list operations combine the contents of the lists in memory
+     * rather than in the database.
+     */
+    public static final String IN_MEMORY_PROPERTY = "list.operations.inMemory";
 
     /**
      * Constructor.
@@ -62,6 +67,7 @@ public abstract class ListOperationService extends ListMakerService
         InterMineBag newBag;
         BagOperation operation = getOperation(input);
         operation.setClassKeys(im.getClassKeys());
+        operation.setInMemory(Boolean.parseBoolean(webProperties.getProperty(IN_MEMORY_PROPERTY)));
 
         try { // Make sure we can clean up if ANYTHING goes wrong.
             rubbishbin.add(operation.getNewBagName());
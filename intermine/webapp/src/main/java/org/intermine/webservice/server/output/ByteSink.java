@@ -0,0 +1,281 @@
+package org.intermine.webservice.server.output;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A buffered sink that encodes text as UTF-8 straight into a byte buffer, with no intermediate
+ * Strings or encoder objects.  ASCII text, which is most of what we export, is copied a char at
+ * a time and integers are written as digits without being turned into Strings first.
+ */
+public class ByteSink
+{
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] MIN_LONG = encode(String.valueOf(Long.MIN_VALUE));
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int count = 0;
+    private char highSurrogate = 0;
+    private Writer writer = null;
+
+    /**
+     * Construct a sink writing to a stream.
+     * @param out where to write the bytes
+     */
+    public ByteSink(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Construct a sink writing to a stream.
+     * @param out where to write the bytes
+     * @param bufferSize the number of bytes to buffer, at least 32
+     */
+    public ByteSink(OutputStream out, int bufferSize) {
+        if (bufferSize < 32) {
+            throw new IllegalArgumentException("bufferSize must be at least 32");
+        }
+        this.out = out;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Encode a string as UTF-8, for text that is written many times, such as delimiters.
+     * @param s the string
+     * @return its UTF-8 bytes
+     */
+    public static byte[] encode(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write pre-encoded bytes.
+     * @param bytes the bytes
+     * @throws IOException if the underlying stream can't be written to
+     */
+    public void write(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length - count) {
+            flushBuffer();
+            if (bytes.length > buffer.length) {
+                out.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    /**
+     * Write a single byte.
+     * @param b the byte, in the low eight bits
+     * @throws IOException if the underlying stream can't be written to
+     */
+    public void writeByte(int b) throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    /**
+     * Write a single ASCII character.
+     * @param c the character, which must be below 0x80
+     * @throws IOException if the underlying stream can't be written to
+     */
+    public void writeAscii(char c) throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte) c;
+    }
+
+    /**
+     * Write a character as UTF-8.  A surrogate pair may be written with two calls.
+     * @param c the character
+     * @throws IOException if the underlying stream can't be written to
+     */
+    public void write(char c) throws IOException {
+        if (c < 0x80 && highSurrogate == 0) {
+            writeAscii(c);
+        } else {
+            encodeChar(c);
+        }
+    }
+
+    /**
+     * Write some text as UTF-8.
+     * @param s the text
+     * @throws IOException if the underlying stream can't be written to
+     */
+    public void write(CharSequence s) throws IOException {
+        int length = s.length();
+        int i = 0;
+        while (i < length) {
+            // ASCII fast path: copy as much as fits without checking for space per char
+            int end = Math.min(length, i + buffer.length - count);
+            while (i < end && highSurrogate == 0) {
+                char c = s.charAt(i);
+                if (c >= 0x80) {
+                    break;
+                }
+                buffer[count++] = (byte) c;
+                i++;
+            }
+            if (i < length) {
+                if (count == buffer.length) {
+                    flushBuffer();
+                } else {
+                    encodeChar(s.charAt(i++));
+                }
+            }
+        }
+    }
+
+    /**
+     * Write an integer as decimal digits.
+     * @param value the value
+     * @throws IOException if the underlying stream can't be written to
+     */
+    public void write(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            write(MIN_LONG);
+            return;
+        }
+        if (buffer.length - count < 20) {
+            flushBuffer();
+        }
+        long v = value;
+        if (v < 0) {
+            buffer[count++] = '-';
+            v = -v;
+        }
+        int start = count;
+        do {
+            buffer[count++] = (byte) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        // the digits were written least significant first
+        for (int i = start, j = count - 1; i < j; i++, j--) {
+            byte tmp = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = tmp;
+        }
+    }
+
+    /**
+     * Return a Writer that writes to this sink, for code that produces its output through a
+     * Writer, such as org.json.  The Writer shares this sink's buffer, so the two can be mixed.
+     * @return a Writer view of this sink
+     */
+    public Writer asWriter() {
+        if (writer == null) {
+            writer = new Writer() {
+                @Override
+                public void write(char[] cbuf, int off, int len) throws IOException {
+                    for (int i = off; i < off + len; i++) {
+                        ByteSink.this.write(cbuf[i]);
+                    }
+                }
+
+                @Override
+                public void write(String str) throws IOException {
+                    ByteSink.this.write(str);
+                }
+
+                @Override
+                public void write(int c) throws IOException {
+                    ByteSink.this.write((char) c);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    ByteSink.this.flush();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    ByteSink.this.close();
+                }
+            };
+        }
+        return writer;
+    }
+
+    /**
+     * Write out the buffer and flush the underlying stream.
+     * @throws IOException if the underlying stream can't be written to
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Write out the buffer and close the underlying stream.
+     * @throws IOException if the underlying stream can't be written to
+     */
+    public void close() throws IOException {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            writeAscii('?');
+        }
+        flushBuffer();
+        out.close();
+    }
+
+    private void encodeChar(char c) throws IOException {
+        if (buffer.length - count < 4) {
+            flushBuffer();
+        }
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int cp = Character.toCodePoint(high, c);
+                buffer[count++] = (byte) (0xf0 | (cp >> 18));
+                buffer[count++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                buffer[count++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                buffer[count++] = (byte) (0x80 | (cp & 0x3f));
+                return;
+            }
+            // an unpaired surrogate, as the JDK's encoder does
+            buffer[count++] = '?';
+            encodeChar(c);
+            return;
+        }
+        if (c < 0x80) {
+            buffer[count++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[count++] = (byte) (0xc0 | (c >> 6));
+            buffer[count++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            buffer[count++] = '?';
+        } else {
+            buffer[count++] = (byte) (0xe0 | (c >> 12));
+            buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buffer[count++] = (byte) (0x80 | (c & 0x3f));
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
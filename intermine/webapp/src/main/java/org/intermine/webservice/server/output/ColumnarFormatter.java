@@ -0,0 +1,324 @@
+package org.intermine.webservice.server.output;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A StreamingFormatter for a compact binary format for bulk exports.  Rows are collected into
+ * groups which are written a column at a time, each column with a single type where it can have
+ * one, and text is dictionary coded, so that the repeated values typical of query results (the
+ * organism, the class, the chromosome) cost a byte or two each rather than their full length.
+ *
+ * All integers below are unsigned LEB128 varints, and "signed" ones are zigzag encoded first.
+ * Strings are a varint byte length followed by UTF-8.  The stream is:
+ * <pre>
+ *   "IMCOL" version(byte)
+ *   columnCount(varint) { name(string) type(string) } * columnCount
+ *   group *
+ *   0(varint) status(varint) errorMessage(string)
+ * </pre>
+ * and each group is:
+ * <pre>
+ *   rowCount(varint, non-zero) columnCount(varint)
+ *   { encoding(byte) [hasNulls(byte) [nullBitmap] values] } * columnCount
+ * </pre>
+ * The null bitmap has one bit per row, least significant bit first, set for a null.  It and the
+ * values are left out for a column of the NULLS encoding, and the values are those of the rows
+ * that aren't null.  A value is written according to its column's encoding:
+ * <ul>
+ *   <li>INT: a signed varint</li>
+ *   <li>DOUBLE: eight bytes, the big-endian IEEE 754 bits</li>
+ *   <li>BOOLEAN: one byte, 0 or 1</li>
+ *   <li>DATE: milliseconds since the epoch as a signed varint</li>
+ *   <li>STRING: a varint code, where 0 is followed by a string that is added to the end of the
+ *   column's dictionary (until it holds MAX_DICTIONARY_SIZE entries) and n is the (n - 1)th
+ *   entry of the dictionary.  Dictionaries last for the whole stream.</li>
+ *   <li>MIXED: the encoding byte of the value followed by the value as above</li>
+ * </ul>
+ * Values of other types, such as BigDecimals, are written as strings.
+ */
+public class ColumnarFormatter implements StreamingFormatter
+{
+    /** Header attribute for the column names. **/
+    public static final String KEY_COLUMNS = "columns";
+    /** Header attribute for the column types, which may be left out. **/
+    public static final String KEY_COLUMN_TYPES = "columnTypes";
+
+    /** The bytes every stream starts with. **/
+    public static final String MAGIC = "IMCOL";
+    /** The version of the format. **/
+    public static final int VERSION = 1;
+
+    /** Encoding of a column with no values. **/
+    public static final int NULLS = 0;
+    /** Encoding of integers. **/
+    public static final int INT = 1;
+    /** Encoding of floating point numbers. **/
+    public static final int DOUBLE = 2;
+    /** Encoding of booleans. **/
+    public static final int BOOLEAN = 3;
+    /** Encoding of dates. **/
+    public static final int DATE = 4;
+    /** Encoding of text. **/
+    public static final int STRING = 5;
+    /** Encoding of a column holding values of more than one type. **/
+    public static final int MIXED = 6;
+
+    /** The most strings kept in the dictionary of one column. **/
+    public static final int MAX_DICTIONARY_SIZE = 4096;
+
+    private static final int DEFAULT_GROUP_SIZE = 4096;
+
+    private final int groupSize;
+    private final Object[][] rows;
+    private int rowCount = 0;
+    private final List<Map<String, Integer>> dictionaries = new ArrayList<Map<String, Integer>>();
+
+    /**
+     * Constructor.
+     */
+    public ColumnarFormatter() {
+        this(DEFAULT_GROUP_SIZE);
+    }
+
+    /**
+     * Constructor.
+     * @param groupSize the number of rows to write a column at a time
+     */
+    public ColumnarFormatter(int groupSize) {
+        if (groupSize < 1) {
+            throw new IllegalArgumentException("groupSize must be positive");
+        }
+        this.groupSize = groupSize;
+        this.rows = new Object[groupSize][];
+    }
+
+    @Override
+    public boolean writeHeader(Map<String, Object> attributes, ByteSink sink)
+        throws IOException {
+        List<?> columns = getList(attributes, KEY_COLUMNS);
+        List<?> types = getList(attributes, KEY_COLUMN_TYPES);
+        sink.write(MAGIC);
+        sink.writeByte(VERSION);
+        writeVarint(columns.size(), sink);
+        for (int i = 0; i < columns.size(); i++) {
+            writeString(String.valueOf(columns.get(i)), sink);
+            Object type = i < types.size() ? types.get(i) : null;
+            writeString(type == null ? "" : type.toString(), sink);
+        }
+        return false;
+    }
+
+    @Override
+    public void writeResult(List<? extends Object> cells, ByteSink sink) throws IOException {
+        if (cells.isEmpty()) {
+            return;
+        }
+        // the caller may reuse the list, so copy the values, and every row in a group must
+        // have the same number of columns
+        if (rowCount == groupSize
+                || (rowCount > 0 && rows[rowCount - 1].length != cells.size())) {
+            writeGroup(sink);
+        }
+        rows[rowCount++] = cells.toArray();
+    }
+
+    @Override
+    public void writeResultSeparator(ByteSink sink) {
+        // nothing between rows
+    }
+
+    @Override
+    public void writeFooter(String errorMessage, int errorCode, ByteSink sink)
+        throws IOException {
+        writeGroup(sink);
+        writeVarint(0, sink);
+        writeVarint(errorCode, sink);
+        writeString(errorMessage == null ? "" : errorMessage, sink);
+    }
+
+    private void writeGroup(ByteSink sink) throws IOException {
+        if (rowCount == 0) {
+            return;
+        }
+        int columnCount = rows[0].length;
+        writeVarint(rowCount, sink);
+        writeVarint(columnCount, sink);
+        for (int c = 0; c < columnCount; c++) {
+            writeColumn(c, sink);
+        }
+        for (int r = 0; r < rowCount; r++) {
+            rows[r] = null;
+        }
+        rowCount = 0;
+    }
+
+    private void writeColumn(int c, ByteSink sink) throws IOException {
+        int encoding = NULLS;
+        boolean hasNulls = false;
+        for (int r = 0; r < rowCount; r++) {
+            Object value = rows[r][c];
+            if (value == null) {
+                hasNulls = true;
+            } else {
+                int type = typeOf(value);
+                if (encoding == NULLS) {
+                    encoding = type;
+                } else if (encoding != type) {
+                    encoding = MIXED;
+                }
+            }
+        }
+        sink.writeByte(encoding);
+        if (encoding == NULLS) {
+            return;
+        }
+        sink.writeByte(hasNulls ? 1 : 0);
+        if (hasNulls) {
+            int bits = 0;
+            for (int r = 0; r < rowCount; r++) {
+                if (rows[r][c] == null) {
+                    bits |= 1 << (r & 7);
+                }
+                if ((r & 7) == 7 || r == rowCount - 1) {
+                    sink.writeByte(bits);
+                    bits = 0;
+                }
+            }
+        }
+        for (int r = 0; r < rowCount; r++) {
+            Object value = rows[r][c];
+            if (value != null) {
+                if (encoding == MIXED) {
+                    int type = typeOf(value);
+                    sink.writeByte(type);
+                    writeValue(type, value, c, sink);
+                } else {
+                    writeValue(encoding, value, c, sink);
+                }
+            }
+        }
+    }
+
+    private void writeValue(int type, Object value, int c, ByteSink sink) throws IOException {
+        switch (type) {
+            case INT:
+                writeSignedVarint(((Number) value).longValue(), sink);
+                break;
+            case DOUBLE:
+                long bits = Double.doubleToLongBits(((Number) value).doubleValue());
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    sink.writeByte((int) (bits >>> shift));
+                }
+                break;
+            case BOOLEAN:
+                sink.writeByte(((Boolean) value).booleanValue() ? 1 : 0);
+                break;
+            case DATE:
+                writeSignedVarint(((Date) value).getTime(), sink);
+                break;
+            default:
+                writeDictionaryString(value.toString(), c, sink);
+        }
+    }
+
+    private void writeDictionaryString(String s, int c, ByteSink sink) throws IOException {
+        while (dictionaries.size() <= c) {
+            dictionaries.add(new HashMap<String, Integer>());
+        }
+        Map<String, Integer> dictionary = dictionaries.get(c);
+        Integer code = dictionary.get(s);
+        if (code != null) {
+            writeVarint(code.intValue(), sink);
+        } else {
+            writeVarint(0, sink);
+            writeString(s, sink);
+            if (dictionary.size() < MAX_DICTIONARY_SIZE) {
+                dictionary.put(s, Integer.valueOf(dictionary.size() + 1));
+            }
+        }
+    }
+
+    private static int typeOf(Object value) {
+        if (value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            return INT;
+        } else if (value instanceof Double || value instanceof Float) {
+            return DOUBLE;
+        } else if (value instanceof Boolean) {
+            return BOOLEAN;
+        } else if (value instanceof Date) {
+            return DATE;
+        }
+        return STRING;
+    }
+
+    private static List<?> getList(Map<String, Object> attributes, String key) {
+        Object value = attributes == null ? null : attributes.get(key);
+        return value instanceof List ? (List<?>) value : Collections.emptyList();
+    }
+
+    private static void writeSignedVarint(long value, ByteSink sink) throws IOException {
+        writeVarint((value << 1) ^ (value >> 63), sink);
+    }
+
+    private static void writeVarint(long value, ByteSink sink) throws IOException {
+        long v = value;
+        while ((v & ~0x7fL) != 0) {
+            sink.writeByte((int) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        sink.writeByte((int) v);
+    }
+
+    private static void writeString(String s, ByteSink sink) throws IOException {
+        int length = utf8Length(s);
+        if (length < 0) {
+            // unpaired surrogates: let the JDK replace them so that the length is right
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length, sink);
+            sink.write(bytes);
+        } else {
+            writeVarint(length, sink);
+            sink.write(s);
+        }
+    }
+
+    // the number of bytes in the UTF-8 form of a string, or -1 if it has unpaired surrogates
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                return -1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
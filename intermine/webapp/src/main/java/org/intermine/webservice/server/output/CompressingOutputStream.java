@@ -0,0 +1,275 @@
+package org.intermine.webservice.server.output;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * An output stream that compresses a response as it is written, for clients that accept a
+ * compressed Content-Encoding.  Nothing is held back beyond the compressor's own buffer.  The
+ * flushes that the outputs make after every few rows are ignored, as each one would end a
+ * compressed block and cost compression, instead the compressor is flushed once at least
+ * flushSize bytes have gone in since it was last flushed, so that the client still gets the
+ * results in chunks as they are produced.
+ *
+ * The stream keeps count of the bytes that go in and come out, and of the time spent
+ * compressing, so that the cost and benefit of compressing can be logged.
+ */
+public class CompressingOutputStream extends OutputStream
+{
+    /**
+     * The content codings we can write.
+     */
+    public enum Encoding {
+        /** gzip, RFC 1952 **/
+        GZIP("gzip"),
+        /** zlib wrapped deflate, RFC 1950 **/
+        DEFLATE("deflate");
+
+        private final String token;
+
+        Encoding(String token) {
+            this.token = token;
+        }
+
+        /**
+         * @return the name of the coding, for the Content-Encoding header
+         */
+        public String getToken() {
+            return token;
+        }
+    }
+
+    private final CountingStream counter;
+    private final DeflaterOutputStream compressor;
+    private final Encoding encoding;
+    private final int flushSize;
+    private long bytesIn = 0;
+    private long sinceFlush = 0;
+    private long nanos = 0;
+    private boolean closed = false;
+
+    /**
+     * Constructor.
+     * @param out where to write the compressed bytes
+     * @param encoding the coding to use
+     * @param bufferSize the size of the compressor's output buffer
+     * @param flushSize how many bytes to take in before passing on what has been compressed so
+     * far, or 0 to only do so when the compressor's buffer fills up
+     * @throws IOException if the gzip header can't be written
+     */
+    public CompressingOutputStream(OutputStream out, Encoding encoding, int bufferSize,
+            int flushSize) throws IOException {
+        this.counter = new CountingStream(out);
+        this.encoding = encoding;
+        this.flushSize = flushSize;
+        if (encoding == Encoding.GZIP) {
+            compressor = new GZIPOutputStream(counter, bufferSize, true);
+        } else {
+            compressor = new DeflaterOutputStream(counter, new Deflater(), bufferSize, true);
+        }
+    }
+
+    /**
+     * Choose a coding from the value of a request's Accept-Encoding header, preferring gzip
+     * where the client likes both equally.
+     * @param acceptEncoding the header value, which may be null
+     * @return the coding to use, or null if the client doesn't accept one we can write
+     */
+    public static Encoding negotiate(String acceptEncoding) {
+        if (StringUtils.isBlank(acceptEncoding)) {
+            return null;
+        }
+        Encoding best = null;
+        double bestQ = 0;
+        double anyQ = 0;
+        double gzipQ = -1;
+        double deflateQ = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim().toLowerCase();
+            double q = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if ("gzip".equals(coding) || "x-gzip".equals(coding)) {
+                gzipQ = q;
+            } else if ("deflate".equals(coding)) {
+                deflateQ = q;
+            } else if ("*".equals(coding)) {
+                anyQ = q;
+            }
+        }
+        // codings that aren't named are covered by *, if it is there
+        if (gzipQ < 0) {
+            gzipQ = anyQ;
+        }
+        if (deflateQ < 0) {
+            deflateQ = anyQ;
+        }
+        if (gzipQ > bestQ) {
+            best = Encoding.GZIP;
+            bestQ = gzipQ;
+        }
+        if (deflateQ > bestQ) {
+            best = Encoding.DEFLATE;
+        }
+        return best;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        long start = System.nanoTime();
+        compressor.write(b);
+        nanos += System.nanoTime() - start;
+        wrote(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        compressor.write(b, off, len);
+        nanos += System.nanoTime() - start;
+        wrote(len);
+    }
+
+    private void wrote(int len) throws IOException {
+        bytesIn += len;
+        sinceFlush += len;
+        if (flushSize > 0 && sinceFlush >= flushSize) {
+            long start = System.nanoTime();
+            compressor.flush();
+            nanos += System.nanoTime() - start;
+            sinceFlush = 0;
+        }
+    }
+
+    /**
+     * Does nothing: the compressor is flushed every flushSize bytes and when the stream is
+     * closed.
+     */
+    @Override
+    public void flush() {
+        // see above
+    }
+
+    /**
+     * Finish the compressed stream and close the underlying one.  It is safe to call this more
+     * than once.
+     * @throws IOException if the stream can't be written to
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            long start = System.nanoTime();
+            compressor.finish();
+            nanos += System.nanoTime() - start;
+            compressor.close();
+        }
+    }
+
+    /**
+     * @return the coding this stream writes
+     */
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @return the number of bytes written to this stream
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * @return the number of compressed bytes written to the underlying stream
+     */
+    public long getBytesOut() {
+        return counter.count;
+    }
+
+    /**
+     * @return the time spent compressing, in nanoseconds, not counting the time spent writing
+     * to the underlying stream
+     */
+    public long getCompressionNanos() {
+        return Math.max(0, nanos - counter.nanos);
+    }
+
+    /**
+     * @return how many times smaller the compressed output is than the input
+     */
+    public double getRatio() {
+        return counter.count == 0 ? 0 : (double) bytesIn / counter.count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d bytes -> %d bytes (ratio %.1f) in %.1fms",
+                encoding.getToken(), getBytesIn(), getBytesOut(), getRatio(),
+                getCompressionNanos() / 1e6);
+    }
+
+    // counts the compressed bytes, and the time spent passing them on
+    private static final class CountingStream extends OutputStream
+    {
+        private final OutputStream out;
+        private long count = 0;
+        private long nanos = 0;
+
+        CountingStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long start = System.nanoTime();
+            out.write(b);
+            nanos += System.nanoTime() - start;
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            out.write(b, off, len);
+            nanos += System.nanoTime() - start;
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            long start = System.nanoTime();
+            out.flush();
+            nanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
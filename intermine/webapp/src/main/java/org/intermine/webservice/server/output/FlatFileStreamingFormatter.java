@@ -0,0 +1,136 @@
+package org.intermine.webservice.server.output;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.intermine.pathquery.ConstraintValueParser;
+
+/**
+ * A StreamingFormatter for delimited flat files (csv, tsv).  Values are quoted the same way as
+ * by the FlatFileFormatters: everything if quoting is on, otherwise only empty values and those
+ * containing the delimiter, with any double quotes doubled.
+ */
+public class FlatFileStreamingFormatter implements StreamingFormatter
+{
+    private final char delimiter;
+    private final boolean quoted;
+
+    /**
+     * Constructor.
+     * @param delimiter the character between values, which must be ASCII
+     * @param quoted whether to quote every value
+     */
+    public FlatFileStreamingFormatter(char delimiter, boolean quoted) {
+        if (delimiter >= 0x80 || delimiter == '"') {
+            throw new IllegalArgumentException("Invalid delimiter: " + delimiter);
+        }
+        this.delimiter = delimiter;
+        this.quoted = quoted;
+    }
+
+    /**
+     * @param quoted whether to quote every value
+     * @return a formatter for tab separated values
+     */
+    public static FlatFileStreamingFormatter tsv(boolean quoted) {
+        return new FlatFileStreamingFormatter('\t', quoted);
+    }
+
+    /**
+     * @return a formatter for comma separated values
+     */
+    public static FlatFileStreamingFormatter csv() {
+        return new FlatFileStreamingFormatter(',', true);
+    }
+
+    @Override
+    public boolean writeHeader(Map<String, Object> attributes, ByteSink sink)
+        throws IOException {
+        if (attributes != null && attributes.containsKey(FlatFileFormatter.COLUMN_HEADERS)) {
+            @SuppressWarnings("unchecked")
+            List<Object> columns = (List<Object>) attributes.get(FlatFileFormatter.COLUMN_HEADERS);
+            if (!columns.isEmpty()) {
+                writeResult(columns, sink);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void writeResult(List<? extends Object> cells, ByteSink sink) throws IOException {
+        for (int i = 0; i < cells.size(); i++) {
+            if (i > 0) {
+                sink.writeAscii(delimiter);
+            }
+            writeCell(cells.get(i), sink);
+        }
+    }
+
+    private void writeCell(Object cell, ByteSink sink) throws IOException {
+        if (cell instanceof Integer || cell instanceof Long || cell instanceof Short
+                || cell instanceof Byte) {
+            // digits never need escaping
+            if (quoted) {
+                sink.writeAscii('"');
+            }
+            sink.write(((Number) cell).longValue());
+            if (quoted) {
+                sink.writeAscii('"');
+            }
+            return;
+        }
+        String value;
+        if (cell == null) {
+            value = "";
+        } else if (cell instanceof Date) {
+            value = ConstraintValueParser.ISO_DATE_FORMAT.format((Date) cell);
+        } else {
+            value = cell.toString();
+        }
+        if (!quoted && !value.isEmpty() && value.indexOf(delimiter) < 0) {
+            sink.write(value);
+            return;
+        }
+        sink.writeAscii('"');
+        if (value.indexOf('"') < 0) {
+            sink.write(value);
+        } else {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    sink.writeAscii('"');
+                }
+                sink.write(c);
+            }
+        }
+        sink.writeAscii('"');
+    }
+
+    @Override
+    public void writeResultSeparator(ByteSink sink) {
+        // nothing between rows but the line separator
+    }
+
+    @Override
+    public void writeFooter(String errorMessage, int errorCode, ByteSink sink)
+        throws IOException {
+        if (errorCode != Output.SC_OK) {
+            sink.write(FlatFileFormatter.ERROR_INTRO);
+            sink.write(errorCode);
+            sink.write(" " + errorMessage);
+        }
+    }
+}
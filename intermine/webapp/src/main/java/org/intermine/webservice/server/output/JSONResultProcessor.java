@@ -45,9 +45,31 @@ public abstract class JSONResultProcessor extends ResultProcessor
     protected abstract Iterator<? extends Object> getResultsIterator(
             Iterator<List<ResultElement>> it);
 
+    /**
+     * Write each of the objects made by the results iterator to a streaming output, as a row
+     * of one value.
+     * @param resultIt iterator over results row
+     * @param output output
+     */
+    @Override
+    protected void writeValues(Iterator<List<ResultElement>> resultIt, StreamingOutput output) {
+        Iterator<? extends Object> objIter = getResultsIterator(resultIt);
+        while (objIter.hasNext()) {
+            output.addRow(Collections.singletonList(objIter.next()));
+        }
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public void write(Iterator<List<ResultElement>> resultIt, Output output) {
+        if (output instanceof StreamingOutput) {
+            // the output puts the commas between rows itself
+            writeValues(resultIt, (StreamingOutput) output);
+            if (output.getResultsCount() == 0) {
+                output.addResultItem(Collections.EMPTY_LIST);
+            }
+            return;
+        }
         Iterator<? extends Object> objIter = getResultsIterator(resultIt);
         if (!objIter.hasNext()) { // address bug which means json results with < 1 results fail
             output.addResultItem(Collections.EMPTY_LIST);
@@ -56,6 +56,16 @@ public class JSONRowResultProcessor extends JSONResultProcessor
         this.verbosity = verbosity;
     }
 
+    @Override
+    protected void writeValues(Iterator<List<ResultElement>> resultIt, StreamingOutput output) {
+        if (verbosity == Verbosity.MINIMAL) {
+            // the output's formatter writes the values as an array itself
+            writeFieldValues(resultIt, output);
+        } else {
+            super.writeValues(resultIt, output);
+        }
+    }
+
     @Override
     protected Iterator<? extends Object> getResultsIterator(Iterator<List<ResultElement>> it) {
         Iterator<JSONArray> jsonIter;
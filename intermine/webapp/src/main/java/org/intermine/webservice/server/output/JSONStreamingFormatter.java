@@ -0,0 +1,188 @@
+package org.intermine.webservice.server.output;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.intermine.pathquery.ConstraintValueParser;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONString;
+
+/**
+ * A StreamingFormatter for JSON results.  The header and footer are those of a JSONFormatter,
+ * which this delegates to, and rows are separated by commas.
+ *
+ * If rowsAsArrays is true each row is written as a JSON array of its values, which are
+ * escaped the same way as by org.json.  Otherwise the values in a row are written one after
+ * the other as they are: JSONObjects and JSONArrays as JSON, anything else as its string form,
+ * which is how rows of pre-built JSON objects are written.  An empty row is not written at all.
+ */
+public class JSONStreamingFormatter implements StreamingFormatter
+{
+    private static final String HEX = "0123456789abcdef";
+
+    private final JSONFormatter delegate;
+    private final boolean rowsAsArrays;
+
+    /**
+     * Constructor.
+     * @param delegate the formatter that makes the header and footer
+     * @param rowsAsArrays whether to write each row as an array of values
+     */
+    public JSONStreamingFormatter(JSONFormatter delegate, boolean rowsAsArrays) {
+        this.delegate = delegate;
+        this.rowsAsArrays = rowsAsArrays;
+    }
+
+    @Override
+    public boolean writeHeader(Map<String, Object> attributes, ByteSink sink)
+        throws IOException {
+        String header = delegate.formatHeader(attributes);
+        if (header == null || header.isEmpty()) {
+            return false;
+        }
+        sink.write(header);
+        return true;
+    }
+
+    @Override
+    public void writeResult(List<? extends Object> cells, ByteSink sink) throws IOException {
+        if (cells.isEmpty()) {
+            return;
+        }
+        delegate.declarePrinted();
+        if (rowsAsArrays) {
+            sink.writeAscii('[');
+        }
+        for (int i = 0; i < cells.size(); i++) {
+            if (i > 0) {
+                sink.writeAscii(',');
+            }
+            if (rowsAsArrays) {
+                writeValue(cells.get(i), sink);
+            } else {
+                writeRaw(cells.get(i), sink);
+            }
+        }
+        if (rowsAsArrays) {
+            sink.writeAscii(']');
+        }
+    }
+
+    private static void writeRaw(Object cell, ByteSink sink) throws IOException {
+        try {
+            if (cell instanceof JSONObject) {
+                ((JSONObject) cell).write(sink.asWriter());
+            } else if (cell instanceof JSONArray) {
+                ((JSONArray) cell).write(sink.asWriter());
+            } else {
+                sink.write(String.valueOf(cell));
+            }
+        } catch (JSONException e) {
+            throw new IOException("Could not write " + cell, e);
+        }
+    }
+
+    private static void writeValue(Object cell, ByteSink sink) throws IOException {
+        if (cell == null) {
+            sink.write("null");
+        } else if (cell instanceof Integer || cell instanceof Long || cell instanceof Short
+                || cell instanceof Byte) {
+            sink.write(((Number) cell).longValue());
+        } else if (cell instanceof Number) {
+            try {
+                sink.write(JSONObject.numberToString((Number) cell));
+            } catch (JSONException e) {
+                // NaN and infinities aren't valid JSON, org.json writes them as strings
+                writeString(cell.toString(), sink);
+            }
+        } else if (cell instanceof Boolean) {
+            sink.write(cell.toString());
+        } else if (cell instanceof Date) {
+            writeString(ConstraintValueParser.ISO_DATE_FORMAT.format((Date) cell), sink);
+        } else if (cell instanceof JSONObject || cell instanceof JSONArray) {
+            writeRaw(cell, sink);
+        } else if (cell instanceof JSONString) {
+            sink.write(((JSONString) cell).toJSONString());
+        } else {
+            writeString(cell.toString(), sink);
+        }
+    }
+
+    /**
+     * Write a string as a quoted JSON string, escaping the same characters as
+     * JSONObject.quote.
+     */
+    private static void writeString(String s, ByteSink sink) throws IOException {
+        sink.writeAscii('"');
+        char previous = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                case '"':
+                    sink.writeAscii('\\');
+                    sink.writeAscii(c);
+                    break;
+                case '/':
+                    if (previous == '<') {
+                        sink.writeAscii('\\');
+                    }
+                    sink.writeAscii(c);
+                    break;
+                case '\b':
+                    sink.write("\\b");
+                    break;
+                case '\t':
+                    sink.write("\\t");
+                    break;
+                case '\n':
+                    sink.write("\\n");
+                    break;
+                case '\f':
+                    sink.write("\\f");
+                    break;
+                case '\r':
+                    sink.write("\\r");
+                    break;
+                default:
+                    if (c < ' ' || (c >= 0x80 && c < 0xa0)
+                            || (c >= 0x2000 && c < 0x2100)) {
+                        sink.write("\\u");
+                        sink.writeAscii(HEX.charAt((c >> 12) & 0xf));
+                        sink.writeAscii(HEX.charAt((c >> 8) & 0xf));
+                        sink.writeAscii(HEX.charAt((c >> 4) & 0xf));
+                        sink.writeAscii(HEX.charAt(c & 0xf));
+                    } else {
+                        sink.write(c);
+                    }
+            }
+            previous = c;
+        }
+        sink.writeAscii('"');
+    }
+
+    @Override
+    public void writeResultSeparator(ByteSink sink) throws IOException {
+        sink.writeAscii(',');
+    }
+
+    @Override
+    public void writeFooter(String errorMessage, int errorCode, ByteSink sink)
+        throws IOException {
+        sink.write(delegate.formatFooter(errorMessage, errorCode));
+    }
+}
@@ -0,0 +1,59 @@
+package org.intermine.webservice.server.output;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A formatter that writes straight to a ByteSink rather than returning Strings, and that is
+ * given the cell values themselves rather than their string forms, so that numbers can be
+ * written without being converted to Strings and text without being copied.
+ *
+ * A cell may be null, a String or other CharSequence, a Number, a Boolean, a Date or any other
+ * object, which is written as its toString().
+ */
+public interface StreamingFormatter
+{
+    /**
+     * Write the header, without a line separator.
+     * @param attributes attributes contained in the header
+     * @param sink where to write it
+     * @return true if there was a header to write
+     * @throws IOException if the sink can't be written to
+     */
+    boolean writeHeader(Map<String, Object> attributes, ByteSink sink) throws IOException;
+
+    /**
+     * Write a result row, without a line separator.
+     * @param cells the values in the row
+     * @param sink where to write it
+     * @throws IOException if the sink can't be written to
+     */
+    void writeResult(List<? extends Object> cells, ByteSink sink) throws IOException;
+
+    /**
+     * Write the text that goes between two result rows before the line separator.
+     * @param sink where to write it
+     * @throws IOException if the sink can't be written to
+     */
+    void writeResultSeparator(ByteSink sink) throws IOException;
+
+    /**
+     * Write the footer.
+     * @param errorMessage the error message, if something went wrong
+     * @param errorCode the error code, if something went wrong
+     * @param sink where to write it
+     * @throws IOException if the sink can't be written to
+     */
+    void writeFooter(String errorMessage, int errorCode, ByteSink sink) throws IOException;
+}
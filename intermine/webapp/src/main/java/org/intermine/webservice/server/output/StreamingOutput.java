@@ -0,0 +1,118 @@
+package org.intermine.webservice.server.output;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.intermine.webservice.server.exceptions.ServiceException;
+
+/**
+ * An output that streams results via the http connection like StreamedOutput, but through a
+ * StreamingFormatter that writes the values in each row straight to a ByteSink.  Rows of
+ * values can be added with addRow, and rows of strings with addResultItem as for any other
+ * output.  The bytes written are the same as those StreamedOutput writes with the equivalent
+ * Formatter.
+ */
+public class StreamingOutput extends Output
+{
+    private final ByteSink sink;
+    private final StreamingFormatter formatter;
+    private final byte[] separator;
+    private boolean headerPrinted = false;
+    private int resultsCount = 0;
+
+    /**
+     * Constructor.
+     * @param sink where the data will be written
+     * @param formatter formats the data as it is written
+     * @param separator the line separator for the client's platform, null for this
+     * platform's or the empty string for binary formats
+     */
+    public StreamingOutput(ByteSink sink, StreamingFormatter formatter, String separator) {
+        this.sink = sink;
+        this.formatter = formatter;
+        this.separator = ByteSink.encode(separator == null
+                ? System.getProperty("line.separator") : separator);
+    }
+
+    private void ensureHeaderIsPrinted() throws IOException {
+        if (!headerPrinted) {
+            if (formatter.writeHeader(getHeaderAttributes(), sink)) {
+                sink.write(separator);
+            }
+            headerPrinted = true;
+        }
+    }
+
+    /**
+     * Write a row of values.  The list is not kept, so the caller may reuse it.
+     * @param cells the values
+     */
+    public void addRow(List<? extends Object> cells) {
+        try {
+            ensureHeaderIsPrinted();
+            // the separator is written before each row after the first, so that the
+            // formatter can put something between rows without knowing which is the last
+            if (resultsCount > 0) {
+                formatter.writeResultSeparator(sink);
+                sink.write(separator);
+            }
+            formatter.writeResult(cells, sink);
+            resultsCount++;
+        } catch (IOException e) {
+            throw new ServiceException("Error writing results", e);
+        }
+    }
+
+    @Override
+    public void addResultItem(List<String> item) {
+        addRow(item);
+    }
+
+    /**
+     * Finish writing. Writes the footer and closes the sink.
+     */
+    @Override
+    public void flush() {
+        try {
+            ensureHeaderIsPrinted();
+            if (resultsCount > 0) {
+                sink.write(separator);
+            }
+            formatter.writeFooter(getError(), getCode(), sink);
+            sink.close();
+        } catch (IOException e) {
+            throw new ServiceException("Error writing results", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setHeaderAttributes(Map<String, Object> attributes) {
+        if (headerPrinted) {
+            throw new RuntimeException("Attempt to set header attributes "
+                + "although header was printed already.");
+        }
+        super.setHeaderAttributes(attributes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getResultsCount() {
+        return resultsCount;
+    }
+}
@@ -12,6 +12,7 @@ package org.intermine.webservice.server.query.result;
 
 import static org.apache.commons.lang.StringUtils.isBlank;
 
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
@@ -47,18 +48,25 @@ import org.intermine.webservice.server.core.CountProcessor;
 import org.intermine.webservice.server.core.ResultProcessor;
 import org.intermine.webservice.server.exceptions.BadRequestException;
 import org.intermine.webservice.server.exceptions.ServiceException;
+import org.intermine.webservice.server.output.ByteSink;
+import org.intermine.webservice.server.output.ColumnarFormatter;
 import org.intermine.webservice.server.output.FlatFileFormatter;
+import org.intermine.webservice.server.output.FlatFileStreamingFormatter;
 import org.intermine.webservice.server.output.HTMLTableFormatter;
 import org.intermine.webservice.server.output.JSONCountFormatter;
 import org.intermine.webservice.server.output.JSONObjResultProcessor;
+import org.intermine.webservice.server.output.JSONObjectFormatter;
 import org.intermine.webservice.server.output.JSONResultFormatter;
 import org.intermine.webservice.server.output.JSONRowResultProcessor;
+import org.intermine.webservice.server.output.JSONStreamingFormatter;
 import org.intermine.webservice.server.output.JSONSummaryProcessor;
 import org.intermine.webservice.server.output.JSONTableFormatter;
 import org.intermine.webservice.server.output.JSONTableResultProcessor;
 import org.intermine.webservice.server.output.Output;
 import org.intermine.webservice.server.output.FilteringResultIterator;
 import org.intermine.webservice.server.output.StreamedOutput;
+import org.intermine.webservice.server.output.StreamingFormatter;
+import org.intermine.webservice.server.output.StreamingOutput;
 import org.intermine.webservice.server.query.AbstractQueryService;
 
 import static org.apache.commons.lang.StringUtils.isNotBlank;
@@ -81,6 +89,11 @@ public class QueryResultService extends AbstractQueryService
 
     /** Batch size to use **/
     public static final int BATCH_SIZE = 5000;
+    /**
+     * The web property that makes results in tsv, csv, json and json objects formats be
+     * written by StreamingFormatters.
+     */
+    public static final String STREAMING_PROPERTY = "ws.results.streaming";
     protected Map<String, Object> attributes = new HashMap<String, Object>();
 
     private boolean wantsCount = false;
@@ -123,6 +136,7 @@ public class QueryResultService extends AbstractQueryService
             addAll(Format.BASIC_FORMATS);
             addAll(Format.FLAT_FILES);
             addAll(Format.JSON_FORMATS);
+            add(Format.COLUMNAR);
         }
     };
 
@@ -208,6 +222,20 @@ public class QueryResultService extends AbstractQueryService
                 attributes.put(HTMLTableFormatter.KEY_COLUMN_HEADERS,
                         WebUtil.formatPathQueryView(pq, InterMineContext.getWebConfig()));
                 break;
+            case COLUMNAR:
+                List<String> columnTypes = new ArrayList<String>();
+                for (String v: pq.getView()) {
+                    try {
+                        Path p = pq.makePath(v);
+                        columnTypes.add(((AttributeDescriptor) p.getEndFieldDescriptor())
+                                .getType());
+                    } catch (PathException e) {
+                        throw new ServiceException(e);
+                    }
+                }
+                attributes.put(ColumnarFormatter.KEY_COLUMNS, pq.getView());
+                attributes.put(ColumnarFormatter.KEY_COLUMN_TYPES, columnTypes);
+                break;
             default:
                 break;
         }
@@ -240,6 +268,9 @@ public class QueryResultService extends AbstractQueryService
                     attributes.put(JSONTableFormatter.KEY_COLUMN_HEADERS, colHeaders);
                 } else if (formatIsFlatFile() && wantsColumnHeaders()) {
                     attributes.put(FlatFileFormatter.COLUMN_HEADERS, colHeaders);
+                } else if (getFormat() == Format.COLUMNAR) {
+                    attributes.put(ColumnarFormatter.KEY_COLUMNS, colHeaders);
+                    attributes.remove(ColumnarFormatter.KEY_COLUMN_TYPES);
                 }
             }
         }
@@ -255,6 +286,39 @@ public class QueryResultService extends AbstractQueryService
         return new StreamedOutput(out, new JSONTableFormatter(), separator);
     }
 
+    @Override
+    protected Output makeStreamingOutput(OutputStream os, String separator) {
+        if (wantsCount) {
+            return null;
+        }
+        if (getFormat() == Format.COLUMNAR) {
+            // a binary format, so there are no line separators
+            return new StreamingOutput(new ByteSink(os), new ColumnarFormatter(), "");
+        }
+        if (!Boolean.parseBoolean(webProperties.getProperty(STREAMING_PROPERTY))) {
+            return null;
+        }
+        StreamingFormatter formatter;
+        switch (getFormat()) {
+            case TSV:
+                formatter = FlatFileStreamingFormatter.tsv(
+                        StringUtils.equals(getProperty("ws.tsv.quoted"), "true"));
+                break;
+            case CSV:
+                formatter = FlatFileStreamingFormatter.csv();
+                break;
+            case JSON:
+                formatter = new JSONStreamingFormatter(new JSONTableFormatter(), true);
+                break;
+            case OBJECTS:
+                formatter = new JSONStreamingFormatter(new JSONObjectFormatter(), false);
+                break;
+            default:
+                return null;
+        }
+        return new StreamingOutput(new ByteSink(os), formatter, separator);
+    }
+
     /**
      * URL Encode an object. Null values are returned as the empty string, and encoding problems
      * throw runtime exceptions.
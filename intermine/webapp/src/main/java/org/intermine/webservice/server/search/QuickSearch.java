@@ -34,7 +34,7 @@ import org.intermine.api.profile.Profile;
 import org.intermine.api.searchengine.KeywordSearchFacet;
 import org.intermine.api.searchengine.KeywordSearchPropertiesManager;
 import org.intermine.api.searchengine.KeywordSearchResults;
-import org.intermine.api.searchengine.solr.SolrKeywordSearchHandler;
+import org.intermine.api.searchengine.SearchEngineFactory;
 import org.intermine.web.context.InterMineContext;
 import org.intermine.web.logic.RequestUtil;
 import org.intermine.web.logic.config.WebConfig;
@@ -88,7 +88,8 @@ public class QuickSearch extends JSONService
         Vector<KeywordSearchFacetData> facets = keywordSearchPropertiesManager.getFacets();
         Map<String, String> facetValues = getFacetValues(facets);
 
-        KeywordSearchHandler keywordSearchHandler = new SolrKeywordSearchHandler();
+        KeywordSearchHandler keywordSearchHandler
+                = SearchEngineFactory.getKeywordSearchHandler(im.getObjectStore());
 
         KeywordSearchResults results = keywordSearchHandler
                 .doKeywordSearch(im, input.searchTerm, facetValues,
@@ -76,11 +76,10 @@ public class NewUserService extends JSONService
     protected void validateState() {
         super.validateState();
         final String ipAddr = request.getRemoteAddr();
-        if (!requestHistory.isWithinLimit(ipAddr)) {
+        // Record this request, if it is allowed
+        if (!requestHistory.tryRecordRequest(ipAddr)) {
             throw new RateLimitException(ipAddr, maxNewUsersPerAddressPerHour);
         }
-        // Record this request...
-        requestHistory.recordRequest(ipAddr);
     }
 
     @Override
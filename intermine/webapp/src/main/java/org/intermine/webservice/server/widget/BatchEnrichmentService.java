@@ -0,0 +1,169 @@
+package org.intermine.webservice.server.widget;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.intermine.api.InterMineAPI;
+import org.intermine.api.profile.InterMineBag;
+import org.intermine.web.context.InterMineContext;
+import org.intermine.web.logic.widget.BatchEnrichment;
+import org.intermine.web.logic.widget.EnrichmentResults;
+import org.intermine.web.logic.widget.config.EnrichmentWidgetConfig;
+import org.intermine.web.logic.widget.config.WidgetConfig;
+import org.intermine.webservice.server.Format;
+import org.intermine.webservice.server.exceptions.BadRequestException;
+import org.intermine.webservice.server.exceptions.ResourceNotFoundException;
+
+/**
+ * Web service that calculates the enrichment of several lists for several widgets in one
+ * request.  Lists and widgets are given as repeated (or semi-colon separated) list and widget
+ * parameters, and one result is streamed per list, widget and term.
+ */
+public class BatchEnrichmentService extends WidgetService
+{
+    private static final String SEPARATOR = ";";
+    // the columns of flat file output, so that result and error rows line up
+    private static final List<String> COLUMNS = Arrays.asList("list", "widget", "identifier",
+            "description", "p-value", "matches", "populationAnnotationCount", "error");
+
+    private Map<String, Object> pending = null;
+
+    /** @param im The InterMine state object. **/
+    public BatchEnrichmentService(InterMineAPI im) {
+        super(im);
+    }
+
+    @Override
+    protected boolean canServe(Format format) {
+        return format == Format.JSON || Format.FLAT_FILES.contains(format);
+    }
+
+    @Override
+    protected void execute() throws Exception {
+        List<InterMineBag> bags = new ArrayList<InterMineBag>();
+        for (String name : getValues(WidgetsRequestParser.BAG_NAME)) {
+            bags.add(retrieveBag(name));
+        }
+        Map<String, WidgetConfig> allWidgets = InterMineContext.getWebConfig().getWidgets();
+        List<EnrichmentWidgetConfig> widgets = new ArrayList<EnrichmentWidgetConfig>();
+        for (String name : getValues("widget")) {
+            WidgetConfig widgetConfig = allWidgets.get(name);
+            if (!(widgetConfig instanceof EnrichmentWidgetConfig)) {
+                throw new ResourceNotFoundException("Could not find an enrichment widget called \""
+                        + name + "\"");
+            }
+            widgets.add((EnrichmentWidgetConfig) widgetConfig);
+        }
+
+        BatchEnrichment batch = new BatchEnrichment(im.getObjectStore(), getOptions());
+        batch.process(bags, widgets, new BatchEnrichment.ResultHandler() {
+            @Override
+            public void handle(InterMineBag bag, EnrichmentWidgetConfig config,
+                    EnrichmentResults results) {
+                Map<String, Integer> counts = results.getCounts();
+                Map<String, String> labels = results.getLabels();
+                for (Map.Entry<String, BigDecimal> entry : results.getPValues().entrySet()) {
+                    String id = entry.getKey();
+                    Map<String, Object> row = newRow(bag, config);
+                    row.put("identifier", id);
+                    row.put("description", labels.get(id));
+                    row.put("p-value", entry.getValue().doubleValue());
+                    row.put("matches", counts.get(id));
+                    row.put("populationAnnotationCount",
+                            results.getPopulationAnnotations().get(id).getSize());
+                    addRow(row);
+                }
+            }
+
+            @Override
+            public void error(InterMineBag bag, EnrichmentWidgetConfig config, String message) {
+                Map<String, Object> row = newRow(bag, config);
+                row.put("error", message);
+                addRow(row);
+            }
+        });
+        flush(false);
+    }
+
+    private Map<String, Object> newRow(InterMineBag bag, EnrichmentWidgetConfig config) {
+        Map<String, Object> row = new LinkedHashMap<String, Object>();
+        row.put("list", bag.getName());
+        row.put("widget", config.getId());
+        return row;
+    }
+
+    // rows are written one behind, so that JSON output knows whether another one follows
+    private void addRow(Map<String, Object> row) {
+        flush(true);
+        pending = row;
+    }
+
+    private void flush(boolean hasMore) {
+        if (pending == null) {
+            return;
+        }
+        if (formatIsJSON()) {
+            addResultItem(pending, hasMore);
+        } else {
+            List<Object> values = new ArrayList<Object>();
+            for (String column : COLUMNS) {
+                Object value = pending.get(column);
+                values.add((value == null) ? "" : value);
+            }
+            output.addResultItem(getProcessor().formatRow(values));
+        }
+        pending = null;
+    }
+
+    private WidgetsServiceInput getOptions() {
+        WidgetsServiceInput.Builder options = new WidgetsServiceInput.Builder();
+        options.setFilter(getOptionalParameter(WidgetsRequestParser.FILTER));
+        options.setCorrection(getOptionalParameter(WidgetsRequestParser.ERROR_CORRECTION,
+                getProperty("widgets.correction.default")));
+        String maxP = getOptionalParameter(WidgetsRequestParser.MAXP,
+                getProperty("widgets.maxp.default"));
+        if (!StringUtils.isBlank(maxP)) {
+            try {
+                options.setMaxP(Double.parseDouble(maxP));
+            } catch (NumberFormatException e) {
+                throw new BadRequestException("The value of " + WidgetsRequestParser.MAXP
+                        + " should be a valid number.");
+            }
+        }
+        return options;
+    }
+
+    private List<String> getValues(String parameter) {
+        List<String> values = new ArrayList<String>();
+        String[] paramValues = request.getParameterValues(parameter);
+        if (paramValues != null) {
+            for (String value : paramValues) {
+                values.addAll(Arrays.asList(StringUtils.split(value, SEPARATOR)));
+            }
+        }
+        if (values.isEmpty()) {
+            throw new BadRequestException("No value given for " + parameter);
+        }
+        return values;
+    }
+
+    @Override
+    protected WidgetResultProcessor getProcessor() {
+        return FlatFileWidgetResultProcessor.instance();
+    }
+}
@@ -0,0 +1,74 @@
+package org.intermine.web.autocompletion;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the memory mapped prefix index of autocompleted values.
+ */
+public class AutocompleteIndexTest extends TestCase
+{
+    private File file;
+    private AutocompleteIndex index;
+
+    public void setUp() throws Exception {
+        file = File.createTempFile("autocomplete", ".index");
+        AutocompleteIndex.Builder builder = new AutocompleteIndex.Builder();
+        builder.add("SOTerm", "name", "protein_coding_gene", 50);
+        builder.add("SOTerm", "name", "protein", 80);
+        builder.add("SOTerm", "name", "primary transcript", 10);
+        builder.add("SOTerm", "name", "mRNA", 100);
+        builder.add("OntologyTerm", "name", "protein binding", 5);
+        for (int i = 0; i < 100; i++) {
+            builder.add("Gene", "symbol", "CG" + i, 1000 - i);
+        }
+        builder.write(file);
+        index = AutocompleteIndex.open(file);
+    }
+
+    public void tearDown() {
+        file.delete();
+    }
+
+    public void testMostFrequentFirst() {
+        assertEquals(Arrays.asList("protein", "protein_coding_gene", "primary transcript"),
+                index.lookup("SOTerm", "name", "pr", 10));
+        assertEquals(Arrays.asList("protein", "protein_coding_gene"),
+                index.lookup("SOTerm", "name", "prot", 10));
+        assertEquals(Arrays.asList("protein"), index.lookup("SOTerm", "name", "PROT", 1));
+        assertEquals(Arrays.asList("mRNA"), index.lookup("SOTerm", "name", "mr", 10));
+    }
+
+    public void testWordsWithinValues() {
+        assertEquals(Arrays.asList("primary transcript"),
+                index.lookup("SOTerm", "name", "trans", 10));
+        assertEquals(Arrays.asList("protein_coding_gene"),
+                index.lookup("SOTerm", "name", "pro cod", 10));
+        assertEquals(Collections.emptyList(), index.lookup("SOTerm", "name", "pro xyz", 10));
+    }
+
+    public void testFieldsAreSeparate() {
+        assertEquals(Arrays.asList("protein binding"),
+                index.lookup("OntologyTerm", "name", "prot", 10));
+        assertNull(index.lookup("OntologyTerm", "description", "prot", 10));
+        assertTrue(index.contains("Gene", "symbol"));
+        assertFalse(index.contains("Gene", "name"));
+    }
+
+    public void testShortPrefixBeyondStoredValues() {
+        List<String> first = index.lookup("Gene", "symbol", "cg", 10);
+        assertEquals(10, first.size());
+        assertEquals("CG0", first.get(0));
+        assertEquals("CG9", first.get(9));
+        // more than the values stored for the prefix
+        List<String> all = index.lookup("Gene", "symbol", "c", 500);
+        assertEquals(100, all.size());
+        assertEquals("CG99", all.get(99));
+        assertEquals(Arrays.asList("CG42"), index.lookup("Gene", "symbol", "cg42", 10));
+        assertEquals(11, index.lookup("Gene", "symbol", "cg1", 20).size());
+    }
+}
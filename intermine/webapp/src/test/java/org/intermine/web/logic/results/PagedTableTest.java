@@ -0,0 +1,206 @@
+package org.intermine.web.logic.results;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.intermine.api.bag.BagQueryResult;
+import org.intermine.api.results.Column;
+import org.intermine.api.results.ResultElement;
+import org.intermine.api.results.WebTable;
+import org.intermine.api.results.flatouterjoins.MultiRow;
+import org.intermine.api.results.flatouterjoins.MultiRowValue;
+import org.intermine.objectstore.query.ResultsInfo;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.pathquery.Path;
+import org.intermine.pathquery.PathQuery;
+
+/**
+ * Tests for the window of converted rows kept by PagedTable.
+ */
+public class PagedTableTest extends TestCase
+{
+    public void testPagingBackAndForthReusesRows() throws Exception {
+        CountingTable table = new CountingTable(100);
+        PagedTable pt = new PagedTable(table, 10);
+        assertEquals(10, pt.getRows().size());
+        pt.nextPage();
+        pt.previousPage();
+        assertEquals(0, pt.getStartRow());
+        assertSame(table.converted.get(0), pt.getRows().get(0));
+        // pages 0, 1 (prefetched from page 0) and 2 (prefetched from page 1), once each
+        assertEquals(30, table.conversions);
+    }
+
+    public void testWindowIsBounded() throws Exception {
+        CountingTable table = new CountingTable(30);
+        PagedTable pt = new PagedTable(table, 10);
+        pt.getRows();
+        pt.nextPage();
+        pt.nextPage();
+        assertEquals(30, table.conversions);
+        pt.firstPage();
+        assertEquals(0, pt.getStartRow());
+        // the first page was dropped from the window when we got to the third one, so it is
+        // converted again, but the second page is still there
+        assertEquals(40, table.conversions);
+    }
+
+    public void testLastPage() throws Exception {
+        CountingTable table = new CountingTable(25);
+        PagedTable pt = new PagedTable(table, 10);
+        pt.setPageAndPageSize(2, 10);
+        assertEquals(5, pt.getRows().size());
+        assertTrue(pt.isLastPage());
+        try {
+            pt.setPageAndPageSize(3, 10);
+            fail("Expected an exception");
+        } catch (PageOutOfRangeException e) {
+            // expected
+        }
+    }
+
+    public void testAddingColumnsClearsWindow() throws Exception {
+        CountingTable table = new CountingTable(20);
+        PagedTable pt = new PagedTable(table, 10);
+        pt.getRows();
+        table.getColumnsPath().add(null);
+        pt.nextPage();
+        // the prefetched second page was converted before the column was added
+        assertEquals(30, table.conversions);
+    }
+
+    public void testPrefetchDoesNotConvertAlongsideRequest() throws Exception {
+        // two tables of the same results, eg. in two requests
+        UnsafeTable table = new UnsafeTable(1000);
+        PagedTable pt1 = new PagedTable(table, 10);
+        PagedTable pt2 = new PagedTable(table, 10);
+        for (int i = 0; i < 20; i++) {
+            pt1.setPageAndPageSize(i, 10);
+            pt2.setPageAndPageSize(i + 30, 10);
+        }
+        assertFalse(table.overlapped);
+    }
+
+    /**
+     * A table that notices if two threads convert rows from it at the same time.
+     */
+    private static class UnsafeTable extends CountingTable
+    {
+        private volatile boolean converting = false;
+        private volatile boolean overlapped = false;
+
+        UnsafeTable(int size) {
+            super(size);
+        }
+
+        @Override
+        public MultiRow<ResultsRow<MultiRowValue<ResultElement>>> getResultElements(int index) {
+            if (converting) {
+                overlapped = true;
+            }
+            converting = true;
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            converting = false;
+            return new MultiRow<ResultsRow<MultiRowValue<ResultElement>>>();
+        }
+    }
+
+    private static class CountingTable
+        extends AbstractList<MultiRow<ResultsRow<MultiRowValue<ResultElement>>>>
+        implements WebTable
+    {
+        private final int size;
+        private final List<Path> columnPaths = new ArrayList<Path>();
+        private final Map<Integer, MultiRow<ResultsRow<MultiRowValue<ResultElement>>>> converted
+            = Collections.synchronizedMap(
+                new HashMap<Integer, MultiRow<ResultsRow<MultiRowValue<ResultElement>>>>());
+        private int conversions = 0;
+
+        CountingTable(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public synchronized MultiRow<ResultsRow<MultiRowValue<ResultElement>>> getResultElements(
+                int index) {
+            if (index >= size) {
+                throw new IndexOutOfBoundsException("" + index);
+            }
+            conversions++;
+            MultiRow<ResultsRow<MultiRowValue<ResultElement>>> row
+                = new MultiRow<ResultsRow<MultiRowValue<ResultElement>>>();
+            converted.put(index, row);
+            return row;
+        }
+
+        @Override
+        public MultiRow<ResultsRow<MultiRowValue<ResultElement>>> get(int index) {
+            return getResultElements(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean isSingleBatch() {
+            return false;
+        }
+
+        @Override
+        public List<Column> getColumns() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isSizeEstimate() {
+            return false;
+        }
+
+        @Override
+        public int getEstimatedSize() {
+            return size;
+        }
+
+        @Override
+        public int getMaxRetrievableIndex() {
+            return size;
+        }
+
+        @Override
+        public Map<String, BagQueryResult> getPathToBagQueryResult() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public PathQuery getPathQuery() {
+            return null;
+        }
+
+        @Override
+        public ResultsInfo getInfo() {
+            return null;
+        }
+
+        @Override
+        public List<Path> getColumnsPath() {
+            return columnPaths;
+        }
+
+        @Override
+        public void addColumns(List<Path> paths) {
+            columnPaths.addAll(paths);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package org.intermine.web.logic.widget;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.intermine.api.profile.InterMineBag;
+import org.intermine.api.profile.Profile;
+import org.intermine.model.testmodel.Company;
+import org.intermine.model.testmodel.CompanyShadow;
+import org.intermine.model.testmodel.Contractor;
+import org.intermine.model.testmodel.Department;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.objectstore.ObjectStoreWriter;
+import org.intermine.objectstore.ObjectStoreWriterFactory;
+import org.intermine.web.logic.widget.config.EnrichmentWidgetConfig;
+
+public class BatchEnrichmentTest extends WidgetConfigTestCase
+{
+    private static final String BONFERRONI = "Bonferroni";
+    private static final String HOLM_BONFERRONI = "Holm-Bonferroni";
+
+    private InterMineBag employeeList, overlapList, otherList, companyList;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        // two employees of a company with one contractor
+        employeeList = createEmployeeList();
+        // three employees of a company with two contractors
+        List<Integer> others = createEmployees("otherCompany", 3, "ContractorB", "ContractorC");
+        otherList = createList("otherList", others);
+        // shares an employee with each of the other lists
+        overlapList = createList("overlapList",
+                Arrays.asList(employeeList.getContentsAsIds().get(0), others.get(0)));
+        companyList = createCompanyList();
+    }
+
+    public void testSameAsSingleList() throws Exception {
+        for (String correction : Arrays.asList(BONFERRONI, HOLM_BONFERRONI)) {
+            assertSameAsSingleList("contractor_enrichment", null, correction);
+            assertSameAsSingleList("contractor_enrichment_with_filter1", "department",
+                    correction);
+        }
+    }
+
+    public void testInvalidBagType() throws Exception {
+        EnrichmentWidgetConfig config = getConfig("contractor_enrichment");
+        CollectingHandler handler = process(config, null, BONFERRONI);
+        assertEquals(Collections.singleton(companyList.getName()), handler.errors.keySet());
+        assertFalse(handler.results.containsKey(companyList.getName()));
+        assertEquals(3, handler.results.size());
+    }
+
+    private void assertSameAsSingleList(String widget, String filter, String correction)
+        throws Exception {
+        EnrichmentWidgetConfig config = getConfig(widget);
+        CollectingHandler handler = process(config, filter, correction);
+        for (InterMineBag bag : Arrays.asList(employeeList, overlapList, otherList)) {
+            EnrichmentWidgetImplLdr ldr = new EnrichmentWidgetImplLdr(bag, null, os, config,
+                    filter, false, null, null, null);
+            EnrichmentResults expected = EnrichmentCalculation.calculate(
+                    new EnrichmentInputWidgetLdr(os, ldr), 1.0d, correction, false, null);
+            EnrichmentResults actual = handler.results.get(bag.getName());
+            String message = widget + ", " + correction + ", " + bag.getName();
+            assertNotNull(message, actual);
+            assertFalse(message, expected.getPValues().isEmpty());
+            assertEquals(message, expected.getCounts(), actual.getCounts());
+            assertEquals(message, expected.getLabels(), actual.getLabels());
+            assertEquals(message, expected.getAnalysedTotal(), actual.getAnalysedTotal());
+            assertEquals(message, expected.getPopulationTotal(), actual.getPopulationTotal());
+            assertEquals(message, expected.getPValues().keySet(), actual.getPValues().keySet());
+            for (Map.Entry<String, BigDecimal> entry : expected.getPValues().entrySet()) {
+                assertEquals(message, 0, entry.getValue().compareTo(
+                        actual.getPValues().get(entry.getKey())));
+                assertEquals(message,
+                        expected.getPopulationAnnotations().get(entry.getKey()).getSize(),
+                        actual.getPopulationAnnotations().get(entry.getKey()).getSize());
+            }
+        }
+    }
+
+    private CollectingHandler process(EnrichmentWidgetConfig config, String filter,
+            String correction) {
+        CollectingHandler handler = new CollectingHandler();
+        new BatchEnrichment(os, new Options(filter, correction)).process(
+                Arrays.asList(employeeList, overlapList, otherList, companyList),
+                Collections.singletonList(config), handler);
+        return handler;
+    }
+
+    private EnrichmentWidgetConfig getConfig(String widget) {
+        return (EnrichmentWidgetConfig) webConfig.getWidgets().get(widget);
+    }
+
+    private List<Integer> createEmployees(String companyName, int count, String... contractors)
+        throws Exception {
+        ObjectStoreWriter osw = ObjectStoreWriterFactory.getObjectStoreWriter("osw.unittest");
+        try {
+            Company company = new CompanyShadow();
+            company.setName(companyName);
+            for (String name : contractors) {
+                Contractor contractor = new Contractor();
+                contractor.setName(name);
+                osw.store(contractor);
+                company.addContractors(contractor);
+            }
+            osw.store(company);
+            Department department = new Department();
+            department.setName("department");
+            department.setCompany(company);
+            osw.store(department);
+            List<Integer> ids = new ArrayList<Integer>();
+            for (int i = 0; i < count; i++) {
+                Employee employee = new Employee();
+                employee.setName(companyName + "Employee" + i);
+                employee.setDepartment(department);
+                osw.store(employee);
+                ids.add(employee.getId());
+            }
+            return ids;
+        } finally {
+            osw.close();
+        }
+    }
+
+    private InterMineBag createList(String name, Collection<Integer> ids) throws Exception {
+        Profile superUser = im.getProfileManager().getSuperuserProfile();
+        InterMineBag list = superUser.createBag(name, "Employee", "", im.getClassKeys());
+        list.addIdsToBag(ids, "Employee");
+        return list;
+    }
+
+    private static final class CollectingHandler implements BatchEnrichment.ResultHandler
+    {
+        private final Map<String, EnrichmentResults> results
+            = new HashMap<String, EnrichmentResults>();
+        private final Map<String, String> errors = new HashMap<String, String>();
+
+        @Override
+        public void handle(InterMineBag bag, EnrichmentWidgetConfig config,
+                EnrichmentResults enrichmentResults) {
+            results.put(bag.getName(), enrichmentResults);
+        }
+
+        @Override
+        public void error(InterMineBag bag, EnrichmentWidgetConfig config, String message) {
+            errors.put(bag.getName(), message);
+        }
+    }
+
+    private static final class Options implements EnrichmentOptions
+    {
+        private final String filter;
+        private final String correction;
+
+        Options(String filter, String correction) {
+            this.filter = filter;
+            this.correction = correction;
+        }
+
+        @Override
+        public String getFilter() {
+            return filter;
+        }
+
+        @Override
+        public double getMaxPValue() {
+            return 1.0d;
+        }
+
+        @Override
+        public String getCorrection() {
+            return correction;
+        }
+
+        @Override
+        public String getExtraCorrectionCoefficient() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.intermine.web.logic.widget;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+public class HypergeometricTest extends TestCase
+{
+    public void testUpperCumulativeProbability() {
+        // expected values are exact sums of the probabilities, worked out with rationals
+        assertP(0.848297213622291, 20, 5, 10, 2);
+        assertP(0.15170278637770898, 20, 5, 10, 4);
+        assertP(0.9048837275692115, 100, 10, 20, 1);
+        assertP(0.8607838781036365, 15000, 200, 5000, 60);
+        assertP(0.03702222189306997, 15000, 3, 5000, 3);
+    }
+
+    public void testVerySmallPValues() {
+        double p = Hypergeometric.upperCumulativeProbability(15000, 200, 5000, 150);
+        assertEquals(8.038232497335903e-34, p, 8.038232497335903e-34 * 1e-6);
+    }
+
+    public void testOutsideSupport() {
+        assertEquals(1.0, Hypergeometric.upperCumulativeProbability(30, 10, 15, 0));
+        assertEquals(1.0, Hypergeometric.upperCumulativeProbability(10, 10, 5, 5));
+        assertEquals(0.0, Hypergeometric.upperCumulativeProbability(100, 0, 20, 1));
+        assertEquals(0.0, Hypergeometric.upperCumulativeProbability(100, 10, 20, 11));
+    }
+
+    public void testLogFactorial() {
+        assertEquals(0.0, Hypergeometric.logFactorial(0));
+        assertEquals(Math.log(120), Hypergeometric.logFactorial(5), 1e-12);
+        // beyond the initial table
+        double expected = 0;
+        for (int i = 2; i <= 5000; i++) {
+            expected += Math.log(i);
+        }
+        assertEquals(expected, Hypergeometric.logFactorial(5000), expected * 1e-9);
+    }
+
+    private void assertP(double expected, int populationSize, int populationCount,
+            int sampleSize, int sampleCount) {
+        assertEquals(expected, Hypergeometric.upperCumulativeProbability(populationSize,
+                populationCount, sampleSize, sampleCount), 1e-9);
+    }
+}
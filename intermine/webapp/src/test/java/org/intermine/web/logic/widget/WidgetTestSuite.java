@@ -9,6 +9,8 @@ public class WidgetTestSuite extends TestSuite{
     {
         TestSuite suite = new TestSuite();
         //suite.addTestSuite(EnrichmentWidgetTest.class);
+        suite.addTestSuite(BatchEnrichmentTest.class);
+        suite.addTestSuite(HypergeometricTest.class);
         suite.addTestSuite(WidgetConfigTest.class);
         suite.addTestSuite(WidgetConfigUtilTest.class);
         suite.addTestSuite(WidgetLdrTest.class);
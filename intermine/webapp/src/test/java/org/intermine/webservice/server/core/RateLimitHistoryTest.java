@@ -0,0 +1,112 @@
+package org.intermine.webservice.server.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+public class RateLimitHistoryTest extends TestCase {
+
+    private long now;
+    private RateLimitHistory history;
+
+    @Override
+    protected void setUp() {
+        now = 1000000L;
+        // 3 requests every 16 seconds, so each slot is one second
+        history = new RateLimitHistory(16, 3) {
+            @Override
+            protected long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    public void testLimit() {
+        for (int i = 0; i < 3; i++) {
+            assertTrue(history.isWithinLimit("a"));
+            history.recordRequest("a");
+            now += 1000;
+        }
+        assertFalse(history.isWithinLimit("a"));
+        assertTrue(history.isWithinLimit("b"));
+        assertTrue(history.isWithinLimit(null));
+    }
+
+    public void testWindowSlides() {
+        history.recordRequest("a");
+        now += 5000;
+        history.recordRequest("a");
+        history.recordRequest("a");
+        assertFalse(history.isWithinLimit("a"));
+        // the first request is still within the period
+        now += 10999;
+        assertFalse(history.isWithinLimit("a"));
+        // and now it isn't
+        now += 1001;
+        assertTrue(history.isWithinLimit("a"));
+        assertTrue(history.tryRecordRequest("a"));
+        assertFalse(history.tryRecordRequest("a"));
+    }
+
+    public void testTryRecordRequest() {
+        assertTrue(history.tryRecordRequest("a"));
+        assertTrue(history.tryRecordRequest("a"));
+        assertTrue(history.tryRecordRequest("a"));
+        assertFalse(history.tryRecordRequest("a"));
+        assertFalse(history.isWithinLimit("a"));
+        now += 18000;
+        assertTrue(history.tryRecordRequest("a"));
+    }
+
+    public void testIdleRequestersAreForgotten() {
+        history.recordRequest("a");
+        history.recordRequest("b");
+        now += 10000;
+        history.recordRequest("b");
+        assertEquals(2, history.size());
+        now += 10000;
+        history.recordRequest("c");
+        assertEquals(2, history.size());
+        assertTrue(history.isWithinLimit("a"));
+        now += 40000;
+        assertTrue(history.isWithinLimit("c"));
+        assertEquals(0, history.size());
+    }
+
+    public void testConcurrentRequests() throws Exception {
+        final RateLimitHistory shared = new RateLimitHistory(3600, 1000);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < 8; t++) {
+                final int thread = t;
+                results.add(pool.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        int accepted = 0;
+                        for (int i = 0; i < 5000; i++) {
+                            if (shared.tryRecordRequest("shared")) {
+                                accepted++;
+                            }
+                            shared.tryRecordRequest("thread" + thread + "." + (i % 100));
+                        }
+                        return accepted;
+                    }
+                }));
+            }
+            int accepted = 0;
+            for (Future<Integer> result : results) {
+                accepted += result.get();
+            }
+            assertEquals(1000, accepted);
+            assertEquals(801, shared.size());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
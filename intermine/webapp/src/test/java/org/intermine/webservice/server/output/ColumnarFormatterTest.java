@@ -0,0 +1,201 @@
+package org.intermine.webservice.server.output;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class ColumnarFormatterTest extends TestCase {
+
+    private Map<String, Object> attributes;
+
+    @Override
+    protected void setUp() {
+        attributes = new HashMap<String, Object>();
+        attributes.put(ColumnarFormatter.KEY_COLUMNS,
+                Arrays.asList("Gene.symbol", "Gene.length", "Gene.score"));
+        attributes.put(ColumnarFormatter.KEY_COLUMN_TYPES,
+                Arrays.asList("java.lang.String", "java.lang.Integer"));
+    }
+
+    public void testRoundTrip() throws Exception {
+        List<List<Object>> rows = new ArrayList<List<Object>>();
+        for (int i = 0; i < 23; i++) {
+            rows.add(Arrays.<Object>asList("gene" + (i % 4), i * 1000 - 5000,
+                    i % 3 == 0 ? null : i / 4.0));
+        }
+        rows.add(Arrays.<Object>asList("\u00dcber \u4e2d \ud83d\ude00", Long.MIN_VALUE, true));
+        rows.add(Arrays.<Object>asList("bad \ud83d surrogate", null, new Date(-86400000L)));
+
+        Decoded decoded = decode(write(rows, 5, null, 200));
+        assertEquals(Arrays.asList("Gene.symbol", "Gene.length", "Gene.score"), decoded.columns);
+        assertEquals(Arrays.asList("java.lang.String", "java.lang.Integer", ""), decoded.types);
+        List<List<Object>> expected = new ArrayList<List<Object>>();
+        for (List<Object> row : rows) {
+            List<Object> copy = new ArrayList<Object>();
+            for (Object o : row) {
+                copy.add(o instanceof Integer ? Long.valueOf(((Integer) o).longValue()) : o);
+            }
+            expected.add(copy);
+        }
+        expected.get(rows.size() - 1).set(0, "bad ? surrogate");
+        assertEquals(expected, decoded.rows);
+        assertEquals(200, decoded.status);
+        assertEquals("", decoded.error);
+    }
+
+    public void testRepeatedStringsAreShared() throws Exception {
+        List<List<Object>> rows = new ArrayList<List<Object>>();
+        for (int i = 0; i < 1000; i++) {
+            rows.add(Arrays.<Object>asList("Drosophila melanogaster", i, null));
+        }
+        byte[] bytes = write(rows, 100, null, 200);
+        // one literal and then a one byte code for each of the other rows
+        assertTrue(bytes.length < 1000 * 4);
+        assertEquals(rows.size(), decode(bytes).rows.size());
+    }
+
+    public void testErrorAndNoRows() throws Exception {
+        Decoded decoded = decode(write(new ArrayList<List<Object>>(), 10, "Our bad", 500));
+        assertEquals(3, decoded.columns.size());
+        assertTrue(decoded.rows.isEmpty());
+        assertEquals(500, decoded.status);
+        assertEquals("Our bad", decoded.error);
+    }
+
+    private byte[] write(List<List<Object>> rows, int groupSize, String error, int code)
+        throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        StreamingOutput output = new StreamingOutput(new ByteSink(bytes, 32),
+                new ColumnarFormatter(groupSize), "");
+        output.setHeaderAttributes(attributes);
+        List<Object> reused = new ArrayList<Object>();
+        for (List<Object> row : rows) {
+            reused.clear();
+            reused.addAll(row);
+            output.addRow(reused);
+        }
+        if (error != null) {
+            output.setError(error, code);
+        }
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    private static class Decoded {
+        List<String> columns = new ArrayList<String>();
+        List<String> types = new ArrayList<String>();
+        List<List<Object>> rows = new ArrayList<List<Object>>();
+        long status;
+        String error;
+    }
+
+    private static Decoded decode(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        byte[] magic = new byte[5];
+        in.readFully(magic);
+        assertEquals(ColumnarFormatter.MAGIC, new String(magic, StandardCharsets.US_ASCII));
+        assertEquals(ColumnarFormatter.VERSION, in.readUnsignedByte());
+        Decoded decoded = new Decoded();
+        long columnCount = readVarint(in);
+        for (int i = 0; i < columnCount; i++) {
+            decoded.columns.add(readString(in));
+            decoded.types.add(readString(in));
+        }
+        List<List<String>> dictionaries = new ArrayList<List<String>>();
+        long rowCount;
+        while ((rowCount = readVarint(in)) != 0) {
+            int columns = (int) readVarint(in);
+            Object[][] group = new Object[(int) rowCount][columns];
+            for (int c = 0; c < columns; c++) {
+                while (dictionaries.size() <= c) {
+                    dictionaries.add(new ArrayList<String>());
+                }
+                int encoding = in.readUnsignedByte();
+                if (encoding == ColumnarFormatter.NULLS) {
+                    continue;
+                }
+                boolean[] nulls = new boolean[(int) rowCount];
+                if (in.readUnsignedByte() == 1) {
+                    for (int r = 0; r < rowCount; r += 8) {
+                        int bits = in.readUnsignedByte();
+                        for (int b = 0; b < 8 && r + b < rowCount; b++) {
+                            nulls[r + b] = (bits & (1 << b)) != 0;
+                        }
+                    }
+                }
+                for (int r = 0; r < rowCount; r++) {
+                    if (!nulls[r]) {
+                        int type = encoding == ColumnarFormatter.MIXED
+                                ? in.readUnsignedByte() : encoding;
+                        group[r][c] = readValue(type, in, dictionaries.get(c));
+                    }
+                }
+            }
+            for (Object[] row : group) {
+                decoded.rows.add(Arrays.asList(row));
+            }
+        }
+        decoded.status = readVarint(in);
+        decoded.error = readString(in);
+        assertEquals(-1, in.read());
+        return decoded;
+    }
+
+    private static Object readValue(int type, DataInputStream in, List<String> dictionary)
+        throws IOException {
+        switch (type) {
+            case ColumnarFormatter.INT:
+                return Long.valueOf(readSignedVarint(in));
+            case ColumnarFormatter.DOUBLE:
+                return Double.valueOf(in.readDouble());
+            case ColumnarFormatter.BOOLEAN:
+                return Boolean.valueOf(in.readUnsignedByte() == 1);
+            case ColumnarFormatter.DATE:
+                return new Date(readSignedVarint(in));
+            case ColumnarFormatter.STRING:
+                int code = (int) readVarint(in);
+                if (code > 0) {
+                    return dictionary.get(code - 1);
+                }
+                String s = readString(in);
+                if (dictionary.size() < ColumnarFormatter.MAX_DICTIONARY_SIZE) {
+                    dictionary.add(s);
+                }
+                return s;
+            default:
+                throw new IOException("Unknown encoding " + type);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) readVarint(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long readSignedVarint(DataInputStream in) throws IOException {
+        long v = readVarint(in);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
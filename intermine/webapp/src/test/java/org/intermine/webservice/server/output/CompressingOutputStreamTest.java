@@ -0,0 +1,98 @@
+package org.intermine.webservice.server.output;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import junit.framework.TestCase;
+
+import org.intermine.webservice.server.output.CompressingOutputStream.Encoding;
+
+public class CompressingOutputStreamTest extends TestCase {
+
+    public void testNegotiate() {
+        assertNull(CompressingOutputStream.negotiate(null));
+        assertNull(CompressingOutputStream.negotiate(""));
+        assertNull(CompressingOutputStream.negotiate("identity"));
+        assertNull(CompressingOutputStream.negotiate("br"));
+        assertEquals(Encoding.GZIP, CompressingOutputStream.negotiate("gzip"));
+        assertEquals(Encoding.GZIP, CompressingOutputStream.negotiate("gzip, deflate, br"));
+        assertEquals(Encoding.GZIP, CompressingOutputStream.negotiate("x-gzip"));
+        assertEquals(Encoding.DEFLATE, CompressingOutputStream.negotiate("deflate"));
+        assertEquals(Encoding.DEFLATE,
+                CompressingOutputStream.negotiate("gzip;q=0.5, deflate;q=0.8"));
+        assertEquals(Encoding.GZIP, CompressingOutputStream.negotiate("*"));
+        assertEquals(Encoding.DEFLATE, CompressingOutputStream.negotiate("gzip;q=0, *"));
+        assertNull(CompressingOutputStream.negotiate("gzip;q=0, deflate;q=0"));
+        assertNull(CompressingOutputStream.negotiate("*;q=0"));
+    }
+
+    public void testGzip() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CompressingOutputStream out = write(bytes, Encoding.GZIP);
+        assertEquals(text(), read(new GZIPInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()))));
+        assertEquals(bytes.size(), out.getBytesOut());
+        assertEquals(text().length(), out.getBytesIn());
+        assertTrue(out.getRatio() > 10);
+    }
+
+    public void testDeflate() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        write(bytes, Encoding.DEFLATE);
+        assertEquals(text(), read(new InflaterInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()))));
+    }
+
+    public void testFlushSize() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CompressingOutputStream out = new CompressingOutputStream(bytes, Encoding.GZIP, 512, 0);
+        byte[] row = "Gene\tzen\tDrosophila melanogaster\n".getBytes(StandardCharsets.UTF_8);
+        out.write(row);
+        out.flush();
+        // only the gzip header, as flushes are ignored
+        assertEquals(10, bytes.size());
+
+        bytes.reset();
+        out = new CompressingOutputStream(bytes, Encoding.GZIP, 512, row.length);
+        out.write(row);
+        // the compressed row has been passed on
+        assertTrue(bytes.size() > 10);
+        out.close();
+        out.close();
+    }
+
+    private CompressingOutputStream write(ByteArrayOutputStream bytes, Encoding encoding)
+        throws IOException {
+        CompressingOutputStream out = new CompressingOutputStream(bytes, encoding, 512, 4096);
+        byte[] text = text().getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < text.length; i += 100) {
+            out.write(text, i, Math.min(100, text.length - i));
+            out.flush();
+        }
+        out.close();
+        return out;
+    }
+
+    private static String text() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append("Gene\tzen").append(i % 10).append("\tDrosophila melanogaster\n");
+        }
+        return sb.toString();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,99 @@
+package org.intermine.webservice.server.output;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class StreamingOutputTest extends TestCase {
+
+    private static final List<List<Object>> ROWS = Arrays.asList(
+            Arrays.<Object>asList("Tim Canterbury", 30, -7L),
+            Arrays.<Object>asList("Gareth \"Keenan\"", null, ""),
+            Arrays.<Object>asList("tab\there, comma", 0, Long.MIN_VALUE),
+            Arrays.<Object>asList("\u00dcber stra\u00dfe \u4e2d \ud83d\ude00", 12.5, true));
+
+    private Map<String, Object> attributes;
+
+    @Override
+    protected void setUp() {
+        attributes = new HashMap<String, Object>();
+        attributes.put(FlatFileFormatter.COLUMN_HEADERS, Arrays.asList("foo", "bar", "baz"));
+    }
+
+    public void testTabMatchesStreamedOutput() throws Exception {
+        assertSameOutput(new TabFormatter(false), FlatFileStreamingFormatter.tsv(false), null);
+        assertSameOutput(new TabFormatter(true), FlatFileStreamingFormatter.tsv(true), null);
+    }
+
+    public void testCSVMatchesStreamedOutput() throws Exception {
+        assertSameOutput(new CSVFormatter(), FlatFileStreamingFormatter.csv(), null);
+        assertSameOutput(new CSVFormatter(), FlatFileStreamingFormatter.csv(), "Our bad");
+    }
+
+    public void testNoRows() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        StreamingOutput out = new StreamingOutput(new ByteSink(bytes),
+                FlatFileStreamingFormatter.csv(), "\n");
+        out.flush();
+        assertEquals(0, bytes.size());
+        assertEquals(0, out.getResultsCount());
+    }
+
+    public void testByteSinkEncoding() throws Exception {
+        String text = "ascii \u00e9 \u4e2d \ud83d\ude00 end";
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        // a small buffer, so that characters are split across flushes
+        ByteSink sink = new ByteSink(bytes, 32);
+        for (int i = 0; i < 20; i++) {
+            sink.write(text);
+            sink.write(i - 10);
+        }
+        sink.write(Long.MAX_VALUE);
+        sink.flush();
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            expected.append(text).append(i - 10);
+        }
+        expected.append(Long.MAX_VALUE);
+        assertEquals(expected.toString(), new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private void assertSameOutput(Formatter formatter, StreamingFormatter streamingFormatter,
+            String error) throws Exception {
+        StringWriter sw = new StringWriter();
+        StreamedOutput expected = new StreamedOutput(new PrintWriter(sw), formatter, "\r\n");
+        expected.setHeaderAttributes(attributes);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        StreamingOutput actual = new StreamingOutput(new ByteSink(bytes), streamingFormatter,
+                "\r\n");
+        actual.setHeaderAttributes(attributes);
+
+        for (List<Object> row : ROWS) {
+            // the old route turns every value into a string first
+            List<String> strings = new ArrayList<String>();
+            for (Object o : row) {
+                strings.add(o == null ? "" : o.toString());
+            }
+            expected.addResultItem(strings);
+            actual.addRow(row);
+        }
+        if (error != null) {
+            expected.setError(error, 500);
+            actual.setError(error, 500);
+        }
+        expected.flush();
+        actual.flush();
+
+        assertEquals(sw.toString(), new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(expected.getResultsCount(), actual.getResultsCount());
+    }
+}
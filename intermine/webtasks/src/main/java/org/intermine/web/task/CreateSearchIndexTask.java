@@ -20,7 +20,8 @@ import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Task;
 import org.intermine.api.config.ClassKeyHelper;
 import org.intermine.api.searchengine.IndexHandler;
-import org.intermine.api.searchengine.solr.SolrIndexHandler;
+import org.intermine.api.searchengine.KeywordSearchPropertiesManager;
+import org.intermine.api.searchengine.SearchEngineFactory;
 import org.intermine.metadata.FieldDescriptor;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreFactory;
@@ -114,8 +115,12 @@ public class CreateSearchIndexTask extends Task
 
         //index and save. Deleting previous index happens within itself
         try {
-            IndexHandler indexHandler = new SolrIndexHandler();
-            indexHandler.createIndex(objectStore, classKeys);
+            IndexHandler indexHandler = SearchEngineFactory.getIndexHandler(objectStore);
+            if (KeywordSearchPropertiesManager.getInstance(objectStore).getIncremental()) {
+                indexHandler.updateIndex(objectStore, classKeys);
+            } else {
+                indexHandler.createIndex(objectStore, classKeys);
+            }
 
         } catch (Exception e) {
             System.out .println("Creating keyword index failed");
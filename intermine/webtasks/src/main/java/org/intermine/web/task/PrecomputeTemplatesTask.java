@@ -10,6 +10,8 @@ package org.intermine.web.task;
  *
  */
 
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
@@ -26,6 +28,7 @@ import org.intermine.api.profile.ProfileManager;
 import org.intermine.api.template.ApiTemplate;
 import org.intermine.api.template.TemplatePrecomputeHelper;
 import org.intermine.api.template.TemplateSummariser;
+import org.intermine.api.tracker.TemplateTracker;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.ObjectStoreFactory;
@@ -33,11 +36,14 @@ import org.intermine.objectstore.ObjectStoreSummary;
 import org.intermine.objectstore.ObjectStoreWriter;
 import org.intermine.objectstore.ObjectStoreWriterFactory;
 import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.intermine.ObjectStoreWriterInterMineImpl;
 import org.intermine.objectstore.intermine.ParallelPrecomputer;
+import org.intermine.objectstore.intermine.PrecomputeAdvisor;
 import org.intermine.objectstore.query.ConstraintSet;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryNode;
 import org.intermine.api.template.TemplateManager;
+import org.intermine.sql.precompute.PrecomputedTable;
 
 /**
  * A Task that reads a list of queries from a properties file (eg. testmodel_precompute.properties)
@@ -64,6 +70,9 @@ public class PrecomputeTemplatesTask extends Task
     protected String ignore = "";
     protected Set<String> ignoreNames = new HashSet<String>();
     protected boolean doSummarise = true;
+    protected long diskBudget = 0;
+    protected String logTable = null;
+    protected boolean adviseOnly = false;
 
     /**
      * Set the ObjectStore alias
@@ -120,6 +129,36 @@ public class PrecomputeTemplatesTask extends Task
         LOG.info("Set summarise to " + doSummarise + " (with string " + summarise + ")");
     }
 
+    /**
+     * Set a disk budget, in megabytes, to precompute the workload actually seen instead of every
+     * template.  The template executions recorded by the template tracker and the queries in the
+     * execute log table are given to a PrecomputeAdvisor, and the join shapes it proposes within
+     * the budget are precomputed.  Tables it created before count against the budget, and are
+     * dropped once they are no longer proposed.
+     * @param diskBudget the number of megabytes all the advisor's precomputed tables may take
+     */
+    public void setDiskBudget(Integer diskBudget) {
+        this.diskBudget = diskBudget.longValue();
+    }
+
+    /**
+     * Set the name of the execute log table to read when a disk budget is set.  Defaults to the
+     * log table of the ObjectStore, if it has one.
+     * @param logTable the name of the log table
+     */
+    public void setLogTable(String logTable) {
+        this.logTable = logTable;
+    }
+
+    /**
+     * Set whether to only log the precomputed tables proposed for the disk budget, without
+     * creating them or dropping the stale ones.
+     * @param adviseOnly if true, don't create the proposed tables or drop the stale ones
+     */
+    public void setAdviseOnly(boolean adviseOnly) {
+        this.adviseOnly = adviseOnly;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -168,6 +207,12 @@ public class PrecomputeTemplatesTask extends Task
     protected void precomputeTemplates() {
         List<ApiTemplate> toSummarise = new ArrayList<ApiTemplate>();
         List<ParallelPrecomputer.Job> jobs = new ArrayList<ParallelPrecomputer.Job>();
+        PrecomputeAdvisor advisor = null;
+        Map<String, Integer> executionCounts = null;
+        if (diskBudget > 0) {
+            advisor = new PrecomputeAdvisor((ObjectStoreInterMineImpl) os);
+            executionCounts = getTemplateExecutionCounts();
+        }
         for (Map.Entry<String, ApiTemplate> entry : getPrecomputeTemplateQueries().entrySet()) {
             ApiTemplate template = entry.getValue();
 
@@ -208,14 +253,26 @@ public class PrecomputeTemplatesTask extends Task
 
             toSummarise.add(template);
 
-            jobs.add(new ParallelPrecomputer.Job(template.getName(), q, indexes, false,
-                        PRECOMPUTE_CATEGORY_TEMPLATE));
+            if (advisor == null) {
+                jobs.add(new ParallelPrecomputer.Job(template.getName(), q, indexes, false,
+                            PRECOMPUTE_CATEGORY_TEMPLATE));
+            } else if (executionCounts.containsKey(template.getName())) {
+                try {
+                    advisor.addRuns(q, executionCounts.get(template.getName()).intValue());
+                } catch (ObjectStoreException e) {
+                    LOG.warn("Could not estimate template " + template.getName(), e);
+                }
+            }
         }
-        ParallelPrecomputer pp = new ParallelPrecomputer((ObjectStoreInterMineImpl) os, 4);
-        try {
-            pp.precompute(jobs);
-        } catch (ObjectStoreException e) {
-            throw new BuildException(e);
+        if (advisor == null) {
+            ParallelPrecomputer pp = new ParallelPrecomputer((ObjectStoreInterMineImpl) os, 4);
+            try {
+                pp.precompute(jobs);
+            } catch (ObjectStoreException e) {
+                throw new BuildException(e);
+            }
+        } else {
+            precomputeAdvised(advisor);
         }
         // TODO:  don't require servlet context to create oss, we can't get it here yet
         ObjectStoreSummary oss = null;
@@ -260,6 +317,60 @@ public class PrecomputeTemplatesTask extends Task
                  + " seconds for: " + query);
     }
 
+    /**
+     * Add the queries in the execute log table to the advisor, drop the tables it no longer
+     * proposes and precompute the join shapes it proposes within the disk budget.
+     * @param advisor a PrecomputeAdvisor that has been given the template executions
+     * @throws BuildException if the log can't be read or the tables can't be created
+     */
+    protected void precomputeAdvised(PrecomputeAdvisor advisor) {
+        String table = (logTable == null ? ((ObjectStoreInterMineImpl) os).getLogTableName()
+                : logTable);
+        try {
+            if (table == null) {
+                LOG.warn("No execute log table, advising from template executions only");
+            } else {
+                advisor.addLoggedQueries(table);
+            }
+            List<PrecomputeAdvisor.Shape> chosen = advisor.propose(diskBudget * 1024 * 1024);
+            for (PrecomputeAdvisor.Shape shape : chosen) {
+                LOG.info("Precompute advisor proposes " + shape);
+            }
+            for (PrecomputedTable pt : advisor.getStaleTables()) {
+                LOG.info("Precompute advisor no longer proposes " + pt.getName());
+            }
+            if (!adviseOnly) {
+                advisor.dropStaleTables();
+                advisor.precompute(chosen, 4, minRows);
+            }
+        } catch (ObjectStoreException e) {
+            throw new BuildException(e);
+        }
+    }
+
+    /**
+     * Get the number of times each public template has been run, from the template tracker.
+     * @return Map from template name to number of executions
+     * @throws BuildException if the tracker table can't be read
+     */
+    protected Map<String, Integer> getTemplateExecutionCounts() {
+        Connection con = null;
+        try {
+            con = ((ObjectStoreWriterInterMineImpl) userProfileOS).getDatabase().getConnection();
+            return TemplateTracker.getExecutionCounts(con);
+        } catch (SQLException e) {
+            throw new BuildException("Could not read template executions from the tracker", e);
+        } finally {
+            if (con != null) {
+                try {
+                    con.close();
+                } catch (SQLException e) {
+                    // At this stage, we really don't care
+                }
+            }
+        }
+    }
+
     /**
      * Get the super user's public templates
      * @return Map from template name to TemplateQuery
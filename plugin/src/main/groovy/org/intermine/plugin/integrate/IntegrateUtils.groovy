@@ -205,6 +205,8 @@ class IntegrateUtils {
         if (includes == null || includes == "") {
             includes = "*.gff,*.gff3"
         }
+        String parserThreads = (ant.project.getProperty("gff3.parserThreads") != null) ?
+                ant.project.getProperty("gff3.parserThreads") : "1"
 
         ant.taskdef(name: "convertGFF3File", classname: "org.intermine.bio.task.GFF3ConverterTask") {
             classpath {
@@ -224,6 +226,7 @@ class IntegrateUtils {
                 model: "genomic",
                 handlerClassName: bioSourceProperties.getProperty("gff3.handlerClassName"),
                 seqHandlerClassName: gff3SeqHandlerClassName,
+                parserThreads: parserThreads,
                 licence: licence) {
             fileset(dir: BioSourceProperties.getUserProperty(source, "src.data.dir"),
                     includes: includes)
@@ -227,9 +227,14 @@ class WebAppPlugin implements Plugin<Project> {
                         pathelement(path: project.configurations.getByName("compile").asPath)
                     }
                 }
-                ant.precomputeTemplates(alias: config.objectStoreName,
+                def precomputeOptions = [alias: config.objectStoreName,
                         userProfileAlias: config.userProfileObjectStoreWriterName, minRows:0,
-                        username: superUser)
+                        username: superUser]
+                // -PprecomputeDiskBudget=<megabytes> precomputes the logged workload instead
+                if (project.hasProperty("precomputeDiskBudget")) {
+                    precomputeOptions.diskBudget = project.property("precomputeDiskBudget")
+                }
+                ant.precomputeTemplates(precomputeOptions)
             }
         }
     }